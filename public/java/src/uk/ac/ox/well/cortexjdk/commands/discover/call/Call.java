@@ -15,6 +15,7 @@ import htsjdk.variant.variantcontext.writer.Options;
 import htsjdk.variant.variantcontext.writer.VariantContextWriter;
 import htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder;
 import htsjdk.variant.vcf.VCFHeader;
+import htsjdk.variant.vcf.VCFHeaderLine;
 import org.apache.commons.lang3.tuple.Triple;
 import org.apache.commons.math3.util.Pair;
 import org.jetbrains.annotations.NotNull;
@@ -23,12 +24,15 @@ import org.jgrapht.alg.ConnectivityInspector;
 import org.jgrapht.graph.DirectedWeightedPseudograph;
 import uk.ac.ox.well.cortexjdk.commands.Module;
 import uk.ac.ox.well.cortexjdk.utils.alignment.mosaic.Tesserae;
+import uk.ac.ox.well.cortexjdk.utils.alignment.pairwise.BwaAligner;
 import uk.ac.ox.well.cortexjdk.utils.alignment.reference.IndexedReference;
 import uk.ac.ox.well.cortexjdk.utils.alignment.sw.SmithWaterman;
 import uk.ac.ox.well.cortexjdk.utils.arguments.Argument;
 import uk.ac.ox.well.cortexjdk.utils.arguments.Description;
 import uk.ac.ox.well.cortexjdk.utils.arguments.Output;
 import uk.ac.ox.well.cortexjdk.utils.containers.ContainerUtils;
+import uk.ac.ox.well.cortexjdk.utils.exceptions.CortexJDKException;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.ConnectivityAnnotations;
 import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexGraph;
 import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexRecord;
 import uk.ac.ox.well.cortexjdk.utils.io.graph.links.CortexLinks;
@@ -41,6 +45,7 @@ import uk.ac.ox.well.cortexjdk.utils.traversal.*;
 import java.io.File;
 import java.io.PrintStream;
 import java.util.*;
+import java.util.function.Supplier;
 
 import static htsjdk.variant.variantcontext.writer.VariantContextWriterBuilder.OutputType.VCF;
 import static uk.ac.ox.well.cortexjdk.utils.traversal.TraversalEngineConfiguration.GraphCombinationOperator.OR;
@@ -63,7 +68,7 @@ public class Call extends Module {
     public LinkedHashSet<String> BACKGROUNDS;
 
     @Argument(fullName="references", shortName="R", doc="Reference(s)", required=false)
-    public HashMap<String, IndexedReference> REFERENCES;
+    public HashMap<String, IndexedReference> REFERENCES = new HashMap<>();
 
     @Argument(fullName = "links", shortName = "l", doc = "Links", required=false)
     public ArrayList<CortexLinks> LINKS;
@@ -92,12 +97,51 @@ public class Call extends Module {
     @Argument(fullName="disableInversions", shortName="noinv", doc="Disable inversion caller (much faster)")
     public Boolean DISABLE_INVERSION_CALLER = false;
 
+    @Argument(fullName="threads", shortName="t", doc="Number of threads")
+    public Integer NUM_THREADS = 1;
+
     @Output
     public File out;
 
+    @Argument(fullName="slowSeedThreshold", shortName="slow", doc="Log traversals that take longer than this many milliseconds", required=false)
+    public Long SLOW_SEED_MS = 10000L;
+
+    @Argument(fullName="maxSeedTime", shortName="mst", doc="Truncate traversals that take longer than this many milliseconds, and discard their results (0 for no limit)", required=false)
+    public Long MAX_SEED_MS = 0L;
+
+    @Argument(fullName="maxSeedVertices", shortName="msv", doc="Truncate traversals that walk more than this many kmers, and discard their results (0 for no limit)", required=false)
+    public Long MAX_SEED_VERTICES = 0L;
+
+    @Argument(fullName="maxSeedBranches", shortName="msb", doc="Truncate traversals that explore more than this many branches, and discard their results (0 for no limit)", required=false)
+    public Long MAX_SEED_BRANCHES = 0L;
+
+    @Argument(fullName="maxSeedBytes", shortName="msm", doc="Truncate traversals estimated to hold more than this many bytes, and discard their results (0 for no limit)", required=false)
+    public Long MAX_SEED_BYTES = 0L;
+
     @Output(fullName="accountingOut", shortName="ao", doc="Accounting out")
     public PrintStream aout;
 
+    @Output(fullName="metricsOut", shortName="mo", doc="Per-seed and per-partition traversal metrics out")
+    public File metricsOut;
+
+    @Argument(fullName="cache", shortName="c", doc="Partition cache (from Partition, or an earlier run of Call) to reuse", required=false)
+    public File CACHE;
+
+    @Argument(fullName="cacheOut", shortName="co", doc="Write the partition cache, with the haplotypes assembled in this run, to this file", required=false)
+    public File CACHE_OUT;
+
+    @Argument(fullName="checkpoint", shortName="ck", doc="Checkpoint directory: finished partitions' calls are logged here, and a run restarted with the same directory resumes from the first unfinished partition", required=false)
+    public File CHECKPOINT;
+
+    @Argument(fullName="shard", shortName="sh", doc="Call only shard i of N (given as i/N, counting from 0): a run of partitions of about 1/N of their total length.  Merge the shards' calls with MergeCalls.", required=false)
+    public String SHARD;
+
+    private TraversalBudget budget = TraversalBudget.UNLIMITED;
+
+    // Each worker aligns with its own handles on the BWA indices, all of which are closed once the workers finish
+    private final ThreadLocal<Map<String, BwaAligner>> aligners = ThreadLocal.withInitial(HashMap::new);
+    private final List<BwaAligner> openedAligners = Collections.synchronizedList(new ArrayList<>());
+
     @Override
     public void execute() {
         log.info("Loading ROIs...");
@@ -112,150 +156,246 @@ public class Call extends Module {
         List<ReferenceSequence> rseqs = loadPartitions();
         log.info("  {} partitions", rseqs.size());
 
+        // The dictionary is built from all the partitions, so that every shard writes the same header
         SAMSequenceDictionary sd = buildMergedSequenceDictionary(rseqs);
         Set<VariantContext> svcs = buildVariantSorter(sd);
+
+        Pair<Integer, Integer> shard = SHARD == null ? Pair.create(0, rseqs.size()) : getShard(rseqs, SHARD);
+        if (SHARD != null) {
+            log.info("Shard {}: partitions {}-{}", SHARD, shard.getFirst(), shard.getSecond() - 1);
+        }
+
+        CallCheckpoint checkpoint = CHECKPOINT == null ? null : new CallCheckpoint(CHECKPOINT, GRAPH, sd, SHARD, PARTITION_NAMES);
+        if (checkpoint != null && checkpoint.getCompleted().size() > 0) {
+            log.info("Resuming from checkpoint {} ({} partitions complete, {} calls)", CHECKPOINT.getAbsolutePath(), checkpoint.getCompleted().size(), checkpoint.size());
+        }
+
         VariantContextWriter vcw = buildVariantWriter(sd);
 
-        Tesserae ma = new Tesserae(DEL, EPS, RHO, TERM);
+        TraversalReport report = new TraversalReport(metricsOut, SLOW_SEED_MS);
+        budget = new TraversalBudget(MAX_SEED_MS, MAX_SEED_VERTICES, MAX_SEED_BRANCHES, MAX_SEED_BYTES);
+
+        PartitionCache cache = CACHE == null ? new PartitionCache(GRAPH, LINKS, budget) : new PartitionCache(CACHE, GRAPH, LINKS, budget);
+        if (cache.isStale()) {
+            log.info("Cache {} was built with other links or traversal limits, and will be rebuilt", CACHE.getAbsolutePath());
+        } else if (CACHE != null) {
+            log.info("Loaded {} cache entries from {}", cache.size(), CACHE.getAbsolutePath());
+        }
+
+        TraversalEngineConfiguration ec = new TraversalEngineFactory()
+                .traversalColors(GRAPH.getColorForSampleName(ROIS.getSampleName(0)))
+                .stoppingRule(ContigStopper.class)
+                .graph(GRAPH)
+                .links(LINKS)
+                .make()
+                .getConfiguration();
 
-        for (int rseqIndex = 0; rseqIndex < rseqs.size(); rseqIndex++) {
-            ReferenceSequence rseq = rseqs.get(rseqIndex);
-            String seq = rseq.getBaseString();
+        TraversalExecutor te = new TraversalExecutor(ec, NUM_THREADS);
 
-            List<CortexVertex> w = loadChildWalk(rseq, GRAPH);
-            List<Triple<Integer, Integer, List<CortexVertex>>> sections = sectionContig(rois, w, WINDOW, SPLIT_DISTANCE);
+        // Partitions are called independently, each worker traversing its own handles on the graph and links, and
+        // their calls are merged in partition order, so the output does not depend on the number of threads.
+        // With a checkpoint, each partition's calls are logged (rather than kept in memory) as soon as it finishes.
+        List<Integer> rseqIndices = new ArrayList<>();
+        for (int rseqIndex = shard.getFirst(); rseqIndex < shard.getSecond(); rseqIndex++) {
+            if (checkpoint == null || !checkpoint.isComplete(rseqs.get(rseqIndex).getName().split(" ")[0])) {
+                rseqIndices.add(rseqIndex);
+            }
+        }
 
-            Set<VariantContextBuilder> vcs = buildVariantContextBuilderSorter(sd);
+        Iterator<List<VariantContext>> calls = te.ordered(rseqIndices.iterator(), (e, rseqIndex) -> callPartition(e.getConfiguration(), rseqs, rseqIndex, rois, sd, report, cache));
+        for (int i = 0; calls.hasNext(); i++) {
+            List<VariantContext> pcalls = calls.next();
 
-            if (sections == null) {
-                log.info("Partition {}/{} (sections={}, fullname={}) [skipped]", rseqIndex, rseqs.size() - 1, 0, rseq.getName());
+            if (checkpoint != null) {
+                checkpoint.commit(rseqs.get(rseqIndices.get(i)).getName().split(" ")[0], pcalls);
             } else {
-                log.info("Partition {}/{} (sections={}, fullname={})", rseqIndex, rseqs.size() - 1, sections.size(), rseq.getName());
+                svcs.addAll(pcalls);
+            }
+        }
 
-                for (int sectionIndex = 0; sectionIndex < sections.size(); sectionIndex++) {
-                    log.debug("  section {}/{}", sectionIndex + 1, sections.size());
+        te.close();
+        closeAligners();
 
-                    Triple<Integer, Integer, List<CortexVertex>> section = sections.get(sectionIndex);
+        writeVariants(rois, checkpoint != null ? checkpoint : svcs, vcw);
 
-                    List<CortexVertex> ws = section.getRight();
+        if (checkpoint != null) {
+            checkpoint.close();
+        }
 
-                    Map<String, String> targets = new HashMap<>();
-                    for (String parentName : BACKGROUNDS) {
-                        Map<String, String> parentalTargets = fasterAssembleCandidateHaplotypes(ws, Sets.newHashSet(parentName));
+        if (CACHE_OUT != null) {
+            cache.write(CACHE_OUT);
+            log.info("Wrote {} cache entries to {}", cache.size(), CACHE_OUT.getAbsolutePath());
+        }
+    }
 
-                        targets.putAll(parentalTargets);
-                    }
+    /**
+     * Call the variants in one partition.  Partitions are independent of one another, so this may run on any worker
+     * thread; wc carries the worker's own handles on the graph and links.
+     *
+     * @return  the partition's calls that pass filters, with coordinates assigned
+     */
+    private List<VariantContext> callPartition(TraversalEngineConfiguration wc, List<ReferenceSequence> rseqs, int rseqIndex, Set<CanonicalKmer> rois, SAMSequenceDictionary sd, TraversalReport report, PartitionCache cache) {
+        ReferenceSequence rseq = rseqs.get(rseqIndex);
+        String seq = rseq.getBaseString();
 
-                    if (targets.size() > 0) {
-                        Triple<Integer, Integer, String> trimmedQuery = trimQuery(ws, targets, rois);
+        Tesserae ma = new Tesserae(DEL, EPS, RHO, TERM);
 
-                        Map<String, String> labelledTargets = new HashMap<>();
-                        int targetNum = 0;
-                        for (String c : targets.keySet()) {
-                            String[] p = c.split(":");
-                            if (REFERENCES.containsKey(p[0])) {
-                                List<SAMRecord> ss = sortAlignments(p[0], targets.get(c));
-                                if (ss.size() > 0) {
-                                    SAMRecord s = ss.get(0);
+        List<CortexVertex> w = loadChildWalk(rseq, (CortexGraph) wc.getGraph(), cache.get(rseq.getName().split(" ")[0]));
+        List<Triple<Integer, Integer, List<CortexVertex>>> sections = sectionContig(rois, w, WINDOW, SPLIT_DISTANCE);
 
-                                    String l = p[0] + ":" + s.getContig() + ":" + s.getStart() + "-" + s.getEnd() + ":" + (s.getReadNegativeStrandFlag() ? "-" : "+");
+        Set<VariantContextBuilder> vcs = buildVariantContextBuilderSorter(sd);
 
-                                    labelledTargets.put(l, targets.get(c));
-                                } else {
-                                    String l = p[0] + ":unknown" + targetNum;
-                                    targetNum++;
+        if (sections == null) {
+            log.info("Partition {}/{} (sections={}, fullname={}) [skipped]", rseqIndex, rseqs.size() - 1, 0, rseq.getName());
+        } else {
+            log.info("Partition {}/{} (sections={}, fullname={})", rseqIndex, rseqs.size() - 1, sections.size(), rseq.getName());
 
-                                    labelledTargets.put(l, targets.get(c));
-                                }
-                            }
-                        }
+            for (int sectionIndex = 0; sectionIndex < sections.size(); sectionIndex++) {
+                log.debug("  section {}/{}", sectionIndex + 1, sections.size());
 
-                        for (String key : labelledTargets.keySet()) {
-                            log.debug("  {}: {}", key, labelledTargets.get(key));
-                        }
+                Triple<Integer, Integer, List<CortexVertex>> section = sections.get(sectionIndex);
+
+                List<CortexVertex> ws = section.getRight();
 
-                        List<Triple<String, String, Pair<Integer, Integer>>> lps = ma.align(trimmedQuery.getRight(), labelledTargets);
+                Map<String, String> targets = new HashMap<>();
+                for (String parentName : BACKGROUNDS) {
+                    Map<String, String> parentalTargets = fasterAssembleCandidateHaplotypes(wc, ws, Sets.newHashSet(parentName), report.scope(rseq.getName(), sectionIndex, parentName), cache, rseq.getName().split(" ")[0] + "/" + parentName + "/" + section.getLeft() + "-" + section.getMiddle());
+
+                    targets.putAll(parentalTargets);
+                }
 
-                        log.debug("\n{}\n{}", makeNoveltyTrack(rois, lps, true), ma);
+                if (targets.size() > 0) {
+                    Triple<Integer, Integer, String> trimmedQuery = trimQuery(ws, targets, rois);
 
-                        List<Pair<Integer, Integer>> nrs = getNoveltyRegions(rois, lps, true);
+                    Map<String, String> labelledTargets = new HashMap<>();
+                    int targetNum = 0;
+                    for (String c : targets.keySet()) {
+                        String[] p = c.split(":");
+                        if (REFERENCES.containsKey(p[0])) {
+                            List<SAMRecord> ss = sortAlignments(p[0], targets.get(c));
+                            if (ss.size() > 0) {
+                                SAMRecord s = ss.get(0);
 
-                        List<VariantContextBuilder> calls = new ArrayList<>();
-                        calls.addAll(callSmallBubbles(lps, nrs, rseq.getName().split(" ")[0], section.getLeft() + trimmedQuery.getLeft(), section.getMiddle() + trimmedQuery.getLeft()));
-                        calls.addAll(callLargeBubbles(lps, nrs, labelledTargets, rseq.getName().split(" ")[0], section.getLeft() + trimmedQuery.getLeft(), section.getMiddle() + trimmedQuery.getLeft()));
-                        calls.addAll(callRepeats(lps, nrs, labelledTargets, rseq.getName().split(" ")[0], section.getLeft() + trimmedQuery.getLeft(), section.getMiddle() + trimmedQuery.getLeft()));
-                        calls.addAll(callBreakpoints(lps, nrs, rseq.getName().split(" ")[0], section.getLeft() + trimmedQuery.getLeft(), section.getMiddle() + trimmedQuery.getLeft()));
+                                String l = p[0] + ":" + s.getContig() + ":" + s.getStart() + "-" + s.getEnd() + ":" + (s.getReadNegativeStrandFlag() ? "-" : "+");
 
-                        List<VariantContextBuilder> merged = mergeBubbles(lps, calls);
+                                labelledTargets.put(l, targets.get(c));
+                            } else {
+                                String l = p[0] + ":unknown" + targetNum;
+                                targetNum++;
 
-                        Set<CanonicalKmer> sectionRois = new TreeSet<>();
-                        for (int i = 0; i <= trimmedQuery.getRight().length() - GRAPH.getKmerSize(); i++) {
-                            CanonicalKmer ck = new CanonicalKmer(trimmedQuery.getRight().substring(i, i + GRAPH.getKmerSize()));
-                            if (rois.contains(ck)) {
-                                sectionRois.add(ck);
+                                labelledTargets.put(l, targets.get(c));
                             }
                         }
+                    }
 
-                        Set<VariantContextBuilder> toRemove = new HashSet<>();
-                        for (VariantContextBuilder vcb : merged) {
-                            vcb.attribute("targets", targets);
-                            vcb.attribute("lps", lps);
-                            vcb.attribute("sectionIndex", sectionIndex);
-                            vcb.attribute("novels", Joiner.on(",").join(sectionRois));
+                    for (String key : labelledTargets.keySet()) {
+                        log.debug("  {}: {}", key, labelledTargets.get(key));
+                    }
 
-                            //log.debug("{} {}", vcb.getAlleles(), vcb);
+                    List<Triple<String, String, Pair<Integer, Integer>>> lps = ma.align(trimmedQuery.getRight(), labelledTargets);
 
-                            if (vcb.getAlleles().get(0).getBaseString().equals(vcb.getAlleles().get(1).getBaseString())) {
-                                toRemove.add(vcb);
-                            }
-                        }
+                    log.debug("\n{}\n{}", makeNoveltyTrack(rois, lps, true), ma);
 
-                        if (toRemove.size() > 0) {
-                            //log.debug("{} {}", toRemove.size(), merged.size());
-                            merged.removeAll(toRemove);
-                            //log.debug("{} {}", toRemove.size(), merged.size());
-                        }
+                    List<Pair<Integer, Integer>> nrs = getNoveltyRegions(rois, lps, true);
 
-                        vcs.addAll(merged);
-                    }
-                }
-            }
+                    List<VariantContextBuilder> calls = new ArrayList<>();
+                    calls.addAll(callSmallBubbles(lps, nrs, rseq.getName().split(" ")[0], section.getLeft() + trimmedQuery.getLeft(), section.getMiddle() + trimmedQuery.getLeft()));
+                    calls.addAll(callLargeBubbles(lps, nrs, labelledTargets, rseq.getName().split(" ")[0], section.getLeft() + trimmedQuery.getLeft(), section.getMiddle() + trimmedQuery.getLeft()));
+                    calls.addAll(callRepeats(lps, nrs, labelledTargets, rseq.getName().split(" ")[0], section.getLeft() + trimmedQuery.getLeft(), section.getMiddle() + trimmedQuery.getLeft()));
+                    calls.addAll(callBreakpoints(lps, nrs, rseq.getName().split(" ")[0], section.getLeft() + trimmedQuery.getLeft(), section.getMiddle() + trimmedQuery.getLeft()));
 
-            //vcs = filterBreakpoints(vcs);
-            //vcs = mergeBreakpoints(seq, vcs, rois);
-            vcs = mergeDoubleBreakpoints(seq, vcs);
-            //vcs = mergeSingleBreakpoints(seq, vcs);
+                    List<VariantContextBuilder> merged = mergeBubbles(lps, calls);
+
+                    Set<CanonicalKmer> sectionRois = new TreeSet<>();
+                    for (int i = 0; i <= trimmedQuery.getRight().length() - GRAPH.getKmerSize(); i++) {
+                        CanonicalKmer ck = new CanonicalKmer(trimmedQuery.getRight().substring(i, i + GRAPH.getKmerSize()));
+                        if (rois.contains(ck)) {
+                            sectionRois.add(ck);
+                        }
+                    }
 
-            vcs = assignCoordinates(vcs);
+                    Set<VariantContextBuilder> toRemove = new HashSet<>();
+                    for (VariantContextBuilder vcb : merged) {
+                        vcb.attribute("targets", targets);
+                        vcb.attribute("lps", lps);
+                        vcb.attribute("sectionIndex", sectionIndex);
+                        vcb.attribute("novels", Joiner.on(",").join(sectionRois));
 
-            for (VariantContextBuilder vcb : vcs) {
-                vcb.rmAttributes(Arrays.asList(
-                        "targets", "lps"
-                        //"nextBase", "nextChrom", "nextStart", "nextStop", "nextStrand",
-                        //"prevBase", "prevChrom", "prevStart", "prevStop", "prevStrand",
-                        //"targetName", "targetStart", "targetStop",
-                        //"start", "stop",
-                        //"sectionStart", "sectionStop",
-                        //"variantStart", "variantStop"
-                ));
+                        //log.debug("{} {}", vcb.getAlleles(), vcb);
 
-                VariantContext vc = vcb.make();
+                        if (vcb.getAlleles().get(0).getBaseString().equals(vcb.getAlleles().get(1).getBaseString())) {
+                            toRemove.add(vcb);
+                        }
+                    }
 
-                if (!vc.isFiltered()) {
-                    String back = vc.getAttributeAsString("BACKGROUND", "unknown");
-                    int start = vc.getStart();
-                    int end = vc.isSymbolic() ? start : vc.getEnd();
-                    String refAllele = REFERENCES.containsKey(back) && REFERENCES.get(back).getReferenceSequence().getSequenceDictionary().getSequence(vc.getContig()) != null ? REFERENCES.get(back).getReferenceSequence().getSubsequenceAt(vc.getContig(), start, end).getBaseString() : "?";
-                    log.debug("{} {} {} {}", vc.getReference(), refAllele, vc.getFilters(), new VariantContextBuilder(vc).rmAttribute("novels").make());
+                    if (toRemove.size() > 0) {
+                        //log.debug("{} {}", toRemove.size(), merged.size());
+                        merged.removeAll(toRemove);
+                        //log.debug("{} {}", toRemove.size(), merged.size());
+                    }
 
-                    svcs.add(vc);
+                    vcs.addAll(merged);
                 }
             }
+        }
+
+        if (sections != null) {
+            TraversalMetrics pm = report.finishPartition(rseq.getName());
+            log.info("  traversals: {} seeds, {} ms (lookup {} ms, links {} ms, stopping {} ms, merge {} ms), {} record lookups, {} branches",
+                    pm.getNumSeeds(),
+                    pm.getTotalNanos() / 1000000,
+                    pm.getStageNanos(TraversalMetrics.Stage.LOOKUP) / 1000000,
+                    pm.getStageNanos(TraversalMetrics.Stage.LINKS) / 1000000,
+                    pm.getStageNanos(TraversalMetrics.Stage.STOPPING) / 1000000,
+                    pm.getStageNanos(TraversalMetrics.Stage.MERGE) / 1000000,
+                    pm.getNumFindRecordCalls(),
+                    pm.getNumBranches()
+            );
+        }
+
+        //vcs = filterBreakpoints(vcs);
+        //vcs = mergeBreakpoints(seq, vcs, rois);
+        vcs = mergeDoubleBreakpoints(seq, vcs);
+        //vcs = mergeSingleBreakpoints(seq, vcs);
+
+        vcs = assignCoordinates(vcs);
+
+        List<VariantContext> calls = new ArrayList<>();
+        for (VariantContextBuilder vcb : vcs) {
+            vcb.rmAttributes(Arrays.asList(
+                    "targets", "lps"
+                    //"nextBase", "nextChrom", "nextStart", "nextStop", "nextStrand",
+                    //"prevBase", "prevChrom", "prevStart", "prevStop", "prevStrand",
+                    //"targetName", "targetStart", "targetStop",
+                    //"start", "stop",
+                    //"sectionStart", "sectionStop",
+                    //"variantStart", "variantStop"
+            ));
+
+            VariantContext vc = vcb.make();
+
+            if (!vc.isFiltered()) {
+                String back = vc.getAttributeAsString("BACKGROUND", "unknown");
+                int start = vc.getStart();
+                int end = vc.isSymbolic() ? start : vc.getEnd();
+                String refAllele = "?";
+                if (REFERENCES.containsKey(back)) {
+                    IndexedReference ir = REFERENCES.get(back);
+                    synchronized (ir) {
+                        if (ir.getReferenceSequence().getSequenceDictionary().getSequence(vc.getContig()) != null) {
+                            refAllele = ir.getReferenceSequence().getSubsequenceAt(vc.getContig(), start, end).getBaseString();
+                        }
+                    }
+                }
+                log.debug("{} {} {} {}", vc.getReference(), refAllele, vc.getFilters(), new VariantContextBuilder(vc).rmAttribute("novels").make());
 
-            log.debug("");
+                calls.add(vc);
+            }
         }
 
-        writeVariants(rois, svcs, vcw);
+        log.debug("");
+
+        return calls;
     }
 
     @NotNull
@@ -786,7 +926,11 @@ public class Call extends Module {
                     int vStart = vc0.getAttributeAsInt("variantStart", 0) < vc1.getAttributeAsInt("variantStart", 0) ? vc0.getAttributeAsInt("variantStart", 0) : vc1.getAttributeAsInt("variantStart", 0);
                     int vEnd = vc0.getAttributeAsInt("variantStop", 0) > vc1.getAttributeAsInt("variantStop", 0) ? vc0.getAttributeAsInt("variantStop", 0) : vc1.getAttributeAsInt("variantStop", 0);
 
-                    String parentalContig = REFERENCES.get(back).getReferenceSequence().getSubsequenceAt(vc0.getContig(), pStart, pEnd).getBaseString();
+                    IndexedReference ir = REFERENCES.get(back);
+                    String parentalContig;
+                    synchronized (ir) {
+                        parentalContig = ir.getReferenceSequence().getSubsequenceAt(vc0.getContig(), pStart, pEnd).getBaseString();
+                    }
                     String childContig = seq.substring(vStart, vEnd);
 
                     if (vc0.getAttributeAsBoolean("flipped", false)) {
@@ -957,7 +1101,11 @@ public class Call extends Module {
                         int left = Math.min(s1.getEnd() + 1, s0.getStart() - 1) + 1;
                         int right = Math.max(s1.getEnd() + 1, s0.getStart() - 1) + 1;
 
-                        String parentalContig = REFERENCES.get(back0).getReferenceSequence().getSubsequenceAt(contig, left, right).getBaseString();
+                        IndexedReference ir = REFERENCES.get(back0);
+                        String parentalContig;
+                        synchronized (ir) {
+                            parentalContig = ir.getReferenceSequence().getSubsequenceAt(contig, left, right).getBaseString();
+                        }
 
                         parentContig = s0.getReadNegativeStrandFlag() ? SequenceUtils.reverseComplement(parentalContig) : parentalContig;
                     }
@@ -1789,7 +1937,7 @@ public class Call extends Module {
     }
 
 
-    private void writeVariants(Set<CanonicalKmer> rois, Set<VariantContext> svcs, VariantContextWriter vcw) {
+    private void writeVariants(Set<CanonicalKmer> rois, Iterable<VariantContext> svcs, VariantContextWriter vcw) {
         Map<CanonicalKmer, String> acct = new TreeMap<>();
         for (CanonicalKmer ck : rois) {
             acct.put(ck, "absent");
@@ -1799,11 +1947,14 @@ public class Call extends Module {
         for (VariantContext vc : svcs) {
             String id = String.format("CC%d", variantId);
 
-            vcw.add(new VariantContextBuilder(vc)
-                .rmAttribute("novels")
-                .attribute("CALL_ID", variantId)
-                .make()
-            );
+            VariantContextBuilder vcb = new VariantContextBuilder(vc).attribute("CALL_ID", variantId);
+
+            // A shard's calls keep their novel kmers, so that MergeCalls can redo the accounting
+            if (SHARD == null) {
+                vcb.rmAttribute("novels");
+            }
+
+            vcw.add(vcb.make());
 
             for (String sk : vc.getAttributeAsString("novels", "").split(",")) {
                 if (sk.length() > 0) {
@@ -1837,6 +1988,9 @@ public class Call extends Module {
 
         VCFHeader vcfHeader = new VCFHeader();
         vcfHeader.setSequenceDictionary(ssd);
+        if (SHARD != null) {
+            vcfHeader.addMetaDataLine(new VCFHeaderLine(MergeCalls.SHARD_KEY, SHARD));
+        }
         vcw.writeHeader(vcfHeader);
         return vcw;
     }
@@ -1884,6 +2038,55 @@ public class Call extends Module {
         });
     }
 
+    /**
+     * Find the partitions in a shard.  Partitions are split into N runs of about the same total length, taken from
+     * the "len=" field in the partition names where there is one, and from the sequence otherwise.
+     *
+     * @param shard  the shard, as "i/N" with 0 <= i < N
+     * @return       the index of the shard's first partition, and one past its last
+     */
+    static Pair<Integer, Integer> getShard(List<ReferenceSequence> rseqs, String shard) {
+        String[] fields = shard.split("/");
+        int index, numShards;
+        try {
+            index = Integer.valueOf(fields[0]);
+            numShards = fields.length == 2 ? Integer.valueOf(fields[1]) : 0;
+        } catch (NumberFormatException e) {
+            throw new CortexJDKException("Shard must be given as i/N (was '" + shard + "')");
+        }
+
+        if (numShards < 1 || index < 0 || index >= numShards) {
+            throw new CortexJDKException("Shard must be given as i/N, with 0 <= i < N (was '" + shard + "')");
+        }
+
+        long[] lengths = new long[rseqs.size()];
+        long totalLength = 0;
+        for (int i = 0; i < rseqs.size(); i++) {
+            lengths[i] = rseqs.get(i).length();
+            for (String field : rseqs.get(i).getName().split(" ")) {
+                if (field.startsWith("len=")) {
+                    lengths[i] = Long.valueOf(field.substring(4));
+                }
+            }
+
+            totalLength += lengths[i];
+        }
+
+        // Each partition goes to the shard its midpoint falls in, so shards are contiguous and cover everything
+        int first = rseqs.size(), last = rseqs.size();
+        long cumulativeLength = 0;
+        for (int i = 0; i < rseqs.size(); i++) {
+            int s = totalLength == 0 ? 0 : (int) Math.min(numShards - 1, (numShards * (2*cumulativeLength + lengths[i])) / (2*totalLength));
+
+            if (s >= index && first == rseqs.size()) { first = i; }
+            if (s > index) { last = i; break; }
+
+            cumulativeLength += lengths[i];
+        }
+
+        return Pair.create(first, Math.max(first, last));
+    }
+
     @NotNull
     private SAMSequenceDictionary buildMergedSequenceDictionary(List<ReferenceSequence> rseqs) {
         List<SAMSequenceRecord> ssrs = new ArrayList<>();
@@ -1922,8 +2125,14 @@ public class Call extends Module {
             return new ArrayList<>();
         }
 
-        List<SAMRecord> a = REFERENCES.get(background).align(target);
+        return sortAlignments(getAligner(background).align(target));
+    }
 
+    /**
+     * Order alignments longest first, then by fewest mismatches and highest mapping quality.  Remaining ties are
+     * broken by position, so the order does not depend on the order in which the aligner reported them.
+     */
+    static List<SAMRecord> sortAlignments(List<SAMRecord> a) {
         a.sort((s1, s2) -> {
             int s1length = s1.getAlignmentEnd() - s1.getAlignmentStart();
             int nm1 = s1.getIntegerAttribute("NM");
@@ -1931,18 +2140,40 @@ public class Call extends Module {
 
             int s2length = s2.getAlignmentEnd() - s2.getAlignmentStart();
             int nm2 = s2.getIntegerAttribute("NM");
-            int mq2 = s1.getMappingQuality();
+            int mq2 = s2.getMappingQuality();
 
             if (s1length != s2length) { return s1length > s2length ? -1 : 1; }
             if (nm1 != nm2) { return nm1 < nm2 ? -1 : 1; }
             if (mq1 != mq2) { return mq1 > mq2 ? -1 : 1; }
 
-            return 0;
+            if (!s1.getReferenceName().equals(s2.getReferenceName())) { return s1.getReferenceName().compareTo(s2.getReferenceName()); }
+            if (s1.getAlignmentStart() != s2.getAlignmentStart()) { return s1.getAlignmentStart() < s2.getAlignmentStart() ? -1 : 1; }
+            if (s1.getReadNegativeStrandFlag() != s2.getReadNegativeStrandFlag()) { return s1.getReadNegativeStrandFlag() ? 1 : -1; }
+
+            return s1.getCigarString().compareTo(s2.getCigarString());
         });
 
         return a;
     }
 
+    private BwaAligner getAligner(String background) {
+        return aligners.get().computeIfAbsent(background, b -> {
+            BwaAligner ba = REFERENCES.get(b).getAligner().share();
+            openedAligners.add(ba);
+
+            return ba;
+        });
+    }
+
+    private void closeAligners() {
+        synchronized (openedAligners) {
+            openedAligners.forEach(BwaAligner::close);
+            openedAligners.clear();
+        }
+
+        aligners.remove();
+    }
+
     private Triple<Integer, Integer, String> trimQuery(List<CortexVertex> ws, Map<String, String> targets, Set<CanonicalKmer> rois) {
         int firstIndex = Integer.MAX_VALUE, lastIndex = 0;
         int firstNovel = -1, lastNovel = -1;
@@ -2123,45 +2354,24 @@ public class Call extends Module {
         return regions;
     }
 
-    private Map<String, String> fasterAssembleCandidateHaplotypes(List<CortexVertex> ws, Set<String> parentName) {
+    private Map<String, String> fasterAssembleCandidateHaplotypes(TraversalEngineConfiguration wc, List<CortexVertex> ws, Set<String> parentName, TraversalReport.Scope scope, PartitionCache cache, String cacheKey) {
         List<Integer> colors = GRAPH.getColorsForSampleNames(parentName);
 
-        DirectedWeightedPseudograph<CortexVertex, CortexEdge> g = new DirectedWeightedPseudograph<>(CortexEdge.class);
-
-        TraversalEngine e = new TraversalEngineFactory()
-                .traversalColors(colors)
-                .traversalDirection(BOTH)
-                .combinationOperator(OR)
-                .stoppingRule(ContigStopper.class)
-                .maxBranchLength(ws.size())
-                .graph(GRAPH)
-                .links(LINKS)
-                .make();
-
+        DirectedWeightedPseudograph<CortexVertex, CortexEdge> g;
         Set<String> contigs = new HashSet<>();
 
-        for (int i = 0; i < ws.size(); i++) {
-            boolean hasCoverage = false;
-            for (int c : colors) {
-                hasCoverage |= ws.get(i).getCortexRecord().getCoverage(c) > 0;
-            }
+        PartitionCache.Entry cached = cache.get(cacheKey);
+        if (cached != null) {
+            g = cached.getGraph();
+            contigs.addAll(cached.getContigs());
+        } else {
+            g = assembleCandidateGraph(wc, ws, colors, contigs, scope);
 
-            if (hasCoverage && TraversalUtils.findVertex(g, ws.get(i).getKmerAsString()) == null) {
-                DirectedWeightedPseudograph<CortexVertex, CortexEdge> gs = e.dfs(ws.get(i).getKmerAsString());
-
-                if (gs != null && gs.vertexSet().size() > 0) {
-                    contigs.add(TraversalUtils.toContig(TraversalUtils.toWalk(gs, ws.get(i).getKmerAsString(), gs.edgeSet().iterator().next().getColor())));
-
-                    Graphs.addGraph(g, gs);
-                }
+            if (CACHE_OUT != null) {
+                cache.put(cacheKey, new PartitionCache.Entry(g, null, contigs));
             }
         }
 
-        Set<CortexVertex> inEnds = getCloseableGraphEnds(colors, g, false);
-        Set<CortexVertex> outEnds = getCloseableGraphEnds(colors, g, true);
-        closeGaps(colors, g, inEnds, outEnds);
-        extendFlanks(colors, g, inEnds, outEnds);
-
         Map<String, String> targets = new HashMap<>();
         if (g.edgeSet().size() > 0) {
             int repColor = g.edgeSet().iterator().next().getColor();
@@ -2229,14 +2439,84 @@ public class Call extends Module {
         return targets;
     }
 
-    private void closeGaps(List<Integer> colors, DirectedWeightedPseudograph<CortexVertex, CortexEdge> g, Set<CortexVertex> inEnds, Set<CortexVertex> outEnds) {
+    /**
+     * Assemble the background haplotypes around a section of the child's walk: contigs seeded from each kmer the
+     * background shares with the child (added to contigs), with gaps between them closed and their ends extended.
+     */
+    private DirectedWeightedPseudograph<CortexVertex, CortexEdge> assembleCandidateGraph(TraversalEngineConfiguration wc, List<CortexVertex> ws, List<Integer> colors, Set<String> contigs, TraversalReport.Scope scope) {
+        DirectedWeightedPseudograph<CortexVertex, CortexEdge> g = new KmerIndexedGraph();
+
+        TraversalEngine e = new TraversalEngineFactory()
+                .traversalColors(colors)
+                .traversalDirection(BOTH)
+                .combinationOperator(OR)
+                .stoppingRule(ContigStopper.class)
+                .maxBranchLength(ws.size())
+                .budget(budget)
+                .graph(wc.getGraph())
+                .links(links(wc))
+                .make();
+
+        for (int i = 0; i < ws.size(); i++) {
+            boolean hasCoverage = false;
+            for (int c : colors) {
+                hasCoverage |= ws.get(i).getCortexRecord().getCoverage(c) > 0;
+            }
+
+            if (hasCoverage && TraversalUtils.findVertex(g, ws.get(i).getKmerAsString()) == null) {
+                String seed = ws.get(i).getKmerAsString();
+                DirectedWeightedPseudograph<CortexVertex, CortexEdge> gs = traverse(scope, e, "contig", seed, () -> e.dfs(seed));
+
+                if (gs != null && gs.vertexSet().size() > 0) {
+                    contigs.add(TraversalUtils.toContig(TraversalUtils.toWalk(gs, ws.get(i).getKmerAsString(), gs.edgeSet().iterator().next().getColor())));
+
+                    Graphs.addGraph(g, gs);
+                }
+            }
+        }
+
+        Set<CortexVertex> inEnds = getCloseableGraphEnds(wc, colors, g, false, scope);
+        Set<CortexVertex> outEnds = getCloseableGraphEnds(wc, colors, g, true, scope);
+        closeGaps(wc, colors, g, inEnds, outEnds, scope);
+        extendFlanks(wc, colors, g, inEnds, outEnds, scope);
+
+        return g;
+    }
+
+    /**
+     * Run a traversal and record it in the report.  A traversal cut short by the budget yields only part of a
+     * subgraph, which could be mistaken for a whole one, so its result is discarded.
+     */
+    private DirectedWeightedPseudograph<CortexVertex, CortexEdge> traverse(TraversalReport.Scope scope, TraversalEngine e, String purpose, String seed, Supplier<DirectedWeightedPseudograph<CortexVertex, CortexEdge>> traversal) {
+        DirectedWeightedPseudograph<CortexVertex, CortexEdge> g = scope.record(e, purpose, seed, traversal);
+
+        return e.getBudgetLimit() == null ? g : null;
+    }
+
+    private static List<CortexLinks> links(TraversalEngineConfiguration wc) {
+        List<CortexLinks> links = new ArrayList<>();
+        for (ConnectivityAnnotations lm : wc.getLinks()) {
+            links.add((CortexLinks) lm);
+        }
+
+        return links;
+    }
+
+    /**
+     * Join pairs of graph ends through the background.  With links loaded, the gaps are walked with a link-aware
+     * dfs; without them, a bidirectional bridge search is used, admitting paths as long as the dfs would.
+     */
+    void closeGaps(TraversalEngineConfiguration wc, List<Integer> colors, DirectedWeightedPseudograph<CortexVertex, CortexEdge> g, Set<CortexVertex> inEnds, Set<CortexVertex> outEnds, TraversalReport.Scope scope) {
+        List<CortexLinks> links = links(wc);
+
         TraversalEngine ef = new TraversalEngineFactory()
                 .traversalColors(colors)
                 .traversalDirection(FORWARD)
                 .combinationOperator(OR)
                 .stoppingRule(DestinationStopper.class)
-                .graph(GRAPH)
-                .links(LINKS)
+                .budget(budget)
+                .graph(wc.getGraph())
+                .links(links)
                 .make();
 
         TraversalEngine er = new TraversalEngineFactory()
@@ -2244,15 +2524,25 @@ public class Call extends Module {
                 .traversalDirection(REVERSE)
                 .combinationOperator(OR)
                 .stoppingRule(DestinationStopper.class)
-                .graph(GRAPH)
-                .links(LINKS)
+                .budget(budget)
+                .graph(wc.getGraph())
+                .links(links)
                 .make();
 
         for (CortexVertex ie : inEnds) {
             for (CortexVertex oe : outEnds) {
-                DirectedWeightedPseudograph<CortexVertex, CortexEdge> gg = ef.dfs(ie.getKmerAsString(), oe.getKmerAsString());
-                if (gg == null || gg.vertexSet().size() == 0) {
-                    gg = er.dfs(oe.getKmerAsString(), ie.getKmerAsString());
+                String source = ie.getKmerAsString();
+                String sink = oe.getKmerAsString();
+                String seed = source + "-" + sink;
+
+                DirectedWeightedPseudograph<CortexVertex, CortexEdge> gg;
+                if (links.isEmpty()) {
+                    gg = traverse(scope, ef, "gap", seed, () -> ef.bridge(source, sink, ef.getConfiguration().getMaxBranchLength()));
+                } else {
+                    gg = traverse(scope, ef, "gap", seed, () -> ef.dfs(source, sink));
+                    if (gg == null || gg.vertexSet().size() == 0) {
+                        gg = traverse(scope, er, "gap", seed, () -> er.dfs(sink, source));
+                    }
                 }
 
                 if (gg != null && gg.vertexSet().size() > 0) {
@@ -2262,20 +2552,21 @@ public class Call extends Module {
         }
     }
 
-    private void extendFlanks(List<Integer> colors, DirectedWeightedPseudograph<CortexVertex, CortexEdge> g, Set<CortexVertex> inEnds, Set<CortexVertex> outEnds) {
+    private void extendFlanks(TraversalEngineConfiguration wc, List<Integer> colors, DirectedWeightedPseudograph<CortexVertex, CortexEdge> g, Set<CortexVertex> inEnds, Set<CortexVertex> outEnds, TraversalReport.Scope scope) {
         TraversalEngine eb = new TraversalEngineFactory()
                 .traversalColors(colors)
                 .traversalDirection(BOTH)
                 .combinationOperator(OR)
                 .stoppingRule(ContigStopper.class)
                 .maxBranchLength(500)
-                .graph(GRAPH)
-                .links(LINKS)
+                .budget(budget)
+                .graph(wc.getGraph())
+                .links(links(wc))
                 .make();
 
         for (Set<CortexVertex> cvs : Arrays.asList(inEnds, outEnds)) {
             for (CortexVertex cv : cvs) {
-                DirectedWeightedPseudograph<CortexVertex, CortexEdge> gg = eb.dfs(cv.getKmerAsString());
+                DirectedWeightedPseudograph<CortexVertex, CortexEdge> gg = traverse(scope, eb, "flank", cv.getKmerAsString(), () -> eb.dfs(cv.getKmerAsString()));
 
                 if (gg != null && gg.vertexSet().size() > 0) {
                     Graphs.addGraph(g, gg);
@@ -2285,7 +2576,7 @@ public class Call extends Module {
     }
 
     @NotNull
-    private Set<CortexVertex> getCloseableGraphEnds(List<Integer> colors, DirectedWeightedPseudograph<CortexVertex, CortexEdge> g, boolean outgoing) {
+    private Set<CortexVertex> getCloseableGraphEnds(TraversalEngineConfiguration wc, List<Integer> colors, DirectedWeightedPseudograph<CortexVertex, CortexEdge> g, boolean outgoing, TraversalReport.Scope scope) {
         Set<CortexVertex> ends = new HashSet<>();
         if (g.edgeSet().size() > 0) {
             for (CortexVertex cv : g.vertexSet()) {
@@ -2307,8 +2598,9 @@ public class Call extends Module {
                 .combinationOperator(OR)
                 .stoppingRule(ContigStopper.class)
                 .maxBranchLength(10)
-                .graph(GRAPH)
-                .links(LINKS)
+                .budget(budget)
+                .graph(wc.getGraph())
+                .links(links(wc))
                 .make();
 
         TraversalEngine er = new TraversalEngineFactory()
@@ -2317,8 +2609,9 @@ public class Call extends Module {
                 .combinationOperator(OR)
                 .stoppingRule(ContigStopper.class)
                 .maxBranchLength(10)
-                .graph(GRAPH)
-                .links(LINKS)
+                .budget(budget)
+                .graph(wc.getGraph())
+                .links(links(wc))
                 .make();
 
         Set<CortexVertex> endsToRemove = new HashSet<>();
@@ -2329,8 +2622,8 @@ public class Call extends Module {
                 if (!e0.equals(e1) && !endsToRemove.contains(e0) && !endsToRemove.contains(e1)) {
                     String rc = SequenceUtils.reverseComplement(e1.getKmerAsString());
 
-                    DirectedWeightedPseudograph<CortexVertex, CortexEdge> gf = ef.dfs(fw, rc);
-                    DirectedWeightedPseudograph<CortexVertex, CortexEdge> gr = er.dfs(rc, fw);
+                    DirectedWeightedPseudograph<CortexVertex, CortexEdge> gf = traverse(scope, ef, "ends", fw + "-" + rc, () -> ef.dfs(fw, rc));
+                    DirectedWeightedPseudograph<CortexVertex, CortexEdge> gr = traverse(scope, er, "ends", rc + "-" + fw, () -> er.dfs(rc, fw));
 
                     if ((gf != null && gf.vertexSet().size() > 0) || (gr != null && gr.vertexSet().size() > 0)) {
                         endsToRemove.add(e0);
@@ -2355,12 +2648,20 @@ public class Call extends Module {
         return rois;
     }
 
-    private List<CortexVertex> loadChildWalk(ReferenceSequence seq, CortexGraph graph) {
+    private List<CortexVertex> loadChildWalk(ReferenceSequence seq, CortexGraph graph, PartitionCache.Entry cached) {
         List<CortexVertex> w = new ArrayList<>();
 
         Map<String, Integer> seenCount = new HashMap<>();
 
         String contig = seq.getBaseString();
+
+        // Records can be taken from the cached walk if it spells out this partition (it won't if the partitions were
+        // trimmed or merged after the cache was written)
+        List<CortexVertex> cw = cached == null ? null : cached.getWalk(graph.getColorForSampleName(ROIS.getSampleName(0)));
+        if (cw != null && (cw.size() != contig.length() - graph.getKmerSize() + 1 || !TraversalUtils.toContig(cw).equals(contig))) {
+            cw = null;
+        }
+
         for (int i = 0; i <= contig.length() - graph.getKmerSize(); i++) {
             String sk = contig.substring(i, i + graph.getKmerSize());
 
@@ -2372,7 +2673,7 @@ public class Call extends Module {
 
             w.add(new CortexVertexFactory()
                     .bases(sk)
-                    .record(graph.findRecord(sk))
+                    .record(cw != null && cw.get(i).getCortexRecord() != null ? cw.get(i).getCortexRecord() : graph.findRecord(sk))
                     .copyIndex(seenCount.get(sk))
                     .make());
         }
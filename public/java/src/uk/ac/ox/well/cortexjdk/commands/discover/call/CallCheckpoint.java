@@ -0,0 +1,458 @@
+package uk.ac.ox.well.cortexjdk.commands.discover.call;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+import uk.ac.ox.well.cortexjdk.utils.exceptions.CortexJDKException;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.DeBruijnGraph;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * A checkpoint for Call: a write-ahead log of the calls made in each finished partition, and a manifest of the
+ * partitions whose calls are safely in the log.  A run that stops part way through (preempted, killed, out of memory)
+ * can be restarted on the same directory, and carries on from the first partition not in the manifest.
+ *
+ * A partition's calls are appended to the log as one checksummed frame, which is synced to disk before the partition
+ * is added to the manifest, so the manifest never names a partition whose calls could be lost.  Anything in the log
+ * past the last partition in the manifest is left over from an interrupted write, and is discarded when the
+ * checkpoint is reopened.  The manifest also records the graph, shard and partition selection it was made with, and a
+ * run that differs in any of them is refused.
+ *
+ * Only the position of each call is held in memory; the calls themselves are read back from the log, in the same
+ * order as Call's variant sorter (and, as there, keeping only the first call made at any one position), when the
+ * checkpoint is iterated.
+ */
+public class CallCheckpoint implements Iterable<VariantContext>, Closeable {
+    private static final String LOG_NAME = "calls.wal";
+    private static final String MANIFEST_NAME = "manifest.txt";
+    private static final String MANIFEST_TEMP_NAME = "manifest.txt.tmp";
+
+    private static final int T_NULL = 0;
+    private static final int T_STRING = 1;
+    private static final int T_INTEGER = 2;
+    private static final int T_LONG = 3;
+    private static final int T_DOUBLE = 4;
+    private static final int T_FLOAT = 5;
+    private static final int T_BOOLEAN = 6;
+    private static final int T_LIST = 7;
+
+    private final File logFile;
+    private final File manifestFile;
+    private final RandomAccessFile log;
+    private final PrintStream manifest;
+    private final Map<String, Integer> contigIndices = new HashMap<>();
+
+    private final Set<String> completed = new LinkedHashSet<>();
+    private final TreeMap<Locus, Long> calls = new TreeMap<>();
+
+    private static class Locus implements Comparable<Locus> {
+        private final int contig;
+        private final int start;
+        private final boolean symbolic;
+
+        private Locus(int contig, int start, boolean symbolic) {
+            this.contig = contig;
+            this.start = start;
+            this.symbolic = symbolic;
+        }
+
+        @Override
+        public int compareTo(Locus o) {
+            if (contig != o.contig) { return contig < o.contig ? -1 : 1; }
+            if (start != o.start) { return start < o.start ? -1 : 1; }
+            if (symbolic != o.symbolic) { return symbolic ? 1 : -1; }
+
+            return 0;
+        }
+    }
+
+    /**
+     * Open the checkpoint for a run over all partitions.
+     */
+    public CallCheckpoint(File dir, DeBruijnGraph graph, SAMSequenceDictionary ssd) {
+        this(dir, graph, ssd, null, null);
+    }
+
+    /**
+     * Open the checkpoint in a directory, creating it if need be, and recover the partitions already completed.
+     *
+     * @param dir             the checkpoint directory
+     * @param graph           the graph being called (a checkpoint made from a different graph is rejected)
+     * @param ssd             the dictionary calls are sorted by
+     * @param shard           the shard being called, or null for all of them (a checkpoint of another shard is rejected)
+     * @param partitionNames  the partitions being called, or null for all of them (as is one of another selection)
+     */
+    public CallCheckpoint(File dir, DeBruijnGraph graph, SAMSequenceDictionary ssd, String shard, Collection<String> partitionNames) {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new CortexJDKException("Could not create checkpoint directory '" + dir.getAbsolutePath() + "'");
+        }
+
+        this.logFile = new File(dir, LOG_NAME);
+        this.manifestFile = new File(dir, MANIFEST_NAME);
+
+        for (int i = 0; i < ssd.getSequences().size(); i++) {
+            contigIndices.put(ssd.getSequence(i).getSequenceName(), i);
+        }
+
+        List<String> samples = new ArrayList<>();
+        for (int c = 0; c < graph.getNumColors(); c++) {
+            samples.add(graph.getSampleName(c));
+        }
+        String graphHeader = "#k=" + graph.getKmerSize() + "\tsamples=" + String.join(",", samples);
+        String header = graphHeader
+                + "\tshard=" + (shard == null ? "all" : shard)
+                + "\tpartitions=" + (partitionNames == null ? "all" : String.join(",", new TreeSet<>(partitionNames)));
+
+        try {
+            long end = recover(graphHeader, header);
+
+            this.log = new RandomAccessFile(logFile, "rw");
+            log.setLength(end);
+            log.seek(end);
+
+            this.manifest = new PrintStream(new FileOutputStream(manifestFile, true));
+            if (manifestFile.length() == 0) {
+                manifest.println(header);
+                manifest.flush();
+            }
+        } catch (IOException e) {
+            throw new CortexJDKException("Could not open checkpoint in '" + dir.getAbsolutePath() + "'", e);
+        }
+    }
+
+    /**
+     * Read the manifest and the part of the log it covers, and replace the manifest with a copy without any partial
+     * last line.  The copy is renamed over the original, so a crash during recovery leaves one or the other intact.
+     *
+     * @return  the length of the log covered by the manifest
+     */
+    private long recover(String graphHeader, String header) throws IOException {
+        if (!manifestFile.exists()) {
+            return 0;
+        }
+
+        String text = new String(Files.readAllBytes(manifestFile.toPath()), StandardCharsets.UTF_8);
+        List<String> lines = new ArrayList<>(Arrays.asList(text.split("\n", -1)));
+        lines.remove(lines.size() - 1); // empty if the last line was complete, partially written if not
+
+        if (lines.isEmpty()) {
+            return 0;
+        }
+
+        if (!lines.get(0).equals(header)) {
+            if (!lines.get(0).startsWith(graphHeader + "\t")) {
+                throw new CortexJDKException("Checkpoint '" + manifestFile.getParentFile().getAbsolutePath() + "' was made from a different graph (" + lines.get(0) + ")");
+            }
+
+            throw new CortexJDKException("Checkpoint '" + manifestFile.getParentFile().getAbsolutePath() + "' was made for a different shard or selection of partitions (" + lines.get(0).substring(graphHeader.length() + 1) + ")");
+        }
+
+        long end = 0;
+        Map<String, Long> frameEnds = new LinkedHashMap<>();
+        for (String line : lines.subList(1, lines.size())) {
+            String[] fields = line.split("\t");
+            end = Long.valueOf(fields[1]);
+            frameEnds.put(fields[0], end);
+        }
+
+        if (logFile.length() < end) {
+            throw new CortexJDKException("Checkpoint log '" + logFile.getAbsolutePath() + "' is shorter than its manifest says");
+        }
+
+        try (RandomAccessFile in = new RandomAccessFile(logFile, "r")) {
+            for (String partition : frameEnds.keySet()) {
+                byte[] payload = new byte[in.readInt()];
+                in.readFully(payload);
+
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if (in.readLong() != crc.getValue() || in.getFilePointer() != frameEnds.get(partition)) {
+                    throw new CortexJDKException("Checkpoint log '" + logFile.getAbsolutePath() + "' is corrupt at partition " + partition);
+                }
+
+                index(payload, in.getFilePointer() - 8 - payload.length);
+                completed.add(partition);
+            }
+        }
+
+        File tempFile = new File(manifestFile.getParentFile(), MANIFEST_TEMP_NAME);
+        try (FileOutputStream fos = new FileOutputStream(tempFile); PrintStream ps = new PrintStream(fos)) {
+            lines.forEach(ps::println);
+            ps.flush();
+            if (ps.checkError()) {
+                throw new IOException("Could not write '" + tempFile.getAbsolutePath() + "'");
+            }
+            fos.getFD().sync();
+        }
+        Files.move(tempFile.toPath(), manifestFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        return end;
+    }
+
+    public synchronized boolean isComplete(String partition) { return completed.contains(partition); }
+
+    public synchronized Set<String> getCompleted() { return new LinkedHashSet<>(completed); }
+
+    /**
+     * @return  the number of distinct calls in the checkpoint
+     */
+    public synchronized int size() { return calls.size(); }
+
+    /**
+     * Log a finished partition's calls, and mark the partition complete once they are on disk.
+     */
+    public synchronized void commit(String partition, Collection<VariantContext> pcalls) {
+        try {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            DataOutputStream dos = new DataOutputStream(bos);
+
+            dos.writeInt(pcalls.size());
+            for (VariantContext vc : pcalls) {
+                byte[] call = encode(vc);
+                dos.writeInt(call.length);
+                dos.write(call);
+            }
+            dos.flush();
+
+            byte[] payload = bos.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+
+            long start = log.getFilePointer();
+            log.writeInt(payload.length);
+            log.write(payload);
+            log.writeLong(crc.getValue());
+            log.getFD().sync();
+
+            manifest.println(partition + "\t" + log.getFilePointer() + "\t" + pcalls.size());
+            manifest.flush();
+
+            index(payload, start + 4);
+            completed.add(partition);
+        } catch (IOException e) {
+            throw new CortexJDKException("Could not write to checkpoint log '" + logFile.getAbsolutePath() + "'", e);
+        }
+    }
+
+    /**
+     * Iterate over the calls in sorted order, reading each from the log.
+     */
+    @Override
+    public synchronized Iterator<VariantContext> iterator() {
+        Iterator<Long> offsets = new ArrayList<>(calls.values()).iterator();
+
+        return new Iterator<VariantContext>() {
+            @Override
+            public boolean hasNext() { return offsets.hasNext(); }
+
+            @Override
+            public VariantContext next() { return read(offsets.next()); }
+        };
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            log.close();
+            manifest.close();
+        } catch (IOException e) {
+            throw new CortexJDKException("Could not close checkpoint log '" + logFile.getAbsolutePath() + "'", e);
+        }
+    }
+
+    private void index(byte[] payload, long payloadStart) throws IOException {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(payload));
+
+        int numCalls = dis.readInt();
+        long offset = payloadStart + 4;
+        for (int i = 0; i < numCalls; i++) {
+            byte[] call = new byte[dis.readInt()];
+            dis.readFully(call);
+
+            VariantContext vc = decode(call);
+            calls.putIfAbsent(new Locus(contigIndices.getOrDefault(vc.getContig(), 0), vc.getStart(), vc.isSymbolic()), offset);
+
+            offset += 4 + call.length;
+        }
+    }
+
+    private synchronized VariantContext read(long offset) {
+        try {
+            long position = log.getFilePointer();
+
+            log.seek(offset);
+            byte[] call = new byte[log.readInt()];
+            log.readFully(call);
+            log.seek(position);
+
+            return decode(call);
+        } catch (IOException e) {
+            throw new CortexJDKException("Could not read from checkpoint log '" + logFile.getAbsolutePath() + "'", e);
+        }
+    }
+
+    static byte[] encode(VariantContext vc) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+
+        writeString(dos, vc.getContig());
+        dos.writeInt(vc.getStart());
+        dos.writeInt(vc.getEnd());
+        writeString(dos, vc.getID());
+
+        dos.writeInt(vc.getNAlleles());
+        for (Allele a : vc.getAlleles()) {
+            dos.writeBoolean(a.isReference());
+            writeString(dos, a.getDisplayString());
+        }
+
+        dos.writeBoolean(vc.filtersWereApplied());
+        dos.writeInt(vc.getFilters().size());
+        for (String filter : vc.getFilters()) {
+            writeString(dos, filter);
+        }
+
+        dos.writeDouble(vc.getLog10PError());
+
+        dos.writeInt(vc.getAttributes().size());
+        for (Map.Entry<String, Object> attribute : vc.getAttributes().entrySet()) {
+            writeString(dos, attribute.getKey());
+            writeValue(dos, attribute.getValue());
+        }
+
+        dos.flush();
+
+        return bos.toByteArray();
+    }
+
+    static VariantContext decode(byte[] call) throws IOException {
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(call));
+
+        VariantContextBuilder vcb = new VariantContextBuilder()
+                .chr(readString(dis))
+                .start(dis.readInt())
+                .stop(dis.readInt())
+                .id(readString(dis));
+
+        int numAlleles = dis.readInt();
+        List<Allele> alleles = new ArrayList<>();
+        for (int i = 0; i < numAlleles; i++) {
+            boolean isRef = dis.readBoolean();
+            alleles.add(Allele.create(readString(dis), isRef));
+        }
+        vcb.alleles(alleles);
+
+        boolean filtered = dis.readBoolean();
+        Set<String> filters = new LinkedHashSet<>();
+        int numFilters = dis.readInt();
+        for (int i = 0; i < numFilters; i++) {
+            filters.add(readString(dis));
+        }
+
+        if (!filtered) {
+            vcb.unfiltered();
+        } else if (filters.isEmpty()) {
+            vcb.passFilters();
+        } else {
+            vcb.filters(filters);
+        }
+
+        vcb.log10PError(dis.readDouble());
+
+        Map<String, Object> attributes = new LinkedHashMap<>();
+        int numAttributes = dis.readInt();
+        for (int i = 0; i < numAttributes; i++) {
+            String key = readString(dis);
+            attributes.put(key, readValue(dis));
+        }
+        vcb.attributes(attributes);
+
+        return vcb.make();
+    }
+
+    private static void writeValue(DataOutputStream dos, Object value) throws IOException {
+        if (value == null) {
+            dos.writeByte(T_NULL);
+        } else if (value instanceof Integer) {
+            dos.writeByte(T_INTEGER);
+            dos.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            dos.writeByte(T_LONG);
+            dos.writeLong((Long) value);
+        } else if (value instanceof Double) {
+            dos.writeByte(T_DOUBLE);
+            dos.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            dos.writeByte(T_FLOAT);
+            dos.writeFloat((Float) value);
+        } else if (value instanceof Boolean) {
+            dos.writeByte(T_BOOLEAN);
+            dos.writeBoolean((Boolean) value);
+        } else if (value instanceof Collection || value.getClass().isArray()) {
+            List<Object> values = new ArrayList<>();
+            if (value instanceof Collection) {
+                values.addAll((Collection<?>) value);
+            } else {
+                for (int i = 0; i < java.lang.reflect.Array.getLength(value); i++) {
+                    values.add(java.lang.reflect.Array.get(value, i));
+                }
+            }
+
+            dos.writeByte(T_LIST);
+            dos.writeInt(values.size());
+            for (Object v : values) {
+                writeValue(dos, v);
+            }
+        } else {
+            // Anything else is written to the VCF as its string form
+            dos.writeByte(T_STRING);
+            writeString(dos, String.valueOf(value));
+        }
+    }
+
+    private static Object readValue(DataInputStream dis) throws IOException {
+        int type = dis.readByte();
+
+        switch (type) {
+            case T_NULL:    return null;
+            case T_STRING:  return readString(dis);
+            case T_INTEGER: return dis.readInt();
+            case T_LONG:    return dis.readLong();
+            case T_DOUBLE:  return dis.readDouble();
+            case T_FLOAT:   return dis.readFloat();
+            case T_BOOLEAN: return dis.readBoolean();
+            case T_LIST: {
+                int size = dis.readInt();
+                List<Object> values = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    values.add(readValue(dis));
+                }
+
+                return values;
+            }
+            default:
+                throw new CortexJDKException("Unknown attribute type " + type + " in checkpoint log");
+        }
+    }
+
+    // Strings are length-prefixed rather than written with writeUTF(), which is limited to 64k (haplotypes may not be)
+    private static void writeString(DataOutputStream dos, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        dos.writeInt(b.length);
+        dos.write(b);
+    }
+
+    private static String readString(DataInputStream dis) throws IOException {
+        byte[] b = new byte[dis.readInt()];
+        dis.readFully(b);
+
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
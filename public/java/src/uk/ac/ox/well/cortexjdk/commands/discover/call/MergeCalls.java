@@ -0,0 +1,220 @@
+package uk.ac.ox.well.cortexjdk.commands.discover.call;
+
+import com.google.common.base.Joiner;
+import htsjdk.variant.variantcontext.Allele;
+import uk.ac.ox.well.cortexjdk.commands.Module;
+import uk.ac.ox.well.cortexjdk.utils.arguments.Argument;
+import uk.ac.ox.well.cortexjdk.utils.arguments.Description;
+import uk.ac.ox.well.cortexjdk.utils.arguments.Output;
+import uk.ac.ox.well.cortexjdk.utils.exceptions.CortexJDKException;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexGraph;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexRecord;
+import uk.ac.ox.well.cortexjdk.utils.io.utils.LineReader;
+import uk.ac.ox.well.cortexjdk.utils.kmer.CanonicalKmer;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.*;
+
+/**
+ * Merges the VCFs written by sharded runs of Call (see Call's --shard) into the VCF and accounting table an unsharded
+ * run would have written.
+ *
+ * Shards are whole partitions, and the merging Call does after calling (mergeDoubleBreakpoints(), mergeBubbles()) never
+ * looks beyond a partition, so no call can span two shards and there is nothing left to merge between them.  What
+ * remains is done here: the shards' calls are merged in sorted order (keeping, as Call does, only the first call at
+ * any one position), call IDs are renumbered, and novel kmers are assigned to calls again.
+ *
+ * Records are copied as text, with only their CALL_ID and novels fields changed, so they are written exactly as Call
+ * wrote them.
+ */
+@Description(text="Merge the calls from sharded runs of Call")
+public class MergeCalls extends Module {
+    static final String SHARD_KEY = "shard";
+
+    @Argument(fullName="calls", shortName="c", doc="Calls from each shard of Call (in any order)")
+    public ArrayList<File> CALLS;
+
+    @Argument(fullName="rois", shortName="r", doc="ROIs")
+    public CortexGraph ROIS;
+
+    @Output
+    public PrintStream out;
+
+    @Output(fullName="accountingOut", shortName="ao", doc="Accounting out")
+    public PrintStream aout;
+
+    private class Shard {
+        private final File file;
+        private final LineReader lr;
+        private final List<String> header = new ArrayList<>();
+        private int index = -1, numShards = -1;
+        private String record;
+
+        private Shard(File file) {
+            this.file = file;
+            this.lr = new LineReader(file);
+
+            String line;
+            while ((line = lr.getNextRecord()) != null && line.startsWith("#")) {
+                if (line.startsWith("##" + SHARD_KEY + "=")) {
+                    String[] fields = line.substring(SHARD_KEY.length() + 3).split("/");
+                    index = Integer.valueOf(fields[0]);
+                    numShards = Integer.valueOf(fields[1]);
+                } else {
+                    header.add(line);
+                }
+            }
+
+            if (index < 0) {
+                throw new CortexJDKException("Calls '" + file.getAbsolutePath() + "' were not made by a sharded run of Call");
+            }
+
+            record = line;
+        }
+
+        private String next() {
+            String current = record;
+            record = lr.getNextRecord();
+
+            return current;
+        }
+    }
+
+    @Override
+    public void execute() {
+        List<Shard> shards = new ArrayList<>();
+        for (File f : CALLS) {
+            shards.add(new Shard(f));
+        }
+        shards.sort(Comparator.comparingInt(s -> s.index));
+
+        if (shards.isEmpty()) {
+            throw new CortexJDKException("No calls to merge");
+        }
+
+        for (int i = 0; i < shards.size(); i++) {
+            Shard s = shards.get(i);
+
+            if (s.index != i || s.numShards != shards.size()) {
+                throw new CortexJDKException("Expected calls from shards 0-" + (shards.size() - 1) + " of " + shards.size() + ", but '" + s.file.getAbsolutePath() + "' is shard " + s.index + "/" + s.numShards);
+            }
+
+            if (!s.header.equals(shards.get(0).header)) {
+                throw new CortexJDKException("Calls '" + s.file.getAbsolutePath() + "' have a different header from '" + shards.get(0).file.getAbsolutePath() + "'");
+            }
+        }
+
+        Map<String, Integer> sid = new HashMap<>();
+        for (String line : shards.get(0).header) {
+            if (line.startsWith("##contig=<ID=")) {
+                String id = line.substring("##contig=<ID=".length()).split("[,>]")[0];
+                sid.put(id, sid.size());
+            }
+        }
+
+        Map<CanonicalKmer, String> acct = new TreeMap<>();
+        for (CortexRecord rr : ROIS) {
+            acct.put(rr.getCanonicalKmer(), "absent");
+        }
+
+        shards.get(0).header.forEach(out::println);
+
+        // Each shard is already sorted, so a k-way merge suffices; ties go to the earlier shard (i.e. the earlier partition)
+        PriorityQueue<Shard> queue = new PriorityQueue<>((s0, s1) -> {
+            int c = compare(sid, s0.record, s1.record);
+            return c != 0 ? c : Integer.compare(s0.index, s1.index);
+        });
+        for (Shard s : shards) {
+            if (s.record != null) {
+                queue.add(s);
+            }
+        }
+
+        int variantId = 0;
+        String last = null;
+        while (!queue.isEmpty()) {
+            Shard s = queue.poll();
+            String record = s.next();
+
+            if (s.record != null) {
+                queue.add(s);
+            }
+
+            if (last != null && compare(sid, last, record) == 0) {
+                continue;
+            }
+            last = record;
+
+            String[] fields = record.split("\t", -1);
+            List<String> info = new ArrayList<>();
+            String novels = "";
+            for (String entry : fields[7].split(";")) {
+                if (entry.equals("novels") || entry.startsWith("novels=")) {
+                    novels = entry.substring(Math.min(entry.length(), "novels=".length()));
+                } else if (entry.startsWith("CALL_ID=")) {
+                    info.add("CALL_ID=" + variantId);
+                } else {
+                    info.add(entry);
+                }
+            }
+            fields[7] = Joiner.on(";").join(info);
+
+            out.println(Joiner.on("\t").join(fields));
+
+            for (String sk : novels.split(",")) {
+                if (sk.length() > 0) {
+                    CanonicalKmer ck = new CanonicalKmer(sk);
+
+                    if (acct.containsKey(ck)) {
+                        acct.put(ck, String.format("CC%d", variantId));
+                    }
+                }
+            }
+
+            variantId++;
+        }
+
+        for (CanonicalKmer ck : acct.keySet()) {
+            aout.println(Joiner.on("\t").join(ck, acct.get(ck)));
+        }
+
+        log.info("Merged {} calls from {} shards", variantId, shards.size());
+    }
+
+    /**
+     * Compare two records by contig, position and whether they're symbolic, as Call sorts its calls.
+     */
+    private static int compare(Map<String, Integer> sid, String r0, String r1) {
+        String[] f0 = r0.split("\t", 6);
+        String[] f1 = r1.split("\t", 6);
+
+        int sid0 = sid.getOrDefault(f0[0], 0);
+        int sid1 = sid.getOrDefault(f1[0], 0);
+        if (sid0 != sid1) { return sid0 < sid1 ? -1 : 1; }
+
+        int start0 = Integer.valueOf(f0[1]);
+        int start1 = Integer.valueOf(f1[1]);
+        if (start0 != start1) { return start0 < start1 ? -1 : 1; }
+
+        boolean symbolic0 = isSymbolic(f0[4]);
+        boolean symbolic1 = isSymbolic(f1[4]);
+        if (symbolic0 != symbolic1) { return symbolic0 ? 1 : -1; }
+
+        return 0;
+    }
+
+    private static boolean isSymbolic(String alts) {
+        if (alts.equals(".")) {
+            return false;
+        }
+
+        for (String alt : alts.split(",")) {
+            if (!Allele.wouldBeSymbolicAllele(alt.getBytes())) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -24,6 +24,7 @@ import uk.ac.ox.well.cortexjdk.utils.traversal.*;
 import java.io.File;
 import java.io.PrintStream;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import static uk.ac.ox.well.cortexjdk.utils.traversal.TraversalEngineConfiguration.GraphCombinationOperator.OR;
 import static uk.ac.ox.well.cortexjdk.utils.traversal.TraversalEngineConfiguration.TraversalDirection.BOTH;
@@ -31,6 +32,8 @@ import static uk.ac.ox.well.cortexjdk.utils.traversal.TraversalEngineConfigurati
 import static uk.ac.ox.well.cortexjdk.utils.traversal.TraversalEngineConfiguration.TraversalDirection.REVERSE;
 
 public class Partition extends Module {
+    private static final int UNCLAIMED = Integer.MAX_VALUE;
+
     @Argument(fullName = "graph", shortName = "g", doc = "Graph")
     public CortexGraph GRAPH;
 
@@ -49,6 +52,12 @@ public class Partition extends Module {
     @Argument(fullName = "variantTable", shortName = "vt", doc = "Variant table", required = false)
     public File VARIANT_TABLE;
 
+    @Argument(fullName = "cache", shortName = "c", doc = "Write the assembled partitions to this cache, for Call to reuse", required = false)
+    public File CACHE;
+
+    @Argument(fullName = "threads", shortName = "t", doc = "Number of threads")
+    public Integer NUM_THREADS = 1;
+
     @Output
     public PrintStream out;
 
@@ -96,6 +105,14 @@ public class Partition extends Module {
         log.info("Using stopper {}", e.getConfiguration().getStoppingRule().getSimpleName());
 
         Map<CanonicalKmer, List<CortexVertex>> used = loadRois(ROIS);
+        Map<List<CortexVertex>, DirectedWeightedPseudograph<CortexVertex, CortexEdge>> subgraphs = new IdentityHashMap<>();
+
+        // Seeds are the ROI kmers in sorted order, and a kmer's index in this list is its slot in the claim table
+        List<CanonicalKmer> seeds = new ArrayList<>(used.keySet());
+        AtomicIntegerArray claims = new AtomicIntegerArray(seeds.size());
+        for (int i = 0; i < seeds.size(); i++) {
+            claims.set(i, UNCLAIMED);
+        }
 
         ProgressMeter pm = new ProgressMeterFactory()
                 .header("Processing novel kmers...")
@@ -103,14 +120,35 @@ public class Partition extends Module {
                 .maxRecord(used.size())
                 .make(log);
 
-        for (CanonicalKmer ck : used.keySet()) {
+        TraversalExecutor te = new TraversalExecutor(e.getConfiguration(), NUM_THREADS);
+
+        // Workers assemble from each seed not yet claimed by a lower seed, then claim the ROI kmers on the finished
+        // walk for their seed (lowest seed wins) and drop the result if their own seed was claimed meanwhile.  A claim
+        // can come from a seed whose own result is later discarded, so results are still committed in seed order under
+        // the sequential rule, and a seed that was dropped but turns out to be unassigned is re-assembled here.  The
+        // partitions written are thus the same for any number of threads.
+        List<Integer> seedIndices = new ArrayList<>();
+        for (int i = 0; i < seeds.size(); i++) {
+            seedIndices.add(i);
+        }
+
+        Iterator<Pair<DirectedWeightedPseudograph<CortexVertex, CortexEdge>, List<CortexVertex>>> results = te.ordered(seedIndices.iterator(), (we, seedIndex) -> assembleUnclaimed(we, seeds, claims, seedIndex));
+        for (int seedIndex = 0; results.hasNext(); seedIndex++) {
+            Pair<DirectedWeightedPseudograph<CortexVertex, CortexEdge>, List<CortexVertex>> result = results.next();
+            CanonicalKmer ck = seeds.get(seedIndex);
+
             pm.update();
 
             if (used.get(ck) == null) {
                 //log.info("nr={}", ROIS.findRecord(ck));
 
-                DirectedWeightedPseudograph<CortexVertex, CortexEdge> g = e.dfs(ck);
-                List<CortexVertex> w = TraversalUtils.toWalk(g, ck, getTraversalColor(GRAPH, ROIS));
+                if (result == null) {
+                    result = assemble(e, ck);
+                    claim(seeds, claims, seedIndex, result.getSecond());
+                }
+
+                DirectedWeightedPseudograph<CortexVertex, CortexEdge> g = result.getFirst();
+                List<CortexVertex> w = result.getSecond();
 
                 /*
                 int start = -1, stop = w.size();
@@ -127,15 +165,6 @@ public class Partition extends Module {
                 w = w.subList(start, stop);
                 */
 
-                if (w.size() == 0) {
-                    w = new ArrayList<>();
-                    w.add(new CortexVertexFactory()
-                            .bases(ck.getKmerAsString())
-                            .record(GRAPH.findRecord(ck.getKmerAsString()))
-                            .make()
-                    );
-                }
-
                 int numExp = 0, numFound = 0;
                 Map<String, String> vm = null;
                 if (kmerMap.containsKey(ck)) {
@@ -168,6 +197,10 @@ public class Partition extends Module {
 
                 Pair<Integer, Integer> numMarked = markUsedRois(used, w);
 
+                if (CACHE != null && numMarked.getFirst() > 0) {
+                    subgraphs.put(w, g);
+                }
+
                 if (numFound != numExp) {
                     /*
                     for (CortexVertex v : w) {
@@ -185,7 +218,10 @@ public class Partition extends Module {
             }
         }
 
+        te.close();
+
         Set<String> contigs = new TreeSet<>();
+        Map<String, List<CortexVertex>> walks = new HashMap<>();
 
         int numNovelKmersAssigned = 0;
         for (CanonicalKmer ck : used.keySet()) {
@@ -195,12 +231,15 @@ public class Partition extends Module {
 
                 if (!contigs.contains(fw) && !contigs.contains(rc)) {
                     contigs.add(fw);
+                    walks.put(fw, used.get(ck));
                 }
 
                 numNovelKmersAssigned++;
             }
         }
 
+        PartitionCache cache = CACHE == null ? null : new PartitionCache(GRAPH, LINKS, TraversalBudget.UNLIMITED);
+
         int numPartitions = 0;
         for (String partition : contigs) {
             int numNovels = 0;
@@ -215,12 +254,61 @@ public class Partition extends Module {
             out.println(">partition" + numPartitions + " len=" + (partition.length() - GRAPH.getKmerSize() + 1) + " numNovels=" + numNovels);
             out.println(partition);
 
+            if (cache != null) {
+                List<CortexVertex> w = walks.get(partition);
+                Map<Integer, List<CortexVertex>> cws = new TreeMap<>();
+                cws.put(getTraversalColor(GRAPH, ROIS), w);
+
+                cache.put("partition" + numPartitions, new PartitionCache.Entry(subgraphs.get(w), cws, null));
+            }
+
             numPartitions++;
         }
 
+        if (cache != null) {
+            cache.write(CACHE);
+            log.info("Wrote {} partitions to cache {}", cache.size(), CACHE.getAbsolutePath());
+        }
+
         log.info("Assigned {}/{} novel kmers to {} contigs", numNovelKmersAssigned, used.size(), contigs.size());
     }
 
+    private Pair<DirectedWeightedPseudograph<CortexVertex, CortexEdge>, List<CortexVertex>> assemble(TraversalEngine e, CanonicalKmer ck) {
+        DirectedWeightedPseudograph<CortexVertex, CortexEdge> g = e.dfs(ck);
+        List<CortexVertex> w = TraversalUtils.toWalk(g, ck, getTraversalColor(GRAPH, ROIS));
+
+        if (w.size() == 0) {
+            w = new ArrayList<>();
+            w.add(new CortexVertexFactory()
+                    .bases(ck.getKmerAsString())
+                    .record(e.getConfiguration().getGraph().findRecord(ck.getKmerAsString()))
+                    .make()
+            );
+        }
+
+        return new Pair<>(g, w);
+    }
+
+    private Pair<DirectedWeightedPseudograph<CortexVertex, CortexEdge>, List<CortexVertex>> assembleUnclaimed(TraversalEngine e, List<CanonicalKmer> seeds, AtomicIntegerArray claims, int seedIndex) {
+        if (claims.get(seedIndex) < seedIndex) {
+            return null;
+        }
+
+        Pair<DirectedWeightedPseudograph<CortexVertex, CortexEdge>, List<CortexVertex>> result = assemble(e, seeds.get(seedIndex));
+        claim(seeds, claims, seedIndex, result.getSecond());
+
+        return claims.get(seedIndex) < seedIndex ? null : result;
+    }
+
+    private void claim(List<CanonicalKmer> seeds, AtomicIntegerArray claims, int seedIndex, List<CortexVertex> w) {
+        for (CortexVertex v : w) {
+            int i = Collections.binarySearch(seeds, v.getCanonicalKmer());
+            if (i >= 0) {
+                claims.accumulateAndGet(i, seedIndex, Math::min);
+            }
+        }
+    }
+
     private int countNovels(Map<CanonicalKmer, List<CortexVertex>> used, DirectedWeightedPseudograph<CortexVertex, CortexEdge> g) {
         int numNovels = 0;
 
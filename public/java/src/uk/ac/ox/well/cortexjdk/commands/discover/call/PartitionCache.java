@@ -0,0 +1,443 @@
+package uk.ac.ox.well.cortexjdk.commands.discover.call;
+
+import htsjdk.samtools.util.Interval;
+import org.jgrapht.graph.DirectedWeightedPseudograph;
+import uk.ac.ox.well.cortexjdk.utils.exceptions.CortexJDKException;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.ConnectivityAnnotations;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.DeBruijnGraph;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexRecord;
+import uk.ac.ox.well.cortexjdk.utils.kmer.CortexByteKmer;
+import uk.ac.ox.well.cortexjdk.utils.traversal.CortexEdge;
+import uk.ac.ox.well.cortexjdk.utils.traversal.CortexVertex;
+import uk.ac.ox.well.cortexjdk.utils.traversal.CortexVertexFactory;
+import uk.ac.ox.well.cortexjdk.utils.traversal.KmerIndexedGraph;
+import uk.ac.ox.well.cortexjdk.utils.traversal.TraversalBudget;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A binary cache of assembled partitions, written by Partition and read by Call so that the traversals behind each
+ * partition needn't be run again.  Each entry, stored under a key, holds a traversal subgraph, walks through it by
+ * color and a list of contigs.  Vertices are stored with their records, so a cached entry can be used without looking
+ * anything up in the graph, but the cache is only valid for the graph it was built from: its kmer size and sample
+ * names are recorded, and checked when the cache is read.  The traversals also depend on the links and the traversal
+ * budget, so a fingerprint of those is recorded too; a cache read with a different fingerprint is stale, and starts
+ * out empty so that its entries are rebuilt.
+ *
+ * Entries are kept encoded in memory and decoded on get(), so a cache covering a whole genome stays compact.
+ */
+public class PartitionCache {
+    private static final int MAGIC = 0x50434348; // "PCCH"
+    private static final int VERSION = 2;
+
+    private final int kmerSize;
+    private final int kmerBits;
+    private final List<String> sampleNames;
+    private final String fingerprint;
+    private final Map<String, byte[]> entries = new LinkedHashMap<>();
+    private boolean stale = false;
+
+    /**
+     * An assembled subgraph, walks through it keyed by color, and any contigs assembled alongside it.
+     */
+    public static class Entry {
+        private final DirectedWeightedPseudograph<CortexVertex, CortexEdge> graph;
+        private final Map<Integer, List<CortexVertex>> walks;
+        private final List<String> contigs;
+
+        public Entry(DirectedWeightedPseudograph<CortexVertex, CortexEdge> graph, Map<Integer, List<CortexVertex>> walks, Collection<String> contigs) {
+            this.graph = graph == null ? new KmerIndexedGraph() : graph;
+            this.walks = walks == null ? new TreeMap<>() : walks;
+            this.contigs = contigs == null ? new ArrayList<>() : new ArrayList<>(contigs);
+        }
+
+        public DirectedWeightedPseudograph<CortexVertex, CortexEdge> getGraph() { return graph; }
+
+        public Map<Integer, List<CortexVertex>> getWalks() { return walks; }
+
+        public List<CortexVertex> getWalk(int color) { return walks.get(color); }
+
+        public List<String> getContigs() { return contigs; }
+    }
+
+    /**
+     * Create an empty cache for a graph, traversed without links or a budget.
+     */
+    public PartitionCache(DeBruijnGraph graph) {
+        this(graph, null, TraversalBudget.UNLIMITED);
+    }
+
+    /**
+     * Create an empty cache for a graph, traversed with the given links and budget.
+     */
+    public PartitionCache(DeBruijnGraph graph, Collection<? extends ConnectivityAnnotations> links, TraversalBudget budget) {
+        this.kmerSize = graph.getKmerSize();
+        this.kmerBits = graph.getKmerBits();
+        this.sampleNames = getSampleNames(graph);
+        this.fingerprint = getFingerprint(links, budget);
+    }
+
+    /**
+     * Read a cache built without links or a budget.
+     */
+    public PartitionCache(File in, DeBruijnGraph graph) {
+        this(in, graph, null, TraversalBudget.UNLIMITED);
+    }
+
+    /**
+     * Read a cache, checking that it was built from a graph with the same kmer size and samples.  If it was built
+     * with other links or another budget, its entries are dropped and the cache is marked stale.
+     */
+    public PartitionCache(File in, DeBruijnGraph graph, Collection<? extends ConnectivityAnnotations> links, TraversalBudget budget) {
+        this(graph, links, budget);
+
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(in), 1 << 16)))) {
+            if (dis.readInt() != MAGIC) {
+                throw new CortexJDKException("File '" + in.getAbsolutePath() + "' is not a partition cache");
+            }
+
+            int version = dis.readInt();
+            if (version != VERSION) {
+                throw new CortexJDKException("Partition cache '" + in.getAbsolutePath() + "' has version " + version + ", but only version " + VERSION + " is supported");
+            }
+
+            int cacheKmerSize = dis.readInt();
+            List<String> cacheSampleNames = new ArrayList<>();
+            int numSamples = dis.readInt();
+            for (int c = 0; c < numSamples; c++) {
+                cacheSampleNames.add(dis.readUTF());
+            }
+
+            if (cacheKmerSize != kmerSize || !cacheSampleNames.equals(sampleNames)) {
+                throw new CortexJDKException("Partition cache '" + in.getAbsolutePath() + "' was built from a different graph (k=" + cacheKmerSize + ", samples=" + cacheSampleNames + ")");
+            }
+
+            if (!readString(dis).equals(fingerprint)) {
+                stale = true;
+                return;
+            }
+
+            int numEntries = dis.readInt();
+            for (int i = 0; i < numEntries; i++) {
+                String key = dis.readUTF();
+                byte[] payload = new byte[dis.readInt()];
+                dis.readFully(payload);
+
+                entries.put(key, payload);
+            }
+        } catch (IOException e) {
+            throw new CortexJDKException("Could not read partition cache '" + in.getAbsolutePath() + "'", e);
+        }
+    }
+
+    public synchronized int size() { return entries.size(); }
+
+    /**
+     * @return  true if this cache was read from a file built with other links or another budget (and so was emptied)
+     */
+    public boolean isStale() { return stale; }
+
+    public synchronized boolean contains(String key) { return entries.containsKey(key); }
+
+    public synchronized Set<String> keySet() { return new LinkedHashSet<>(entries.keySet()); }
+
+    /**
+     * Add an entry, replacing any already stored under the key.
+     */
+    public void put(String key, Entry entry) {
+        byte[] payload = encode(entry);
+
+        synchronized (this) {
+            entries.put(key, payload);
+        }
+    }
+
+    /**
+     * @return  the entry stored under the key (decoded afresh, so the caller may modify it), or null if there is none
+     */
+    public Entry get(String key) {
+        byte[] payload;
+        synchronized (this) {
+            payload = entries.get(key);
+        }
+
+        return payload == null ? null : decode(payload);
+    }
+
+    /**
+     * Write every entry, in the order they were first added.
+     */
+    public synchronized void write(File out) {
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(out), 1 << 16)))) {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeInt(kmerSize);
+            dos.writeInt(sampleNames.size());
+            for (String sampleName : sampleNames) {
+                dos.writeUTF(sampleName);
+            }
+            writeString(dos, fingerprint);
+
+            dos.writeInt(entries.size());
+            for (String key : entries.keySet()) {
+                dos.writeUTF(key);
+                dos.writeInt(entries.get(key).length);
+                dos.write(entries.get(key));
+            }
+        } catch (IOException e) {
+            throw new CortexJDKException("Could not write partition cache '" + out.getAbsolutePath() + "'", e);
+        }
+    }
+
+    private byte[] encode(Entry entry) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+        try (DataOutputStream dos = new DataOutputStream(bos)) {
+            Map<CortexVertex, Integer> ids = new HashMap<>();
+            List<CortexVertex> vertices = new ArrayList<>();
+
+            for (CortexVertex v : entry.getGraph().vertexSet()) {
+                ids.put(v, vertices.size());
+                vertices.add(v);
+            }
+
+            for (List<CortexVertex> w : entry.getWalks().values()) {
+                for (CortexVertex v : w) {
+                    if (!ids.containsKey(v)) {
+                        ids.put(v, vertices.size());
+                        vertices.add(v);
+                    }
+                }
+            }
+
+            dos.writeInt(vertices.size());
+            dos.writeInt(entry.getGraph().vertexSet().size());
+            for (CortexVertex v : vertices) {
+                writeVertex(dos, v);
+            }
+
+            Set<CortexEdge> edges = entry.getGraph().edgeSet();
+            dos.writeInt(edges.size());
+            for (CortexEdge e : edges) {
+                dos.writeInt(ids.get(entry.getGraph().getEdgeSource(e)));
+                dos.writeInt(ids.get(entry.getGraph().getEdgeTarget(e)));
+                dos.writeInt(e.getColor());
+                dos.writeDouble(e.getWeight());
+            }
+
+            dos.writeInt(entry.getWalks().size());
+            for (int color : entry.getWalks().keySet()) {
+                List<CortexVertex> w = entry.getWalk(color);
+
+                dos.writeInt(color);
+                dos.writeInt(w.size());
+                for (CortexVertex v : w) {
+                    dos.writeInt(ids.get(v));
+                }
+            }
+
+            dos.writeInt(entry.getContigs().size());
+            for (String contig : entry.getContigs()) {
+                writeString(dos, contig);
+            }
+        } catch (IOException e) {
+            throw new CortexJDKException("Could not encode partition cache entry", e);
+        }
+
+        return bos.toByteArray();
+    }
+
+    private Entry decode(byte[] payload) {
+        try (DataInputStream dis = new DataInputStream(new ByteArrayInputStream(payload))) {
+            CortexVertex[] vertices = new CortexVertex[dis.readInt()];
+            int numGraphVertices = dis.readInt();
+            for (int i = 0; i < vertices.length; i++) {
+                vertices[i] = readVertex(dis);
+            }
+
+            KmerIndexedGraph g = new KmerIndexedGraph();
+            for (int i = 0; i < numGraphVertices; i++) {
+                g.addVertex(vertices[i]);
+            }
+
+            int numEdges = dis.readInt();
+            for (int i = 0; i < numEdges; i++) {
+                CortexVertex s = vertices[dis.readInt()];
+                CortexVertex t = vertices[dis.readInt()];
+                int color = dis.readInt();
+                double weight = dis.readDouble();
+
+                g.addEdge(s, t, new CortexEdge(s, t, color, weight));
+            }
+
+            Map<Integer, List<CortexVertex>> walks = new TreeMap<>();
+            int numWalks = dis.readInt();
+            for (int i = 0; i < numWalks; i++) {
+                int color = dis.readInt();
+                List<CortexVertex> w = new ArrayList<>();
+                int length = dis.readInt();
+                for (int j = 0; j < length; j++) {
+                    w.add(vertices[dis.readInt()]);
+                }
+
+                walks.put(color, w);
+            }
+
+            List<String> contigs = new ArrayList<>();
+            int numContigs = dis.readInt();
+            for (int i = 0; i < numContigs; i++) {
+                contigs.add(readString(dis));
+            }
+
+            return new Entry(g, walks, contigs);
+        } catch (IOException e) {
+            throw new CortexJDKException("Could not decode partition cache entry", e);
+        }
+    }
+
+    private void writeVertex(DataOutputStream dos, CortexVertex v) throws IOException {
+        dos.write(v.getKmerAsByteKmer().getKmer(), 0, kmerSize);
+        dos.writeInt(v.getCopyIndex());
+        dos.writeInt(v.getIndex());
+
+        if (v.getSources() == null) {
+            dos.writeInt(-1);
+        } else {
+            dos.writeInt(v.getSources().size());
+            for (String source : v.getSources()) {
+                dos.writeUTF(source);
+            }
+        }
+
+        Interval locus = v.getLocus();
+        dos.writeBoolean(locus != null);
+        if (locus != null) {
+            dos.writeUTF(locus.getContig());
+            dos.writeInt(locus.getStart());
+            dos.writeInt(locus.getEnd());
+            dos.writeBoolean(locus.isNegativeStrand());
+            dos.writeBoolean(locus.getName() != null);
+            if (locus.getName() != null) {
+                dos.writeUTF(locus.getName());
+            }
+        }
+
+        CortexRecord cr = v.getCortexRecord();
+        dos.writeBoolean(cr != null);
+        if (cr != null) {
+            for (long l : cr.getBinaryKmer()) {
+                dos.writeLong(l);
+            }
+
+            dos.writeInt(cr.getNumColors());
+            for (int c = 0; c < cr.getNumColors(); c++) {
+                dos.writeInt(cr.getCoverages()[c]);
+                dos.writeByte(cr.getEdges()[c]);
+            }
+        }
+    }
+
+    private CortexVertex readVertex(DataInputStream dis) throws IOException {
+        byte[] kmer = new byte[kmerSize];
+        dis.readFully(kmer);
+
+        CortexVertexFactory cvf = new CortexVertexFactory()
+                .bases(new CortexByteKmer(kmer))
+                .copyIndex(dis.readInt())
+                .index(dis.readInt());
+
+        int numSources = dis.readInt();
+        if (numSources < 0) {
+            cvf.sources(null);
+        } else {
+            Set<String> sources = new LinkedHashSet<>();
+            for (int i = 0; i < numSources; i++) {
+                sources.add(dis.readUTF());
+            }
+            cvf.sources(sources);
+        }
+
+        if (dis.readBoolean()) {
+            String contig = dis.readUTF();
+            int start = dis.readInt();
+            int end = dis.readInt();
+            boolean negative = dis.readBoolean();
+            String name = dis.readBoolean() ? dis.readUTF() : null;
+
+            cvf.locus(new Interval(contig, start, end, negative, name));
+        }
+
+        if (dis.readBoolean()) {
+            long[] binaryKmer = new long[kmerBits];
+            for (int i = 0; i < kmerBits; i++) {
+                binaryKmer[i] = dis.readLong();
+            }
+
+            int numColors = dis.readInt();
+            int[] coverages = new int[numColors];
+            byte[] edges = new byte[numColors];
+            for (int c = 0; c < numColors; c++) {
+                coverages[c] = dis.readInt();
+                edges[c] = dis.readByte();
+            }
+
+            cvf.record(new CortexRecord(binaryKmer, coverages, edges, kmerSize, kmerBits));
+        }
+
+        return cvf.make();
+    }
+
+    private static void writeString(DataOutputStream dos, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        dos.writeInt(b.length);
+        dos.write(b);
+    }
+
+    private static String readString(DataInputStream dis) throws IOException {
+        byte[] b = new byte[dis.readInt()];
+        dis.readFully(b);
+
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Summarize the links (by name, size, linked kmer count and samples, as hashing their contents would mean
+     * reading them in full) and the budget limits.
+     */
+    private static String getFingerprint(Collection<? extends ConnectivityAnnotations> links, TraversalBudget budget) {
+        StringBuilder sb = new StringBuilder("links=");
+
+        if (links != null) {
+            for (ConnectivityAnnotations lm : links) {
+                File f = lm.getFile();
+                sb.append(f == null ? "-" : f.getName() + ":" + f.length()).append(":").append(lm.size());
+
+                for (int c = 0; c < lm.getHeader().getNumColors(); c++) {
+                    sb.append(":").append(lm.getHeader().getColor(c).getSampleName());
+                }
+                sb.append(";");
+            }
+        }
+
+        sb.append(" budget=")
+          .append(budget.getMaxTimeMillis()).append(",")
+          .append(budget.getMaxVertices()).append(",")
+          .append(budget.getMaxBranches()).append(",")
+          .append(budget.getMaxBytes());
+
+        return sb.toString();
+    }
+
+    private static List<String> getSampleNames(DeBruijnGraph graph) {
+        List<String> sampleNames = new ArrayList<>();
+        for (int c = 0; c < graph.getNumColors(); c++) {
+            sampleNames.add(graph.getSampleName(c));
+        }
+
+        return sampleNames;
+    }
+}
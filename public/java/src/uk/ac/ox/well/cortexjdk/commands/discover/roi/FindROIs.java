@@ -6,12 +6,12 @@ import uk.ac.ox.well.cortexjdk.utils.arguments.Argument;
 import uk.ac.ox.well.cortexjdk.utils.arguments.Description;
 import uk.ac.ox.well.cortexjdk.utils.arguments.Output;
 import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.*;
+import uk.ac.ox.well.cortexjdk.utils.io.table.TableWriter;
 import uk.ac.ox.well.cortexjdk.utils.progress.ProgressMeter;
 import uk.ac.ox.well.cortexjdk.utils.progress.ProgressMeterFactory;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
 
 @Description(text="Generate a (very liberal) list of kmers that identify potential de novo mutations")
 public class FindROIs extends Module {
@@ -24,9 +24,18 @@ public class FindROIs extends Module {
     @Argument(fullName="child", shortName="c", doc="Child")
     public String CHILD;
 
+    @Argument(fullName="threads", shortName="t", doc="Number of threads")
+    public Integer NUM_THREADS = 1;
+
+    @Argument(fullName="rangeSize", shortName="rs", doc="Number of records each thread scans at a time")
+    public Long RANGE_SIZE = CortexGraphScanner.DEFAULT_RANGE_SIZE;
+
     @Output
     public File out;
 
+    @Output(fullName="statsOut", shortName="so", doc="Per-range scan statistics out")
+    public File statsOut;
+
     @Override
     public void execute() {
         int childColor = GRAPH.getColorForSampleName(CHILD);
@@ -38,35 +47,49 @@ public class FindROIs extends Module {
 
         log.info("Color: {} {}", CHILD, childColor);
 
+        CortexGraphScanner scanner = new CortexGraphScanner(GRAPH, NUM_THREADS, RANGE_SIZE);
+
         ProgressMeter pm = new ProgressMeterFactory()
                 .header("Processing graph...")
-                .message("records processed")
-                .maxRecord(GRAPH.getNumRecords())
+                .message("ranges processed")
+                .maxRecord(scanner.getNumRanges())
                 .make(log);
 
-        long numNovelRecords = 0L;
-
         CortexGraphWriter cgw = new CortexGraphWriter(out);
         cgw.setHeader(makeCortexHeader(childColor));
 
-        for (CortexRecord cr : GRAPH) {
+        // Ranges are scanned in parallel, but their novel records are written in graph order
+        List<CortexGraphScanner.RangeStats> stats = scanner.scan(cr -> {
             if (isNovel(cr, parentColors, childColor)) {
-                CortexRecord novelCr = new CortexRecord(
+                return new CortexRecord(
                     cr.getBinaryKmer(),
                     new int[] { cr.getCoverages()[childColor] },
                     new byte[] { cr.getEdges()[childColor] },
                     cr.getKmerSize(), cr.getKmerBits()
                 );
+            }
 
-                cgw.addRecord(novelCr);
+            return null;
+        }, cgw::addRecord, rs -> pm.update());
 
-                numNovelRecords++;
-            }
+        cgw.close();
 
-            pm.update("records processed (" + numNovelRecords + " novel so far)");
+        long numNovelRecords = 0L, elapsedMillis = 0L;
+        TableWriter tw = new TableWriter(statsOut);
+        for (CortexGraphScanner.RangeStats rs : stats) {
+            Map<String, String> te = new LinkedHashMap<>();
+            te.put("first", String.valueOf(rs.getFirst()));
+            te.put("end", String.valueOf(rs.getEnd()));
+            te.put("numRecords", String.valueOf(rs.getNumRecords()));
+            te.put("numNovelRecords", String.valueOf(rs.getNumEmitted()));
+            te.put("elapsedMillis", String.valueOf(rs.getElapsedMillis()));
+            tw.addEntry(te);
+
+            numNovelRecords += rs.getNumEmitted();
+            elapsedMillis += rs.getElapsedMillis();
         }
 
-        cgw.close();
+        log.info("Found {} novel records in {} records ({} ranges, {} ms scanning)", numNovelRecords, GRAPH.getNumRecords(), stats.size(), elapsedMillis);
     }
 
     private boolean isNovel(CortexRecord cr, List<Integer> parentColors, int childColor) {
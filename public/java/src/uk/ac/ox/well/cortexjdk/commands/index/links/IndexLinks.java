@@ -1,27 +1,16 @@
 package uk.ac.ox.well.cortexjdk.commands.index.links;
 
-import htsjdk.samtools.util.BlockCompressedOutputStream;
-import org.apache.commons.math3.util.Pair;
 import uk.ac.ox.well.cortexjdk.commands.Module;
 import uk.ac.ox.well.cortexjdk.utils.arguments.Argument;
-import uk.ac.ox.well.cortexjdk.utils.exceptions.CortexJDKException;
-import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexRecord;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.links.CortexLinksIndexedWriter;
 import uk.ac.ox.well.cortexjdk.utils.io.graph.links.CortexLinksIterable;
 import uk.ac.ox.well.cortexjdk.utils.io.graph.links.CortexLinksRecord;
-import uk.ac.ox.well.cortexjdk.utils.kmer.CortexBinaryKmer;
-import uk.ac.ox.well.cortexjdk.utils.kmer.CortexByteKmer;
 import uk.ac.ox.well.cortexjdk.utils.progress.ProgressMeter;
 import uk.ac.ox.well.cortexjdk.utils.progress.ProgressMeterFactory;
 
-import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.channels.FileChannel;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.Map;
-import java.util.TreeMap;
-
-import static java.nio.file.StandardOpenOption.*;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Created by kiran on 13/09/2017.
@@ -33,104 +22,73 @@ public class IndexLinks extends Module {
     @Argument(fullName="source", shortName="s", doc="Link source")
     public String SOURCE;
 
-    @Override
-    public void execute() {
-        Path bgzipPath = Paths.get(LINKS.getFile().getAbsolutePath().replace(".ctp.gz", ".ctp.bgz"));
-        Path indexPath = Paths.get(LINKS.getFile().getAbsolutePath().replace(".ctp.gz", ".ctp.bgz.idx"));
-
-        if (indexPath.toFile().exists()) {
-            indexPath.toFile().delete();
-        }
-
-        BlockCompressedOutputStream bc = new BlockCompressedOutputStream(bgzipPath.toFile().getAbsolutePath(), 9);
-
-        log.info("Writing bgzipped links and link index to:");
-        log.info("  - {}", bgzipPath);
-        log.info("  - {}", indexPath);
+    @Argument(fullName="threads", shortName="t", doc="Number of threads")
+    public Integer NUM_THREADS = 1;
 
-        try (FileChannel fc = FileChannel.open(indexPath, CREATE_NEW, READ, WRITE)) {
-            storeHeader(fc, LINKS, SOURCE);
-            storeRecordsAndIndex(fc, bc, LINKS);
+    @Argument(fullName="maxRecordsInRam", shortName="m", doc="Maximum number of index entries to sort in memory before spilling to disk")
+    public Integer MAX_RECORDS_IN_RAM = 1000000;
 
-            fc.close();
-            bc.close();
-        } catch (IOException e) {
-            throw new CortexJDKException("IOException", e);
-        }
-    }
+    @Argument(fullName="batchSize", shortName="b", doc="Number of link records per parsing and compression task")
+    public Integer BATCH_SIZE = 10000;
 
-    private void storeHeader(FileChannel fc, CortexLinksIterable links, String source) throws IOException {
-        int capacity = 6 + 4 + 4 + 8 + 8 + 8;
-        capacity += 4 + source.length();
-        for (int c = 0; c < links.getNumColors(); c++) {
-            capacity += 4 + links.getColor(c).getSampleName().length();
-        }
-        capacity += 6;
-
-        ByteBuffer bb = ByteBuffer.allocateDirect(capacity);
+    @Override
+    public void execute() {
+        File bgzipFile = new File(LINKS.getFile().getAbsolutePath().replace(".ctp.gz", ".ctp.bgz"));
 
-        bb.put("LNKIDX".getBytes());
-        bb.putInt(links.getNumColors());
-        bb.putInt(links.getKmerSize());
-        bb.putLong(links.getNumKmersInGraph());
-        bb.putLong(links.getNumKmersWithLinks());
-        bb.putLong(links.getLinkBytes());
+        CortexLinksIndexedWriter writer = new CortexLinksIndexedWriter(bgzipFile, LINKS.getKmerSize(), NUM_THREADS, MAX_RECORDS_IN_RAM);
 
-        bb.putInt(source.length());
-        bb.put(source.getBytes());
+        log.info("Writing bgzipped links and link index to:");
+        log.info("  - {}", writer.getFile());
+        log.info("  - {}", writer.getIndexFile());
+        log.info("  using {} threads, {} index entries in memory", NUM_THREADS, MAX_RECORDS_IN_RAM);
 
-        for (int c = 0; c < links.getNumColors(); c++) {
-            String sn = links.getColor(c).getSampleName();
-            bb.putInt(sn.length());
-            bb.put(sn.getBytes());
+        List<String> sampleNames = new ArrayList<>();
+        for (int c = 0; c < LINKS.getNumColors(); c++) {
+            sampleNames.add(LINKS.getColor(c).getSampleName());
         }
 
-        bb.put("LNKIDX".getBytes());
-
-        bb.flip();
-        fc.write(bb);
-    }
-
-    private void storeRecordsAndIndex(FileChannel fc, BlockCompressedOutputStream bc, CortexLinksIterable links) throws IOException {
-        int numKmerBits = CortexRecord.getKmerBits(links.getKmerSize());
-        int bufferSize = (int) (links.getNumKmersWithLinks() * ((8*numKmerBits) + 8 + 4));
-
-        log.info("Allocating kmer table ({} records, {} bytes)", links.getNumKmersWithLinks(), bufferSize);
-
-        bc.write(links.getJSONHeader().getBytes());
-        bc.write("\n".getBytes());
-        bc.write(links.getComments().getBytes());
-        bc.write("\n".getBytes());
+        writer.setJSONHeader(LINKS.getJSONHeader());
+        writer.setComments(LINKS.getComments());
+        writer.setSource(SOURCE);
+        writer.setSampleNames(sampleNames);
+        writer.setNumKmersInGraph(LINKS.getNumKmersInGraph());
+        writer.setLinkBytes(LINKS.getLinkBytes());
 
         ProgressMeter pm = new ProgressMeterFactory()
                 .header("Processing links")
                 .message("links")
-                .maxRecord(links.getNumKmersWithLinks())
+                .maxRecord(LINKS.getNumKmersWithLinks())
                 .make(log);
 
-        Map<CortexByteKmer, Pair<Long, Integer>> kmerTable = new TreeMap<>();
-
-        for (CortexLinksRecord clr : links) {
-            CortexByteKmer cbk = clr.getKmerAsByteKmer();
-            kmerTable.put(cbk, new Pair<>(bc.getPosition(), clr.toString().length()));
+        List<String[]> batch = new ArrayList<>(BATCH_SIZE);
+        for (String[] rawRecord : LINKS.rawRecords()) {
+            batch.add(rawRecord);
 
-            bc.write(clr.toString().getBytes());
-            bc.write("\n".getBytes());
+            if (batch.size() == BATCH_SIZE) {
+                submitBatch(writer, batch);
+                batch = new ArrayList<>(BATCH_SIZE);
+            }
 
             pm.update();
         }
 
-        ByteBuffer bb = ByteBuffer.allocateDirect(bufferSize);
-        for (CortexByteKmer cb : kmerTable.keySet()) {
-            CortexBinaryKmer cbk = new CortexBinaryKmer(cb.getKmer());
-            for (long l : cbk.getBinaryKmer()) {
-                bb.putLong(l);
-            }
-            bb.putLong(kmerTable.get(cb).getFirst());
-            bb.putInt(kmerTable.get(cb).getSecond());
+        if (!batch.isEmpty()) {
+            submitBatch(writer, batch);
         }
 
-        bb.flip();
-        fc.write(bb);
+        writer.close();
+
+        log.info("  wrote {} records, {} links", writer.getNumRecords(), writer.getNumLinks());
+    }
+
+    private void submitBatch(CortexLinksIndexedWriter writer, List<String[]> batch) {
+        writer.addRecords(() -> {
+            List<CortexLinksRecord> records = new ArrayList<>(batch.size());
+            for (String[] rawRecord : batch) {
+                records.add(LINKS.parseRecord(rawRecord));
+            }
+
+            return records;
+        });
     }
 }
@@ -0,0 +1,58 @@
+package uk.ac.ox.well.cortexjdk.commands.index.links;
+
+import uk.ac.ox.well.cortexjdk.commands.Module;
+import uk.ac.ox.well.cortexjdk.utils.arguments.Argument;
+import uk.ac.ox.well.cortexjdk.utils.arguments.Description;
+import uk.ac.ox.well.cortexjdk.utils.arguments.Output;
+import uk.ac.ox.well.cortexjdk.utils.exceptions.CortexJDKException;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.links.CortexLinksIterable;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.links.CortexLinksMerger;
+
+import java.io.File;
+import java.util.ArrayList;
+
+@Description(text="Merge the links of many samples into one indexed container with per-sample provenance")
+public class MergeLinks extends Module {
+    @Argument(fullName="links", shortName="l", doc="Links")
+    public ArrayList<CortexLinksIterable> LINKS;
+
+    @Argument(fullName="source", shortName="s", doc="Link source for each links file (or one for all)")
+    public ArrayList<String> SOURCES;
+
+    @Argument(fullName="threads", shortName="t", doc="Number of threads")
+    public Integer NUM_THREADS = 1;
+
+    @Argument(fullName="maxRecordsInRam", shortName="m", doc="Maximum number of index entries to sort in memory before spilling to disk")
+    public Integer MAX_RECORDS_IN_RAM = 1000000;
+
+    @Argument(fullName="partitionSize", shortName="p", doc="Approximate number of input records merged in memory at once")
+    public Integer PARTITION_SIZE = 200000;
+
+    @Output
+    public File out;
+
+    @Override
+    public void execute() {
+        if (SOURCES.size() != 1 && SOURCES.size() != LINKS.size()) {
+            throw new CortexJDKException("Specify one link source, or one per links file (got " + SOURCES.size() + " for " + LINKS.size() + " files)");
+        }
+
+        CortexLinksMerger merger = new CortexLinksMerger(out, NUM_THREADS, MAX_RECORDS_IN_RAM);
+        merger.setRecordsPerPartition(PARTITION_SIZE);
+
+        log.info("Merging links:");
+        for (int i = 0; i < LINKS.size(); i++) {
+            String source = SOURCES.get(SOURCES.size() == 1 ? 0 : i);
+
+            log.info("  - {} ({} colors, {} records, source '{}')", LINKS.get(i).getFile().getName(), LINKS.get(i).getNumColors(), LINKS.get(i).getNumKmersWithLinks(), source);
+
+            merger.add(LINKS.get(i), source);
+        }
+
+        merger.merge();
+
+        log.info("Wrote {} records, {} links to:", merger.getNumRecords(), merger.getNumLinks());
+        log.info("  - {}", out.getAbsolutePath());
+        log.info("  - {}.idx", out.getAbsolutePath());
+    }
+}
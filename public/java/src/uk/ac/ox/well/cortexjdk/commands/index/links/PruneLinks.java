@@ -0,0 +1,313 @@
+package uk.ac.ox.well.cortexjdk.commands.index.links;
+
+import org.json.JSONObject;
+import uk.ac.ox.well.cortexjdk.commands.Module;
+import uk.ac.ox.well.cortexjdk.utils.arguments.Argument;
+import uk.ac.ox.well.cortexjdk.utils.arguments.Description;
+import uk.ac.ox.well.cortexjdk.utils.arguments.Output;
+import uk.ac.ox.well.cortexjdk.utils.exceptions.CortexJDKException;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexGraph;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexRecord;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.links.CortexJunctionsRecord;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.links.CortexLinksIndexedWriter;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.links.CortexLinksIterable;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.links.CortexLinksRecord;
+import uk.ac.ox.well.cortexjdk.utils.kmer.CanonicalKmer;
+import uk.ac.ox.well.cortexjdk.utils.progress.ProgressMeter;
+import uk.ac.ox.well.cortexjdk.utils.progress.ProgressMeterFactory;
+import uk.ac.ox.well.cortexjdk.utils.sequence.SequenceUtils;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prune a links file before indexing.  Links are removed if they are inconsistent with the graph (optional), if
+ * their total coverage is below a threshold, or if they are a prefix of another link on the same kmer and
+ * orientation (the prefix's coverage is merged into its extension when there is exactly one).  The surviving links
+ * are written bgzipped and indexed, as IndexLinks would.
+ */
+@Description(text="Remove low-coverage, redundant and graph-inconsistent links, then write and index the result")
+public class PruneLinks extends Module {
+    @Argument(fullName="links", shortName="l", doc="Links")
+    public CortexLinksIterable LINKS;
+
+    @Argument(fullName="graph", shortName="g", doc="Graph to check link junctions against", required=false)
+    public CortexGraph GRAPH;
+
+    @Argument(fullName="minCoverage", shortName="c", doc="Minimum link coverage (summed over colors)")
+    public Integer MIN_COVERAGE = 2;
+
+    @Argument(fullName="source", shortName="s", doc="Link source")
+    public String SOURCE;
+
+    @Argument(fullName="threads", shortName="t", doc="Number of threads")
+    public Integer NUM_THREADS = 1;
+
+    @Argument(fullName="maxRecordsInRam", shortName="m", doc="Maximum number of index entries to sort in memory before spilling to disk")
+    public Integer MAX_RECORDS_IN_RAM = 1000000;
+
+    @Argument(fullName="batchSize", shortName="b", doc="Number of link records per pruning and compression task")
+    public Integer BATCH_SIZE = 10000;
+
+    @Output
+    public File out;
+
+    private static final int MAX_WALK_LENGTH = 100000;
+
+    private ThreadLocal<CortexGraph> graphs;
+    private int[] graphColors;
+
+    private final AtomicLong linksSeen = new AtomicLong();
+    private final AtomicLong linksInconsistent = new AtomicLong();
+    private final AtomicLong linksLowCoverage = new AtomicLong();
+    private final AtomicLong linksMerged = new AtomicLong();
+    private final AtomicLong recordsEmptied = new AtomicLong();
+
+    @Override
+    public void execute() {
+        if (GRAPH != null) {
+            if (GRAPH.getKmerSize() != LINKS.getKmerSize()) {
+                throw new CortexJDKException("Graph kmer size (" + GRAPH.getKmerSize() + ") does not match links kmer size (" + LINKS.getKmerSize() + ")");
+            }
+
+            // CortexGraph lookups are not thread-safe, so each worker gets its own handle.
+            File graphFile = GRAPH.getFile();
+            graphs = ThreadLocal.withInitial(() -> new CortexGraph(graphFile));
+            graphColors = getGraphColors();
+        }
+
+        CortexLinksIndexedWriter writer = new CortexLinksIndexedWriter(out, LINKS.getKmerSize(), NUM_THREADS, MAX_RECORDS_IN_RAM);
+
+        log.info("Pruning links (minimum coverage {}{}), writing to:", MIN_COVERAGE, GRAPH == null ? "" : ", checking against graph");
+        log.info("  - {}", writer.getFile());
+        log.info("  - {}", writer.getIndexFile());
+
+        List<String> sampleNames = new ArrayList<>();
+        for (int c = 0; c < LINKS.getNumColors(); c++) {
+            sampleNames.add(LINKS.getColor(c).getSampleName());
+        }
+
+        writer.setComments(LINKS.getComments());
+        writer.setSource(SOURCE);
+        writer.setSampleNames(sampleNames);
+        writer.setNumKmersInGraph(LINKS.getNumKmersInGraph());
+
+        ProgressMeter pm = new ProgressMeterFactory()
+                .header("Pruning links")
+                .message("records")
+                .maxRecord(LINKS.getNumKmersWithLinks())
+                .make(log);
+
+        List<String[]> batch = new ArrayList<>(BATCH_SIZE);
+        for (String[] rawRecord : LINKS.rawRecords()) {
+            batch.add(rawRecord);
+
+            if (batch.size() == BATCH_SIZE) {
+                submitBatch(writer, batch);
+                batch = new ArrayList<>(BATCH_SIZE);
+            }
+
+            pm.update();
+        }
+
+        if (!batch.isEmpty()) {
+            submitBatch(writer, batch);
+        }
+
+        writer.flush();
+        writer.setLinkBytes(writer.getNumLinkBytes());
+        writer.setJSONHeader(updateHeader(LINKS.getJSONHeader(), writer.getNumRecords(), writer.getNumLinks(), writer.getNumLinkBytes()));
+        writer.close();
+
+        long seen = linksSeen.get();
+        log.info("  links seen:              {}", seen);
+        log.info("  - graph-inconsistent:    {} ({}%)", linksInconsistent.get(), percent(linksInconsistent.get(), seen));
+        log.info("  - below coverage {}:     {} ({}%)", MIN_COVERAGE, linksLowCoverage.get(), percent(linksLowCoverage.get(), seen));
+        log.info("  - merged into extension: {} ({}%)", linksMerged.get(), percent(linksMerged.get(), seen));
+        log.info("  links kept:              {} ({}%)", writer.getNumLinks(), percent(writer.getNumLinks(), seen));
+        log.info("  records kept:            {}/{} ({} emptied)", writer.getNumRecords(), LINKS.getNumKmersWithLinks(), recordsEmptied.get());
+    }
+
+    private void submitBatch(CortexLinksIndexedWriter writer, List<String[]> batch) {
+        writer.addRecords(() -> {
+            List<CortexLinksRecord> records = new ArrayList<>(batch.size());
+            for (String[] rawRecord : batch) {
+                CortexLinksRecord clr = prune(LINKS.parseRecord(rawRecord));
+
+                if (clr != null) {
+                    records.add(clr);
+                }
+            }
+
+            return records;
+        });
+    }
+
+    private CortexLinksRecord prune(CortexLinksRecord clr) {
+        linksSeen.addAndGet(clr.getJunctions().size());
+
+        List<CortexJunctionsRecord> kept = new ArrayList<>();
+        for (CortexJunctionsRecord cjr : clr.getJunctions()) {
+            if (graphs != null && !isConsistentWithGraph(clr.getKmerAsString(), cjr)) {
+                linksInconsistent.incrementAndGet();
+            } else if (totalCoverage(cjr.getCoverages()) < MIN_COVERAGE) {
+                linksLowCoverage.incrementAndGet();
+            } else {
+                kept.add(cjr);
+            }
+        }
+
+        kept = mergePrefixes(kept);
+
+        if (kept.isEmpty()) {
+            recordsEmptied.incrementAndGet();
+            return null;
+        }
+
+        return new CortexLinksRecord(clr.getKmerAsString(), kept);
+    }
+
+    /**
+     * A link whose junctions are a proper prefix of another link's (same orientation) makes no choice that the
+     * longer link doesn't, so it is dropped.  Its coverage is credited to the longer link only when that extension
+     * is unique; with several, the evidence can't be attributed.
+     */
+    private List<CortexJunctionsRecord> mergePrefixes(List<CortexJunctionsRecord> cjrs) {
+        List<CortexJunctionsRecord> sorted = new ArrayList<>(cjrs);
+        sorted.sort((a, b) -> Integer.compare(b.getJunctions().length(), a.getJunctions().length()));
+
+        List<CortexJunctionsRecord> kept = new ArrayList<>();
+        List<int[]> keptCoverages = new ArrayList<>();
+        List<BitSet> keptMembers = new ArrayList<>();
+
+        for (CortexJunctionsRecord cjr : sorted) {
+            int extension = -1, numExtensions = 0;
+            for (int i = 0; i < kept.size(); i++) {
+                CortexJunctionsRecord longer = kept.get(i);
+
+                if (longer.isForward() == cjr.isForward() &&
+                    longer.getJunctions().length() > cjr.getJunctions().length() &&
+                    longer.getJunctions().startsWith(cjr.getJunctions())) {
+                    extension = i;
+                    numExtensions++;
+                }
+            }
+
+            if (numExtensions == 0) {
+                kept.add(cjr);
+                keptCoverages.add(Arrays.copyOf(cjr.getCoverages(), cjr.getCoverages().length));
+                keptMembers.add(cjr.getMembers() == null ? null : (BitSet) cjr.getMembers().clone());
+            } else {
+                if (numExtensions == 1) {
+                    int[] covs = keptCoverages.get(extension);
+                    for (int c = 0; c < covs.length && c < cjr.getCoverages().length; c++) {
+                        covs[c] += cjr.getCoverage(c);
+                    }
+
+                    if (keptMembers.get(extension) != null && cjr.getMembers() != null) {
+                        keptMembers.get(extension).or(cjr.getMembers());
+                    }
+                }
+
+                linksMerged.incrementAndGet();
+            }
+        }
+
+        List<CortexJunctionsRecord> merged = new ArrayList<>(kept.size());
+        for (int i = 0; i < kept.size(); i++) {
+            CortexJunctionsRecord cjr = kept.get(i);
+            merged.add(new CortexJunctionsRecord(cjr.isForward(), cjr.getNumKmers(), cjr.getNumJunctions(), keptCoverages.get(i), cjr.getJunctions(), keptMembers.get(i)));
+        }
+
+        return merged;
+    }
+
+    /**
+     * Walk the graph from the link's kmer in the link's direction, taking the link's next junction choice at every
+     * branch.  The link is consistent if every choice is an existing edge.
+     */
+    private boolean isConsistentWithGraph(String kmer, CortexJunctionsRecord cjr) {
+        CortexGraph graph = graphs.get();
+        String junctions = cjr.getJunctions();
+
+        byte[] sk = cjr.isForward() ? kmer.getBytes() : SequenceUtils.reverseComplement(kmer.getBytes());
+
+        int junction = 0;
+        for (int step = 0; junction < junctions.length() && step < MAX_WALK_LENGTH; step++) {
+            CanonicalKmer ck = new CanonicalKmer(sk);
+            CortexRecord cr = graph.findRecord(ck);
+            if (cr == null) {
+                return false;
+            }
+
+            Set<Byte> outEdges = new HashSet<>();
+            for (int c : graphColors) {
+                outEdges.addAll(ck.isFlipped() ? cr.getInEdgesAsBytes(c, true) : cr.getOutEdgesAsBytes(c, false));
+            }
+
+            byte next;
+            if (outEdges.isEmpty()) {
+                return false;
+            } else if (outEdges.size() == 1) {
+                next = outEdges.iterator().next();
+            } else {
+                next = (byte) junctions.charAt(junction);
+                if (!outEdges.contains(next)) {
+                    return false;
+                }
+
+                junction++;
+            }
+
+            byte[] nk = new byte[sk.length];
+            System.arraycopy(sk, 1, nk, 0, sk.length - 1);
+            nk[nk.length - 1] = next;
+            sk = nk;
+        }
+
+        return junction == junctions.length();
+    }
+
+    private int[] getGraphColors() {
+        Set<Integer> colors = new TreeSet<>();
+        for (int c = 0; c < LINKS.getNumColors(); c++) {
+            int gc = GRAPH.getColorForSampleName(LINKS.getColor(c).getSampleName());
+            if (gc >= 0) {
+                colors.add(gc);
+            }
+        }
+
+        if (colors.isEmpty()) {
+            for (int c = 0; c < GRAPH.getNumColors(); c++) {
+                colors.add(c);
+            }
+        }
+
+        return colors.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static long totalCoverage(int[] coverages) {
+        long total = 0;
+        for (int coverage : coverages) {
+            total += coverage;
+        }
+
+        return total;
+    }
+
+    private static String updateHeader(String jsonHeader, long numKmersWithLinks, long numLinks, long linkBytes) {
+        JSONObject header = new JSONObject(jsonHeader);
+        JSONObject paths = header.has("paths") ? header.getJSONObject("paths") : header;
+
+        paths.put("num_kmers_with_paths", numKmersWithLinks);
+        paths.put("num_paths", numLinks);
+        paths.put("path_bytes", linkBytes);
+
+        return header.toString(4);
+    }
+
+    private static String percent(long n, long total) {
+        return String.format("%.2f", total == 0 ? 0.0f : 100.0f * (float) n / (float) total);
+    }
+}
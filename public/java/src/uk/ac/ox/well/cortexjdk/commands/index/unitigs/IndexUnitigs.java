@@ -0,0 +1,61 @@
+package uk.ac.ox.well.cortexjdk.commands.index.unitigs;
+
+import uk.ac.ox.well.cortexjdk.commands.Module;
+import uk.ac.ox.well.cortexjdk.utils.arguments.Argument;
+import uk.ac.ox.well.cortexjdk.utils.arguments.Description;
+import uk.ac.ox.well.cortexjdk.utils.arguments.Output;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexGraph;
+import uk.ac.ox.well.cortexjdk.utils.traversal.UnitigIndex;
+
+import java.io.File;
+import java.util.*;
+
+@Description(text="Precompute the unitigs of a graph, so that traversals can skip over linear stretches")
+public class IndexUnitigs extends Module {
+    @Argument(fullName="graph", shortName="g", doc="Graph")
+    public CortexGraph GRAPH;
+
+    @Argument(fullName="samples", shortName="s", doc="Samples whose colors will be traversed (default: all)", required=false)
+    public ArrayList<String> SAMPLES;
+
+    @Output
+    public File out;
+
+    @Override
+    public void execute() {
+        Set<Integer> colors = new TreeSet<>();
+        if (SAMPLES == null || SAMPLES.isEmpty()) {
+            for (int c = 0; c < GRAPH.getNumColors(); c++) {
+                colors.add(c);
+            }
+        } else {
+            colors.addAll(GRAPH.getColorsForSampleNames(SAMPLES));
+        }
+
+        log.info("Compacting unitigs in colors {}", colors);
+
+        UnitigIndex ui = UnitigIndex.build(GRAPH, colors);
+
+        List<Integer> lengths = new ArrayList<>();
+        long totalKmers = 0;
+        for (int id = 0; id < ui.size(); id++) {
+            lengths.add(ui.getNumKmers(id));
+            totalKmers += ui.getNumKmers(id);
+        }
+        lengths.sort(Collections.reverseOrder());
+
+        int n50 = 0;
+        long sum = 0;
+        for (int length : lengths) {
+            sum += length;
+            if (2 * sum >= totalKmers) {
+                n50 = length;
+                break;
+            }
+        }
+
+        log.info("  {} unitigs, {} kmers, N50 {} kmers", ui.size(), totalKmers, n50);
+
+        ui.write(out);
+    }
+}
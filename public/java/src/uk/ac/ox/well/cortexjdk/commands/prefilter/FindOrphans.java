@@ -86,7 +86,7 @@ public class FindOrphans extends Module {
                 */
 
                 CortexRecord cr = GRAPH.findRecord(rr.getKmerAsString());
-                if (e.getNextVertices(cr.getKmerAsByteKmer()).size() == 0 || e.getPrevVertices(cr.getKmerAsByteKmer()).size() == 0) {
+                if (e.getNextKmers(cr.getKmerAsByteKmer()).isEmpty() || e.getPrevKmers(cr.getKmerAsByteKmer()).isEmpty()) {
                     Graph<CortexVertex, CortexEdge> dfs = e.dfs(rr.getKmerAsString());
 
                     if (dfs != null && dfs.vertexSet().size() > 0) {
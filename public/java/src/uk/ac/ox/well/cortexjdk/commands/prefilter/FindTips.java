@@ -9,12 +9,14 @@ import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexGraphWriter;
 import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexRecord;
 import uk.ac.ox.well.cortexjdk.utils.io.graph.links.CortexLinks;
 import uk.ac.ox.well.cortexjdk.utils.kmer.CanonicalKmer;
+import uk.ac.ox.well.cortexjdk.utils.kmer.CortexByteKmer;
 import uk.ac.ox.well.cortexjdk.utils.progress.ProgressMeter;
 import uk.ac.ox.well.cortexjdk.utils.progress.ProgressMeterFactory;
 import uk.ac.ox.well.cortexjdk.utils.stoppingrules.ContigStopper;
-import uk.ac.ox.well.cortexjdk.utils.traversal.CortexVertex;
 import uk.ac.ox.well.cortexjdk.utils.traversal.TraversalEngine;
+import uk.ac.ox.well.cortexjdk.utils.traversal.TraversalEngineConfiguration;
 import uk.ac.ox.well.cortexjdk.utils.traversal.TraversalEngineFactory;
+import uk.ac.ox.well.cortexjdk.utils.traversal.TraversalExecutor;
 
 import java.io.File;
 import java.util.*;
@@ -36,6 +38,9 @@ public class FindTips extends Module {
     @Argument(fullName="roi", shortName="r", doc="ROI")
     public CortexGraph ROI;
 
+    @Argument(fullName="threads", shortName="t", doc="Number of threads")
+    public Integer NUM_THREADS = 1;
+
     @Output
     public File out;
 
@@ -65,40 +70,73 @@ public class FindTips extends Module {
         Set<CanonicalKmer> tips = new HashSet<>();
         int numTipChains = 0;
 
-        for (CanonicalKmer rr : used.keySet()) {
-            if (!used.get(rr)) {
-                TraversalEngine e = new TraversalEngineFactory()
-                        .traversalDirection(BOTH)
-                        .combinationOperator(AND)
-                        .traversalColors(childColor)
-                        .joiningColors(parentColors)
-                        .stoppingRule(ContigStopper.class)
-                        .rois(ROI)
-                        .graph(GRAPH)
-                        .links(LINKS)
-                        .make();
-
-                List<CortexVertex> l = e.walk(rr.getKmerAsString());
+        TraversalEngineConfiguration ec = new TraversalEngineFactory()
+                .traversalDirection(BOTH)
+                .combinationOperator(AND)
+                .traversalColors(childColor)
+                .joiningColors(parentColors)
+                .stoppingRule(ContigStopper.class)
+                .rois(ROI)
+                .graph(GRAPH)
+                .links(LINKS)
+                .make()
+                .getConfiguration();
+
+        TraversalExecutor te = new TraversalExecutor(ec, NUM_THREADS);
+
+        // Seeds already covered by an earlier walk are skipped before submission where possible, and always
+        // when their results are consumed (in seed order), so the output does not depend on the thread count.
+        Iterator<CanonicalKmer> seeds = used.keySet().iterator();
+        Iterator<CanonicalKmer> unused = new Iterator<CanonicalKmer>() {
+            private CanonicalKmer next = advance();
+
+            @Override
+            public boolean hasNext() { return next != null; }
+
+            @Override
+            public CanonicalKmer next() {
+                CanonicalKmer rr = next;
+                next = advance();
+
+                return rr;
+            }
 
-                if (l.size() > 0) {
-                    boolean leftNovelEnd = used.containsKey(l.get(0).getCanonicalKmer());
-                    boolean noLeftEdges = e.getPrevVertices(l.get(0).getKmerAsByteKmer()).size() == 0;
+            private CanonicalKmer advance() {
+                while (seeds.hasNext()) {
+                    CanonicalKmer rr = seeds.next();
+                    if (!used.get(rr)) {
+                        return rr;
+                    }
 
-                    boolean rightNovelEnd = used.containsKey(l.get(l.size() - 1).getCanonicalKmer());
-                    boolean noRightEdges = e.getNextVertices(l.get(l.size() - 1).getKmerAsByteKmer()).size() == 0;
+                    pm.update();
+                }
+
+                return null;
+            }
+        };
 
-                    boolean isTip = (leftNovelEnd && noLeftEdges) || (rightNovelEnd && noRightEdges);
+        // Workers only ask which kmers are ROIs, never whether they've been used, so they get a frozen copy of the
+        // keys rather than reading the map while it's being updated below
+        Set<CanonicalKmer> roiKmers = Collections.unmodifiableSet(new HashSet<>(used.keySet()));
 
-                    if (isTip) {
+        Iterator<TipWalk> walks = te.ordered(unused, (e, rr) -> walkTip(e, rr, roiKmers));
+        while (walks.hasNext()) {
+            TipWalk tw = walks.next();
+
+            if (!used.get(tw.seed)) {
+                List<CanonicalKmer> l = tw.walk;
+
+                if (l.size() > 0) {
+                    if (tw.isTip) {
                         numTipChains++;
                     }
 
-                    for (CortexVertex cv : l) {
-                        if (used.containsKey(cv.getCanonicalKmer())) {
-                            used.put(cv.getCanonicalKmer(), true);
+                    for (CanonicalKmer ck : l) {
+                        if (used.containsKey(ck)) {
+                            used.put(ck, true);
 
-                            if (isTip) {
-                                tips.add(cv.getCanonicalKmer());
+                            if (tw.isTip) {
+                                tips.add(ck);
                             }
                         }
                     }
@@ -108,6 +146,8 @@ public class FindTips extends Module {
             pm.update();
         }
 
+        te.close();
+
         log.info("Found {} tip kmer chains ({} kmers total)", numTipChains, tips.size());
 
         log.info("Writing...");
@@ -138,4 +178,42 @@ public class FindTips extends Module {
                 numExcluded, ROI.getNumRecords(), 100.0f * (float) numExcluded / (float) ROI.getNumRecords()
         );
     }
+
+    private TipWalk walkTip(TraversalEngine e, CanonicalKmer rr, Set<CanonicalKmer> roiKmers) {
+        String contig = e.walkBases(rr.getKmerAsString());
+        int kmerSize = GRAPH.getKmerSize();
+
+        List<CanonicalKmer> l = new ArrayList<>();
+        for (int i = 0; i <= contig.length() - kmerSize; i++) {
+            l.add(new CanonicalKmer(contig.substring(i, i + kmerSize)));
+        }
+
+        boolean isTip = false;
+        if (l.size() > 0) {
+            String firstKmer = contig.substring(0, kmerSize);
+            String lastKmer = contig.substring(contig.length() - kmerSize);
+
+            boolean leftNovelEnd = roiKmers.contains(l.get(0));
+            boolean noLeftEdges = e.getPrevKmers(new CortexByteKmer(firstKmer)).size() == 0;
+
+            boolean rightNovelEnd = roiKmers.contains(l.get(l.size() - 1));
+            boolean noRightEdges = e.getNextKmers(new CortexByteKmer(lastKmer)).size() == 0;
+
+            isTip = (leftNovelEnd && noLeftEdges) || (rightNovelEnd && noRightEdges);
+        }
+
+        return new TipWalk(rr, l, isTip);
+    }
+
+    private static class TipWalk {
+        final CanonicalKmer seed;
+        final List<CanonicalKmer> walk;
+        final boolean isTip;
+
+        TipWalk(CanonicalKmer seed, List<CanonicalKmer> walk, boolean isTip) {
+            this.seed = seed;
+            this.walk = walk;
+            this.isTip = isTip;
+        }
+    }
 }
@@ -22,6 +22,7 @@ public class BwaAligner {
     private final BwaIndex index;
     private final BwaMem mem;
     private final SAMFileHeader header;
+    private final boolean ownsIndex;
 
     public BwaAligner(String ref) {
         System.loadLibrary("bwajni");
@@ -34,11 +35,27 @@ public class BwaAligner {
             header.setSequenceDictionary(fa.getSequenceDictionary());
 
             mem = new BwaMem(index);
+            ownsIndex = true;
         } catch (IOException e) {
             throw new CortexJDKException("Could not initialize bwajni library");
         }
     }
 
+    private BwaAligner(BwaAligner shared) {
+        index = shared.index;
+        header = shared.header;
+        mem = new BwaMem(index);
+        ownsIndex = false;
+    }
+
+    /**
+     * @return  an aligner over this one's index with its own alignment state, for use on another thread (closing it
+     *          leaves the index open)
+     */
+    public BwaAligner share() {
+        return new BwaAligner(this);
+    }
+
     public List<SAMRecord> align(String query) {
         ShortRead read = new ShortRead("unknown", query.getBytes(), new byte[0]);
 
@@ -76,7 +93,9 @@ public class BwaAligner {
     }
 
     public void close() {
-        index.close();
+        if (ownsIndex) {
+            index.close();
+        }
         mem.dispose();
     }
 }
@@ -27,6 +27,8 @@ public interface ConnectivityAnnotations {
 
     default String getSource() { return "unknown"; }
 
+    default String getSource(int color) { return getSource(); }
+
     default CortexBinaryKmer convert(Object key) {
         if (key instanceof CortexBinaryKmer) {
             return (CortexBinaryKmer) key;
@@ -62,6 +62,11 @@ public class CortexCollection implements uk.ac.ox.well.cortexjdk.utils.io.graph.
         }
     }
 
+    /**
+     * @return  the graphs in the collection, in the order (and with any repeats) they were given
+     */
+    public List<CortexGraph> getGraphs() { return Collections.unmodifiableList(graphList); }
+
     public CortexGraph getGraph(int color) {
         for (CortexGraph g : graphs.keySet()) {
             Pair<List<Integer>, List<Integer>> p = graphs.get(g);
@@ -0,0 +1,173 @@
+package uk.ac.ox.well.cortexjdk.utils.io.graph.cortex;
+
+import uk.ac.ox.well.cortexjdk.utils.exceptions.CortexJDKException;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Scans the records of a Cortex graph on a bounded worker pool.  The records are split into disjoint, contiguous
+ * ranges, each of which is read by a worker through its own handle on the graph file (a CortexGraph keeps a file
+ * position and a cache, and so cannot be shared between threads) and passed record by record through a function.
+ * The function's non-null results are handed to a consumer on the calling thread in record order, so the consumer
+ * sees exactly what a single-threaded scan would give it.
+ *
+ * Ranges are submitted lazily, with at most a few per thread in flight at once, so only those ranges' results are
+ * held in memory.  With a single thread, ranges are scanned on the calling thread using the original graph.
+ */
+public class CortexGraphScanner {
+    private static final int RANGES_IN_FLIGHT_PER_THREAD = 4;
+    public static final long DEFAULT_RANGE_SIZE = 1000000L;
+
+    /**
+     * Summary statistics for one range of records.
+     */
+    public static class RangeStats {
+        private final long first, end;
+        private long numEmitted = 0L;
+        private long elapsedNanos = 0L;
+
+        private RangeStats(long first, long end) {
+            this.first = first;
+            this.end = end;
+        }
+
+        public long getFirst() { return first; }
+        public long getEnd() { return end; }
+        public long getNumRecords() { return end - first; }
+        public long getNumEmitted() { return numEmitted; }
+        public long getElapsedMillis() { return elapsedNanos / 1000000L; }
+
+        @Override
+        public String toString() {
+            return "RangeStats{" +
+                    "first=" + first +
+                    ", end=" + end +
+                    ", numEmitted=" + numEmitted +
+                    ", elapsedMillis=" + getElapsedMillis() +
+                    '}';
+        }
+    }
+
+    private static class Range<R> {
+        private final RangeStats stats;
+        private final List<R> results = new ArrayList<>();
+
+        private Range(RangeStats stats) { this.stats = stats; }
+    }
+
+    private final CortexGraph graph;
+    private final int numThreads;
+    private final long rangeSize;
+
+    public CortexGraphScanner(CortexGraph graph, int numThreads) {
+        this(graph, numThreads, DEFAULT_RANGE_SIZE);
+    }
+
+    public CortexGraphScanner(CortexGraph graph, int numThreads, long rangeSize) {
+        if (rangeSize <= 0) {
+            throw new CortexJDKException("Range size must be positive (got " + rangeSize + ")");
+        }
+
+        this.graph = graph;
+        this.numThreads = Math.max(1, numThreads);
+        this.rangeSize = rangeSize;
+    }
+
+    public int getNumThreads() { return numThreads; }
+
+    public long getNumRanges() { return (graph.getNumRecords() + rangeSize - 1) / rangeSize; }
+
+    /**
+     * Pass every record through a function, handing its non-null results to a consumer in record order.
+     *
+     * @param f         the per-record function (called concurrently from several threads)
+     * @param consumer  receives the results in record order, on the calling thread
+     * @return          statistics for each range, in record order
+     */
+    public <R> List<RangeStats> scan(Function<CortexRecord, R> f, Consumer<R> consumer) {
+        return scan(f, consumer, rs -> {});
+    }
+
+    /**
+     * As scan(f, consumer), also reporting each range's statistics (in record order, on the calling thread) once
+     * its results have been consumed.
+     */
+    public <R> List<RangeStats> scan(Function<CortexRecord, R> f, Consumer<R> consumer, Consumer<RangeStats> onRange) {
+        List<RangeStats> stats = new ArrayList<>();
+        long numRanges = getNumRanges();
+
+        if (numThreads == 1) {
+            for (long i = 0; i < numRanges; i++) {
+                Range<R> range = scanRange(graph, i, f);
+                range.results.forEach(consumer);
+                stats.add(range.stats);
+                onRange.accept(range.stats);
+            }
+
+            return stats;
+        }
+
+        ExecutorService exec = Executors.newFixedThreadPool(numThreads);
+        List<CortexGraph> opened = Collections.synchronizedList(new ArrayList<>());
+        ThreadLocal<CortexGraph> graphs = ThreadLocal.withInitial(() -> {
+            CortexGraph cg = new CortexGraph(graph.getFile());
+            opened.add(cg);
+
+            return cg;
+        });
+
+        try {
+            Deque<Future<Range<R>>> pending = new ArrayDeque<>();
+            long next = 0;
+
+            while (next < numRanges || !pending.isEmpty()) {
+                while (pending.size() < RANGES_IN_FLIGHT_PER_THREAD * numThreads && next < numRanges) {
+                    long rangeIndex = next++;
+                    pending.addLast(exec.submit(() -> scanRange(graphs.get(), rangeIndex, f)));
+                }
+
+                Range<R> range = get(pending.removeFirst());
+                range.results.forEach(consumer);
+                stats.add(range.stats);
+                onRange.accept(range.stats);
+            }
+        } finally {
+            exec.shutdownNow();
+
+            synchronized (opened) {
+                opened.forEach(CortexGraph::close);
+            }
+        }
+
+        return stats;
+    }
+
+    private <R> Range<R> scanRange(CortexGraph g, long rangeIndex, Function<CortexRecord, R> f) {
+        long first = rangeIndex * rangeSize;
+        Range<R> range = new Range<>(new RangeStats(first, Math.min(first + rangeSize, g.getNumRecords())));
+
+        long start = System.nanoTime();
+        for (long i = range.stats.first; i < range.stats.end; i++) {
+            R result = f.apply(g.getRecord(i));
+
+            if (result != null) {
+                range.results.add(result);
+                range.stats.numEmitted++;
+            }
+        }
+        range.stats.elapsedNanos = System.nanoTime() - start;
+
+        return range;
+    }
+
+    private <R> R get(Future<R> f) {
+        try {
+            return f.get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new CortexJDKException("Error while scanning graph", e.getCause() != null ? e.getCause() : e);
+        }
+    }
+}
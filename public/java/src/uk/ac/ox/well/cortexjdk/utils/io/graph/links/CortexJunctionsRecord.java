@@ -5,12 +5,15 @@ import com.google.common.base.Joiner;
 import java.util.*;
 
 public class CortexJunctionsRecord {
+    private static final String MEMBERS_TAG = "members=";
+
     private boolean isFw;
     private int numKmers;
     private int numJunctions;
     private int[] coverages;
     private String junctions;
     private int[][] sources;
+    private BitSet members;
 
     public CortexJunctionsRecord(boolean isForwardOrientation, int numKmers, int numJunctions, int[] coverages, String junctions) {
         this.isFw = isForwardOrientation;
@@ -29,6 +32,15 @@ public class CortexJunctionsRecord {
         this.sources = sources;
     }
 
+    /**
+     * A link with an explicit per-color membership bitmap, as stored in merged multi-sample containers.  A color can
+     * be a member with zero coverage.
+     */
+    public CortexJunctionsRecord(boolean isForwardOrientation, int numKmers, int numJunctions, int[] coverages, String junctions, BitSet members) {
+        this(isForwardOrientation, numKmers, numJunctions, coverages, junctions);
+        this.members = members;
+    }
+
     public String toString() {
         StringBuilder buffer = new StringBuilder();
 
@@ -43,6 +55,13 @@ public class CortexJunctionsRecord {
         buffer.append(Joiner.on(",").join(covs)).append(" ");
         buffer.append(junctions);
 
+        if (members != null) {
+            buffer.append(" ").append(MEMBERS_TAG);
+            for (int c = 0; c < coverages.length; c++) {
+                buffer.append(members.get(c) ? '1' : '0');
+            }
+        }
+
         return buffer.toString();
     }
 
@@ -53,6 +72,32 @@ public class CortexJunctionsRecord {
     public int[] getCoverages() { return coverages; }
     public int getCoverage(int i) { return coverages[i]; }
     public String getJunctions() { return junctions; }
+    public BitSet getMembers() { return members; }
+
+    /**
+     * Whether the link was seen in a color: its membership bit if it has a bitmap, otherwise nonzero coverage.
+     */
+    public boolean isMember(int c) { return members != null ? members.get(c) : coverages[c] > 0; }
+
+    /**
+     * Parse the optional membership field that may follow a link's junctions.
+     *
+     * @return  the bitmap, or null if the field is not a membership field
+     */
+    static BitSet parseMembers(String field) {
+        if (!field.startsWith(MEMBERS_TAG)) {
+            return null;
+        }
+
+        BitSet members = new BitSet();
+        for (int c = 0; c < field.length() - MEMBERS_TAG.length(); c++) {
+            if (field.charAt(MEMBERS_TAG.length() + c) == '1') {
+                members.set(c);
+            }
+        }
+
+        return members;
+    }
     public String getSources() {
         List<String> pieces = new ArrayList<>();
 
@@ -81,6 +126,7 @@ public class CortexJunctionsRecord {
         if (numKmers != that.numKmers) return false;
         if (!Arrays.equals(coverages, that.coverages)) return false;
         if (!junctions.equals(that.junctions)) return false;
+        if (!Objects.equals(members, that.members)) return false;
 
         return true;
     }
@@ -92,6 +138,7 @@ public class CortexJunctionsRecord {
         result = 31 * result + numJunctions;
         result = 31 * result + Arrays.hashCode(coverages);
         result = 31 * result + junctions.hashCode();
+        result = 31 * result + Objects.hashCode(members);
         return result;
     }
 }
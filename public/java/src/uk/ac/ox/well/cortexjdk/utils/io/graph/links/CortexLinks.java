@@ -54,4 +54,7 @@ public class CortexLinks implements ConnectivityAnnotations {
 
     @Override
     public String getSource() { return links.getSource(); }
+
+    @Override
+    public String getSource(int color) { return links.getSource(color); }
 }
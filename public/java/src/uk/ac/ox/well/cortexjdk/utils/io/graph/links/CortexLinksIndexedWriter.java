@@ -0,0 +1,494 @@
+package uk.ac.ox.well.cortexjdk.utils.io.graph.links;
+
+import uk.ac.ox.well.cortexjdk.utils.exceptions.CortexJDKException;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexRecord;
+import uk.ac.ox.well.cortexjdk.utils.io.utils.BgzfBlocks;
+import uk.ac.ox.well.cortexjdk.utils.kmer.CortexBinaryKmer;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * Writes a bgzipped links file (.ctp.bgz) and its kmer index (.ctp.bgz.idx), as read by CortexLinksRandomAccess.
+ *
+ * Batches of records are serialized and BGZF-compressed on a worker pool, then written in submission order so the
+ * output is deterministic regardless of thread count.  Index entries are sorted in bounded runs that are spilled to
+ * disk and k-way merged at close(); a kmer written more than once is indexed once, at its last record.  The record body is staged in a temp file so that the header, whose counts
+ * may only be known at the end, can still be written first.
+ */
+public class CortexLinksIndexedWriter {
+    private static final int COMPRESSION_LEVEL = 9;
+
+    private final File bgzFile;
+    private final File indexFile;
+    private final File bodyFile;
+    private final int kmerSize;
+    private final int kmerBits;
+    private final int maxRecordsInRam;
+    private final int maxBatchesInFlight;
+
+    private final ExecutorService exec;
+    private final Deque<Future<CompressedBatch>> pending = new ArrayDeque<>();
+
+    private final OutputStream body;
+    private long bodyAddress = 0;
+
+    private final List<File> runs = new ArrayList<>();
+    private long[] runKmers;
+    private long[] runPositions;
+    private int[] runLengths;
+    private int runSize = 0;
+
+    private long numRecords = 0;
+    private long numLinks = 0;
+    private long numLinkBytes = 0;
+
+    private String jsonHeader = "";
+    private String comments = "";
+    private String source = "unknown";
+    private List<String> sampleNames = new ArrayList<>();
+    private List<String> sources = null;
+    private long numKmersInGraph = 0;
+    private long linkBytes = 0;
+
+    public CortexLinksIndexedWriter(File bgzFile, int kmerSize, int numThreads, int maxRecordsInRam) {
+        this.bgzFile = bgzFile.getAbsoluteFile();
+        this.indexFile = new File(this.bgzFile.getAbsolutePath() + ".idx");
+        this.kmerSize = kmerSize;
+        this.kmerBits = CortexRecord.getKmerBits(kmerSize);
+        this.maxRecordsInRam = Math.max(1, maxRecordsInRam);
+        this.maxBatchesInFlight = 2*numThreads;
+
+        this.runKmers = new long[this.maxRecordsInRam * kmerBits];
+        this.runPositions = new long[this.maxRecordsInRam];
+        this.runLengths = new int[this.maxRecordsInRam];
+
+        this.exec = Executors.newFixedThreadPool(numThreads);
+
+        try {
+            bodyFile = makeTempFile(".body");
+            body = new BufferedOutputStream(new FileOutputStream(bodyFile), 1 << 20);
+        } catch (IOException e) {
+            throw new CortexJDKException("Could not open temp links body file in '" + this.bgzFile.getParent() + "'", e);
+        }
+    }
+
+    public void setJSONHeader(String jsonHeader) { this.jsonHeader = jsonHeader; }
+    public void setComments(String comments) { this.comments = comments; }
+    public void setSource(String source) { this.source = source; }
+    public void setSampleNames(List<String> sampleNames) { this.sampleNames = new ArrayList<>(sampleNames); }
+
+    /**
+     * Give each color its own link source, as in a merged multi-sample container.  The index is then written with
+     * the LNKMRG magic word and the per-color sources follow the sample names.
+     */
+    public void setSources(List<String> sources) { this.sources = new ArrayList<>(sources); }
+    public void setNumKmersInGraph(long numKmersInGraph) { this.numKmersInGraph = numKmersInGraph; }
+    public void setLinkBytes(long linkBytes) { this.linkBytes = linkBytes; }
+
+    public File getFile() { return bgzFile; }
+    public File getIndexFile() { return indexFile; }
+
+    /**
+     * Number of records, links and junction bytes written so far.  Only exact once all pending batches have been
+     * drained, i.e. after flush() or close().
+     */
+    public long getNumRecords() { return numRecords; }
+    public long getNumLinks() { return numLinks; }
+    public long getNumLinkBytes() { return numLinkBytes; }
+
+    /**
+     * Queue a batch of records.  The batch is produced, serialized and compressed on the worker pool; its records
+     * appear in the output after those of all previously queued batches.
+     *
+     * @param batch  a task producing the records (may do the parsing or filtering itself)
+     */
+    public void addRecords(Callable<List<CortexLinksRecord>> batch) {
+        if (pending.size() >= maxBatchesInFlight) {
+            writeBatch(pending.removeFirst());
+        }
+
+        pending.addLast(exec.submit(new BatchCompressor(batch, kmerBits)));
+    }
+
+    public void flush() {
+        while (!pending.isEmpty()) {
+            writeBatch(pending.removeFirst());
+        }
+    }
+
+    public void close() {
+        try {
+            flush();
+        } finally {
+            exec.shutdownNow();
+        }
+
+        try {
+            body.close();
+            spillRun();
+
+            byte[] header = (jsonHeader + "\n" + comments + "\n").getBytes();
+            List<byte[]> headerBlocks = BgzfBlocks.compress(header, header.length, COMPRESSION_LEVEL);
+
+            long headerAddress = 0;
+            try (FileOutputStream fos = new FileOutputStream(bgzFile); FileChannel bodyChannel = new FileInputStream(bodyFile).getChannel()) {
+                for (byte[] block : headerBlocks) {
+                    fos.write(block);
+                    headerAddress += block.length;
+                }
+
+                FileChannel out = fos.getChannel();
+                long transferred = 0;
+                while (transferred < bodyAddress) {
+                    transferred += bodyChannel.transferTo(transferred, bodyAddress - transferred, out);
+                }
+
+                fos.write(BgzfBlocks.eofBlock());
+            }
+
+            if (indexFile.exists()) {
+                indexFile.delete();
+            }
+
+            // The header records the number of index entries, which is only known once the runs are merged
+            try (FileChannel fc = FileChannel.open(indexFile.toPath(), CREATE_NEW, WRITE)) {
+                fc.position(makeHeader(0).remaining());
+                long numEntries = mergeRuns(fc, headerAddress);
+                fc.write(makeHeader(numEntries), 0);
+            }
+        } catch (IOException e) {
+            throw new CortexJDKException("Unable to write links to '" + bgzFile.getAbsolutePath() + "'", e);
+        } finally {
+            bodyFile.delete();
+            for (File run : runs) {
+                run.delete();
+            }
+        }
+    }
+
+    private void writeBatch(Future<CompressedBatch> future) {
+        CompressedBatch cb;
+        try {
+            cb = future.get();
+        } catch (InterruptedException | ExecutionException e) {
+            abort();
+            throw new CortexJDKException("Error compressing links batch", e);
+        }
+
+        try {
+            long[] blockAddresses = new long[cb.blocks.size()];
+            for (int i = 0; i < cb.blocks.size(); i++) {
+                blockAddresses[i] = bodyAddress;
+
+                body.write(cb.blocks.get(i));
+                bodyAddress += cb.blocks.get(i).length;
+            }
+
+            for (int r = 0; r < cb.numRecords; r++) {
+                if (runSize == maxRecordsInRam) {
+                    spillRun();
+                }
+
+                System.arraycopy(cb.kmers, r*kmerBits, runKmers, runSize*kmerBits, kmerBits);
+                runPositions[runSize] = BgzfBlocks.makeFilePointer(blockAddresses[cb.blockIndices[r]], cb.blockOffsets[r]);
+                runLengths[runSize] = cb.lengths[r];
+                runSize++;
+            }
+
+            numRecords += cb.numRecords;
+            numLinks += cb.numLinks;
+            numLinkBytes += cb.numLinkBytes;
+        } catch (IOException e) {
+            abort();
+            throw new CortexJDKException("Unable to write links batch", e);
+        }
+    }
+
+    /**
+     * Stop the worker pool and remove the temp files after a failed write.
+     */
+    private void abort() {
+        exec.shutdownNow();
+        pending.clear();
+
+        try {
+            body.close();
+        } catch (IOException e) {
+            // Already failing; the temp file is removed regardless
+        }
+
+        bodyFile.delete();
+        for (File run : runs) {
+            run.delete();
+        }
+    }
+
+    private void spillRun() throws IOException {
+        if (runSize == 0) {
+            return;
+        }
+
+        Integer[] order = new Integer[runSize];
+        for (int i = 0; i < runSize; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> compareKmers(runKmers, a*kmerBits, runKmers, b*kmerBits, kmerBits));
+
+        File run = makeTempFile(".run");
+        runs.add(run);
+
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 1 << 20))) {
+            for (int i : order) {
+                for (int j = 0; j < kmerBits; j++) {
+                    dos.writeLong(runKmers[i*kmerBits + j]);
+                }
+                dos.writeLong(runPositions[i]);
+                dos.writeInt(runLengths[i]);
+            }
+        }
+
+        runSize = 0;
+    }
+
+    /**
+     * Merge the sorted runs into the index.  Runs are in submission order and each is sorted stably, so among equal
+     * kmers the last one polled (highest run, then latest in its run) is the last record written for that kmer.
+     *
+     * @return  the number of index entries written
+     */
+    private long mergeRuns(FileChannel fc, long headerAddress) throws IOException {
+        PriorityQueue<RunReader> pq = new PriorityQueue<>((a, b) -> {
+            int c = compareKmers(a.kmer, 0, b.kmer, 0, kmerBits);
+            return c != 0 ? c : Integer.compare(a.runIndex, b.runIndex);
+        });
+        for (int i = 0; i < runs.size(); i++) {
+            RunReader rr = new RunReader(runs.get(i), i, kmerBits);
+            if (rr.advance()) {
+                pq.add(rr);
+            }
+        }
+
+        ByteBuffer bb = ByteBuffer.allocateDirect(1 << 20);
+        int entrySize = 8*kmerBits + 8 + 4;
+
+        long numEntries = 0;
+        long[] kmer = new long[kmerBits];
+        long position = 0;
+        int length = 0;
+
+        while (!pq.isEmpty()) {
+            RunReader rr = pq.poll();
+
+            if (numEntries > 0 && compareKmers(kmer, 0, rr.kmer, 0, kmerBits) == 0) {
+                position = rr.position;
+                length = rr.length;
+            } else {
+                if (numEntries > 0) {
+                    putEntry(fc, bb, entrySize, kmer, position + (headerAddress << 16), length);
+                }
+
+                System.arraycopy(rr.kmer, 0, kmer, 0, kmerBits);
+                position = rr.position;
+                length = rr.length;
+                numEntries++;
+            }
+
+            if (rr.advance()) {
+                pq.add(rr);
+            } else {
+                rr.close();
+            }
+        }
+
+        if (numEntries > 0) {
+            putEntry(fc, bb, entrySize, kmer, position + (headerAddress << 16), length);
+        }
+
+        bb.flip();
+        fc.write(bb);
+
+        return numEntries;
+    }
+
+    private void putEntry(FileChannel fc, ByteBuffer bb, int entrySize, long[] kmer, long position, int length) throws IOException {
+        if (bb.remaining() < entrySize) {
+            bb.flip();
+            fc.write(bb);
+            bb.clear();
+        }
+
+        for (long l : kmer) {
+            bb.putLong(l);
+        }
+        bb.putLong(position);
+        bb.putInt(length);
+    }
+
+    private ByteBuffer makeHeader(long numEntries) {
+        if (sources != null && sources.size() != sampleNames.size()) {
+            throw new CortexJDKException("Number of link sources (" + sources.size() + ") does not match number of colors (" + sampleNames.size() + ")");
+        }
+
+        String magicWord = sources == null ? "LNKIDX" : "LNKMRG";
+
+        int capacity = 6 + 4 + 4 + 8 + 8 + 8;
+        capacity += 4 + source.getBytes().length;
+        for (String sampleName : sampleNames) {
+            capacity += 4 + sampleName.getBytes().length;
+        }
+        if (sources != null) {
+            for (String colorSource : sources) {
+                capacity += 4 + colorSource.getBytes().length;
+            }
+        }
+        capacity += 6;
+
+        ByteBuffer bb = ByteBuffer.allocateDirect(capacity);
+
+        bb.put(magicWord.getBytes());
+        bb.putInt(sampleNames.size());
+        bb.putInt(kmerSize);
+        bb.putLong(numKmersInGraph);
+        bb.putLong(numEntries);
+        bb.putLong(linkBytes);
+
+        bb.putInt(source.getBytes().length);
+        bb.put(source.getBytes());
+
+        for (String sampleName : sampleNames) {
+            bb.putInt(sampleName.getBytes().length);
+            bb.put(sampleName.getBytes());
+        }
+
+        if (sources != null) {
+            for (String colorSource : sources) {
+                bb.putInt(colorSource.getBytes().length);
+                bb.put(colorSource.getBytes());
+            }
+        }
+
+        bb.put(magicWord.getBytes());
+
+        bb.flip();
+
+        return bb;
+    }
+
+    private File makeTempFile(String suffix) throws IOException {
+        File tempFile = File.createTempFile("links", suffix, bgzFile.getParentFile());
+        tempFile.deleteOnExit();
+
+        return tempFile;
+    }
+
+    static int compareKmers(long[] a, int aOffset, long[] b, int bOffset, int kmerBits) {
+        for (int i = 0; i < kmerBits; i++) {
+            if (a[aOffset + i] != b[bOffset + i]) {
+                return a[aOffset + i] < b[bOffset + i] ? -1 : 1;
+            }
+        }
+
+        return 0;
+    }
+
+    private static class CompressedBatch {
+        List<byte[]> blocks;
+        int numRecords;
+        long numLinks;
+        long numLinkBytes;
+        long[] kmers;
+        int[] blockIndices;
+        int[] blockOffsets;
+        int[] lengths;
+    }
+
+    private static class BatchCompressor implements Callable<CompressedBatch> {
+        private final Callable<List<CortexLinksRecord>> batch;
+        private final int kmerBits;
+
+        BatchCompressor(Callable<List<CortexLinksRecord>> batch, int kmerBits) {
+            this.batch = batch;
+            this.kmerBits = kmerBits;
+        }
+
+        @Override
+        public CompressedBatch call() throws Exception {
+            List<CortexLinksRecord> records = batch.call();
+
+            CompressedBatch cb = new CompressedBatch();
+            cb.numRecords = records.size();
+            cb.kmers = new long[records.size() * kmerBits];
+            cb.blockIndices = new int[records.size()];
+            cb.blockOffsets = new int[records.size()];
+            cb.lengths = new int[records.size()];
+
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            for (int r = 0; r < records.size(); r++) {
+                CortexLinksRecord clr = records.get(r);
+                byte[] rec = clr.toString().getBytes();
+
+                long[] bk = new CortexBinaryKmer(clr.getKmerAsByteKmer().getKmer()).getBinaryKmer();
+                System.arraycopy(bk, 0, cb.kmers, r*kmerBits, kmerBits);
+
+                cb.blockIndices[r] = payload.size() / BgzfBlocks.MAX_PAYLOAD;
+                cb.blockOffsets[r] = payload.size() % BgzfBlocks.MAX_PAYLOAD;
+                cb.lengths[r] = rec.length;
+                cb.numLinks += clr.getJunctions().size();
+                for (CortexJunctionsRecord cjr : clr.getJunctions()) {
+                    cb.numLinkBytes += cjr.getJunctions().length();
+                }
+
+                payload.write(rec);
+                payload.write('\n');
+            }
+
+            cb.blocks = BgzfBlocks.compress(payload.toByteArray(), payload.size(), COMPRESSION_LEVEL);
+
+            return cb;
+        }
+    }
+
+    private static class RunReader {
+        private final DataInputStream dis;
+        private final int runIndex;
+        private final int kmerBits;
+        private long remaining;
+
+        long[] kmer;
+        long position;
+        int length;
+
+        RunReader(File run, int runIndex, int kmerBits) throws IOException {
+            this.dis = new DataInputStream(new BufferedInputStream(new FileInputStream(run), 1 << 16));
+            this.runIndex = runIndex;
+            this.kmerBits = kmerBits;
+            this.remaining = run.length() / (8*kmerBits + 8 + 4);
+            this.kmer = new long[kmerBits];
+        }
+
+        boolean advance() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+
+            for (int i = 0; i < kmerBits; i++) {
+                kmer[i] = dis.readLong();
+            }
+            position = dis.readLong();
+            length = dis.readInt();
+            remaining--;
+
+            return true;
+        }
+
+        void close() throws IOException {
+            dis.close();
+        }
+    }
+}
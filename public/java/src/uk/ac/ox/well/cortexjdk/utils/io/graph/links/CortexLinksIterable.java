@@ -36,6 +36,9 @@ public class CortexLinksIterable implements Iterable<CortexLinksRecord>, Iterato
 
     private String lastLine;
 
+    private int numThreads = 1;
+    private CortexLinksPipelinedReader pipeline;
+
     public CortexLinksIterable(String linksString) {
         this.linksFile = new File(linksString);
         loadCortexLinks(this.linksFile);
@@ -46,6 +49,12 @@ public class CortexLinksIterable implements Iterable<CortexLinksRecord>, Iterato
         loadCortexLinks(this.linksFile);
     }
 
+    public CortexLinksIterable(File linksFile, int numThreads) {
+        this.linksFile = linksFile;
+        this.numThreads = Math.max(1, numThreads);
+        loadCortexLinks(this.linksFile);
+    }
+
     private void loadCortexLinks(File cortexLinks) {
         try {
             InputStream fileStream = new FileInputStream(cortexLinks);
@@ -165,11 +174,9 @@ public class CortexLinksIterable implements Iterable<CortexLinksRecord>, Iterato
                 throw new CortexJDKException("Unable to restart iteration over CortexLinks file", e2);
             }
         }
-
-        nextRecord = getNextRecord();
     }
 
-    private CortexLinksRecord getNextRecord() {
+    private String[] getNextRecordLines() {
         if (recordsSeen < numKmersWithLinks) {
             try {
                 String line = buffered.readLine();
@@ -187,58 +194,135 @@ public class CortexLinksIterable implements Iterable<CortexLinksRecord>, Iterato
                 recordsSeen++;
 
                 if (line != null) {
-                    String[] kmerLine = line.split("\\s+");
-
-                    String kmer = kmerLine[0];
-                    int numLinks = Integer.valueOf(kmerLine[1]);
+                    int numLinks = Integer.valueOf(line.split("\\s+")[1]);
 
-                    List<CortexJunctionsRecord> cjs = new ArrayList<>();
+                    String[] lines = new String[numLinks + 1];
+                    lines[0] = line;
 
                     for (int i = 0; i < numLinks; i++) {
-                        String[] linkLine = buffered.readLine().split("[,\\s]+");
+                        lines[i + 1] = buffered.readLine();
+                    }
+
+                    return lines;
+                }
+            } catch (IOException e) {
+                throw new CortexJDKException("Unable to parse CortexLinks record", e);
+            }
+        }
+
+        return null;
+    }
 
-                        String orientation = linkLine[0];
-                        int numKmers = version == 4 ? -1 : Integer.valueOf(linkLine[1]);
-                        int numJunctions = version == 4 ? Integer.valueOf(linkLine[1]) : Integer.valueOf(linkLine[2]);
-                        int[] coverages = new int[numColors];
+    /**
+     * Parse the lines of a single record (the kmer line followed by its link lines).  This touches no reader state,
+     * so it is safe to call from several threads at once.
+     *
+     * @param lines  the unparsed record
+     * @return       the parsed record
+     */
+    public CortexLinksRecord parseRecord(String[] lines) {
+        String[] kmerLine = lines[0].split("\\s+");
 
-                        int offset = version == 4 ? 2 : 3;
+        String kmer = kmerLine[0];
+        int numLinks = Integer.valueOf(kmerLine[1]);
 
-                        for (int c = 0; c < numColors; c++) {
-                            coverages[c] = Integer.valueOf(linkLine[offset + c]);
-                        }
+        List<CortexJunctionsRecord> cjs = new ArrayList<>();
 
-                        String junctions = linkLine[offset + numColors];
+        for (int i = 0; i < numLinks; i++) {
+            String[] linkLine = lines[i + 1].split("[,\\s]+");
 
-                        CortexJunctionsRecord cj = new CortexJunctionsRecord(orientation.equals("F"), numKmers, numJunctions, coverages, junctions);
-                        cjs.add(cj);
-                    }
+            String orientation = linkLine[0];
+            int numKmers = version == 4 ? -1 : Integer.valueOf(linkLine[1]);
+            int numJunctions = version == 4 ? Integer.valueOf(linkLine[1]) : Integer.valueOf(linkLine[2]);
+            int[] coverages = new int[numColors];
 
+            int offset = version == 4 ? 2 : 3;
 
-                    return new CortexLinksRecord(kmer, cjs);
-                }
-            } catch (IOException e) {
-                throw new CortexJDKException("Unable to parse CortexLinks record", e);
+            for (int c = 0; c < numColors; c++) {
+                coverages[c] = Integer.valueOf(linkLine[offset + c]);
             }
+
+            String junctions = linkLine[offset + numColors];
+            BitSet members = linkLine.length > offset + numColors + 1 ? CortexJunctionsRecord.parseMembers(linkLine[offset + numColors + 1]) : null;
+
+            CortexJunctionsRecord cj = new CortexJunctionsRecord(orientation.equals("F"), numKmers, numJunctions, coverages, junctions, members);
+            cjs.add(cj);
         }
 
-        return null;
+        return new CortexLinksRecord(kmer, cjs);
+    }
+
+    private CortexLinksRecord getNextRecord() {
+        String[] lines = getNextRecordLines();
+
+        return lines == null ? null : parseRecord(lines);
+    }
+
+    /**
+     * Iterate over records without parsing them, so that callers can hand batches to parseRecord() on other threads.
+     * Shares the underlying reader with iterator(), so the two must not be interleaved.
+     *
+     * @return  an iterable over unparsed records
+     */
+    public Iterable<String[]> rawRecords() {
+        return () -> {
+            moveToBeginningOfRecordsSection();
+
+            return new Iterator<String[]>() {
+                private String[] nextLines = getNextRecordLines();
+
+                @Override
+                public boolean hasNext() {
+                    return nextLines != null;
+                }
+
+                @Override
+                public String[] next() {
+                    String[] currentLines = nextLines;
+
+                    nextLines = getNextRecordLines();
+                    if (nextLines == null) {
+                        close();
+                    }
+
+                    return currentLines;
+                }
+            };
+        };
     }
 
     @Override
     public Iterator<CortexLinksRecord> iterator() {
-        moveToBeginningOfRecordsSection();
+        if (numThreads > 1) {
+            if (pipeline != null) {
+                pipeline.close();
+            }
+
+            pipeline = new CortexLinksPipelinedReader(this, recordsStart, numThreads);
+        } else {
+            if (pipeline != null) {
+                pipeline.close();
+                pipeline = null;
+            }
+
+            moveToBeginningOfRecordsSection();
+            nextRecord = getNextRecord();
+        }
 
         return this;
     }
 
     @Override
     public boolean hasNext() {
-        return nextRecord != null;
+        return pipeline != null ? pipeline.hasNext() : nextRecord != null;
     }
 
     @Override
     public CortexLinksRecord next() {
+        if (pipeline != null) {
+            return pipeline.next();
+        }
+
         CortexLinksRecord currentRecord = nextRecord;
 
         nextRecord = getNextRecord();
@@ -255,6 +339,10 @@ public class CortexLinksIterable implements Iterable<CortexLinksRecord>, Iterato
     }
 
     public void close() {
+        if (pipeline != null) {
+            pipeline.close();
+        }
+
         try {
             this.buffered.close();
         } catch (IOException e) {
@@ -299,6 +387,15 @@ public class CortexLinksIterable implements Iterable<CortexLinksRecord>, Iterato
     public long getNumLinks() { return numLinks; }
     public long getLinkBytes() { return linkBytes; }
     public File getFile() { return linksFile; }
+    public int getNumThreads() { return numThreads; }
+
+    /**
+     * Use a pipelined reader (decompression on one thread, parsing on numThreads workers) for subsequent
+     * iterations.  A value of 1 reads and parses on the calling thread.
+     *
+     * @param numThreads  number of parsing threads
+     */
+    public void setNumThreads(int numThreads) { this.numThreads = Math.max(1, numThreads); }
 
     public boolean hasColor(int color) {
         return (color < colors.size());
@@ -1,26 +1,53 @@
 package uk.ac.ox.well.cortexjdk.utils.io.graph.links;
 
+import uk.ac.ox.well.cortexjdk.utils.exceptions.CortexJDKException;
 import uk.ac.ox.well.cortexjdk.utils.io.graph.ConnectivityAnnotations;
 import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexColor;
 import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexHeader;
 import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexRecord;
 import uk.ac.ox.well.cortexjdk.utils.kmer.CortexBinaryKmer;
+import uk.ac.ox.well.cortexjdk.utils.sequence.SequenceUtils;
 
 import java.io.File;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
 
+/**
+ * In-memory links, held compactly.  Records are packed into pages of a long[] arena (two bits per junction where
+ * possible) and found through an open-addressing hash table keyed on the binary kmer, so the heap holds a handful of
+ * large primitive arrays rather than objects per link.  CortexLinksRecords are rebuilt on demand in get().  The map
+ * is read-only once loaded, and so safe to share between threads.
+ */
 public class CortexLinksMap implements ConnectivityAnnotations {
+    private static final int PAGE_BITS = 24;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final float MAX_LOAD = 0.7f;
+    private static final long MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+
     private CortexLinksIterable cortexGraphLinks;
-    private Map<CortexBinaryKmer, CortexLinksRecord> recordHash;
     private CortexHeader header;
+    private int kmerSize;
+    private int kmerBits;
+    private int numColors;
+
+    private long[] keys;
+    private long[] offsets;
+    private int mask;
+    private int size = 0;
+
+    private List<long[]> pages = new ArrayList<>();
+    private long arenaSize = 0;
+
+    public CortexLinksMap(String cortexLinksPath) { initialize(new File(cortexLinksPath), Runtime.getRuntime().availableProcessors()); }
 
-    public CortexLinksMap(String cortexLinksPath) { initialize(new File(cortexLinksPath)); }
+    public CortexLinksMap(File cortexLinksFile) { initialize(cortexLinksFile, Runtime.getRuntime().availableProcessors()); }
 
-    public CortexLinksMap(File cortexLinksFile) { initialize(cortexLinksFile); }
+    public CortexLinksMap(File cortexLinksFile, int numThreads) { initialize(cortexLinksFile, numThreads); }
 
-    private void initialize(File cortexLinksFile) {
-        this.cortexGraphLinks = new CortexLinksIterable(cortexLinksFile);
+    private void initialize(File cortexLinksFile, int numThreads) {
+        this.cortexGraphLinks = new CortexLinksIterable(cortexLinksFile, numThreads);
 
         header = new CortexHeader();
         header.setKmerSize(cortexGraphLinks.getKmerSize());
@@ -35,10 +62,19 @@ public class CortexLinksMap implements ConnectivityAnnotations {
             header.addColor(cc);
         }
 
-        recordHash = new HashMap<>((int) cortexGraphLinks.getNumLinks());
+        kmerSize = header.getKmerSize();
+        kmerBits = header.getKmerBits();
+        numColors = header.getNumColors();
+
+        allocateTable(tableCapacity(cortexGraphLinks.getNumKmersWithLinks(), kmerBits));
 
         for (CortexLinksRecord clr : cortexGraphLinks) {
-            recordHash.put(new CortexBinaryKmer(clr.getKmer().getKmerAsBytes()), clr);
+            put(clr);
+        }
+
+        if (!pages.isEmpty()) {
+            int last = pages.size() - 1;
+            pages.set(last, Arrays.copyOf(pages.get(last), (int) (arenaSize - ((long) last << PAGE_BITS))));
         }
     }
 
@@ -46,17 +82,299 @@ public class CortexLinksMap implements ConnectivityAnnotations {
     public File getFile() { return cortexGraphLinks.getFile(); }
 
     @Override
-    public int size() { return recordHash.size(); }
+    public int size() { return size; }
 
     @Override
-    public boolean isEmpty() { return recordHash.isEmpty(); }
+    public boolean isEmpty() { return size == 0; }
 
     @Override
-    public boolean containsKey(Object key) { return recordHash.containsKey(convert(key)); }
+    public boolean containsKey(Object key) { return findSlot(convert(key).getBinaryKmer()) >= 0; }
 
     @Override
-    public CortexLinksRecord get(Object key) { return recordHash.get(convert(key)); }
+    public CortexLinksRecord get(Object key) {
+        CortexBinaryKmer cbk = convert(key);
+        int slot = findSlot(cbk.getBinaryKmer());
+
+        return slot < 0 ? null : decode(cbk.getBinaryKmer(), offsets[slot] - 1);
+    }
 
     @Override
     public CortexHeader getHeader() { return header; }
+
+    /**
+     * Bytes held by the hash table and arena, for reporting.
+     */
+    public long getFootprint() {
+        long footprint = 8L*keys.length + 8L*offsets.length;
+        for (long[] page : pages) {
+            footprint += 8L*page.length;
+        }
+
+        return footprint;
+    }
+
+    /**
+     * The smallest power-of-two slot count that holds expectedSize kmers under the load limit.  Sizes are computed
+     * in long arithmetic, as the key array (capacity * kmerBits words) must still fit in a single Java array.
+     */
+    static int tableCapacity(long expectedSize, int kmerBits) {
+        long wanted = Math.max(16L, (long) Math.ceil(Math.max(expectedSize, 0L) / (double) MAX_LOAD));
+        long capacity = Long.highestOneBit(wanted - 1) << 1;
+
+        if (capacity * kmerBits > MAX_ARRAY_LENGTH) {
+            throw new CortexJDKException("Too many linked kmers to hold in memory (" + expectedSize + " kmers need " + capacity + " table slots of " + kmerBits + " words, more than the " + MAX_ARRAY_LENGTH + " a Java array can hold); use an indexed links file instead");
+        }
+
+        return (int) capacity;
+    }
+
+    private void allocateTable(int capacity) {
+        keys = new long[capacity * kmerBits];
+        offsets = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    private static int hash(long[] kmer) {
+        long h = 0x9E3779B97F4A7C15L;
+        for (long l : kmer) {
+            h ^= l;
+            h *= 0xC2B2AE3D27D4EB4FL;
+            h ^= h >>> 29;
+        }
+
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private int findSlot(long[] kmer) {
+        for (int slot = hash(kmer) & mask; offsets[slot] != 0; slot = (slot + 1) & mask) {
+            if (keyEquals(slot, kmer)) {
+                return slot;
+            }
+        }
+
+        return -1;
+    }
+
+    private boolean keyEquals(int slot, long[] kmer) {
+        for (int i = 0; i < kmerBits; i++) {
+            if (keys[slot*kmerBits + i] != kmer[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void insert(long[] kmer, long offset) {
+        int slot = hash(kmer) & mask;
+        while (offsets[slot] != 0 && !keyEquals(slot, kmer)) {
+            slot = (slot + 1) & mask;
+        }
+
+        if (offsets[slot] == 0) {
+            System.arraycopy(kmer, 0, keys, slot*kmerBits, kmerBits);
+            size++;
+        }
+
+        offsets[slot] = offset + 1;
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        long[] oldOffsets = offsets;
+
+        allocateTable(tableCapacity(2L*(mask + 1), kmerBits));
+        size = 0;
+
+        long[] kmer = new long[kmerBits];
+        for (int slot = 0; slot < oldOffsets.length; slot++) {
+            if (oldOffsets[slot] != 0) {
+                System.arraycopy(oldKeys, slot*kmerBits, kmer, 0, kmerBits);
+                insert(kmer, oldOffsets[slot] - 1);
+            }
+        }
+    }
+
+    /*
+     * Record layout, in longs:
+     *   numLinks << 32 | flipped (the stored kmer was the reverse complement of the canonical key)
+     *   per link:
+     *     isForward << 63 | rawBytes << 62 | hasMembers << 61 | junctionsLength << 32 | numKmers
+     *     numJunctions, then one int per color, two ints to a long
+     *     the membership bitmap, 64 colors to a long (only if the link has one)
+     *     the junctions, 32 bases to a long (or 8 bytes to a long if they are not all ACGT)
+     */
+    private void put(CortexLinksRecord clr) {
+        long[] kmer = new CortexBinaryKmer(clr.getKmerAsByteKmer().getKmer()).getBinaryKmer();
+        boolean flipped = !new String(CortexRecord.decodeBinaryKmer(kmer, kmerSize, kmerBits)).equals(clr.getKmerAsString());
+
+        int length = 1;
+        for (CortexJunctionsRecord cjr : clr.getJunctions()) {
+            length += 1 + (numColors + 2)/2 + (cjr.getMembers() == null ? 0 : memberWords()) + junctionWords(cjr.getJunctions(), isPackable(cjr.getJunctions()));
+        }
+
+        if (length > PAGE_SIZE) {
+            throw new CortexJDKException("Links record for '" + clr.getKmerAsString() + "' is too large to store");
+        }
+
+        long pos = reserve(length);
+        long offset = pos;
+
+        write(pos++, ((long) clr.getJunctions().size() << 32) | (flipped ? 1 : 0));
+
+        for (CortexJunctionsRecord cjr : clr.getJunctions()) {
+            String junctions = cjr.getJunctions();
+            boolean packable = isPackable(junctions);
+
+            write(pos++, (cjr.isForward() ? 1L << 63 : 0) | (packable ? 0 : 1L << 62) | (cjr.getMembers() == null ? 0 : 1L << 61) | ((long) junctions.length() << 32) | (cjr.getNumKmers() & 0xFFFFFFFFL));
+
+            int[] ints = new int[numColors + 1];
+            ints[0] = cjr.getNumJunctions();
+            System.arraycopy(cjr.getCoverages(), 0, ints, 1, Math.min(numColors, cjr.getCoverages().length));
+            for (int i = 0; i < ints.length; i += 2) {
+                long hi = ints[i] & 0xFFFFFFFFL;
+                long lo = i + 1 < ints.length ? ints[i + 1] & 0xFFFFFFFFL : 0;
+
+                write(pos++, (hi << 32) | lo);
+            }
+
+            if (cjr.getMembers() != null) {
+                long[] words = Arrays.copyOf(cjr.getMembers().toLongArray(), memberWords());
+                for (long word : words) {
+                    write(pos++, word);
+                }
+            }
+
+            int perWord = packable ? 32 : 8;
+            for (int i = 0; i < junctions.length(); i += perWord) {
+                long word = 0;
+                for (int j = i; j < Math.min(i + perWord, junctions.length()); j++) {
+                    long v = packable ? baseToBits(junctions.charAt(j)) : junctions.charAt(j) & 0xFF;
+                    word |= v << ((j - i) * (packable ? 2 : 8));
+                }
+
+                write(pos++, word);
+            }
+        }
+
+        insert(kmer, offset);
+
+        if (size > MAX_LOAD * (mask + 1)) {
+            rehash();
+        }
+    }
+
+    private CortexLinksRecord decode(long[] kmer, long pos) {
+        long r0 = read(pos++);
+        int numLinks = (int) (r0 >>> 32);
+        boolean flipped = (r0 & 1) == 1;
+
+        String sk = new String(CortexRecord.decodeBinaryKmer(kmer, kmerSize, kmerBits));
+        if (flipped) {
+            sk = SequenceUtils.reverseComplement(sk);
+        }
+
+        List<CortexJunctionsRecord> cjs = new ArrayList<>(numLinks);
+        for (int l = 0; l < numLinks; l++) {
+            long l0 = read(pos++);
+            boolean isForward = (l0 >>> 63) == 1;
+            boolean packable = ((l0 >>> 62) & 1) == 0;
+            boolean hasMembers = ((l0 >>> 61) & 1) == 1;
+            int length = (int) ((l0 >>> 32) & 0x1FFFFFFF);
+            int numKmers = (int) l0;
+
+            int[] ints = new int[numColors + 1];
+            for (int i = 0; i < ints.length; i += 2) {
+                long w = read(pos++);
+                ints[i] = (int) (w >>> 32);
+                if (i + 1 < ints.length) {
+                    ints[i + 1] = (int) w;
+                }
+            }
+
+            int[] coverages = new int[numColors];
+            System.arraycopy(ints, 1, coverages, 0, numColors);
+
+            BitSet members = null;
+            if (hasMembers) {
+                long[] words = new long[memberWords()];
+                for (int i = 0; i < words.length; i++) {
+                    words[i] = read(pos++);
+                }
+                members = BitSet.valueOf(words);
+            }
+
+            int perWord = packable ? 32 : 8;
+            char[] junctions = new char[length];
+            for (int i = 0; i < length; i += perWord) {
+                long word = read(pos++);
+                for (int j = i; j < Math.min(i + perWord, length); j++) {
+                    junctions[j] = packable ? bitsToBase((word >>> ((j - i) * 2)) & 0x3) : (char) ((word >>> ((j - i) * 8)) & 0xFF);
+                }
+            }
+
+            cjs.add(new CortexJunctionsRecord(isForward, numKmers, ints[0], coverages, new String(junctions), members));
+        }
+
+        return new CortexLinksRecord(sk, cjs);
+    }
+
+    private long reserve(int length) {
+        long pageOffset = arenaSize & (PAGE_SIZE - 1);
+
+        if (pages.isEmpty() || pageOffset + length > PAGE_SIZE) {
+            if (!pages.isEmpty()) {
+                arenaSize = (long) pages.size() << PAGE_BITS;
+                pageOffset = 0;
+            }
+
+            pages.add(new long[Math.max(1024, length)]);
+        }
+
+        long[] page = pages.get(pages.size() - 1);
+        if (pageOffset + length > page.length) {
+            pages.set(pages.size() - 1, Arrays.copyOf(page, (int) Math.min(PAGE_SIZE, Math.max(2L*page.length, pageOffset + length))));
+        }
+
+        long pos = arenaSize;
+        arenaSize += length;
+
+        return pos;
+    }
+
+    private void write(long pos, long value) { pages.get((int) (pos >>> PAGE_BITS))[(int) (pos & (PAGE_SIZE - 1))] = value; }
+
+    private long read(long pos) { return pages.get((int) (pos >>> PAGE_BITS))[(int) (pos & (PAGE_SIZE - 1))]; }
+
+    private int memberWords() { return (numColors + 63)/64; }
+
+    private static int junctionWords(String junctions, boolean packable) {
+        int perWord = packable ? 32 : 8;
+
+        return (junctions.length() + perWord - 1) / perWord;
+    }
+
+    private static boolean isPackable(String junctions) {
+        for (int i = 0; i < junctions.length(); i++) {
+            if (baseToBits(junctions.charAt(i)) < 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static long baseToBits(char b) {
+        switch (b) {
+            case 'A': return 0;
+            case 'C': return 1;
+            case 'G': return 2;
+            case 'T': return 3;
+            default:  return -1;
+        }
+    }
+
+    private static char bitsToBase(long bits) {
+        return "ACGT".charAt((int) bits);
+    }
 }
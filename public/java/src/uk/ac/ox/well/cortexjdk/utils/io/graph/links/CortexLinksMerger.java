@@ -0,0 +1,270 @@
+package uk.ac.ox.well.cortexjdk.utils.io.graph.links;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import uk.ac.ox.well.cortexjdk.utils.exceptions.CortexJDKException;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexColor;
+import uk.ac.ox.well.cortexjdk.utils.kmer.CanonicalKmer;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Merges the links of several samples into a single bgzipped, indexed container.  Every color of every input
+ * becomes a color of the output, tagged with its sample name and its input's link source.  Identical links (same
+ * kmer, orientation and junctions) are stored once, with one coverage per color and a per-color membership bitmap
+ * recording which samples the link was seen in.  Membership is kept separately from coverage: a link present in a
+ * single-color input is a member of that color even if its recorded coverage is zero.
+ *
+ * Inputs need not be sorted.  Records are first scattered by kmer hash into partitions on disk, then each
+ * partition is merged in memory on the writer's worker pool.  Partitions are written in order, so the output does
+ * not depend on the thread count.
+ */
+public class CortexLinksMerger {
+    private final File out;
+    private final int numThreads;
+    private final int maxRecordsInRam;
+    private int recordsPerPartition = 200000;
+
+    private final List<CortexLinksIterable> inputs = new ArrayList<>();
+    private final List<String> inputSources = new ArrayList<>();
+
+    private long numRecords = 0;
+    private long numLinks = 0;
+
+    public CortexLinksMerger(File out, int numThreads, int maxRecordsInRam) {
+        this.out = out;
+        this.numThreads = numThreads;
+        this.maxRecordsInRam = maxRecordsInRam;
+    }
+
+    public void add(CortexLinksIterable links, String source) {
+        if (!inputs.isEmpty() && inputs.get(0).getKmerSize() != links.getKmerSize()) {
+            throw new CortexJDKException("Links file '" + links.getFile() + "' has kmer size " + links.getKmerSize() + ", expected " + inputs.get(0).getKmerSize());
+        }
+
+        inputs.add(links);
+        inputSources.add(source);
+    }
+
+    public void setRecordsPerPartition(int recordsPerPartition) { this.recordsPerPartition = Math.max(1, recordsPerPartition); }
+
+    public long getNumRecords() { return numRecords; }
+    public long getNumLinks() { return numLinks; }
+
+    public void merge() {
+        if (inputs.isEmpty()) {
+            throw new CortexJDKException("No links files to merge");
+        }
+
+        int[] colorOffsets = new int[inputs.size()];
+        List<CortexColor> colors = new ArrayList<>();
+        List<String> sources = new ArrayList<>();
+        long totalRecords = 0, numKmersInGraph = 0;
+
+        for (int i = 0; i < inputs.size(); i++) {
+            CortexLinksIterable links = inputs.get(i);
+
+            colorOffsets[i] = colors.size();
+            for (int c = 0; c < links.getNumColors(); c++) {
+                colors.add(links.getColor(c));
+                sources.add(inputSources.get(i));
+            }
+
+            totalRecords += links.getNumKmersWithLinks();
+            numKmersInGraph = Math.max(numKmersInGraph, links.getNumKmersInGraph());
+        }
+
+        int numPartitions = (int) Math.max(1, (totalRecords + recordsPerPartition - 1) / recordsPerPartition);
+        List<File> partitions = new ArrayList<>();
+
+        try {
+            for (int p = 0; p < numPartitions; p++) {
+                File partition = File.createTempFile("links", ".part", out.getAbsoluteFile().getParentFile());
+                partition.deleteOnExit();
+                partitions.add(partition);
+            }
+
+            scatter(partitions, colorOffsets);
+
+            List<String> sampleNames = new ArrayList<>();
+            for (CortexColor color : colors) {
+                sampleNames.add(color.getSampleName());
+            }
+
+            CortexLinksIndexedWriter writer = new CortexLinksIndexedWriter(out, inputs.get(0).getKmerSize(), numThreads, maxRecordsInRam);
+            writer.setSource("merged");
+            writer.setSampleNames(sampleNames);
+            writer.setSources(sources);
+            writer.setNumKmersInGraph(numKmersInGraph);
+
+            AtomicLong linkBytes = new AtomicLong();
+            for (File partition : partitions) {
+                int numColors = colors.size();
+                writer.addRecords(() -> gather(partition, numColors, linkBytes));
+            }
+
+            writer.flush();
+
+            numRecords = writer.getNumRecords();
+            numLinks = writer.getNumLinks();
+
+            writer.setLinkBytes(linkBytes.get());
+            writer.setJSONHeader(constructHeader(inputs.get(0).getKmerSize(), numKmersInGraph, colors, sources, numRecords, numLinks, linkBytes.get()).toString(4));
+            writer.close();
+        } catch (IOException e) {
+            throw new CortexJDKException("Unable to merge links into '" + out.getAbsolutePath() + "'", e);
+        } finally {
+            for (File partition : partitions) {
+                partition.delete();
+            }
+        }
+    }
+
+    private void scatter(List<File> partitions, int[] colorOffsets) throws IOException {
+        List<DataOutputStream> streams = new ArrayList<>();
+        for (File partition : partitions) {
+            streams.add(new DataOutputStream(new BufferedOutputStream(new FileOutputStream(partition), 1 << 16)));
+        }
+
+        try {
+            for (int i = 0; i < inputs.size(); i++) {
+                CortexLinksIterable links = inputs.get(i);
+                links.setNumThreads(numThreads);
+
+                for (CortexLinksRecord clr : links) {
+                    CanonicalKmer ck = clr.getKmer();
+                    String kmer = ck.getKmerAsString();
+
+                    DataOutputStream dos = streams.get((kmer.hashCode() & Integer.MAX_VALUE) % partitions.size());
+                    dos.writeUTF(kmer);
+                    dos.writeInt(colorOffsets[i]);
+                    dos.writeInt(clr.getJunctions().size());
+
+                    for (CortexJunctionsRecord cjr : clr.getJunctions()) {
+                        // Links are relative to the stored kmer; re-orient them if it wasn't canonical
+                        dos.writeBoolean(cjr.isForward() != ck.isFlipped());
+                        dos.writeInt(cjr.getNumKmers());
+                        dos.writeInt(cjr.getCoverages().length);
+                        for (int coverage : cjr.getCoverages()) {
+                            dos.writeInt(coverage);
+                        }
+                        for (int c = 0; c < cjr.getCoverages().length; c++) {
+                            dos.writeBoolean(cjr.getCoverages().length == 1 || cjr.isMember(c));
+                        }
+                        dos.writeUTF(cjr.getJunctions());
+                    }
+                }
+            }
+        } finally {
+            for (DataOutputStream dos : streams) {
+                dos.close();
+            }
+        }
+    }
+
+    private static List<CortexLinksRecord> gather(File partition, int numColors, AtomicLong linkBytes) throws IOException {
+        Map<String, Map<String, MergedJunction>> records = new LinkedHashMap<>();
+
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(partition), 1 << 16))) {
+            while (dis.available() > 0) {
+                String kmer = dis.readUTF();
+                int colorOffset = dis.readInt();
+                int numJunctions = dis.readInt();
+
+                Map<String, MergedJunction> junctions = records.computeIfAbsent(kmer, k -> new LinkedHashMap<>());
+
+                for (int j = 0; j < numJunctions; j++) {
+                    boolean isFw = dis.readBoolean();
+                    int numKmers = dis.readInt();
+                    int[] coverages = new int[dis.readInt()];
+                    for (int c = 0; c < coverages.length; c++) {
+                        coverages[c] = dis.readInt();
+                    }
+                    boolean[] members = new boolean[coverages.length];
+                    for (int c = 0; c < members.length; c++) {
+                        members[c] = dis.readBoolean();
+                    }
+                    String junctionList = dis.readUTF();
+
+                    MergedJunction mj = junctions.computeIfAbsent((isFw ? "F" : "R") + junctionList, k -> new MergedJunction(isFw, junctionList, numColors));
+                    mj.numKmers = Math.max(mj.numKmers, numKmers);
+
+                    for (int c = 0; c < coverages.length; c++) {
+                        mj.coverages[colorOffset + c] += coverages[c];
+                        if (members[c]) {
+                            mj.members.set(colorOffset + c);
+                        }
+                    }
+                }
+            }
+        }
+
+        List<CortexLinksRecord> merged = new ArrayList<>(records.size());
+        long bytes = 0;
+        for (String kmer : records.keySet()) {
+            List<CortexJunctionsRecord> cjrs = new ArrayList<>();
+            for (MergedJunction mj : records.get(kmer).values()) {
+                cjrs.add(new CortexJunctionsRecord(mj.isFw, mj.numKmers, mj.junctions.length(), mj.coverages, mj.junctions, mj.members));
+                bytes += mj.junctions.length();
+            }
+
+            merged.add(new CortexLinksRecord(kmer, cjrs));
+        }
+
+        linkBytes.addAndGet(bytes);
+
+        return merged;
+    }
+
+    private static JSONObject constructHeader(int kmerSize, long numKmersInGraph, List<CortexColor> colors, List<String> sources, long numKmersWithLinks, long numLinks, long linkBytes) {
+        JSONObject header = new JSONObject();
+        header.put("file_format", "ctp");
+        header.put("format_version", 4);
+        header.put("file_key", 0);
+
+        JSONArray jsonColors = new JSONArray();
+        for (int c = 0; c < colors.size(); c++) {
+            JSONObject color = new JSONObject();
+            color.put("colour", c);
+            color.put("sample", colors.get(c).getSampleName());
+            color.put("source", sources.get(c));
+            color.put("total_sequence", colors.get(c).getTotalSequence());
+            color.put("cleaned_tips", colors.get(c).isTipClippingApplied());
+            color.put("cleaned_unitigs", false);
+            jsonColors.put(color);
+        }
+
+        JSONObject jsonGraph = new JSONObject();
+        jsonGraph.put("num_colours", colors.size());
+        jsonGraph.put("kmer_size", kmerSize);
+        jsonGraph.put("num_kmers_in_graph", numKmersInGraph);
+        jsonGraph.put("colours", jsonColors);
+
+        header.put("graph", jsonGraph);
+
+        JSONObject jsonPaths = new JSONObject();
+        jsonPaths.put("num_kmers_with_paths", numKmersWithLinks);
+        jsonPaths.put("num_paths", numLinks);
+        jsonPaths.put("path_bytes", linkBytes);
+
+        header.put("paths", jsonPaths);
+
+        return header;
+    }
+
+    private static class MergedJunction {
+        final boolean isFw;
+        final String junctions;
+        final int[] coverages;
+        final BitSet members = new BitSet();
+        int numKmers = -1;
+
+        MergedJunction(boolean isFw, String junctions, int numColors) {
+            this.isFw = isFw;
+            this.junctions = junctions;
+            this.coverages = new int[numColors];
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package uk.ac.ox.well.cortexjdk.utils.io.graph.links;
+
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+import uk.ac.ox.well.cortexjdk.utils.exceptions.CortexJDKException;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+/**
+ * Pipelined reader for the records section of a links file.  A reader thread decompresses the file into large
+ * chunks, cuts each chunk at the last record boundary and hands it to a worker pool for parsing; records are
+ * delivered to the caller in file order.  BGZF files are additionally inflated block-parallel on the same pool.
+ */
+class CortexLinksPipelinedReader implements Iterator<CortexLinksRecord> {
+    private static final int CHUNK_SIZE = 4 << 20;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final CortexLinksIterable links;
+    private final long maxRecords;
+    private final int maxInFlight;
+
+    private final ExecutorService readerExec;
+    private final ExecutorService workerExec;
+    private final BlockingQueue<Future<List<CortexLinksRecord>>> parsed;
+
+    private Iterator<CortexLinksRecord> current = Collections.emptyIterator();
+    private long recordsDelivered = 0;
+    private boolean exhausted = false;
+
+    CortexLinksPipelinedReader(CortexLinksIterable links, long recordsStart, int numThreads) {
+        this.links = links;
+        this.maxRecords = links.getNumKmersWithLinks();
+        this.maxInFlight = 2*numThreads;
+
+        this.readerExec = Executors.newSingleThreadExecutor(CortexLinksPipelinedReader::daemon);
+        this.workerExec = Executors.newFixedThreadPool(numThreads, CortexLinksPipelinedReader::daemon);
+        this.parsed = new ArrayBlockingQueue<>(maxInFlight);
+
+        readerExec.submit(() -> read(recordsStart));
+    }
+
+    private static Thread daemon(Runnable r) {
+        Thread t = new Thread(r, "links-reader");
+        t.setDaemon(true);
+
+        return t;
+    }
+
+    @Override
+    public boolean hasNext() {
+        // Once every record has been delivered the pools are shut down, and any chunk still queued may never complete
+        while (!current.hasNext() && !exhausted && recordsDelivered < maxRecords) {
+            List<CortexLinksRecord> batch;
+            try {
+                batch = parsed.take().get();
+            } catch (InterruptedException | ExecutionException e) {
+                close();
+                throw new CortexJDKException("Unable to read links from '" + links.getFile().getAbsolutePath() + "'", e);
+            }
+
+            if (batch == null) {
+                exhausted = true;
+                close();
+            } else {
+                current = batch.iterator();
+            }
+        }
+
+        return current.hasNext() && recordsDelivered < maxRecords;
+    }
+
+    @Override
+    public CortexLinksRecord next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+
+        recordsDelivered++;
+        if (recordsDelivered == maxRecords) {
+            close();
+        }
+
+        return current.next();
+    }
+
+    public void close() {
+        exhausted = true;
+
+        readerExec.shutdownNow();
+        workerExec.shutdownNow();
+    }
+
+    private void read(long recordsStart) {
+        try (InputStream is = new BufferedInputStream(new FileInputStream(links.getFile()), 1 << 16)) {
+            Iterator<byte[]> chunks = BlockCompressedInputStream.isValidFile(is) ? new BgzfChunks(is) : new GzipChunks(is);
+
+            long toSkip = recordsStart;
+            byte[] carry = new byte[0];
+
+            while (chunks.hasNext()) {
+                byte[] chunk = chunks.next();
+
+                int start = 0;
+                if (toSkip > 0) {
+                    start = (int) Math.min(toSkip, chunk.length);
+                    toSkip -= start;
+                }
+
+                byte[] buffer = new byte[carry.length + chunk.length - start];
+                System.arraycopy(carry, 0, buffer, 0, carry.length);
+                System.arraycopy(chunk, start, buffer, carry.length, chunk.length - start);
+
+                int boundary = lastRecordBoundary(buffer);
+                if (boundary > 0) {
+                    submitParse(buffer, 0, boundary);
+                }
+
+                carry = Arrays.copyOfRange(buffer, Math.max(boundary, 0), buffer.length);
+            }
+
+            if (carry.length > 0) {
+                submitParse(carry, 0, carry.length);
+            }
+
+            parsed.put(CompletableFuture.completedFuture(null));
+        } catch (InterruptedException e) {
+            // Iteration was abandoned; nobody is waiting on the queue
+        } catch (Exception e) {
+            CompletableFuture<List<CortexLinksRecord>> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+
+            parsed.offer(failed);
+        }
+    }
+
+    private void submitParse(byte[] buffer, int start, int end) throws InterruptedException {
+        parsed.put(workerExec.submit(() -> parse(buffer, start, end)));
+    }
+
+    /**
+     * Records begin with a kmer line; their link lines begin with an orientation (F or R).  The last line start
+     * that is not a link line is therefore the last safe place to cut.
+     */
+    private static int lastRecordBoundary(byte[] buffer) {
+        for (int i = buffer.length - 2; i >= 0; i--) {
+            if (buffer[i] == '\n' && buffer[i + 1] != 'F' && buffer[i + 1] != 'R') {
+                return i + 1;
+            }
+        }
+
+        return -1;
+    }
+
+    private List<CortexLinksRecord> parse(byte[] buffer, int start, int end) {
+        String[] lines = new String(buffer, start, end - start, UTF8).split("\n");
+
+        List<CortexLinksRecord> records = new ArrayList<>();
+        for (int i = 0; i < lines.length; i++) {
+            if (lines[i].isEmpty()) {
+                continue;
+            }
+
+            String line = lines[i].trim();
+            int numLinks = Integer.parseInt(line.substring(Math.max(line.lastIndexOf(' '), line.lastIndexOf('\t')) + 1));
+
+            String[] recordLines = Arrays.copyOfRange(lines, i, i + numLinks + 1);
+            records.add(links.parseRecord(recordLines));
+
+            i += numLinks;
+        }
+
+        return records;
+    }
+
+    private static class GzipChunks implements Iterator<byte[]> {
+        private final InputStream gz;
+        private byte[] next;
+
+        GzipChunks(InputStream is) throws IOException {
+            this.gz = new GZIPInputStream(is, 1 << 16);
+            this.next = fill();
+        }
+
+        private byte[] fill() throws IOException {
+            byte[] chunk = new byte[CHUNK_SIZE];
+
+            int n = 0, read;
+            while (n < chunk.length && (read = gz.read(chunk, n, chunk.length - n)) > 0) {
+                n += read;
+            }
+
+            return n == 0 ? null : (n == chunk.length ? chunk : Arrays.copyOf(chunk, n));
+        }
+
+        @Override
+        public boolean hasNext() { return next != null; }
+
+        @Override
+        public byte[] next() {
+            byte[] current = next;
+
+            try {
+                next = fill();
+            } catch (IOException e) {
+                throw new CortexJDKException("Unable to decompress links", e);
+            }
+
+            return current;
+        }
+    }
+
+    private class BgzfChunks implements Iterator<byte[]> {
+        private final DataInputStream in;
+        private final Deque<Future<byte[]>> inflating = new ArrayDeque<>();
+        private boolean eof = false;
+
+        BgzfChunks(InputStream is) {
+            this.in = new DataInputStream(is);
+        }
+
+        private void prefetch() {
+            while (!eof && inflating.size() < maxInFlight) {
+                List<byte[]> blocks = new ArrayList<>();
+                long payload = 0;
+
+                try {
+                    byte[] block;
+                    while (payload < CHUNK_SIZE && (block = readBlock()) != null) {
+                        blocks.add(block);
+                        payload += BlockCompressedStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE;
+                    }
+                } catch (IOException e) {
+                    throw new CortexJDKException("Unable to read BGZF block", e);
+                }
+
+                if (blocks.isEmpty()) {
+                    eof = true;
+                } else {
+                    inflating.addLast(workerExec.submit(() -> inflate(blocks)));
+                }
+            }
+        }
+
+        private byte[] readBlock() throws IOException {
+            byte[] header = new byte[BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH];
+
+            int n = in.read(header);
+            if (n <= 0) {
+                return null;
+            }
+            if (n < header.length) {
+                in.readFully(header, n, header.length - n);
+            }
+
+            int blockSize = ((header[16] & 0xFF) | ((header[17] & 0xFF) << 8)) + 1;
+
+            byte[] block = Arrays.copyOf(header, blockSize);
+            in.readFully(block, header.length, blockSize - header.length);
+
+            return block;
+        }
+
+        private byte[] inflate(List<byte[]> blocks) throws DataFormatException {
+            int total = 0;
+            for (byte[] block : blocks) {
+                total += isize(block);
+            }
+
+            byte[] out = new byte[total];
+            Inflater inflater = new Inflater(true);
+
+            try {
+                int offset = 0;
+                for (byte[] block : blocks) {
+                    int headerLength = BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH;
+                    int footerLength = BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH;
+
+                    inflater.reset();
+                    inflater.setInput(block, headerLength, block.length - headerLength - footerLength);
+
+                    int size = isize(block);
+                    int inflated = 0;
+                    while (inflated < size) {
+                        int n = inflater.inflate(out, offset + inflated, size - inflated);
+                        if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                            throw new DataFormatException("Truncated BGZF block");
+                        }
+                        inflated += n;
+                    }
+
+                    offset += size;
+                }
+            } finally {
+                inflater.end();
+            }
+
+            return out;
+        }
+
+        private int isize(byte[] block) {
+            int p = block.length - 4;
+            return (block[p] & 0xFF) | ((block[p + 1] & 0xFF) << 8) | ((block[p + 2] & 0xFF) << 16) | ((block[p + 3] & 0xFF) << 24);
+        }
+
+        @Override
+        public boolean hasNext() {
+            prefetch();
+
+            return !inflating.isEmpty();
+        }
+
+        @Override
+        public byte[] next() {
+            prefetch();
+
+            try {
+                return inflating.removeFirst().get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new CortexJDKException("Unable to inflate BGZF block", e);
+            }
+        }
+    }
+}
@@ -25,6 +25,7 @@ public class CortexLinksRandomAccess implements ConnectivityAnnotations {
     private Map<CortexBinaryKmer, Pair<Long, Integer>> index;
     private CortexHeader header;
     private String source;
+    private String[] colorSources;
 
     public CortexLinksRandomAccess(String cortexLinksPath) { initialize(new File(cortexLinksPath)); }
 
@@ -65,6 +66,18 @@ public class CortexLinksRandomAccess implements ConnectivityAnnotations {
                 header.addColor(cc);
             }
 
+            // Merged multi-sample containers also record a source per color
+            if (new String(magicWordStart).equals("LNKMRG")) {
+                colorSources = new String[header.getNumColors()];
+
+                for (int c = 0; c < header.getNumColors(); c++) {
+                    byte[] cs = new byte[bf.readInt()];
+                    bf.read(cs);
+
+                    colorSources[c] = new String(cs);
+                }
+            }
+
             byte[] magicWordEnd = new byte[6];
             bf.read(magicWordEnd);
 
@@ -120,4 +133,7 @@ public class CortexLinksRandomAccess implements ConnectivityAnnotations {
 
     @Override
     public String getSource() { return source; }
+
+    @Override
+    public String getSource(int color) { return colorSources == null ? source : colorSources[color]; }
 }
@@ -36,8 +36,9 @@ public class CortexLinksRecord {
             }
 
             String junctions = linkLine[3];
+            BitSet members = linkLine.length > 4 ? CortexJunctionsRecord.parseMembers(linkLine[4]) : null;
 
-            CortexJunctionsRecord cj = new CortexJunctionsRecord(orientation.equals("F"), numKmers, junctions.length(), coverages, junctions);
+            CortexJunctionsRecord cj = new CortexJunctionsRecord(orientation.equals("F"), numKmers, junctions.length(), coverages, junctions, members);
             cjs.add(cj);
         }
     }
@@ -0,0 +1,108 @@
+package uk.ac.ox.well.cortexjdk.utils.io.utils;
+
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+import uk.ac.ox.well.cortexjdk.utils.exceptions.CortexJDKException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Standalone BGZF block compression.  Unlike BlockCompressedOutputStream, blocks can be built on any thread and
+ * written out later, which lets callers compress in parallel and still emit a deterministic file.
+ */
+public class BgzfBlocks {
+    public static final int MAX_PAYLOAD = BlockCompressedStreamConstants.DEFAULT_UNCOMPRESSED_BLOCK_SIZE;
+
+    private BgzfBlocks() {}
+
+    public static List<byte[]> compress(byte[] data, int length, int compressionLevel) {
+        List<byte[]> blocks = new ArrayList<>();
+
+        Deflater deflater = new Deflater(compressionLevel, true);
+        Deflater storer = new Deflater(Deflater.NO_COMPRESSION, true);
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[BlockCompressedStreamConstants.MAX_COMPRESSED_BLOCK_SIZE];
+
+        try {
+            for (int offset = 0; offset < length; offset += MAX_PAYLOAD) {
+                blocks.add(compressBlock(data, offset, Math.min(MAX_PAYLOAD, length - offset), deflater, storer, crc, buffer));
+            }
+        } finally {
+            deflater.end();
+            storer.end();
+        }
+
+        return blocks;
+    }
+
+    public static byte[] eofBlock() {
+        return BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK.clone();
+    }
+
+    public static long makeFilePointer(long blockAddress, int blockOffset) {
+        if (blockOffset < 0 || blockOffset > 0xFFFF) {
+            throw new CortexJDKException("BGZF block offset out of range: " + blockOffset);
+        }
+
+        return (blockAddress << 16) | blockOffset;
+    }
+
+    private static byte[] compressBlock(byte[] data, int offset, int length, Deflater deflater, Deflater storer, CRC32 crc, byte[] buffer) {
+        int headerLength = BlockCompressedStreamConstants.BLOCK_HEADER_LENGTH;
+        int maxDeflated = buffer.length - headerLength - BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH;
+
+        deflater.reset();
+        deflater.setInput(data, offset, length);
+        deflater.finish();
+        int deflated = deflater.deflate(buffer, headerLength, maxDeflated);
+
+        if (!deflater.finished()) {
+            // Incompressible payload; fall back to stored blocks, which always fit.
+            storer.reset();
+            storer.setInput(data, offset, length);
+            storer.finish();
+            deflated = storer.deflate(buffer, headerLength, maxDeflated);
+
+            if (!storer.finished()) {
+                throw new CortexJDKException("Unable to fit " + length + " bytes into a BGZF block");
+            }
+        }
+
+        crc.reset();
+        crc.update(data, offset, length);
+
+        int blockLength = headerLength + deflated + BlockCompressedStreamConstants.BLOCK_FOOTER_LENGTH;
+        byte[] block = new byte[blockLength];
+
+        block[0] = BlockCompressedStreamConstants.GZIP_ID1;
+        block[1] = (byte) BlockCompressedStreamConstants.GZIP_ID2;
+        block[2] = BlockCompressedStreamConstants.GZIP_CM_DEFLATE;
+        block[3] = BlockCompressedStreamConstants.GZIP_FLG;
+        block[8] = BlockCompressedStreamConstants.GZIP_XFL;
+        block[9] = (byte) BlockCompressedStreamConstants.GZIP_OS_UNKNOWN;
+        putShort(block, 10, BlockCompressedStreamConstants.GZIP_XLEN);
+        block[12] = BlockCompressedStreamConstants.BGZF_ID1;
+        block[13] = BlockCompressedStreamConstants.BGZF_ID2;
+        putShort(block, 14, BlockCompressedStreamConstants.BGZF_LEN);
+        putShort(block, 16, blockLength - 1);
+
+        System.arraycopy(buffer, headerLength, block, headerLength, deflated);
+
+        putInt(block, headerLength + deflated, (int) crc.getValue());
+        putInt(block, headerLength + deflated + 4, length);
+
+        return block;
+    }
+
+    private static void putShort(byte[] b, int pos, int value) {
+        b[pos] = (byte) (value & 0xFF);
+        b[pos + 1] = (byte) ((value >> 8) & 0xFF);
+    }
+
+    private static void putInt(byte[] b, int pos, int value) {
+        putShort(b, pos, value & 0xFFFF);
+        putShort(b, pos + 2, (value >> 16) & 0xFFFF);
+    }
+}
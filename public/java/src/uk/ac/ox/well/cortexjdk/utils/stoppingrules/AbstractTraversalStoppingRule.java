@@ -24,6 +24,12 @@ public abstract class AbstractTraversalStoppingRule<V, E> implements TraversalSt
         return true;
     }
 
+    @Override
+    public void reset() {
+        traversalSucceeded = false;
+        traversalFailed = false;
+    }
+
     public boolean traversalSucceeded() { return traversalSucceeded; }
     public boolean traversalFailed() { return traversalFailed; }
 }
@@ -12,6 +12,15 @@ public class BubbleOpeningStopper extends AbstractTraversalStoppingRule<CortexVe
     private int distanceSinceJoin = 0;
     private boolean hasJoined = false;
 
+    @Override
+    public void reset() {
+        super.reset();
+
+        novelKmersSeen = 0;
+        distanceSinceJoin = 0;
+        hasJoined = false;
+    }
+
     @Override
     public boolean hasTraversalSucceeded(TraversalState<CortexVertex> s) {
         if (s.getRois().findRecord(s.getCurrentVertex().getKmerAsByteKmer()) != null) {
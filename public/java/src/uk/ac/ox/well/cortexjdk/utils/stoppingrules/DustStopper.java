@@ -8,6 +8,13 @@ import uk.ac.ox.well.cortexjdk.utils.traversal.TraversalState;
 public class DustStopper extends AbstractTraversalStoppingRule<CortexVertex, CortexEdge> {
     private int sinceLastLowComplexity = 0;
 
+    @Override
+    public void reset() {
+        super.reset();
+
+        sinceLastLowComplexity = 0;
+    }
+
     @Override
     public boolean hasTraversalSucceeded(TraversalState<CortexVertex> s) {
         // We've succeeded if we reach the parents or we run out of edges to traverse
@@ -11,6 +11,14 @@ public class NahrStopper extends AbstractTraversalStoppingRule<CortexVertex, Cor
     private boolean foundNovels = false;
     private int distanceFromLastNovel = 0;
 
+    @Override
+    public void reset() {
+        super.reset();
+
+        foundNovels = false;
+        distanceFromLastNovel = 0;
+    }
+
     @Override
     public boolean hasTraversalSucceeded(TraversalState<CortexVertex> s) {
         if (foundNovels) {
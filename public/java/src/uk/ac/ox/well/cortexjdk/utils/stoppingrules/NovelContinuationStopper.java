@@ -11,6 +11,14 @@ public class NovelContinuationStopper extends AbstractTraversalStoppingRule<Cort
     private boolean startedWithANovelKmer = false;
     private int numKmersSeen = 0;
 
+    @Override
+    public void reset() {
+        super.reset();
+
+        startedWithANovelKmer = false;
+        numKmersSeen = 0;
+    }
+
     @Override
     public boolean hasTraversalSucceeded(TraversalState<CortexVertex> s) {
         if (s.getCurrentJunctionDepth() > 0 && numKmersSeen <= 2*s.getCurrentVertex().getKmerAsString().length() && s.getRois().findRecord(s.getCurrentVertex().getKmerAsByteKmer()) != null) {
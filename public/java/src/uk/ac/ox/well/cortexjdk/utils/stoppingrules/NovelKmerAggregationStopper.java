@@ -10,6 +10,13 @@ import uk.ac.ox.well.cortexjdk.utils.traversal.TraversalState;
 public class NovelKmerAggregationStopper extends AbstractTraversalStoppingRule<CortexVertex, CortexEdge> {
     private boolean haveSeenNovelKmers = false;
 
+    @Override
+    public void reset() {
+        super.reset();
+
+        haveSeenNovelKmers = false;
+    }
+
     @Override
     public boolean hasTraversalSucceeded(TraversalState<CortexVertex> s) {
         boolean childHasCoverage = false;
@@ -1,6 +1,7 @@
 package uk.ac.ox.well.cortexjdk.utils.stoppingrules;
 
 import uk.ac.ox.well.cortexjdk.utils.exceptions.CortexJDKException;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.DeBruijnGraph;
 import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexRecord;
 import uk.ac.ox.well.cortexjdk.utils.kmer.CanonicalKmer;
 import uk.ac.ox.well.cortexjdk.utils.traversal.CortexEdge;
@@ -14,14 +15,25 @@ public class NovelPartitionStopper extends AbstractTraversalStoppingRule<CortexV
     private boolean foundNovelKmers = false;
     private int distanceFromSeed = 0;
 
+    // The ROI kmers, kept across resets for as long as the same ROI graph is used
     private Set<CanonicalKmer> rois = null;
+    private DeBruijnGraph roisSource = null;
+
+    @Override
+    public void reset() {
+        super.reset();
+
+        foundNovelKmers = false;
+        distanceFromSeed = 0;
+    }
 
     @Override
     public boolean hasTraversalSucceeded(TraversalState<CortexVertex> s) {
         distanceFromSeed++;
 
         if (s.getRois() != null) {
-            if (rois == null) {
+            if (rois == null || roisSource != s.getRois()) {
+                roisSource = s.getRois();
                 rois = new HashSet<>();
                 for (CortexRecord cr : s.getRois()) {
                     rois.add(cr.getCanonicalKmer());
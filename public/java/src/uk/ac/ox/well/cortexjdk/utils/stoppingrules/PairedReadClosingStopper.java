@@ -12,11 +12,16 @@ import java.util.Set;
  * Created by kiran on 02/06/2017.
  */
 public class PairedReadClosingStopper extends AbstractTraversalStoppingRule<CortexVertex, CortexEdge> {
+    // The sinks in canonical form, kept across resets for as long as the traversal's sink set is the same
     private Set<CanonicalKmer> sinks = new HashSet<>();
+    private Set<String> sinksSource = null;
 
     @Override
     public boolean hasTraversalSucceeded(TraversalState<CortexVertex> s) {
-        if (s.getSinks().size() > 0 && sinks.size() == 0) {
+        if (sinksSource != s.getSinks()) {
+            sinksSource = s.getSinks();
+            sinks = new HashSet<>();
+
             for (String sink : s.getSinks()) {
                 sinks.add(new CanonicalKmer(sink));
             }
@@ -0,0 +1,55 @@
+package uk.ac.ox.well.cortexjdk.utils.stoppingrules;
+
+import uk.ac.ox.well.cortexjdk.utils.exceptions.CortexJDKException;
+
+import java.util.*;
+
+/**
+ * A per-thread pool of stopping rules, so that a traversal needn't construct a new rule for every branch.  Rules are
+ * reset as they are taken from the pool, and so must clear all of their per-branch state in reset().
+ */
+public class StoppingRulePool {
+    private static final ThreadLocal<StoppingRulePool> POOLS = ThreadLocal.withInitial(StoppingRulePool::new);
+
+    private final Map<Class<?>, Deque<TraversalStoppingRule<?, ?>>> free = new HashMap<>();
+
+    private StoppingRulePool() {}
+
+    /**
+     * @return  the calling thread's pool
+     */
+    public static StoppingRulePool get() { return POOLS.get(); }
+
+    @SuppressWarnings("unchecked")
+    public <V, E> TraversalStoppingRule<V, E> acquire(Class<? extends TraversalStoppingRule<V, E>> stopperClass) {
+        Deque<TraversalStoppingRule<?, ?>> rules = free.get(stopperClass);
+
+        TraversalStoppingRule<V, E> rule;
+        if (rules == null || rules.isEmpty()) {
+            rule = instantiate(stopperClass);
+        } else {
+            rule = (TraversalStoppingRule<V, E>) rules.pop();
+        }
+
+        rule.reset();
+
+        return rule;
+    }
+
+    /**
+     * Return a rule to the pool.  The caller must not use it again.
+     */
+    public void release(TraversalStoppingRule<?, ?> rule) {
+        free.computeIfAbsent(rule.getClass(), k -> new ArrayDeque<>()).push(rule);
+    }
+
+    private static <V, E> TraversalStoppingRule<V, E> instantiate(Class<? extends TraversalStoppingRule<V, E>> stopperClass) {
+        try {
+            return stopperClass.newInstance();
+        } catch (InstantiationException e) {
+            throw new CortexJDKException("Could not instantiate stoppingRule: ", e);
+        } catch (IllegalAccessException e) {
+            throw new CortexJDKException("Illegal access while trying to instantiate stoppingRule: ", e);
+        }
+    }
+}
@@ -14,4 +14,7 @@ public interface TraversalStoppingRule<V, E> {
 
     boolean traversalSucceeded();
     boolean traversalFailed();
+
+    // This method clears any state kept while evaluating a branch, so that the rule can be reused for another one
+    default void reset() {}
 }
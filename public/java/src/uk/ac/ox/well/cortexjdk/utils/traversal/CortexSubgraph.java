@@ -0,0 +1,744 @@
+package uk.ac.ox.well.cortexjdk.utils.traversal;
+
+import htsjdk.samtools.util.Interval;
+import org.jgrapht.DirectedGraph;
+import org.jgrapht.EdgeFactory;
+import org.jgrapht.graph.AbstractGraph;
+import org.jgrapht.graph.DirectedWeightedPseudograph;
+import uk.ac.ox.well.cortexjdk.utils.exceptions.CortexJDKException;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.DeBruijnGraph;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexRecord;
+import uk.ac.ox.well.cortexjdk.utils.kmer.CortexByteKmer;
+
+import java.util.*;
+
+/**
+ * A compact subgraph for traversal results.  Vertices are numbered in insertion order and stored as kmer bytes in a
+ * single array, with their copy index, index and source set (interned) alongside.  A vertex added with its record
+ * keeps it; otherwise the record is looked up in the parent graph when the vertex is materialized.  Edges are stored once per (source, target) pair in primitive
+ * adjacency lists, with a color bitset per edge.  Vertices are found by kmer through an open-addressing hash, and
+ * edges by vertex pair through another, so adding vertices, edges and whole subgraphs costs O(1) per element.
+ *
+ * Vertices are identified by kmer, copy index, index and sources.  A locus, if present, is kept but does not
+ * distinguish vertices.  asDirectedGraph() exposes the subgraph to jgrapht code without copying it.
+ */
+public class CortexSubgraph {
+    private final DeBruijnGraph graph;
+    private final int kmerSize;
+    private final int maskWords;
+
+    private int numVertices = 0;
+    private byte[] kmers;
+    private int[] copyIndices;
+    private int[] indices;
+    private int[] sourceIds;
+    private int[] firstOut;
+    private int[] firstIn;
+    private int[] outDegrees;
+    private int[] inDegrees;
+    private int[] nextWithKmer;
+    private CortexRecord[] records;
+    private final Map<Integer, Interval> loci = new HashMap<>();
+
+    private final List<Set<String>> sources = new ArrayList<>();
+    private final Map<Set<String>, Integer> sourceIdsBySet = new HashMap<>();
+
+    private int[] kmerTable;
+
+    private int numEdges = 0;
+    private int[] edgeSources;
+    private int[] edgeTargets;
+    private int[] nextOut;
+    private int[] nextIn;
+    private double[] weights;
+    private long[] colors;
+
+    private long[] pairKeys;
+    private int[] pairEdges;
+
+    public CortexSubgraph(DeBruijnGraph graph) {
+        this(graph, graph.getKmerSize(), graph.getNumColors());
+    }
+
+    public CortexSubgraph(int kmerSize, int numColors) {
+        this(null, kmerSize, numColors);
+    }
+
+    private CortexSubgraph(DeBruijnGraph graph, int kmerSize, int numColors) {
+        this.graph = graph;
+        this.kmerSize = kmerSize;
+        this.maskWords = Math.max(1, (numColors + 63) / 64);
+
+        int vertexCapacity = 16;
+        kmers = new byte[vertexCapacity * kmerSize];
+        copyIndices = new int[vertexCapacity];
+        indices = new int[vertexCapacity];
+        sourceIds = new int[vertexCapacity];
+        firstOut = new int[vertexCapacity];
+        firstIn = new int[vertexCapacity];
+        outDegrees = new int[vertexCapacity];
+        inDegrees = new int[vertexCapacity];
+        nextWithKmer = new int[vertexCapacity];
+        records = new CortexRecord[vertexCapacity];
+        kmerTable = new int[2 * vertexCapacity];
+
+        int edgeCapacity = 16;
+        edgeSources = new int[edgeCapacity];
+        edgeTargets = new int[edgeCapacity];
+        nextOut = new int[edgeCapacity];
+        nextIn = new int[edgeCapacity];
+        weights = new double[edgeCapacity];
+        colors = new long[edgeCapacity * maskWords];
+        pairKeys = new long[2 * edgeCapacity];
+        pairEdges = new int[2 * edgeCapacity];
+        Arrays.fill(pairEdges, -1);
+    }
+
+    public int getKmerSize() { return kmerSize; }
+
+    public int numVertices() { return numVertices; }
+
+    public int numEdges() { return numEdges; }
+
+    /**
+     * @return  the vertex's id, adding it if it is not already present
+     */
+    public int addVertex(CortexVertex cv) {
+        byte[] kmer = cv.getKmerAsByteKmer().getKmer();
+        int sourceId = sourceId(cv.getSources(), true);
+
+        int v = find(kmer, cv.getCopyIndex(), cv.getIndex(), sourceId);
+        if (v < 0) {
+            v = append(kmer, cv.getCopyIndex(), cv.getIndex(), sourceId);
+        }
+
+        if (cv.getLocus() != null) {
+            loci.putIfAbsent(v, cv.getLocus());
+        }
+
+        if (records[v] == null) {
+            records[v] = cv.getCortexRecord();
+        }
+
+        return v;
+    }
+
+    /**
+     * @return  the vertex's id, or -1 if it is not present
+     */
+    public int indexOf(CortexVertex cv) {
+        int sourceId = sourceId(cv.getSources(), false);
+
+        return sourceId == Integer.MIN_VALUE ? -1 : find(cv.getKmerAsByteKmer().getKmer(), cv.getCopyIndex(), cv.getIndex(), sourceId);
+    }
+
+    /**
+     * @return  the first vertex (in insertion order) with this kmer, or -1 if there is none; further copies can be
+     *          found with nextWithKmer()
+     */
+    public int indexOf(CortexByteKmer kmer) {
+        return firstWithKmer(kmer.getKmer());
+    }
+
+    public int nextWithKmer(int v) { return nextWithKmer[v]; }
+
+    public CortexByteKmer getKmer(int v) { return new CortexByteKmer(Arrays.copyOfRange(kmers, v*kmerSize, (v + 1)*kmerSize)); }
+
+    public String getKmerAsString(int v) { return new String(kmers, v*kmerSize, kmerSize); }
+
+    public int getCopyIndex(int v) { return copyIndices[v]; }
+
+    public int getIndex(int v) { return indices[v]; }
+
+    public Set<String> getSources(int v) { return sourceIds[v] < 0 ? null : new HashSet<>(sources.get(sourceIds[v])); }
+
+    public Interval getLocus(int v) { return loci.get(v); }
+
+    /**
+     * @return  the vertex's record: the one it was added with or, failing that, the parent graph's (if there is one)
+     */
+    public CortexRecord getRecord(int v) {
+        if (records[v] == null && graph != null) {
+            records[v] = graph.findRecord(getKmer(v));
+        }
+
+        return records[v];
+    }
+
+    /**
+     * Materialize a vertex.
+     */
+    public CortexVertex getVertex(int v) {
+        return new CortexVertex(getKmer(v), getRecord(v), getLocus(v), getSources(v), copyIndices[v], indices[v]);
+    }
+
+    /**
+     * Add an edge in the given color.  If the vertices are already joined, the color is added to the existing edge
+     * (whose weight is kept).
+     *
+     * @return  the edge's id
+     */
+    public int addEdge(int s, int t, int color, double weight) {
+        if (color < 0 || color >= 64 * maskWords) {
+            throw new CortexJDKException("Edge color " + color + " out of range for a subgraph with " + (64 * maskWords) + " color slots");
+        }
+
+        int e = getEdge(s, t);
+        if (e < 0) {
+            e = appendEdge(s, t, weight);
+        }
+
+        colors[e*maskWords + (color >>> 6)] |= 1L << (color & 63);
+
+        return e;
+    }
+
+    /**
+     * @return  the id of the edge from s to t, or -1 if there is none
+     */
+    public int getEdge(int s, int t) {
+        long key = pairKey(s, t);
+
+        for (int slot = slot(Long.hashCode(key * 0x9E3779B97F4A7C15L), pairKeys.length); pairEdges[slot] >= 0; slot = (slot + 1) & (pairKeys.length - 1)) {
+            if (pairKeys[slot] == key) {
+                return pairEdges[slot];
+            }
+        }
+
+        return -1;
+    }
+
+    public int getEdgeSource(int e) { return edgeSources[e]; }
+
+    public int getEdgeTarget(int e) { return edgeTargets[e]; }
+
+    public double getEdgeWeight(int e) { return weights[e]; }
+
+    public boolean hasColor(int e, int color) {
+        return color >= 0 && color < 64 * maskWords && (colors[e*maskWords + (color >>> 6)] & (1L << (color & 63))) != 0;
+    }
+
+    /**
+     * @return  the edge's colors, in increasing order
+     */
+    public int[] getColors(int e) {
+        int[] cs = new int[numColors(e)];
+
+        for (int w = 0, i = 0; w < maskWords; w++) {
+            for (long bits = colors[e*maskWords + w]; bits != 0; bits &= bits - 1) {
+                cs[i++] = 64*w + Long.numberOfTrailingZeros(bits);
+            }
+        }
+
+        return cs;
+    }
+
+    // Outgoing and incoming edges are linked lists threaded through the edge arrays, most recent edge first
+
+    public int firstOutEdge(int v) { return firstOut[v]; }
+
+    public int nextOutEdge(int e) { return nextOut[e]; }
+
+    public int firstInEdge(int v) { return firstIn[v]; }
+
+    public int nextInEdge(int e) { return nextIn[e]; }
+
+    public int outDegree(int v) { return outDegrees[v]; }
+
+    public int inDegree(int v) { return inDegrees[v]; }
+
+    /**
+     * Merge another subgraph into this one, in the other subgraph's insertion order.
+     */
+    public void addGraph(CortexSubgraph o) {
+        addGraph(o, -1, 0, false);
+    }
+
+    /**
+     * Merge another subgraph into this one, giving every vertex but one the same index (e.g. to mark the side of
+     * the seed a traversal explored).  Vertices that become identical are merged.
+     *
+     * @param o       the subgraph to merge
+     * @param except  the id in o of the vertex whose index is kept, or -1 to reindex them all
+     * @param index   the index for every other vertex
+     */
+    public void addGraph(CortexSubgraph o, int except, int index) {
+        addGraph(o, except, index, true);
+    }
+
+    private void addGraph(CortexSubgraph o, int except, int index, boolean reindex) {
+        if (o.kmerSize != kmerSize) {
+            throw new CortexJDKException("Cannot merge subgraphs with kmer sizes " + kmerSize + " and " + o.kmerSize);
+        }
+
+        int[] ids = new int[o.numVertices];
+        for (int v = 0; v < o.numVertices; v++) {
+            int sourceId = o.sourceIds[v] < 0 ? -1 : sourceId(o.sources.get(o.sourceIds[v]), true);
+            int vindex = reindex && v != except ? index : o.indices[v];
+
+            ids[v] = find(o.kmers, v*kmerSize, o.copyIndices[v], vindex, sourceId);
+            if (ids[v] < 0) {
+                ids[v] = append(o.kmers, v*kmerSize, o.copyIndices[v], vindex, sourceId);
+            }
+
+            if (o.loci.containsKey(v)) {
+                loci.putIfAbsent(ids[v], o.loci.get(v));
+            }
+
+            if (records[ids[v]] == null) {
+                records[ids[v]] = o.records[v];
+            }
+        }
+
+        for (int e = 0; e < o.numEdges; e++) {
+            for (int c : o.getColors(e)) {
+                addEdge(ids[o.edgeSources[e]], ids[o.edgeTargets[e]], c, o.weights[e]);
+            }
+        }
+    }
+
+    /**
+     * Merge a jgrapht graph into this one.
+     */
+    public void addGraph(DirectedGraph<CortexVertex, CortexEdge> g) {
+        for (CortexVertex v : g.vertexSet()) {
+            addVertex(v);
+        }
+
+        for (CortexEdge e : g.edgeSet()) {
+            addEdge(addVertex(g.getEdgeSource(e)), addVertex(g.getEdgeTarget(e)), e.getColor(), e.getWeight());
+        }
+    }
+
+    /**
+     * Copy the subgraph into a standalone jgrapht graph, with one edge per color.  Each vertex is materialized
+     * once and shared by all of its edges.
+     */
+    public DirectedWeightedPseudograph<CortexVertex, CortexEdge> toGraph() {
+        DirectedWeightedPseudograph<CortexVertex, CortexEdge> g = new KmerIndexedGraph();
+
+        CortexVertex[] vs = new CortexVertex[numVertices];
+        for (int v = 0; v < numVertices; v++) {
+            vs[v] = getVertex(v);
+            g.addVertex(vs[v]);
+        }
+
+        for (int e = 0; e < numEdges; e++) {
+            CortexVertex s = vs[edgeSources[e]];
+            CortexVertex t = vs[edgeTargets[e]];
+
+            for (int c : getColors(e)) {
+                g.addEdge(s, t, new CortexEdge(s, t, c, weights[e]));
+            }
+        }
+
+        return g;
+    }
+
+    /**
+     * @return  a read-only jgrapht view of this subgraph.  Vertices and edges are materialized on access; edges
+     *          appear once per color.
+     */
+    public DirectedGraph<CortexVertex, CortexEdge> asDirectedGraph() {
+        return new DirectedGraphView();
+    }
+
+    private int numColors(int e) {
+        int n = 0;
+        for (int w = 0; w < maskWords; w++) {
+            n += Long.bitCount(colors[e*maskWords + w]);
+        }
+
+        return n;
+    }
+
+    private int sourceId(Set<String> s, boolean create) {
+        if (s == null) {
+            return -1;
+        }
+
+        Integer id = sourceIdsBySet.get(s);
+        if (id == null) {
+            if (!create) {
+                return Integer.MIN_VALUE;
+            }
+
+            id = sources.size();
+            Set<String> copy = new HashSet<>(s);
+            sources.add(copy);
+            sourceIdsBySet.put(copy, id);
+        }
+
+        return id;
+    }
+
+    private int find(byte[] kmer, int copyIndex, int index, int sourceId) {
+        return kmer.length == kmerSize ? find(kmer, 0, copyIndex, index, sourceId) : -1;
+    }
+
+    private int find(byte[] kmer, int offset, int copyIndex, int index, int sourceId) {
+        for (int v = firstWithKmer(kmer, offset); v >= 0; v = nextWithKmer[v]) {
+            if (copyIndices[v] == copyIndex && indices[v] == index && sourceIds[v] == sourceId) {
+                return v;
+            }
+        }
+
+        return -1;
+    }
+
+    private int firstWithKmer(byte[] kmer) {
+        return kmer.length == kmerSize ? firstWithKmer(kmer, 0) : -1;
+    }
+
+    private int firstWithKmer(byte[] kmer, int offset) {
+        for (int slot = slot(hashKmer(kmer, offset), kmerTable.length); kmerTable[slot] != 0; slot = (slot + 1) & (kmerTable.length - 1)) {
+            int v = kmerTable[slot] - 1;
+            if (kmerEquals(v, kmer, offset)) {
+                return v;
+            }
+        }
+
+        return -1;
+    }
+
+    private int append(byte[] kmer, int copyIndex, int index, int sourceId) {
+        return append(kmer, 0, copyIndex, index, sourceId);
+    }
+
+    private int append(byte[] kmer, int offset, int copyIndex, int index, int sourceId) {
+        if (numVertices == copyIndices.length) {
+            growVertices();
+        }
+
+        int v = numVertices++;
+        System.arraycopy(kmer, offset, kmers, v*kmerSize, kmerSize);
+        copyIndices[v] = copyIndex;
+        indices[v] = index;
+        sourceIds[v] = sourceId;
+        firstOut[v] = -1;
+        firstIn[v] = -1;
+        nextWithKmer[v] = -1;
+
+        int first = firstWithKmer(kmer, offset);
+        if (first < 0) {
+            if (2 * numVertices > kmerTable.length) {
+                rehashKmers(2 * kmerTable.length);
+            }
+
+            insertKmer(v);
+        } else {
+            int last = first;
+            while (nextWithKmer[last] >= 0) {
+                last = nextWithKmer[last];
+            }
+            nextWithKmer[last] = v;
+        }
+
+        return v;
+    }
+
+    private int appendEdge(int s, int t, double weight) {
+        if (numEdges == edgeSources.length) {
+            growEdges();
+        }
+
+        int e = numEdges++;
+        edgeSources[e] = s;
+        edgeTargets[e] = t;
+        weights[e] = weight;
+
+        nextOut[e] = firstOut[s];
+        firstOut[s] = e;
+        outDegrees[s]++;
+
+        nextIn[e] = firstIn[t];
+        firstIn[t] = e;
+        inDegrees[t]++;
+
+        if (2 * numEdges > pairKeys.length) {
+            rehashPairs(2 * pairKeys.length);
+        }
+        insertPair(e);
+
+        return e;
+    }
+
+    private void insertKmer(int v) {
+        int slot = slot(hashKmer(kmers, v*kmerSize), kmerTable.length);
+        while (kmerTable[slot] != 0) {
+            slot = (slot + 1) & (kmerTable.length - 1);
+        }
+
+        kmerTable[slot] = v + 1;
+    }
+
+    private void insertPair(int e) {
+        long key = pairKey(edgeSources[e], edgeTargets[e]);
+
+        int slot = slot(Long.hashCode(key * 0x9E3779B97F4A7C15L), pairKeys.length);
+        while (pairEdges[slot] >= 0) {
+            slot = (slot + 1) & (pairKeys.length - 1);
+        }
+
+        pairKeys[slot] = key;
+        pairEdges[slot] = e;
+    }
+
+    private void rehashKmers(int capacity) {
+        int[] oldTable = kmerTable;
+        kmerTable = new int[capacity];
+
+        for (int entry : oldTable) {
+            if (entry != 0) {
+                insertKmer(entry - 1);
+            }
+        }
+    }
+
+    private void rehashPairs(int capacity) {
+        int[] oldEdges = pairEdges;
+        pairKeys = new long[capacity];
+        pairEdges = new int[capacity];
+        Arrays.fill(pairEdges, -1);
+
+        for (int e : oldEdges) {
+            if (e >= 0) {
+                insertPair(e);
+            }
+        }
+    }
+
+    private void growVertices() {
+        int capacity = 2 * copyIndices.length;
+
+        kmers = Arrays.copyOf(kmers, capacity * kmerSize);
+        copyIndices = Arrays.copyOf(copyIndices, capacity);
+        indices = Arrays.copyOf(indices, capacity);
+        sourceIds = Arrays.copyOf(sourceIds, capacity);
+        firstOut = Arrays.copyOf(firstOut, capacity);
+        firstIn = Arrays.copyOf(firstIn, capacity);
+        outDegrees = Arrays.copyOf(outDegrees, capacity);
+        inDegrees = Arrays.copyOf(inDegrees, capacity);
+        nextWithKmer = Arrays.copyOf(nextWithKmer, capacity);
+        records = Arrays.copyOf(records, capacity);
+    }
+
+    private void growEdges() {
+        int capacity = 2 * edgeSources.length;
+
+        edgeSources = Arrays.copyOf(edgeSources, capacity);
+        edgeTargets = Arrays.copyOf(edgeTargets, capacity);
+        nextOut = Arrays.copyOf(nextOut, capacity);
+        nextIn = Arrays.copyOf(nextIn, capacity);
+        weights = Arrays.copyOf(weights, capacity);
+        colors = Arrays.copyOf(colors, capacity * maskWords);
+    }
+
+    private boolean kmerEquals(int v, byte[] kmer, int offset) {
+        for (int i = 0, j = v*kmerSize; i < kmerSize; i++, j++) {
+            if (kmers[j] != kmer[offset + i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private int hashKmer(byte[] kmer, int offset) {
+        int h = 1;
+        for (int i = offset; i < offset + kmerSize; i++) {
+            h = 31 * h + kmer[i];
+        }
+
+        return h;
+    }
+
+    private static long pairKey(int s, int t) { return ((long) s << 32) | (t & 0xffffffffL); }
+
+    private static int slot(int hash, int capacity) {
+        return (hash ^ (hash >>> 16)) & (capacity - 1);
+    }
+
+    private class SubgraphEdge extends CortexEdge {
+        private static final long serialVersionUID = 1L;
+
+        private final int edge;
+
+        SubgraphEdge(int edge, int color) {
+            super(getVertex(edgeSources[edge]), getVertex(edgeTargets[edge]), color, weights[edge]);
+
+            this.edge = edge;
+        }
+
+        CortexSubgraph owner() { return CortexSubgraph.this; }
+    }
+
+    private class DirectedGraphView extends AbstractGraph<CortexVertex, CortexEdge> implements DirectedGraph<CortexVertex, CortexEdge> {
+        @Override
+        public Set<CortexVertex> vertexSet() {
+            return new AbstractSet<CortexVertex>() {
+                @Override
+                public Iterator<CortexVertex> iterator() {
+                    return new Iterator<CortexVertex>() {
+                        private int v = 0;
+
+                        @Override
+                        public boolean hasNext() { return v < numVertices; }
+
+                        @Override
+                        public CortexVertex next() {
+                            if (!hasNext()) { throw new NoSuchElementException(); }
+                            return getVertex(v++);
+                        }
+                    };
+                }
+
+                @Override
+                public boolean contains(Object o) { return o instanceof CortexVertex && indexOf((CortexVertex) o) >= 0; }
+
+                @Override
+                public int size() { return numVertices; }
+            };
+        }
+
+        @Override
+        public Set<CortexEdge> edgeSet() {
+            Set<CortexEdge> es = new LinkedHashSet<>();
+            for (int e = 0; e < numEdges; e++) {
+                addColoredEdges(es, e);
+            }
+
+            return Collections.unmodifiableSet(es);
+        }
+
+        @Override
+        public boolean containsVertex(CortexVertex v) { return indexOf(v) >= 0; }
+
+        @Override
+        public boolean containsEdge(CortexEdge e) {
+            return e instanceof SubgraphEdge && ((SubgraphEdge) e).owner() == CortexSubgraph.this && hasColor(((SubgraphEdge) e).edge, e.getColor());
+        }
+
+        @Override
+        public CortexEdge getEdge(CortexVertex s, CortexVertex t) {
+            int e = edge(s, t);
+            if (e < 0) {
+                return null;
+            }
+
+            return new SubgraphEdge(e, getColors(e)[0]);
+        }
+
+        @Override
+        public Set<CortexEdge> getAllEdges(CortexVertex s, CortexVertex t) {
+            if (!containsVertex(s) || !containsVertex(t)) {
+                return null;
+            }
+
+            Set<CortexEdge> es = new LinkedHashSet<>();
+            int e = edge(s, t);
+            if (e >= 0) {
+                addColoredEdges(es, e);
+            }
+
+            return es;
+        }
+
+        @Override
+        public Set<CortexEdge> outgoingEdgesOf(CortexVertex v) {
+            int id = vertex(v);
+
+            Set<CortexEdge> es = new LinkedHashSet<>();
+            for (int e = firstOut[id]; e >= 0; e = nextOut[e]) {
+                addColoredEdges(es, e);
+            }
+
+            return es;
+        }
+
+        @Override
+        public Set<CortexEdge> incomingEdgesOf(CortexVertex v) {
+            int id = vertex(v);
+
+            Set<CortexEdge> es = new LinkedHashSet<>();
+            for (int e = firstIn[id]; e >= 0; e = nextIn[e]) {
+                addColoredEdges(es, e);
+            }
+
+            return es;
+        }
+
+        @Override
+        public Set<CortexEdge> edgesOf(CortexVertex v) {
+            Set<CortexEdge> es = incomingEdgesOf(v);
+            es.addAll(outgoingEdgesOf(v));
+
+            return es;
+        }
+
+        @Override
+        public int outDegreeOf(CortexVertex v) { return outgoingEdgesOf(v).size(); }
+
+        @Override
+        public int inDegreeOf(CortexVertex v) { return incomingEdgesOf(v).size(); }
+
+        @Override
+        public CortexVertex getEdgeSource(CortexEdge e) { return getVertex(edgeSources[subgraphEdge(e).edge]); }
+
+        @Override
+        public CortexVertex getEdgeTarget(CortexEdge e) { return getVertex(edgeTargets[subgraphEdge(e).edge]); }
+
+        @Override
+        public double getEdgeWeight(CortexEdge e) { return e.getWeight(); }
+
+        @Override
+        public EdgeFactory<CortexVertex, CortexEdge> getEdgeFactory() { return null; }
+
+        @Override
+        public CortexEdge addEdge(CortexVertex s, CortexVertex t) { throw new UnsupportedOperationException("Subgraph view is read-only"); }
+
+        @Override
+        public boolean addEdge(CortexVertex s, CortexVertex t, CortexEdge e) { throw new UnsupportedOperationException("Subgraph view is read-only"); }
+
+        @Override
+        public boolean addVertex(CortexVertex v) { throw new UnsupportedOperationException("Subgraph view is read-only"); }
+
+        @Override
+        public CortexEdge removeEdge(CortexVertex s, CortexVertex t) { throw new UnsupportedOperationException("Subgraph view is read-only"); }
+
+        @Override
+        public boolean removeEdge(CortexEdge e) { throw new UnsupportedOperationException("Subgraph view is read-only"); }
+
+        @Override
+        public boolean removeVertex(CortexVertex v) { throw new UnsupportedOperationException("Subgraph view is read-only"); }
+
+        private void addColoredEdges(Set<CortexEdge> es, int e) {
+            for (int c : getColors(e)) {
+                es.add(new SubgraphEdge(e, c));
+            }
+        }
+
+        private int edge(CortexVertex s, CortexVertex t) {
+            int sid = indexOf(s), tid = indexOf(t);
+
+            return sid < 0 || tid < 0 ? -1 : CortexSubgraph.this.getEdge(sid, tid);
+        }
+
+        private int vertex(CortexVertex v) {
+            int id = indexOf(v);
+            if (id < 0) {
+                throw new IllegalArgumentException("No such vertex in graph: " + v);
+            }
+
+            return id;
+        }
+
+        private SubgraphEdge subgraphEdge(CortexEdge e) {
+            if (!(e instanceof SubgraphEdge) || ((SubgraphEdge) e).owner() != CortexSubgraph.this) {
+                throw new IllegalArgumentException("Edge does not belong to this subgraph: " + e);
+            }
+
+            return (SubgraphEdge) e;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package uk.ac.ox.well.cortexjdk.utils.traversal;
+
+import org.jgrapht.graph.DirectedWeightedPseudograph;
+import uk.ac.ox.well.cortexjdk.utils.kmer.CanonicalKmer;
+
+import java.util.*;
+
+/**
+ * A DirectedWeightedPseudograph that indexes its vertices by canonical kmer as they are added and removed, so that
+ * TraversalUtils.findVertex() and toWalk() can find a vertex without scanning the whole vertex set.  Vertices sharing
+ * a kmer (e.g. copies of a repeat) are kept in insertion order, so lookups return the same vertex a scan would.
+ */
+public class KmerIndexedGraph extends DirectedWeightedPseudograph<CortexVertex, CortexEdge> {
+    private static final long serialVersionUID = 1L;
+
+    private Map<CanonicalKmer, List<CortexVertex>> index = new HashMap<>();
+
+    public KmerIndexedGraph() {
+        super(CortexEdge.class);
+    }
+
+    @Override
+    public boolean addVertex(CortexVertex v) {
+        if (super.addVertex(v)) {
+            index.computeIfAbsent(key(v), k -> new ArrayList<>(1)).add(v);
+
+            return true;
+        }
+
+        return false;
+    }
+
+    @Override
+    public boolean removeVertex(CortexVertex v) {
+        if (super.removeVertex(v)) {
+            CanonicalKmer ck = key(v);
+            List<CortexVertex> vs = index.get(ck);
+
+            vs.remove(v);
+            if (vs.isEmpty()) {
+                index.remove(ck);
+            }
+
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * @return  the vertices whose kmer, in either orientation, is ck, in the order they were added
+     */
+    public List<CortexVertex> getVertices(CanonicalKmer ck) {
+        List<CortexVertex> vs = index.get(ck);
+
+        return vs == null ? Collections.emptyList() : Collections.unmodifiableList(vs);
+    }
+
+    /**
+     * @return  the vertices whose kmer, in either orientation, is sk, in the order they were added
+     */
+    public List<CortexVertex> getVertices(String sk) {
+        return getVertices(new CanonicalKmer(sk));
+    }
+
+    @Override
+    public Object clone() {
+        // jgrapht fills the clone by re-adding every vertex to it, so the clone must start from its own empty index
+        Map<CanonicalKmer, List<CortexVertex>> ours = index;
+        index = new HashMap<>();
+
+        try {
+            return super.clone();
+        } finally {
+            index = ours;
+        }
+    }
+
+    private static CanonicalKmer key(CortexVertex v) {
+        return new CanonicalKmer(v.getKmerAsByteKmer().getKmer());
+    }
+}
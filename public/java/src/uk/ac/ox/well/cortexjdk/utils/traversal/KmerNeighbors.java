@@ -0,0 +1,159 @@
+package uk.ac.ox.well.cortexjdk.utils.traversal;
+
+import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexRecord;
+import uk.ac.ox.well.cortexjdk.utils.kmer.CortexByteKmer;
+import uk.ac.ox.well.cortexjdk.utils.sequence.SequenceUtils;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Enumerates the neighbors of a kmer straight from its record's edge bytes, without building per-color maps and
+ * sets.  The edge nibbles of all colors are OR'ed into a single union mask, each neighbor's color membership is
+ * kept as a bitmask, and the neighbor kmers are written back to back into a reusable buffer.  Only the neighbors a
+ * caller actually keeps need to be materialized with getKmer().
+ *
+ * An instance is reused across calls and is not thread-safe.
+ */
+public class KmerNeighbors {
+    private static final byte[] BASES = { 'A', 'C', 'G', 'T' };
+    private static final byte[] COMPLEMENTS = { 'T', 'G', 'C', 'A' };
+
+    private final int kmerSize;
+    private final int maskWords;
+
+    private final byte[] buffer;
+    private final long[] colorMasks;
+    private final byte[] bases = new byte[4];
+    private final long[] slotMasks;
+    private int numNeighbors = 0;
+
+    public KmerNeighbors(int kmerSize, int numColors) {
+        this.kmerSize = kmerSize;
+        this.maskWords = (numColors + 63) / 64;
+
+        this.buffer = new byte[4 * kmerSize];
+        this.colorMasks = new long[4 * maskWords];
+        this.slotMasks = new long[4 * maskWords];
+    }
+
+    /**
+     * Find the successors of a kmer.
+     *
+     * @param sk  the kmer, in the orientation being traversed
+     * @param cr  its record (may be null, in which case there are no neighbors)
+     * @return    the number of successors
+     */
+    public int next(byte[] sk, CortexRecord cr) {
+        return enumerate(sk, cr, true);
+    }
+
+    /**
+     * Find the predecessors of a kmer.
+     *
+     * @param sk  the kmer, in the orientation being traversed
+     * @param cr  its record (may be null, in which case there are no neighbors)
+     * @return    the number of predecessors
+     */
+    public int prev(byte[] sk, CortexRecord cr) {
+        return enumerate(sk, cr, false);
+    }
+
+    public int size() { return numNeighbors; }
+
+    public byte getBase(int i) { return bases[i]; }
+
+    public boolean hasColor(int i, int color) {
+        return (slotMasks[i*maskWords + (color >>> 6)] & (1L << (color & 63))) != 0;
+    }
+
+    /**
+     * @return  true if neighbor i is present in any of the colors set in colorMask (see makeColorMask())
+     */
+    public boolean hasAnyColor(int i, long[] colorMask) {
+        for (int w = 0; w < maskWords; w++) {
+            if ((slotMasks[i*maskWords + w] & colorMask[w]) != 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public CortexByteKmer getKmer(int i) {
+        return new CortexByteKmer(Arrays.copyOfRange(buffer, i*kmerSize, (i + 1)*kmerSize));
+    }
+
+    public long[] makeColorMask(Collection<Integer> colors) {
+        long[] colorMask = new long[maskWords];
+        for (int c : colors) {
+            colorMask[c >>> 6] |= 1L << (c & 63);
+        }
+
+        return colorMask;
+    }
+
+    private int enumerate(byte[] sk, CortexRecord cr, boolean goForward) {
+        numNeighbors = 0;
+
+        if (cr == null) {
+            return 0;
+        }
+
+        boolean isFlipped = isFlipped(sk);
+
+        // Out-edges of the reverse complement are the complemented in-edges of the record, and vice versa
+        boolean useOutNibble = goForward != isFlipped;
+        byte[] alphabet = isFlipped ? COMPLEMENTS : BASES;
+
+        Arrays.fill(colorMasks, 0L);
+        int union = 0;
+
+        byte[] edges = cr.getEdges();
+        for (int c = 0; c < edges.length; c++) {
+            int nibble = useOutNibble ? (edges[c] & 0xf) : Integer.reverse((edges[c] >> 4) & 0xf) >>> 28;
+
+            union |= nibble;
+            for (int bits = nibble; bits != 0; bits &= bits - 1) {
+                int b = Integer.numberOfTrailingZeros(bits);
+                colorMasks[b*maskWords + (c >>> 6)] |= 1L << (c & 63);
+            }
+        }
+
+        for (int bits = union; bits != 0; bits &= bits - 1) {
+            int b = Integer.numberOfTrailingZeros(bits);
+            int slot = numNeighbors++;
+            byte base = alphabet[b];
+
+            int offset = slot*kmerSize;
+            if (goForward) {
+                System.arraycopy(sk, 1, buffer, offset, kmerSize - 1);
+                buffer[offset + kmerSize - 1] = base;
+            } else {
+                buffer[offset] = base;
+                System.arraycopy(sk, 0, buffer, offset + 1, kmerSize - 1);
+            }
+
+            bases[slot] = base;
+            System.arraycopy(colorMasks, b*maskWords, slotMasks, slot*maskWords, maskWords);
+        }
+
+        return numNeighbors;
+    }
+
+    /**
+     * @return  true if the kmer's reverse complement sorts lower (i.e. the record stores the other orientation)
+     */
+    static boolean isFlipped(byte[] sk) {
+        for (int i = 0, j = sk.length - 1; i < sk.length; i++, j--) {
+            byte fw = sk[i];
+            byte rc = SequenceUtils.complement(sk[j]);
+
+            if (fw != rc) {
+                return fw > rc;
+            }
+        }
+
+        return false;
+    }
+}
@@ -10,188 +10,276 @@ import java.util.*;
 
 /**
  * Created by kiran on 24/07/2017.
+ *
+ * Active links are kept in insertion order in parallel primitive arrays, with their junction choices packed into a
+ * single byte arena and an int cursor into each.  Every element ages in lockstep and new elements start at age
+ * zero, so ages never increase along the arrays: the oldest links are always a prefix, and the newest a suffix.
  */
 public class LinkStore {
-    private Map<String, List<LinkStoreElement>> linkElements = new HashMap<>();
+    private static final int INITIAL_CAPACITY = 16;
+
+    private byte[] arena = new byte[256];
+    private int arenaSize = 0;
+
+    private int[] starts = new int[INITIAL_CAPACITY];
+    private int[] lengths = new int[INITIAL_CAPACITY];
+    private int[] positions = new int[INITIAL_CAPACITY];
+    private int[] ages = new int[INITIAL_CAPACITY];
+    private int[] sourceIds = new int[INITIAL_CAPACITY];
+    private int numElements = 0;
+
+    private List<String> sources = new ArrayList<>();
+
+    private final TraversalMetrics metrics;
+
+    public LinkStore() { this(null); }
+
+    /**
+     * @param metrics  metrics to count links added and junction choices in (may be null)
+     */
+    public LinkStore(TraversalMetrics metrics) { this.metrics = metrics; }
 
     public void add(CortexByteKmer curKmer, CortexLinksRecord clr, boolean goForward, String linkSource) {
-        boolean recordOrientationMatchesKmer = clr.getKmerAsByteKmer().equals(curKmer);
+        add(curKmer, clr, goForward, linkSource, -1);
+    }
 
-        List<CortexJunctionsRecord> junctions = new ArrayList<>();
-        junctions.addAll(clr.getJunctions());
+    /**
+     * Add the links of a record that were seen in one color of a multi-color links source (i.e. those that are
+     * members of that color).  A negative color adds all of them.
+     */
+    public void add(CortexByteKmer curKmer, CortexLinksRecord clr, boolean goForward, String linkSource, int color) {
+        boolean recordOrientationMatchesKmer = clr.getKmerAsByteKmer().equals(curKmer);
 
-        for (CortexJunctionsRecord cjr : junctions) {
+        for (CortexJunctionsRecord cjr : clr.getJunctions()) {
             boolean linkGoesForward = recordOrientationMatchesKmer == cjr.isForward();
-            String junctionList = linkGoesForward ? cjr.getJunctions() : SequenceUtils.complement(cjr.getJunctions());
 
-            if (linkGoesForward == goForward) {
-                if (!linkElements.containsKey(junctionList)) {
-                    linkElements.put(junctionList, new ArrayList<>());
-                }
+            if (linkGoesForward == goForward && (color < 0 || cjr.isMember(color))) {
+                append(cjr.getJunctions(), !linkGoesForward, linkSource);
+            }
+        }
+    }
+
+    private void append(String junctionList, boolean complement, String linkSource) {
+        int length = junctionList.length();
+
+        ensureArenaCapacity(length);
+        ensureElementCapacity(numElements + 1);
+
+        for (int i = 0; i < length; i++) {
+            byte b = (byte) junctionList.charAt(i);
+            arena[arenaSize + i] = complement ? SequenceUtils.complement(b) : b;
+        }
+
+        starts[numElements] = arenaSize;
+        lengths[numElements] = length;
+        positions[numElements] = 0;
+        ages[numElements] = 0;
+        sourceIds[numElements] = sourceId(linkSource);
+
+        arenaSize += length;
+        numElements++;
+
+        if (metrics != null) { metrics.linkAdded(); }
+    }
 
-                linkElements.get(junctionList).add(new LinkStoreElement(junctionList, 0, 0, linkSource));
+    private int sourceId(String linkSource) {
+        for (int i = 0; i < sources.size(); i++) {
+            if (Objects.equals(sources.get(i), linkSource)) {
+                return i;
             }
         }
+
+        sources.add(linkSource);
+
+        return sources.size() - 1;
     }
 
     public void incrementAges() {
-        for (String junctionList : linkElements.keySet()) {
-            for (LinkStoreElement lse : linkElements.get(junctionList)) {
-                lse.incrementAge();
-            }
+        for (int i = 0; i < numElements; i++) {
+            ages[i]++;
         }
     }
 
     public int numNewPaths() {
         int numNewPaths = 0;
-        for (String junctionList : linkElements.keySet()) {
-            for (LinkStoreElement lse : linkElements.get(junctionList)) {
-                if (lse.getAge() == 0) {
-                    numNewPaths++;
-                }
-            }
+        for (int i = numElements - 1; i >= 0 && ages[i] == 0; i--) {
+            numNewPaths++;
         }
 
         return numNewPaths;
     }
 
-    private void incrementPositionsAndExpire(String choice) {
-        Set<LinkStoreElement> toRemove = new HashSet<>();
+    /**
+     * Choose the next junction.  A choice is only made if all of the oldest links agree on it.  The first of the
+     * oldest links then stands for every active link with an identical junction list: the choice is read at the
+     * cursor of the most recently added of those, and the sources of all of them are reported.  Links that
+     * disagree with the choice, or that have reached their final junction, are expired and the rest advance.
+     *
+     * @return  the chosen base (or null if there is no unanimous choice) and the sources supporting it
+     */
+    public Pair<String, Set<String>> getNextJunctionChoice() {
+        Set<String> junctionSources = new TreeSet<>();
 
-        List<LinkStoreElement> lses = new ArrayList<>();
-        for (String junctionList : linkElements.keySet()) {
-            lses.addAll(linkElements.get(junctionList));
+        if (numElements == 0) {
+            return new Pair<>(null, junctionSources);
         }
 
-        lses.sort((o1, o2) -> {
-            if (o1.getAge() != o2.getAge()) { return o1.getAge() > o2.getAge() ? -1 : 1; }
-            if (o1.length() == o2.length()) { return o2.getJunctionList().compareTo(o1.getJunctionList()); }
-            return o1.length() < o2.length() ? -1 : 1;
-        });
-
-        for (LinkStoreElement lse : lses) {
-            int pos = lse.getPos();
-            String junctionList = lse.getJunctionList();
+        Pair<String, Set<String>> choice = chooseNextJunction(junctionSources);
 
-            if (lse.getPos() + 1 >= junctionList.length() || !junctionList.substring(pos, pos + 1).equals(choice)) {
-                toRemove.add(lse);
-            } else if (junctionList.substring(pos, pos + 1).equals(choice)) {
-                lse.incrementPos();
-            }
-        }
+        if (metrics != null) { metrics.junctionChoice(choice.getFirst() != null); }
 
-        for (LinkStoreElement lse : toRemove) {
-            linkElements.get(lse.getJunctionList()).remove(lse);
-
-            if (linkElements.get(lse.getJunctionList()).size() == 0) {
-                linkElements.remove(lse.getJunctionList());
-            }
-        }
+        return choice;
     }
 
-    private String getOldestLink() {
-        int age = Integer.MIN_VALUE;
+    private Pair<String, Set<String>> chooseNextJunction(Set<String> junctionSources) {
 
-        for (String junctionList : linkElements.keySet()) {
-            for (LinkStoreElement lse : linkElements.get(junctionList)) {
-                if (lse.getAge() > age) {
-                    age = lse.getAge();
+        int oldestAge = ages[0];
+        int oldest = -1;
+        for (int i = 0; i < numElements && ages[i] == oldestAge; i++) {
+            if (positions[i] < lengths[i]) {
+                if (oldest == -1) {
+                    oldest = i;
+                } else if (arena[starts[oldest] + positions[oldest]] != arena[starts[i] + positions[i]]) {
+                    return new Pair<>(null, junctionSources);
                 }
             }
         }
 
-        Set<LinkStoreElement> oldestLinks = new LinkedHashSet<>();
-        for (String junctionList : linkElements.keySet()) {
-            for (LinkStoreElement lse : linkElements.get(junctionList)) {
-                if (lse.getAge() == age) {
-                    oldestLinks.add(lse);
-                }
+        if (oldest == -1) {
+            return new Pair<>(null, junctionSources);
+        }
+
+        int choicePos = positions[oldest];
+        for (int i = oldest; i < numElements; i++) {
+            if (positions[i] < lengths[i] && sameJunctionList(oldest, i)) {
+                choicePos = positions[i];
+                junctionSources.add(sources.get(sourceIds[i]));
             }
         }
 
-        Set<String> junctionChoices = new LinkedHashSet<>();
-        for (LinkStoreElement lse : oldestLinks) {
-            if (lse.getPos() + 1 <= lse.length()) {
-                junctionChoices.add(lse.getJunctionList().substring(lse.getPos(), lse.getPos() + 1));
+        byte choice = arena[starts[oldest] + choicePos];
+        incrementPositionsAndExpire(choice);
+
+        return new Pair<>(String.valueOf((char) choice), junctionSources);
+    }
+
+    private boolean sameJunctionList(int i, int j) {
+        if (lengths[i] != lengths[j]) { return false; }
+        if (starts[i] == starts[j]) { return true; }
+
+        for (int k = 0; k < lengths[i]; k++) {
+            if (arena[starts[i] + k] != arena[starts[j] + k]) {
+                return false;
             }
         }
 
-        return junctionChoices.size() == 1 ? oldestLinks.iterator().next().getJunctionList() : null;
+        return true;
     }
 
-    public Pair<String, Set<String>> getNextJunctionChoice() {
-        String junctionList = getOldestLink();
-        String choice = null;
-        Set<String> junctionSources = new TreeSet<>();
+    private void incrementPositionsAndExpire(byte choice) {
+        int kept = 0;
+        int liveBytes = 0;
 
-        if (junctionList != null) {
-            for (LinkStoreElement lse : linkElements.get(junctionList)) {
-                int pos = lse.getPos();
+        for (int i = 0; i < numElements; i++) {
+            int pos = positions[i];
 
-                choice = junctionList.substring(pos, pos + 1);
+            if (pos + 1 < lengths[i] && arena[starts[i] + pos] == choice) {
+                starts[kept] = starts[i];
+                lengths[kept] = lengths[i];
+                positions[kept] = pos + 1;
+                ages[kept] = ages[i];
+                sourceIds[kept] = sourceIds[i];
 
-                for (String jl : linkElements.keySet()) {
-                    if (pos < jl.length() && jl.substring(pos, pos + 1).equals(choice)) {
-                        junctionSources.add(lse.getSource());
-                    }
-                }
+                liveBytes += lengths[i];
+                kept++;
             }
+        }
 
-            incrementPositionsAndExpire(choice);
+        numElements = kept;
+
+        if (numElements == 0) {
+            arenaSize = 0;
+        } else if (arenaSize > 2*liveBytes + arena.length/2) {
+            compactArena(liveBytes);
         }
+    }
 
-        return new Pair<>(choice, junctionSources);
+    private void compactArena(int liveBytes) {
+        byte[] compacted = new byte[Math.max(256, 2*liveBytes)];
+        int size = 0;
+
+        for (int i = 0; i < numElements; i++) {
+            System.arraycopy(arena, starts[i], compacted, size, lengths[i]);
+            starts[i] = size;
+            size += lengths[i];
+        }
+
+        arena = compacted;
+        arenaSize = size;
     }
 
-    public boolean isActive() {
-        return linkElements.size() > 0;
+    private void ensureArenaCapacity(int extra) {
+        if (arenaSize + extra > arena.length) {
+            arena = Arrays.copyOf(arena, Math.max(2*arena.length, arenaSize + extra));
+        }
     }
 
-    public int size() {
-        int numElements = 0;
+    private void ensureElementCapacity(int capacity) {
+        if (capacity > starts.length) {
+            int newCapacity = Math.max(2*starts.length, capacity);
 
-        for (String junctionList : linkElements.keySet()) {
-            numElements += linkElements.get(junctionList).size();
+            starts = Arrays.copyOf(starts, newCapacity);
+            lengths = Arrays.copyOf(lengths, newCapacity);
+            positions = Arrays.copyOf(positions, newCapacity);
+            ages = Arrays.copyOf(ages, newCapacity);
+            sourceIds = Arrays.copyOf(sourceIds, newCapacity);
         }
+    }
 
+    public boolean isActive() {
+        return numElements > 0;
+    }
+
+    public int size() {
         return numElements;
     }
 
+    private String junctionList(int i) {
+        return new String(arena, starts[i], lengths[i]);
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
 
-        List<LinkStoreElement> junctionLists = new ArrayList<>();
-
-        for (String jl : linkElements.keySet()) {
-            junctionLists.addAll(linkElements.get(jl));
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < numElements; i++) {
+            order.add(i);
         }
 
-        junctionLists.sort((o1, o2) -> {
-            if (o1.getAge() != o2.getAge()) {
-                return o1.getAge() > o2.getAge() ? -1 : 1;
+        order.sort((o1, o2) -> {
+            if (ages[o1] != ages[o2]) {
+                return ages[o1] > ages[o2] ? -1 : 1;
             }
 
-            if (o1.length() == o2.length()) { return o2.getJunctionList().compareTo(o1.getJunctionList()); }
-            return o1.length() < o2.length() ? -1 : 1;
+            if (lengths[o1] == lengths[o2]) { return junctionList(o2).compareTo(junctionList(o1)); }
+            return lengths[o1] < lengths[o2] ? -1 : 1;
         });
 
-        int numCurr = junctionLists.size();
-
-        sb.append("num_curr: ").append(numCurr);
+        sb.append("num_curr: ").append(numElements);
 
-        for (LinkStoreElement lse : junctionLists) {
+        for (int i : order) {
             if (sb.length() > 0) {
                 sb.append("\n");
             }
 
-            sb.append(SequenceUtils.complement(lse.getJunctionList()))
+            sb.append(SequenceUtils.complement(junctionList(i)))
               .append(" [")
-              .append(lse.getPos())
+              .append(positions[i])
               .append("/")
-              .append(lse.length())
+              .append(lengths[i])
               .append("] age: ")
-              .append(lse.getAge());
+              .append(ages[i]);
         }
 
         sb.append("\n");
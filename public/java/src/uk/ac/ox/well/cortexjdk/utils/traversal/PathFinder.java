@@ -2,32 +2,37 @@ package uk.ac.ox.well.cortexjdk.utils.traversal;
 
 import org.jgrapht.Graph;
 import org.jgrapht.GraphPath;
-import org.jgrapht.alg.shortestpath.KShortestPaths;
-import org.jgrapht.graph.DefaultDirectedGraph;
+import org.jgrapht.graph.GraphWalk;
 import uk.ac.ox.well.cortexjdk.utils.kmer.CanonicalKmer;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
 
 /**
- * Created by kiran on 03/06/2017.
+ * Finds the shortest simple paths between two vertices in one color of a graph, in order of length.  Paths are
+ * enumerated with Yen's algorithm on a compacted view of the graph, in which each non-branching chain of vertices
+ * is a single weighted edge, so the work depends on the number of branches rather than the number of kmers.  The
+ * compacted view is built per query from the part of the graph reachable from the start vertex; the graph itself
+ * is never copied.
+ *
+ * At most maxPaths paths are returned, and no path longer than maxLength edges is considered.
  */
 public class PathFinder {
-    private Graph<CortexVertex, CortexEdge> g;
+    private static final int DEFAULT_MAX_PATHS = 10;
 
-    public PathFinder(Graph<CortexVertex, CortexEdge> graph, int color) {
-        g = new DefaultDirectedGraph<>(CortexEdge.class);
+    private final Graph<CortexVertex, CortexEdge> g;
+    private final int color;
+    private final int maxPaths;
+    private final int maxLength;
 
-        for (CortexEdge e : graph.edgeSet()) {
-            if (e.getColor() == color) {
-                CortexVertex s = graph.getEdgeSource(e);
-                CortexVertex t = graph.getEdgeTarget(e);
+    public PathFinder(Graph<CortexVertex, CortexEdge> graph, int color) {
+        this(graph, color, DEFAULT_MAX_PATHS, Integer.MAX_VALUE);
+    }
 
-                g.addVertex(s);
-                g.addVertex(t);
-                g.addEdge(s, t, e);
-            }
-        }
+    public PathFinder(Graph<CortexVertex, CortexEdge> graph, int color, int maxPaths, int maxLength) {
+        this.g = graph;
+        this.color = color;
+        this.maxPaths = maxPaths;
+        this.maxLength = maxLength;
     }
 
     public GraphPath<CortexVertex, CortexEdge> getPath(CortexVertex startVertex, CortexVertex endVertex) {
@@ -47,15 +52,8 @@ public class PathFinder {
     public List<GraphPath<CortexVertex, CortexEdge>> getPaths(CortexVertex startVertex, CortexVertex endVertex, CanonicalKmer constraint, boolean accept) {
         List<GraphPath<CortexVertex, CortexEdge>> pathsFiltered = new ArrayList<>();
 
-        if (g.vertexSet().size() == 0) {
-            return pathsFiltered;
-        }
-
-        KShortestPaths<CortexVertex, CortexEdge> ksp = new KShortestPaths<>(g, 10);
-
-
-        if (g.containsVertex(startVertex) && g.containsVertex(endVertex)) {
-            List<GraphPath<CortexVertex, CortexEdge>> pathsUnfiltered = ksp.getPaths(startVertex, endVertex);
+        if (g.containsVertex(startVertex) && g.containsVertex(endVertex) && !startVertex.equals(endVertex)) {
+            List<GraphPath<CortexVertex, CortexEdge>> pathsUnfiltered = new Compaction(startVertex, endVertex).getShortestPaths();
 
             if (constraint == null) {
                 pathsFiltered = pathsUnfiltered;
@@ -81,4 +79,284 @@ public class PathFinder {
 
         return pathsFiltered;
     }
+
+    /**
+     * A non-branching chain between two branch nodes.
+     */
+    private static class Segment {
+        final int from;
+        final int to;
+        final List<CortexVertex> interior;
+        final List<CortexEdge> edges;
+
+        Segment(int from, int to, List<CortexVertex> interior, List<CortexEdge> edges) {
+            this.from = from;
+            this.to = to;
+            this.interior = interior;
+            this.edges = edges;
+        }
+
+        int length() { return edges.size(); }
+    }
+
+    /**
+     * A path through the compacted graph, as its nodes and the segments between them.
+     */
+    private static class Route {
+        final List<Integer> nodes;
+        final List<Integer> segments;
+        final int length;
+
+        Route(List<Integer> nodes, List<Integer> segments, int length) {
+            this.nodes = nodes;
+            this.segments = segments;
+            this.length = length;
+        }
+    }
+
+    private class Compaction {
+        private final CortexVertex start;
+        private final CortexVertex end;
+
+        private final List<CortexVertex> nodes = new ArrayList<>();
+        private final Map<CortexVertex, Integer> nodeIds = new HashMap<>();
+        private final List<Segment> segments = new ArrayList<>();
+        private final List<List<Integer>> outSegments = new ArrayList<>();
+
+        private final Map<CortexVertex, List<CortexEdge>> outEdges = new HashMap<>();
+        private final Map<CortexVertex, Integer> inDegrees = new HashMap<>();
+
+        Compaction(CortexVertex start, CortexVertex end) {
+            this.start = start;
+            this.end = end;
+
+            Deque<Integer> queue = new ArrayDeque<>();
+            nodeId(start, queue);
+
+            while (!queue.isEmpty()) {
+                int u = queue.poll();
+
+                for (CortexEdge e : getOutEdges(nodes.get(u))) {
+                    List<CortexVertex> interior = new ArrayList<>();
+                    List<CortexEdge> edges = new ArrayList<>();
+                    edges.add(e);
+
+                    CortexVertex cur = g.getEdgeTarget(e);
+                    while (!isBranch(cur)) {
+                        interior.add(cur);
+
+                        CortexEdge next = getOutEdges(cur).get(0);
+                        edges.add(next);
+                        cur = g.getEdgeTarget(next);
+                    }
+
+                    int v = nodeId(cur, queue);
+
+                    // A chain back to where it started cannot be part of a simple path
+                    if (v != u) {
+                        outSegments.get(u).add(segments.size());
+                        segments.add(new Segment(u, v, interior, edges));
+                    }
+                }
+            }
+        }
+
+        /**
+         * Yen's algorithm: each new path is the shortest deviation from a prefix of a path already found.
+         */
+        List<GraphPath<CortexVertex, CortexEdge>> getShortestPaths() {
+            List<GraphPath<CortexVertex, CortexEdge>> paths = new ArrayList<>();
+
+            Integer target = nodeIds.get(end);
+            if (target == null) {
+                return paths;
+            }
+
+            Route first = shortestRoute(0, target, Collections.emptySet(), Collections.emptySet(), maxLength);
+            if (first == null) {
+                return paths;
+            }
+
+            List<Route> found = new ArrayList<>();
+            found.add(first);
+
+            Set<List<Integer>> seen = new HashSet<>();
+            seen.add(first.segments);
+
+            PriorityQueue<Route> candidates = new PriorityQueue<>((a, b) -> a.length != b.length ? Integer.compare(a.length, b.length) : compareLexicographically(a.segments, b.segments));
+
+            while (found.size() < maxPaths) {
+                Route last = found.get(found.size() - 1);
+
+                int rootLength = 0;
+                for (int i = 0; i < last.segments.size(); i++) {
+                    List<Integer> rootSegments = last.segments.subList(0, i);
+
+                    Set<Integer> blockedSegments = new HashSet<>();
+                    for (Route r : found) {
+                        if (r.segments.size() > i && r.segments.subList(0, i).equals(rootSegments)) {
+                            blockedSegments.add(r.segments.get(i));
+                        }
+                    }
+
+                    Set<Integer> blockedNodes = new HashSet<>(last.nodes.subList(0, i));
+
+                    Route spur = shortestRoute(last.nodes.get(i), target, blockedNodes, blockedSegments, maxLength - rootLength);
+                    if (spur != null) {
+                        List<Integer> ns = new ArrayList<>(last.nodes.subList(0, i));
+                        ns.addAll(spur.nodes);
+
+                        List<Integer> ss = new ArrayList<>(rootSegments);
+                        ss.addAll(spur.segments);
+
+                        if (seen.add(ss)) {
+                            candidates.add(new Route(ns, ss, rootLength + spur.length));
+                        }
+                    }
+
+                    rootLength += segments.get(last.segments.get(i)).length();
+                }
+
+                Route next = candidates.poll();
+                if (next == null) {
+                    break;
+                }
+
+                found.add(next);
+            }
+
+            for (Route r : found) {
+                paths.add(toGraphPath(r));
+            }
+
+            return paths;
+        }
+
+        private Route shortestRoute(int source, int target, Set<Integer> blockedNodes, Set<Integer> blockedSegments, int bound) {
+            int[] dist = new int[nodes.size()];
+            int[] via = new int[nodes.size()];
+            Arrays.fill(dist, Integer.MAX_VALUE);
+            Arrays.fill(via, -1);
+
+            PriorityQueue<int[]> queue = new PriorityQueue<>((a, b) -> a[0] != b[0] ? Integer.compare(a[0], b[0]) : Integer.compare(a[1], b[1]));
+
+            dist[source] = 0;
+            queue.add(new int[] { 0, source });
+
+            while (!queue.isEmpty()) {
+                int[] q = queue.poll();
+                int u = q[1];
+
+                if (q[0] > dist[u]) { continue; }
+                if (u == target) { break; }
+
+                for (int s : outSegments.get(u)) {
+                    Segment seg = segments.get(s);
+
+                    if (blockedSegments.contains(s) || blockedNodes.contains(seg.to)) {
+                        continue;
+                    }
+
+                    int d = dist[u] + seg.length();
+                    if (d <= bound && d < dist[seg.to]) {
+                        dist[seg.to] = d;
+                        via[seg.to] = s;
+                        queue.add(new int[] { d, seg.to });
+                    }
+                }
+            }
+
+            if (dist[target] == Integer.MAX_VALUE) {
+                return null;
+            }
+
+            LinkedList<Integer> ns = new LinkedList<>();
+            LinkedList<Integer> ss = new LinkedList<>();
+            for (int v = target; v != source; v = segments.get(via[v]).from) {
+                ns.addFirst(v);
+                ss.addFirst(via[v]);
+            }
+            ns.addFirst(source);
+
+            return new Route(new ArrayList<>(ns), new ArrayList<>(ss), dist[target]);
+        }
+
+        private GraphPath<CortexVertex, CortexEdge> toGraphPath(Route r) {
+            List<CortexVertex> vs = new ArrayList<>();
+            List<CortexEdge> es = new ArrayList<>();
+
+            vs.add(start);
+            for (int s : r.segments) {
+                Segment seg = segments.get(s);
+
+                vs.addAll(seg.interior);
+                vs.add(nodes.get(seg.to));
+                es.addAll(seg.edges);
+            }
+
+            return new GraphWalk<>(g, start, end, vs, es, r.length);
+        }
+
+        private int nodeId(CortexVertex v, Deque<Integer> queue) {
+            Integer id = nodeIds.get(v);
+
+            if (id == null) {
+                id = nodes.size();
+
+                nodes.add(v);
+                nodeIds.put(v, id);
+                outSegments.add(new ArrayList<>());
+
+                if (!v.equals(end)) {
+                    queue.add(id);
+                }
+            }
+
+            return id;
+        }
+
+        private boolean isBranch(CortexVertex v) {
+            return v.equals(start) || v.equals(end) || getOutEdges(v).size() != 1 || getInDegree(v) != 1;
+        }
+
+        /**
+         * @return  the vertex's outgoing edges in the color, one per neighbor
+         */
+        private List<CortexEdge> getOutEdges(CortexVertex v) {
+            return outEdges.computeIfAbsent(v, k -> {
+                Map<CortexVertex, CortexEdge> es = new LinkedHashMap<>();
+                for (CortexEdge e : g.edgesOf(k)) {
+                    if (e.getColor() == color && g.getEdgeSource(e).equals(k)) {
+                        es.putIfAbsent(g.getEdgeTarget(e), e);
+                    }
+                }
+
+                return new ArrayList<>(es.values());
+            });
+        }
+
+        private int getInDegree(CortexVertex v) {
+            return inDegrees.computeIfAbsent(v, k -> {
+                Set<CortexVertex> sources = new HashSet<>();
+                for (CortexEdge e : g.edgesOf(k)) {
+                    if (e.getColor() == color && g.getEdgeTarget(e).equals(k)) {
+                        sources.add(g.getEdgeSource(e));
+                    }
+                }
+
+                return sources.size();
+            });
+        }
+    }
+
+    private static int compareLexicographically(List<Integer> a, List<Integer> b) {
+        for (int i = 0; i < Math.min(a.size(), b.size()); i++) {
+            int c = Integer.compare(a.get(i), b.get(i));
+            if (c != 0) {
+                return c;
+            }
+        }
+
+        return Integer.compare(a.size(), b.size());
+    }
 }
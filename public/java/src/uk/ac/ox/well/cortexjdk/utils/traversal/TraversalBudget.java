@@ -0,0 +1,102 @@
+package uk.ac.ox.well.cortexjdk.utils.traversal;
+
+/**
+ * Limits on the resources a single traversal (one seed of dfs(), or one bridge()) may use: wall-clock time, kmers
+ * walked, branches explored and an estimate of the memory held by the search.  A traversal that exceeds any of them
+ * is truncated: the branches walked so far are kept, no new ones are started, and the engine reports the result as
+ * budget-limited (see TraversalEngine.getBudgetLimit()).
+ *
+ * A limit of zero or less means no limit.
+ */
+public class TraversalBudget {
+    public enum Limit { TIME, VERTICES, BRANCHES, BYTES }
+
+    /**
+     * A rough figure for the heap held per walked kmer (the visited set entry, the subgraph vertex and its edge),
+     * not counting the kmer itself.
+     */
+    static final int BYTES_PER_VERTEX = 160;
+
+    public static final TraversalBudget UNLIMITED = new TraversalBudget(0, 0, 0, 0);
+
+    private final long maxTimeMillis;
+    private final long maxVertices;
+    private final long maxBranches;
+    private final long maxBytes;
+
+    /**
+     * @param maxTimeMillis  wall-clock time per traversal
+     * @param maxVertices    kmers walked per traversal (counted again each time a kmer is walked by another branch)
+     * @param maxBranches    branches explored per traversal
+     * @param maxBytes       estimated bytes held by the search (see BYTES_PER_VERTEX)
+     */
+    public TraversalBudget(long maxTimeMillis, long maxVertices, long maxBranches, long maxBytes) {
+        this.maxTimeMillis = Math.max(0, maxTimeMillis);
+        this.maxVertices = Math.max(0, maxVertices);
+        this.maxBranches = Math.max(0, maxBranches);
+        this.maxBytes = Math.max(0, maxBytes);
+    }
+
+    public long getMaxTimeMillis() { return maxTimeMillis; }
+    public long getMaxVertices() { return maxVertices; }
+    public long getMaxBranches() { return maxBranches; }
+    public long getMaxBytes() { return maxBytes; }
+
+    public boolean isLimited() { return maxTimeMillis > 0 || maxVertices > 0 || maxBranches > 0 || maxBytes > 0; }
+
+    /**
+     * The resources used by one traversal so far, checked against a budget.
+     */
+    static class Tracker {
+        private TraversalBudget budget = UNLIMITED;
+        private boolean limited;
+        private long deadline;
+        private long vertices;
+        private long branches;
+        private int bytesPerVertex;
+        private Limit exceeded;
+        private Limit first;
+
+        /**
+         * Start a traversal.  The first limit hit is kept until clear() is called, so that a call made up of several
+         * traversals (e.g. dfs() from many sources) reports it even if later traversals stay within budget.
+         */
+        void begin(TraversalBudget budget, int kmerSize) {
+            this.budget = budget;
+            this.limited = budget.isLimited();
+            this.deadline = budget.maxTimeMillis > 0 ? System.nanoTime() + budget.maxTimeMillis*1000000L : Long.MAX_VALUE;
+            this.vertices = 0;
+            this.branches = 0;
+            this.bytesPerVertex = BYTES_PER_VERTEX + kmerSize;
+            this.exceeded = null;
+        }
+
+        void clear() { first = null; }
+
+        void vertices(long n) { vertices += n; }
+
+        void branch() { branches++; }
+
+        /**
+         * @return  the limit the current traversal has exceeded (it then stays exceeded until the next begin()), or
+         *          null if it is within budget
+         */
+        Limit exceeded() {
+            if (exceeded == null && limited) {
+                if      (budget.maxVertices > 0 && vertices > budget.maxVertices) { exceeded = Limit.VERTICES; }
+                else if (budget.maxBranches > 0 && branches > budget.maxBranches) { exceeded = Limit.BRANCHES; }
+                else if (budget.maxBytes > 0 && vertices*bytesPerVertex > budget.maxBytes) { exceeded = Limit.BYTES; }
+                else if (deadline != Long.MAX_VALUE && System.nanoTime() > deadline) { exceeded = Limit.TIME; }
+
+                if (first == null) { first = exceeded; }
+            }
+
+            return exceeded;
+        }
+
+        /**
+         * @return  the first limit exceeded since clear(), or null if there was none
+         */
+        Limit getLimit() { return first; }
+    }
+}
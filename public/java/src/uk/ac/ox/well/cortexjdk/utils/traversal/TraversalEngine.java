@@ -7,17 +7,30 @@ import org.jgrapht.graph.DirectedWeightedPseudograph;
 import uk.ac.ox.well.cortexjdk.Main;
 import uk.ac.ox.well.cortexjdk.utils.exceptions.CortexJDKException;
 import uk.ac.ox.well.cortexjdk.utils.io.graph.ConnectivityAnnotations;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexGraph;
 import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexRecord;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.links.CortexLinksRecord;
 import uk.ac.ox.well.cortexjdk.utils.kmer.CanonicalKmer;
 import uk.ac.ox.well.cortexjdk.utils.kmer.CortexByteKmer;
+import uk.ac.ox.well.cortexjdk.utils.sequence.SequenceUtils;
+import uk.ac.ox.well.cortexjdk.utils.stoppingrules.ContigStopper;
+import uk.ac.ox.well.cortexjdk.utils.stoppingrules.DestinationStopper;
+import uk.ac.ox.well.cortexjdk.utils.stoppingrules.ExplorationStopper;
+import uk.ac.ox.well.cortexjdk.utils.stoppingrules.StoppingRulePool;
 import uk.ac.ox.well.cortexjdk.utils.stoppingrules.TraversalStoppingRule;
 
 import java.util.*;
 
 import static uk.ac.ox.well.cortexjdk.utils.traversal.TraversalEngineConfiguration.GraphCombinationOperator.OR;
 import static uk.ac.ox.well.cortexjdk.utils.traversal.TraversalEngineConfiguration.TraversalDirection.*;
+import static uk.ac.ox.well.cortexjdk.utils.traversal.TraversalMetrics.Stage.*;
 
 public class TraversalEngine {
+    private static final int MAX_BRIDGE_KMERS = 1000000;
+
+    // Stopping rules that only look at the current vertex and the branch's shape, and so can't miss anything a jump skips
+    private static final Set<Class<?>> JUMPABLE_STOPPING_RULES = new HashSet<>(Arrays.asList(ContigStopper.class, DestinationStopper.class, ExplorationStopper.class));
+
     final private TraversalEngineConfiguration ec;
 
     private CortexByteKmer curKmer = null;
@@ -28,22 +41,43 @@ public class TraversalEngine {
     private Set<String> kmerSources;
     private Set<ConnectivityAnnotations> specificLinksFiles;
     private LinkStore linkStore;
+    private Map<ConnectivityAnnotations, int[]> linkColors;
+    private KmerNeighbors neighbors;
+    private long[] traversalColorMask;
+    private long[] recruitmentColorMask;
     private boolean goForward;
 
+    private final TraversalMetrics metrics = new TraversalMetrics();
+    private final TraversalState<CortexVertex> state = new TraversalState<>();
+    private final TraversalBudget.Tracker budget = new TraversalBudget.Tracker();
+
     public TraversalEngine(TraversalEngineConfiguration ec) { this.ec = ec; }
 
     public final TraversalEngineConfiguration getConfiguration() { return ec; }
 
+    /**
+     * @return  counters and timings for this engine's traversals, accumulated until reset
+     */
+    public TraversalMetrics getMetrics() { return metrics; }
+
+    /**
+     * @return  the first budget limit (see TraversalEngineConfiguration.getBudget()) exceeded by the last call to
+     *          dfs() or bridge(), or null if it stayed within budget.  A limited result holds only the part of the
+     *          subgraph explored before the limit was reached.
+     */
+    public TraversalBudget.Limit getBudgetLimit() { return budget.getLimit(); }
+
     public DirectedWeightedPseudograph<CortexVertex, CortexEdge> dfs(Collection<String> sources) {
         return dfs(sources, null);
     }
 
     public DirectedWeightedPseudograph<CortexVertex, CortexEdge> dfs(Collection<String> sources, Collection<String> sinks) {
-        String[] asinks = sinks == null ? new String[0] : sinks.toArray(new String[sinks.size()]);
+        Set<String> sinkSet = sinks == null ? Collections.emptySet() : TraversalState.toSinkSet(sinks.toArray(new String[sinks.size()]));
+        budget.clear();
 
         DirectedWeightedPseudograph<CortexVertex, CortexEdge> dfs = null;
         for (String source : sources) {
-            DirectedWeightedPseudograph<CortexVertex, CortexEdge> g = dfs(source, asinks);
+            DirectedWeightedPseudograph<CortexVertex, CortexEdge> g = dfs(source, sinkSet);
 
             if (g != null) {
                 if (dfs == null) {
@@ -62,42 +96,43 @@ public class TraversalEngine {
     }
 
     public DirectedWeightedPseudograph<CortexVertex, CortexEdge> dfs(String source, String... sinks) {
+        budget.clear();
+
+        return dfs(source, TraversalState.toSinkSet(sinks));
+    }
+
+    private DirectedWeightedPseudograph<CortexVertex, CortexEdge> dfs(String source, Set<String> sinks) {
+        metrics.seed();
+        budget.begin(ec.getBudget(), ec.getGraph().getKmerSize());
+
         CortexVertex cv = new CortexVertexFactory()
                 .bases(source)
-                .record(ec.getGraph().findRecord(source))
+                .record(findRecord(source))
                 .copyIndex(0)
                 .index(0)
                 .make();
 
-        DirectedWeightedPseudograph<CortexVertex, CortexEdge> dfsr = (ec.getTraversalDirection() == BOTH || ec.getTraversalDirection() == REVERSE) ? dfs(cv, false, 0, 0, new HashSet<>(), sinks) : null;
-        DirectedWeightedPseudograph<CortexVertex, CortexEdge> dfsf = (ec.getTraversalDirection() == BOTH || ec.getTraversalDirection() == FORWARD) ? dfs(cv, true,  0, 0, new HashSet<>(), sinks) : null;
+        CortexSubgraph dfsr = (ec.getTraversalDirection() == BOTH || ec.getTraversalDirection() == REVERSE) ? dfs(cv, false, sinks) : null;
+        CortexSubgraph dfsf = (ec.getTraversalDirection() == BOTH || ec.getTraversalDirection() == FORWARD) && budget.exceeded() == null ? dfs(cv, true,  sinks) : null;
 
-        if (dfsr != null) {
-            dfsr.vertexSet().forEach(v -> { if (!v.equals(cv)) { v.setIndex(-1); } });
+        if (budget.exceeded() != null) {
+            metrics.budgetLimited();
         }
 
-        if (dfsf != null) {
-            dfsf.vertexSet().forEach(v -> { if (!v.equals(cv)) { v.setIndex(1); } });
-        }
+        metrics.enter(MERGE);
 
-        DirectedWeightedPseudograph<CortexVertex, CortexEdge> dfs = null;
+        // Every vertex but the source is indexed by the side of it on which it was found
+        CortexSubgraph dfs = null;
 
-        if (ec.getGraphCombinationOperator() == OR) {
-            if (dfsr != null || dfsf != null) {
-                dfs = new DirectedWeightedPseudograph<>(CortexEdge.class);
+        if (ec.getGraphCombinationOperator() == OR ? dfsr != null || dfsf != null : dfsr != null && dfsf != null) {
+            dfs = new CortexSubgraph(ec.getGraph());
 
-                if (dfsr != null) { Graphs.addGraph(dfs, dfsr); }
-                if (dfsf != null) { Graphs.addGraph(dfs, dfsf); }
-            }
-        } else {
-            if (dfsr != null && dfsf != null) {
-                dfs = new DirectedWeightedPseudograph<>(CortexEdge.class);
-
-                Graphs.addGraph(dfs, dfsr);
-                Graphs.addGraph(dfs, dfsf);
-            }
+            if (dfsr != null) { dfs.addGraph(dfsr, dfsr.indexOf(cv), -1); }
+            if (dfsf != null) { dfs.addGraph(dfsf, dfsf.indexOf(cv), 1); }
         }
 
+        metrics.exit();
+
         if (dfs != null) {
             return addSecondaryColors(dfs);
         }
@@ -109,12 +144,272 @@ public class TraversalEngine {
 
     public List<CortexVertex> walk(String seed) { return TraversalUtils.toWalk(dfs(seed), seed, ec.getTraversalColors().iterator().next()); }
 
+    /**
+     * Find the paths from source to sink with a bidirectional search: breadth-first frontiers are expanded from both
+     * anchors (always the smaller one next) until they meet in a shared kmer, and then until they have covered
+     * every path up to maxExtraLength kmers longer than the shortest.  The result is the subgraph of those paths,
+     * as dfs(source, sink) would return it with a DestinationStopper and FORWARD traversal.
+     *
+     * The search follows the graph only (links are not consulted), and gives up on paths it has not found after
+     * visiting MAX_BRIDGE_KMERS kmers.
+     *
+     * @return  the bridging subgraph, or null if the anchors could not be joined within the maximum branch length
+     */
+    public DirectedWeightedPseudograph<CortexVertex, CortexEdge> bridge(String source, String sink, int maxExtraLength) {
+        metrics.seed();
+        budget.clear();
+        budget.begin(ec.getBudget(), ec.getGraph().getKmerSize());
+
+        CortexByteKmer src = new CortexByteKmer(source);
+        CortexByteKmer snk = new CortexByteKmer(sink);
+
+        Map<CortexByteKmer, Integer> distFromSource = new HashMap<>();
+        Map<CortexByteKmer, Integer> distToSink = new HashMap<>();
+        Map<CortexByteKmer, Set<CortexByteKmer>> edges = new HashMap<>();
+
+        distFromSource.put(src, 0);
+        distToSink.put(snk, 0);
+
+        List<CortexByteKmer> forwardFrontier = Collections.singletonList(src);
+        List<CortexByteKmer> reverseFrontier = src.equals(snk) ? Collections.emptyList() : Collections.singletonList(snk);
+        int forwardDepth = 0, reverseDepth = 0;
+
+        int shortest = distToSink.containsKey(src) ? 0 : Integer.MAX_VALUE;
+
+        while (!forwardFrontier.isEmpty() && !reverseFrontier.isEmpty() &&
+               forwardDepth + reverseDepth < maxBridgeLength(shortest, maxExtraLength) &&
+               distFromSource.size() + distToSink.size() < MAX_BRIDGE_KMERS &&
+               budget.exceeded() == null) {
+            boolean expandForward = forwardFrontier.size() <= reverseFrontier.size();
+
+            Map<CortexByteKmer, Integer> dist = expandForward ? distFromSource : distToSink;
+            Map<CortexByteKmer, Integer> otherDist = expandForward ? distToSink : distFromSource;
+            List<CortexByteKmer> nextFrontier = new ArrayList<>();
+
+            for (CortexByteKmer sk : expandForward ? forwardFrontier : reverseFrontier) {
+                // Paths end at the sink and begin at the source, so neither is expanded past
+                if (sk.equals(expandForward ? snk : src)) {
+                    continue;
+                }
+
+                int d = dist.get(sk) + 1;
+
+                for (CortexByteKmer ak : expandForward ? getNextKmers(sk) : getPrevKmers(sk)) {
+                    if (expandForward) { edges.computeIfAbsent(sk, k -> new HashSet<>()).add(ak); }
+                    else               { edges.computeIfAbsent(ak, k -> new HashSet<>()).add(sk); }
+
+                    if (!dist.containsKey(ak)) {
+                        dist.put(ak, d);
+                        nextFrontier.add(ak);
+                        budget.vertices(1);
+
+                        if (otherDist.containsKey(ak)) {
+                            shortest = Math.min(shortest, d + otherDist.get(ak));
+                        }
+                    }
+                }
+            }
+
+            if (expandForward) {
+                forwardFrontier = nextFrontier;
+                forwardDepth++;
+            } else {
+                reverseFrontier = nextFrontier;
+                reverseDepth++;
+            }
+        }
+
+        if (budget.exceeded() != null) {
+            metrics.budgetLimited();
+        }
+
+        if (shortest == Integer.MAX_VALUE) {
+            return null;
+        }
+
+        // Keep the edges that could lie on a short enough path (an unexplored kmer is at least one layer beyond
+        // its search's frontier), then those that actually lie on a path from source to sink.
+        int maxLength = maxBridgeLength(shortest, maxExtraLength);
+        Map<CortexByteKmer, Set<CortexByteKmer>> succs = new HashMap<>();
+        Map<CortexByteKmer, Set<CortexByteKmer>> preds = new HashMap<>();
+
+        for (CortexByteKmer sk : edges.keySet()) {
+            if (sk.equals(snk)) { continue; }
+
+            for (CortexByteKmer ak : edges.get(sk)) {
+                if (ak.equals(src)) { continue; }
+
+                int df = distFromSource.getOrDefault(sk, forwardDepth + 1);
+                int dr = distToSink.getOrDefault(ak, reverseDepth + 1);
+
+                if (df + 1 + dr <= maxLength) {
+                    succs.computeIfAbsent(sk, k -> new HashSet<>()).add(ak);
+                    preds.computeIfAbsent(ak, k -> new HashSet<>()).add(sk);
+                }
+            }
+        }
+
+        Set<CortexByteKmer> onPath = reachable(src, succs);
+        onPath.retainAll(reachable(snk, preds));
+
+        if (!onPath.contains(snk)) {
+            return null;
+        }
+
+        int color = ec.getTraversalColors().iterator().next();
+        Map<CortexByteKmer, Integer> vertices = new HashMap<>();
+        CortexSubgraph g = new CortexSubgraph(ec.getGraph());
+
+        for (CortexByteKmer sk : onPath) {
+            CortexVertex cv = new CortexVertexFactory()
+                    .bases(sk)
+                    .record(findRecord(sk))
+                    .index(sk.equals(src) ? 0 : 1)
+                    .make();
+
+            vertices.put(sk, g.addVertex(cv));
+        }
+
+        for (CortexByteKmer sk : onPath) {
+            for (CortexByteKmer ak : succs.getOrDefault(sk, Collections.emptySet())) {
+                if (onPath.contains(ak)) {
+                    g.addEdge(vertices.get(sk), vertices.get(ak), color, 1.0);
+                }
+            }
+        }
+
+        return addSecondaryColors(g);
+    }
+
+    public DirectedWeightedPseudograph<CortexVertex, CortexEdge> bridge(String source, String sink) {
+        return bridge(source, sink, ec.getGraph().getKmerSize());
+    }
+
+    private int maxBridgeLength(int shortest, int maxExtraLength) {
+        return shortest == Integer.MAX_VALUE ? ec.getMaxBranchLength() : Math.min(ec.getMaxBranchLength(), shortest + maxExtraLength);
+    }
+
+    private static Set<CortexByteKmer> reachable(CortexByteKmer start, Map<CortexByteKmer, Set<CortexByteKmer>> adj) {
+        Set<CortexByteKmer> seen = new HashSet<>();
+        Deque<CortexByteKmer> queue = new ArrayDeque<>();
+
+        seen.add(start);
+        queue.add(start);
+
+        while (!queue.isEmpty()) {
+            for (CortexByteKmer ak : adj.getOrDefault(queue.poll(), Collections.emptySet())) {
+                if (seen.add(ak)) {
+                    queue.add(ak);
+                }
+            }
+        }
+
+        return seen;
+    }
+
+    /**
+     * Walk from a seed in both directions (as configured) until each side reaches a branch or the stopping rule ends
+     * it, returning just the sequence.  No graph or vertex list is built, so this is the cheap way to get the
+     * linear stretch around a kmer.
+     *
+     * @return  the walk's sequence, or an empty string if the walk could not be extended from the seed or the
+     *          stopping rule rejected it (as dfs() would return no graph)
+     */
+    public String walkBases(String seed) {
+        metrics.seed();
+
+        StringBuilder sb = new StringBuilder(seed);
+
+        int numRev = (ec.getTraversalDirection() == BOTH || ec.getTraversalDirection() == REVERSE) ? walkBases(seed, false, sb) : -1;
+        int numFwd = (ec.getTraversalDirection() == BOTH || ec.getTraversalDirection() == FORWARD) ? walkBases(seed, true, sb) : -1;
+
+        boolean accepted = ec.getGraphCombinationOperator() == OR ? (numRev >= 0 || numFwd >= 0) : (numRev >= 0 && numFwd >= 0);
+
+        return accepted && (numRev > 0 || numFwd > 0) ? sb.toString() : "";
+    }
+
+    /**
+     * Walk from a seed in one direction, one kmer at a time, for as long as there is a single way forward (a single
+     * neighbor not already walked, or with links, a single supported choice) and the stopping rule says to keep
+     * going.  Bases are appended to sb going forward and prepended going backward, so that a builder holding the
+     * seed ends up holding the walk's sequence.
+     *
+     * @return  the number of kmers added, or -1 if the stopping rule rejected the walk (sb is then unchanged)
+     */
+    public int walkBases(String seed, boolean goForward, StringBuilder sb) {
+        TraversalStoppingRule<CortexVertex, CortexEdge> stoppingRule = StoppingRulePool.get().acquire(ec.getStoppingRule());
+        boolean useLinks = !ec.getLinks().isEmpty();
+
+        state.begin(ec.getTraversalColors(), ec.getJoiningColors(), ec.getRois(), Collections.emptySet());
+
+        if (useLinks) {
+            seek(seed);
+        }
+
+        StringBuilder bases = new StringBuilder();
+        Set<CortexByteKmer> walked = new HashSet<>();
+
+        CortexByteKmer cur = new CortexByteKmer(seed);
+        walked.add(cur);
+
+        while (true) {
+            CortexRecord cr = findRecord(cur.getKmer());
+            int numReverse = getAdjacentKmers(cur.getKmer(), cr, !goForward).size();
+
+            List<CortexByteKmer> adjKmers;
+            if (useLinks && (goForward ? hasNext() : hasPrevious())) {
+                // Links may take the walk through junctions and around repeats
+                adjKmers = Collections.singletonList((goForward ? next() : previous()).getKmerAsByteKmer());
+            } else {
+                adjKmers = getAdjacentKmers(cur.getKmer(), cr, goForward);
+                adjKmers.removeIf(walked::contains);
+            }
+
+            // Sized as the branch graph in dfs() would be at this point
+            int branchSize = bases.length() == 0 ? 0 : bases.length() + 1;
+
+            CortexVertex cv = new CortexVertexFactory().bases(cur).record(cr).make();
+            TraversalState<CortexVertex> ts = state.update(cv, goForward, branchSize, 0, branchSize, adjKmers.size(), numReverse, false, branchSize > ec.getMaxBranchLength());
+
+            if (!keepGoing(stoppingRule, ts)) {
+                metrics.stopped(getStopReason(ts, false));
+
+                if (!stoppingRule.traversalSucceeded()) {
+                    StoppingRulePool.get().release(stoppingRule);
+                    return -1;
+                }
+
+                break;
+            } else if (adjKmers.size() != 1) {
+                metrics.stopped(getStopReason(ts, false));
+
+                break;
+            }
+
+            cur = adjKmers.get(0);
+            walked.add(cur);
+            metrics.kmerWalked(walked.size());
+
+            bases.append((char) (goForward ? cur.getKmer()[cur.length() - 1] : cur.getKmer()[0]));
+        }
+
+        StoppingRulePool.get().release(stoppingRule);
+
+        if (goForward) {
+            sb.append(bases);
+        } else {
+            sb.insert(0, bases.reverse());
+        }
+
+        return bases.length();
+    }
+
     public List<CortexVertex> assemble(String seed) {
         List<CortexVertex> contig = new ArrayList<>();
 
         CortexVertex sv = new CortexVertexFactory()
                 .bases(seed)
-                .record(ec.getGraph().findRecord(seed))
+                .record(findRecord(seed))
                 .make();
 
         contig.add(sv);
@@ -145,97 +440,66 @@ public class TraversalEngine {
     }
 
     public Set<CortexVertex> getPrevVertices(CortexByteKmer sk) {
-        Set<CortexVertex> prevVertices = new HashSet<>();
-
-        Map<Integer, Set<CortexByteKmer>> prevKmers = getAllPrevKmers(sk);
-
-        Set<CortexByteKmer> combinedPrevKmers = new HashSet<>();
-        for (int c : ec.getTraversalColors()) {
-            if (prevKmers != null && prevKmers.containsKey(c)) {
-                combinedPrevKmers.addAll(prevKmers.get(c));
-            }
-        }
-
-        if (combinedPrevKmers.size() > 0) {
-            for (CortexByteKmer prevKmer : combinedPrevKmers) {
-                prevVertices.add(new CortexVertexFactory()
-                        .bases(prevKmer)
-                        .record(ec.getGraph().findRecord(prevKmer))
-                        .make()
-                );
-            }
-        } else {
-            Map<CortexByteKmer, Set<Integer>> inKmerMap = new HashMap<>();
+        return getAdjacentVertices(sk, false);
+    }
 
-            for (int c : ec.getRecruitmentColors()) {
-                Set<CortexByteKmer> inKmers = prevKmers.get(c);
+    public Set<CortexVertex> getNextVertices(CortexByteKmer sk) {
+        return getAdjacentVertices(sk, true);
+    }
 
-                for (CortexByteKmer inKmer : inKmers) {
-                    if (!inKmerMap.containsKey(inKmer)) {
-                        inKmerMap.put(inKmer, new HashSet<>());
-                    }
+    /**
+     * As getPrevVertices(), but only the neighboring kmers: their records are not looked up.
+     */
+    public List<CortexByteKmer> getPrevKmers(CortexByteKmer sk) {
+        return getAdjacentKmers(sk.getKmer(), findRecord(sk.getKmer()), false);
+    }
 
-                    inKmerMap.get(inKmer).add(c);
-                }
-            }
+    public List<CortexByteKmer> getNextKmers(CortexByteKmer sk) {
+        return getAdjacentKmers(sk.getKmer(), findRecord(sk.getKmer()), true);
+    }
 
-            for (CortexByteKmer prevKmer : inKmerMap.keySet()) {
-                prevVertices.add(new CortexVertexFactory()
-                        .bases(prevKmer)
-                        .record(ec.getGraph().findRecord(prevKmer))
-                        .make()
-                );
-            }
+    /**
+     * Neighbors in the traversal colors or, if there are none, in the recruitment colors.
+     */
+    private Set<CortexVertex> getAdjacentVertices(CortexByteKmer sk, boolean goForward) {
+        Set<CortexVertex> adjVertices = new HashSet<>();
+
+        for (CortexByteKmer adjKmer : goForward ? getNextKmers(sk) : getPrevKmers(sk)) {
+            adjVertices.add(new CortexVertexFactory()
+                    .bases(adjKmer)
+                    .record(findRecord(adjKmer))
+                    .make()
+            );
         }
 
-        return prevVertices;
+        return adjVertices;
     }
 
-    public Set<CortexVertex> getNextVertices(CortexByteKmer sk) {
-        Set<CortexVertex> nextVertices = new HashSet<>();
-
-        Map<Integer, Set<CortexByteKmer>> nextKmers = getAllNextKmers(sk);
-
-        Set<CortexByteKmer> combinedNextKmers = new HashSet<>();
-        for (int c : ec.getTraversalColors()) {
-            if (nextKmers != null && nextKmers.containsKey(c)) {
-                combinedNextKmers.addAll(nextKmers.get(c));
-            }
+    private List<CortexByteKmer> getAdjacentKmers(byte[] sk, CortexRecord cr, boolean goForward) {
+        if (neighbors == null) {
+            neighbors = new KmerNeighbors(ec.getGraph().getKmerSize(), ec.getGraph().getNumColors());
+            traversalColorMask = neighbors.makeColorMask(ec.getTraversalColors());
+            recruitmentColorMask = neighbors.makeColorMask(ec.getRecruitmentColors());
         }
 
-        if (combinedNextKmers.size() > 0) {
-            for (CortexByteKmer nextKmer : combinedNextKmers) {
-                nextVertices.add(new CortexVertexFactory()
-                        .bases(nextKmer)
-                        .record(ec.getGraph().findRecord(nextKmer))
-                        .make()
-                );
-            }
-        } else {
-            Map<CortexByteKmer, Set<Integer>> outKmerMap = new HashMap<>();
+        metrics.enter(LOOKUP);
 
-            for (int c : ec.getRecruitmentColors()) {
-                Set<CortexByteKmer> outKmers = nextKmers.get(c);
+        int numNeighbors = goForward ? neighbors.next(sk, cr) : neighbors.prev(sk, cr);
 
-                for (CortexByteKmer outKmer : outKmers) {
-                    if (!outKmerMap.containsKey(outKmer)) {
-                        outKmerMap.put(outKmer, new HashSet<>());
-                    }
+        List<CortexByteKmer> adjKmers = new ArrayList<>(numNeighbors);
 
-                    outKmerMap.get(outKmer).add(c);
+        long[] colorMask = traversalColorMask;
+        for (int pass = 0; pass < 2 && adjKmers.isEmpty(); pass++, colorMask = recruitmentColorMask) {
+            for (int i = 0; i < numNeighbors; i++) {
+                if (neighbors.hasAnyColor(i, colorMask)) {
+                    adjKmers.add(neighbors.getKmer(i));
                 }
             }
-
-            for (CortexByteKmer nextKmer : outKmerMap.keySet()) {
-                nextVertices.add(new CortexVertexFactory()
-                        .bases(nextKmer)
-                        .record(ec.getGraph().findRecord(nextKmer))
-                        .make()
-                );
-            }
         }
 
-        return nextVertices;
+        metrics.exit();
+
+        return adjKmers;
     }
 
     public CortexVertex next() {
@@ -249,18 +513,18 @@ public class TraversalEngine {
 
         updateLinkStore(goForward);
 
-        CortexRecord cr = ec.getGraph().findRecord(nextKmer);
+        CortexRecord cr = findRecord(nextKmer);
         CortexVertex cv = new CortexVertexFactory().bases(nextKmer).record(cr).sources(kmerSources).make();
 
         prevKmer = curKmer;
         curKmer = nextKmer;
 
-        Set<CortexVertex> nextKmers = getNextVertices(curKmer);
+        List<CortexByteKmer> nextKmers = getNextKmers(curKmer);
         nextKmer = null;
         kmerSources = null;
 
-        if (nextKmers.size() == 1 && (!seen.contains(nextKmers.iterator().next().getKmerAsByteKmer()) || linkStore.isActive())) {
-            nextKmer = nextKmers.iterator().next().getKmerAsByteKmer();
+        if (nextKmers.size() == 1 && (!seen.contains(nextKmers.get(0)) || linkStore.isActive())) {
+            nextKmer = nextKmers.get(0);
 
             seen.add(nextKmer);
         } else if (nextKmers.size() > 1) {
@@ -289,18 +553,18 @@ public class TraversalEngine {
 
         updateLinkStore(goForward);
 
-        CortexRecord cr = ec.getGraph().findRecord(prevKmer);
+        CortexRecord cr = findRecord(prevKmer);
         CortexVertex cv = new CortexVertexFactory().bases(prevKmer).record(cr).sources(kmerSources).make();
 
         nextKmer = curKmer;
         curKmer = prevKmer;
 
-        Set<CortexVertex> prevKmers = getPrevVertices(curKmer);
+        List<CortexByteKmer> prevKmers = getPrevKmers(curKmer);
         prevKmer = null;
         kmerSources = null;
 
-        if (prevKmers.size() == 1 && (!seen.contains(prevKmers.iterator().next().getKmerAsByteKmer()) || linkStore.isActive())) {
-            prevKmer = prevKmers.iterator().next().getKmerAsByteKmer();
+        if (prevKmers.size() == 1 && (!seen.contains(prevKmers.get(0)) || linkStore.isActive())) {
+            prevKmer = prevKmers.get(0);
 
             seen.add(prevKmer);
         } else if (prevKmers.size() > 1) {
@@ -322,13 +586,13 @@ public class TraversalEngine {
         if (sk != null) {
             curKmer = new CortexByteKmer(sk.getBytes());
 
-            Set<CortexVertex> prevKmers = getPrevVertices(curKmer);
-            prevKmer = (prevKmers.size() == 1) ? prevKmers.iterator().next().getKmerAsByteKmer() : null;
+            List<CortexByteKmer> prevKmers = getPrevKmers(curKmer);
+            prevKmer = (prevKmers.size() == 1) ? prevKmers.get(0) : null;
 
-            Set<CortexVertex> nextKmers = getNextVertices(curKmer);
-            nextKmer = (nextKmers.size() == 1) ? nextKmers.iterator().next().getKmerAsByteKmer() : null;
+            List<CortexByteKmer> nextKmers = getNextKmers(curKmer);
+            nextKmer = (nextKmers.size() == 1) ? nextKmers.get(0) : null;
 
-            linkStore = new LinkStore();
+            linkStore = new LinkStore(metrics);
             seen = new HashSet<>();
             specificLinksFiles = null;
         }
@@ -338,43 +602,119 @@ public class TraversalEngine {
 
     public boolean hasPrevious() { return prevKmer != null; }
 
-    private Map<Integer, Set<CortexByteKmer>> getAllPrevKmers(CortexByteKmer sk) {
-        CanonicalKmer ck = new CanonicalKmer(sk.getKmer());
-        CortexRecord cr = ec.getGraph().findRecord(ck);
+    /**
+     * Explore the graph from a vertex in one direction.  The search is iterative: each branch is a frame on an
+     * explicit stack, and the set of vertices visited by a branch's progenitors is kept in a single set with an undo
+     * log, rolled back as each branch finishes (so sibling branches never see each other's vertices).
+     */
+    @Nullable
+    private CortexSubgraph dfs(CortexVertex source, boolean goForward, Set<String> sinks) {
+        state.begin(ec.getTraversalColors(), ec.getJoiningColors(), ec.getRois(), sinks);
 
-        return TraversalUtils.getAllPrevKmers(cr, ck.isFlipped());
-    }
+        VisitedSet visited = new VisitedSet();
+        Set<String> jumpBlockers = useUnitigs() ? getJumpBlockers(sinks) : null;
 
-    private Map<Integer, Set<CortexByteKmer>> getAllNextKmers(CortexByteKmer sk) {
-        CanonicalKmer ck = new CanonicalKmer(sk.getKmer());
-        CortexRecord cr = ec.getGraph().findRecord(ck);
+        Deque<DfsFrame> stack = new ArrayDeque<>();
+        stack.push(enter(source, goForward, 0, 0, visited));
 
-        return TraversalUtils.getAllNextKmers(cr, ck.isFlipped());
-    }
+        CortexSubgraph result = null;
 
-    @Nullable
-    private DirectedWeightedPseudograph<CortexVertex, CortexEdge> dfs(CortexVertex cv, boolean goForward, int currentGraphSize, int currentJunctionDepth, Set<CortexVertex> visitedOld, String... sinks) {
-        DirectedWeightedPseudograph<CortexVertex, CortexEdge> g = new DirectedWeightedPseudograph<>(CortexEdge.class);
+        while (!stack.isEmpty()) {
+            DfsFrame frame = stack.peek();
+
+            if (frame.children == null) {
+                BranchEnd end = extend(frame, visited, jumpBlockers);
+
+                if (end != BranchEnd.JUNCTION) {
+                    result = end == BranchEnd.SUCCEEDED ? frame.g : null;
+
+                    stack.pop();
+                    visited.undo(frame.visitedMark);
+                    StoppingRulePool.get().release(frame.stoppingRule);
+                    continue;
+                }
+
+                frame.children = frame.avs.iterator();
+            } else {
+                // Incorporate the branch that just finished
+                if (result != null) {
+                    if (frame.goForward) { connectVertex(result, frame.cv, null, Collections.singleton(frame.child)); }
+                    else                 { connectVertex(result, frame.cv, Collections.singleton(frame.child), null); }
+
+                    if (getConfiguration().getDebugFlag()) { Main.getLogger().debug("{} {}", frame.cv, "junction"); }
+
+                    metrics.enter(MERGE);
+                    frame.g.addGraph(result);
+                    metrics.exit();
+
+                    frame.childrenWereSuccessful = true;
+                } else {
+                    if (getConfiguration().getDebugFlag()) { Main.getLogger().debug("{} {}", frame.cv, "fail"); }
+                    // could mark a rejected traversal here rather than just throwing it away
+                }
+            }
+
+            if (frame.children.hasNext() && budget.exceeded() == null) {
+                frame.child = frame.children.next();
+
+                stack.push(enter(frame.child, frame.goForward, frame.currentGraphSize + frame.g.numVertices(), frame.currentJunctionDepth + 1, visited));
+            } else {
+                TraversalState<CortexVertex> tsChild = state.update(frame.cv, frame.goForward, frame.currentGraphSize + frame.g.numVertices(), frame.currentJunctionDepth, frame.g.numVertices(), frame.avs.size(), frame.numReverse, true, frame.g.numVertices() > ec.getMaxBranchLength());
 
-        // Account for vertices visited in progenitor branches (but not other progeny branches)
-        Set<CortexVertex> visited = new HashSet<>(visitedOld);
+                // Out of budget, the branch is kept as far as it got
+                if (frame.childrenWereSuccessful || budget.exceeded() != null || hasTraversalSucceeded(frame.stoppingRule, tsChild)) {
+                    if (getConfiguration().getDebugFlag()) { Main.getLogger().debug("complete branch subtraversal"); }
 
+                    result = frame.g;
+                } else {
+                    if (getConfiguration().getDebugFlag()) { Main.getLogger().debug("abort branch subtraversal"); }
+
+                    // could mark a rejected traversal here rather than just throwing it away
+                    result = null;
+                }
+
+                stack.pop();
+                visited.undo(frame.visitedMark);
+                StoppingRulePool.get().release(frame.stoppingRule);
+            }
+        }
+
+        return result;
+    }
+
+    private DfsFrame enter(CortexVertex cv, boolean goForward, int currentGraphSize, int currentJunctionDepth, VisitedSet visited) {
         // If links are available, reset the state of the LinkStore
         if (!ec.getLinks().isEmpty()) {
             seek(cv.getKmerAsString());
         }
 
+        metrics.branch(currentJunctionDepth);
+        budget.branch();
+
         // Instantiate a new stopping rule per branch
-        TraversalStoppingRule<CortexVertex, CortexEdge> stoppingRule = instantiateStopper(ec.getStoppingRule());
+        return new DfsFrame(cv, goForward, currentGraphSize, currentJunctionDepth, visited.mark(), StoppingRulePool.get().acquire(ec.getStoppingRule()), new CortexSubgraph(ec.getGraph()));
+    }
 
-        Set<CortexVertex> avs;
-        Set<CortexVertex> rvs;
+    /**
+     * Walk a branch until it ends or reaches a junction.  If a unitig index is available, unitigs are crossed in a
+     * single step (see jump()).
+     */
+    private BranchEnd extend(DfsFrame frame, VisitedSet visited, Set<String> jumpBlockers) {
+        CortexSubgraph g = frame.g;
+        boolean goForward = frame.goForward;
+
+        while (true) {
+            if (budget.exceeded() != null) {
+                metrics.stopped("budget");
+
+                return BranchEnd.SUCCEEDED;
+            }
 
-        do {
-            Set<CortexVertex> pvs = getPrevVertices(cv.getKmerAsByteKmer());
-            Set<CortexVertex> nvs = getNextVertices(cv.getKmerAsByteKmer());
-            avs = goForward ? nvs : pvs;
-            rvs = goForward ? pvs : nvs;
+            CortexVertex cv = frame.cv;
+
+            // Only the vertices we might step to need their records; the other side is just counted
+            Set<CortexVertex> avs = goForward ? getNextVertices(cv.getKmerAsByteKmer()) : getPrevVertices(cv.getKmerAsByteKmer());
+            int numReverse = (goForward ? getPrevKmers(cv.getKmerAsByteKmer()) : getNextKmers(cv.getKmerAsByteKmer())).size();
 
             if (!ec.getLinks().isEmpty()) {
                 // If we have links, then we are permitted to traverse some vertices multiple times.  Include a copy
@@ -408,124 +748,299 @@ public class TraversalEngine {
 
             // Connect all neighboring vertices to the graph (useful for visualization)
             if (ec.connectAllNeighbors()) {
-                connectVertex(g, cv, pvs, nvs);
+                connectVertex(g, cv, getPrevVertices(cv.getKmerAsByteKmer()), getNextVertices(cv.getKmerAsByteKmer()));
             }
 
             // Avoid traversing infinite loops by removing from traversal consideration
             // those vertices that have already been incorporated into the graph.
-            Set<CortexVertex> seen = new HashSet<>();
-            for (CortexVertex av : avs) {
-                if (visited.contains(av)) {
-                    seen.add(av);
-                }
-            }
-            avs.removeAll(seen);
+            avs.removeIf(visited::contains);
+
+            boolean previouslyVisited = !visited.add(cv);
+            metrics.kmerWalked(visited.size());
+            budget.vertices(1);
 
-            boolean previouslyVisited = visited.contains(cv);
-            visited.add(cv);
+            frame.avs = avs;
+            frame.numReverse = numReverse;
 
             // Decide if we should keep exploring the graph or not
-            TraversalState<CortexVertex> ts = new TraversalState<>(cv, goForward, ec.getTraversalColors(), ec.getJoiningColors(), currentGraphSize + g.vertexSet().size(), currentJunctionDepth, g.vertexSet().size(), avs.size(), rvs.size(), false, g.vertexSet().size() > ec.getMaxBranchLength(), ec.getRois(), sinks);
+            TraversalState<CortexVertex> ts = state.update(cv, goForward, frame.currentGraphSize + g.numVertices(), frame.currentJunctionDepth, g.numVertices(), avs.size(), numReverse, false, g.numVertices() > ec.getMaxBranchLength());
 
-            if (!previouslyVisited && stoppingRule.keepGoing(ts)) {
-                if (avs.size() == 1) {
+            if (!previouslyVisited && keepGoing(frame.stoppingRule, ts)) {
+                if (avs.size() != 1) {
+                    if (avs.isEmpty()) {
+                        metrics.stopped(getStopReason(ts, false));
+                    }
+
+                    return BranchEnd.JUNCTION;
+                }
+
+                if (getConfiguration().getDebugFlag()) { Main.getLogger().debug("{} {} {} {} {}", cv, "branch", numReverse, avs.size(), frame.currentJunctionDepth); }
+
+                CortexVertex av = avs.iterator().next();
+                CortexVertex jv = jumpBlockers != null ? jump(g, cv, av, goForward, visited, jumpBlockers) : null;
+
+                if (jv != null) {
+                    frame.cv = jv;
+                } else {
                     if (goForward) { connectVertex(g, cv, null, avs); }
                     else           { connectVertex(g, cv, avs, null); }
 
-                    if (getConfiguration().getDebugFlag()) { Main.getLogger().debug("{} {} {} {} {} {}", cv, "branch", pvs.size(), nvs.size(), avs.size(), currentJunctionDepth); }
+                    frame.cv = av;
+                }
+            } else if (frame.stoppingRule.traversalSucceeded()) {
+                metrics.stopped(getStopReason(ts, previouslyVisited));
 
-                    cv = avs.iterator().next();
-                } else {
-                    boolean childrenWereSuccessful = false;
+                if (getConfiguration().getDebugFlag()) { Main.getLogger().debug("complete branch traversal"); }
 
-                    for (CortexVertex av : avs) {
-                        DirectedWeightedPseudograph<CortexVertex, CortexEdge> branch = dfs(av, goForward, currentGraphSize + g.vertexSet().size(), currentJunctionDepth + 1, visited, sinks);
+                return BranchEnd.SUCCEEDED;
+            } else {
+                metrics.stopped(getStopReason(ts, previouslyVisited));
 
-                        if (branch != null) {
-                            if (goForward) { connectVertex(branch, cv, null, Collections.singleton(av)); }
-                            else           { connectVertex(branch, cv, Collections.singleton(av), null); }
+                if (getConfiguration().getDebugFlag()) { Main.getLogger().debug("abort branch traversal"); }
 
-                            if (getConfiguration().getDebugFlag()) { Main.getLogger().debug("{} {}", cv, "junction"); }
+                return BranchEnd.FAILED;
+            }
+        }
+    }
 
-                            Graphs.addGraph(g, branch);
-                            childrenWereSuccessful = true;
-                        } else {
-                            if (getConfiguration().getDebugFlag()) { Main.getLogger().debug("{} {}", cv, "fail"); }
-                            // could mark a rejected traversal here rather than just throwing it away
-                        }
-                    }
+    private enum BranchEnd { SUCCEEDED, FAILED, JUNCTION }
 
-                    TraversalState<CortexVertex> tsChild = new TraversalState<>(cv, goForward, ec.getTraversalColors(), ec.getJoiningColors(), currentGraphSize + g.vertexSet().size(), currentJunctionDepth, g.vertexSet().size(), avs.size(), rvs.size(), true, g.vertexSet().size() > ec.getMaxBranchLength(), ec.getRois(), sinks);
+    /**
+     * Why a branch ended, as recorded in the metrics: it looped back on itself, grew past the maximum branch length,
+     * reached a sink or a dead end, or was ended by the stopping rule at an ordinary kmer.
+     */
+    private static String getStopReason(TraversalState<CortexVertex> ts, boolean previouslyVisited) {
+        if (previouslyVisited) { return "cycle"; }
+        if (ts.reachedMaxBranchLength()) { return "maxBranchLength"; }
+        if (ts.getSinks().contains(ts.getCurrentVertex().getKmerAsString())) { return "sink"; }
+        if (ts.getNumAdjacentEdges() == 0) { return "deadEnd"; }
 
-                    if (childrenWereSuccessful || stoppingRule.hasTraversalSucceeded(tsChild)) {
-                        if (getConfiguration().getDebugFlag()) { Main.getLogger().debug("complete branch subtraversal"); }
+        return "stoppingRule";
+    }
 
-                        return g;
-                    } else {
-                        if (getConfiguration().getDebugFlag()) { Main.getLogger().debug("abort branch subtraversal"); }
+    private boolean keepGoing(TraversalStoppingRule<CortexVertex, CortexEdge> stoppingRule, TraversalState<CortexVertex> ts) {
+        metrics.enter(STOPPING);
+        boolean keepGoing = stoppingRule.keepGoing(ts);
+        metrics.exit();
 
-                        // could mark a rejected traversal here rather than just throwing it away
-                    }
-                }
-            } else if (stoppingRule.traversalSucceeded()) {
-                if (getConfiguration().getDebugFlag()) { Main.getLogger().debug("complete branch traversal"); }
+        return keepGoing;
+    }
 
-                return g;
-            } else {
-                if (getConfiguration().getDebugFlag()) { Main.getLogger().debug("abort branch traversal"); }
+    private boolean hasTraversalSucceeded(TraversalStoppingRule<CortexVertex, CortexEdge> stoppingRule, TraversalState<CortexVertex> ts) {
+        metrics.enter(STOPPING);
+        boolean succeeded = stoppingRule.hasTraversalSucceeded(ts);
+        metrics.exit();
+
+        return succeeded;
+    }
+
+    /**
+     * Unitigs can only be jumped when the path through them is fixed by the graph alone: links, recruitment colors
+     * and connectAllNeighbors all need to see every kmer.  So do stopping rules that keep state across kmers (novel
+     * kmer counts, ROI hits), so an index paired with a rule that hasn't been checked against jumps is refused.
+     */
+    private boolean useUnitigs() {
+        UnitigIndex ui = ec.getUnitigs();
+        if (ui == null || !ec.getLinks().isEmpty() || !ec.getRecruitmentColors().isEmpty() || ec.connectAllNeighbors()) {
+            return false;
+        }
+
+        if (!JUMPABLE_STOPPING_RULES.contains(ec.getStoppingRule())) {
+            throw new CortexJDKException("Stopping rule " + ec.getStoppingRule().getSimpleName() + " must see every kmer, so it can't be used with a unitig index");
+        }
+
+        if (!ui.getColors().equals(new TreeSet<>(ec.getTraversalColors()))) {
+            throw new CortexJDKException("Unitig index was built for colors " + ui.getColors() + ", but traversal colors are " + ec.getTraversalColors());
+        }
+
+        return true;
+    }
+
+    private Set<String> getJumpBlockers(Set<String> sinks) {
+        Set<String> blockers = new HashSet<>();
+        for (String sink : sinks) {
+            blockers.add(sink);
+            blockers.add(SequenceUtils.reverseComplement(sink));
+        }
 
+        return blockers;
+    }
+
+    /**
+     * Cross the unitig starting at cv (in the direction of traversal) in one step, adding its kmers to the branch as
+     * though they had been walked one at a time.  The stopping rule is consulted only at the unitig's ends, so the
+     * jump is refused if anything inside it could have stopped a kmer-by-kmer walk: a sink, a kmer in the regions of
+     * interest, a vertex already on the path, or the branch growing past its maximum length.
+     *
+     * @return  the vertex at the far end of the unitig, or null if the next kmer should be walked instead
+     */
+    private CortexVertex jump(CortexSubgraph g, CortexVertex cv, CortexVertex av, boolean goForward, VisitedSet visited, Set<String> blockers) {
+        UnitigIndex ui = ec.getUnitigs();
+
+        String sk = cv.getKmerAsString();
+        String seq = ui.getJump(sk, goForward);
+        if (seq == null) {
+            return null;
+        }
+
+        int kmerSize = sk.length();
+        int numKmers = seq.length() - kmerSize + 1;
+        if (numKmers < 3 || g.numVertices() + numKmers > ec.getMaxBranchLength()) {
+            return null;
+        }
+
+        if (ec.getRois() != null && ui.getUnitigsOverlapping(ec.getRois()).get(ui.getId(sk, goForward))) {
+            return null;
+        }
+
+        // The unitig's kmers in the order they would be walked, excluding cv
+        CortexVertex[] walk = new CortexVertex[numKmers - 1];
+        for (int i = 0; i < walk.length; i++) {
+            int pos = goForward ? i + 1 : numKmers - 2 - i;
+            String wk = seq.substring(pos, pos + kmerSize);
+
+            if (i < walk.length - 1 && blockers.contains(wk)) {
                 return null;
             }
-        } while (avs.size() == 1);
 
-        return null;
+            walk[i] = new CortexVertexFactory().bases(wk).make();
+
+            if (visited.contains(walk[i])) {
+                return null;
+            }
+        }
+
+        if (!walk[0].getKmerAsByteKmer().equals(av.getKmerAsByteKmer())) {
+            return null;
+        }
+
+        int color = ec.getTraversalColors().iterator().next();
+        int prev = g.addVertex(cv);
+        for (int i = 0; i < walk.length; i++) {
+            int cur = g.addVertex(walk[i]);
+
+            int s = goForward ? prev : cur;
+            int t = goForward ? cur : prev;
+            if (g.getEdge(s, t) < 0) {
+                g.addEdge(s, t, color, 1.0);
+            }
+
+            if (i < walk.length - 1) {
+                visited.add(walk[i]);
+            }
+
+            prev = cur;
+        }
+
+        metrics.unitigJump(walk.length - 1, visited.size());
+        budget.vertices(walk.length - 1);
+
+        String ek = walk[walk.length - 1].getKmerAsString();
+        return new CortexVertexFactory().bases(ek).record(findRecord(ek)).make();
+    }
+
+    /**
+     * State of one branch of the search: the linear stretch walked so far, and its progress through its children
+     * once it has reached a junction.
+     */
+    private static class DfsFrame {
+        final boolean goForward;
+        final int currentGraphSize;
+        final int currentJunctionDepth;
+        final int visitedMark;
+        final TraversalStoppingRule<CortexVertex, CortexEdge> stoppingRule;
+        final CortexSubgraph g;
+
+        CortexVertex cv;
+        Set<CortexVertex> avs;
+        int numReverse;
+
+        Iterator<CortexVertex> children;
+        CortexVertex child;
+        boolean childrenWereSuccessful = false;
+
+        DfsFrame(CortexVertex cv, boolean goForward, int currentGraphSize, int currentJunctionDepth, int visitedMark, TraversalStoppingRule<CortexVertex, CortexEdge> stoppingRule, CortexSubgraph g) {
+            this.cv = cv;
+            this.goForward = goForward;
+            this.currentGraphSize = currentGraphSize;
+            this.currentJunctionDepth = currentJunctionDepth;
+            this.visitedMark = visitedMark;
+            this.stoppingRule = stoppingRule;
+            this.g = g;
+        }
     }
 
-    private TraversalStoppingRule<CortexVertex, CortexEdge> instantiateStopper(Class<? extends TraversalStoppingRule<CortexVertex, CortexEdge>> stopperClass) {
-        try {
-            return stopperClass.newInstance();
-        } catch (InstantiationException e) {
-            throw new CortexJDKException("Could not instantiate stoppingRule: ", e);
-        } catch (IllegalAccessException e) {
-            throw new CortexJDKException("Illegal access while trying to instantiate stoppingRule: ", e);
+    /**
+     * Vertices visited along the current path of the search.  Insertions are logged so that a finished branch's
+     * vertices can be removed again in time proportional to the branch, rather than copying the set per branch.
+     * Vertices are identified as in CortexSubgraph, without their records (which follow from the kmer), so that
+     * unitig jumps need not load the records of the kmers they skip.
+     */
+    private static class VisitedSet {
+        private final Set<List<Object>> visited = new HashSet<>();
+        private final List<List<Object>> log = new ArrayList<>();
+
+        boolean contains(CortexVertex cv) { return visited.contains(key(cv)); }
+
+        boolean add(CortexVertex cv) {
+            List<Object> key = key(cv);
+
+            if (visited.add(key)) {
+                log.add(key);
+                return true;
+            }
+
+            return false;
+        }
+
+        private static List<Object> key(CortexVertex cv) {
+            return Arrays.asList(cv.getKmerAsByteKmer(), cv.getCopyIndex(), cv.getIndex(), cv.getSources(), cv.getLocus());
+        }
+
+        int mark() { return log.size(); }
+
+        int size() { return visited.size(); }
+
+        void undo(int mark) {
+            for (int i = log.size() - 1; i >= mark; i--) {
+                visited.remove(log.remove(i));
+            }
         }
     }
 
-    private void connectVertex(DirectedWeightedPseudograph<CortexVertex, CortexEdge> g, CortexVertex cv, Set<CortexVertex> pvs, Set<CortexVertex> nvs) {
-        g.addVertex(cv);
+    private void connectVertex(CortexSubgraph g, CortexVertex cv, Set<CortexVertex> pvs, Set<CortexVertex> nvs) {
+        int c = g.addVertex(cv);
 
         if (pvs != null) {
             for (CortexVertex pv : pvs) {
-                g.addVertex(pv);
+                int p = g.addVertex(pv);
 
-                if (!g.containsEdge(pv, cv)) {
-                    g.addEdge(pv, cv, new CortexEdge(pv, cv, ec.getTraversalColors().iterator().next(), 1.0));
+                if (g.getEdge(p, c) < 0) {
+                    g.addEdge(p, c, ec.getTraversalColors().iterator().next(), 1.0);
                 }
             }
         }
 
         if (nvs != null) {
             for (CortexVertex nv : nvs) {
-                g.addVertex(nv);
+                int n = g.addVertex(nv);
 
-                if (!g.containsEdge(cv, nv)) {
-                    g.addEdge(cv, nv, new CortexEdge(cv, nv, ec.getTraversalColors().iterator().next(), 1.0));
+                if (g.getEdge(c, n) < 0) {
+                    g.addEdge(c, n, ec.getTraversalColors().iterator().next(), 1.0);
                 }
             }
         }
     }
 
-    private Pair<CortexByteKmer, Set<String>> getAdjacentKmer(CortexByteKmer kmer, Set<CortexVertex> adjKmers, boolean goForward) {
+    private Pair<CortexByteKmer, Set<String>> getAdjacentKmer(CortexByteKmer kmer, List<CortexByteKmer> adjKmers, boolean goForward) {
+        metrics.enter(LINKS);
         Pair<String, Set<String>> choicePair = linkStore.getNextJunctionChoice();
+        metrics.exit();
+
         String choice = choicePair.getFirst();
         Set<String> sources = choicePair.getSecond();
 
         if (choice != null) {
-            Set<CortexByteKmer> adjKmersStr = new HashSet<>();
-            for (CortexVertex cv : adjKmers) {
-                adjKmersStr.add(cv.getKmerAsByteKmer());
-            }
-
             byte[] bAdjKmer = new byte[kmer.length()];
             if (goForward) {
                 System.arraycopy(kmer.getKmer(), 1, bAdjKmer, 0, kmer.length() - 1);
@@ -537,7 +1052,7 @@ public class TraversalEngine {
 
             CortexByteKmer adjKmer = new CortexByteKmer(bAdjKmer);
 
-            if (adjKmersStr.contains(adjKmer)) {
+            if (adjKmers.contains(adjKmer)) {
                 return new Pair<>(adjKmer, sources);
             }
         }
@@ -548,99 +1063,169 @@ public class TraversalEngine {
     private void initializeLinkStore(boolean goForward) {
         specificLinksFiles = new HashSet<>();
 
-        Set<String> traversalSamples = new HashSet<>();
-        for (int c : ec.getTraversalColors()) {
-            traversalSamples.add(ec.getGraph().getSampleName(c));
-        }
+        for (ConnectivityAnnotations lm : ec.getLinks()) {
+            int[] colors = getLinkColors(lm);
 
-        if (!ec.getLinks().isEmpty()) {
-            for (ConnectivityAnnotations lm : ec.getLinks()) {
-                if (traversalSamples.contains(lm.getHeader().getSampleNameForColor(0))) {
-                    specificLinksFiles.add(lm);
+            if (colors.length > 0) {
+                specificLinksFiles.add(lm);
 
-                    CanonicalKmer ck = new CanonicalKmer(curKmer.getKmer());
-                    if (lm.containsKey(ck)) {
-                        linkStore.add(curKmer, lm.get(ck), goForward, lm.getSource());
-                    }
-                }
+                addLinks(lm, colors, curKmer, goForward);
             }
         }
     }
 
     private void updateLinkStore(boolean goForward) {
-        Set<String> traversalSamples = new HashSet<>();
-        for (int c : ec.getTraversalColors()) {
-            traversalSamples.add(ec.getGraph().getSampleName(c));
+        specificLinksFiles = new HashSet<>();
+
+        CortexByteKmer adjKmer = goForward ? nextKmer : prevKmer;
+
+        for (ConnectivityAnnotations lm : ec.getLinks()) {
+            int[] colors = getLinkColors(lm);
+
+            if (colors.length > 0) {
+                specificLinksFiles.add(lm);
+
+                if (adjKmer != null) {
+                    addLinks(lm, colors, adjKmer, goForward);
+                }
+            }
         }
+    }
 
-        specificLinksFiles = new HashSet<>();
-        if (!ec.getLinks().isEmpty()) {
-            for (ConnectivityAnnotations lm : ec.getLinks()) {
-                //if (lm.getHeader().getSampleNameForColor(0).equals(ec.getGraph().getSampleName(ec.getTraversalColors()))) {
-                if (traversalSamples.contains(lm.getHeader().getSampleNameForColor(0))) {
-                    specificLinksFiles.add(lm);
-
-                    if (goForward) {
-                        CanonicalKmer nk = nextKmer == null ? null : new CanonicalKmer(nextKmer.getKmer());
-                        if (nextKmer != null && lm.containsKey(nk)) {
-                            linkStore.add(nextKmer, lm.get(nk), true, lm.getSource());
-                        }
-                    } else {
-                        CanonicalKmer pk = prevKmer == null ? null : new CanonicalKmer(prevKmer.getKmer());
-                        if (prevKmer != null && lm.containsKey(pk)) {
-                            linkStore.add(prevKmer, lm.get(pk), false, lm.getSource());
-                        }
-                    }
+    /**
+     * One lookup per links source.  Single-sample files contribute all of their links; merged multi-sample
+     * containers contribute, for each traversed sample, only the links seen in that sample, under that sample's
+     * link source.
+     */
+    private void addLinks(ConnectivityAnnotations lm, int[] colors, CortexByteKmer sk, boolean goForward) {
+        metrics.enter(LINKS);
+
+        CanonicalKmer ck = new CanonicalKmer(sk.getKmer());
+        boolean found = lm.containsKey(ck);
+        metrics.linkLookup(found);
+
+        if (found) {
+            CortexLinksRecord clr = lm.get(ck);
+
+            if (lm.getHeader().getNumColors() == 1) {
+                linkStore.add(sk, clr, goForward, lm.getSource());
+            } else {
+                for (int c : colors) {
+                    linkStore.add(sk, clr, goForward, lm.getSource(c), c);
                 }
             }
         }
+
+        metrics.exit();
     }
 
-    private DirectedWeightedPseudograph<CortexVertex, CortexEdge> addSecondaryColors(DirectedWeightedPseudograph<CortexVertex, CortexEdge> g) {
-        DirectedWeightedPseudograph<CortexVertex, CortexEdge> m = new DirectedWeightedPseudograph<>(CortexEdge.class);
-        Graphs.addGraph(m, g);
+    /**
+     * @return  the colors of a links source whose samples are being traversed (computed once per source)
+     */
+    private int[] getLinkColors(ConnectivityAnnotations lm) {
+        if (linkColors == null) {
+            linkColors = new HashMap<>();
+        }
 
-        if (!ec.getSecondaryColors().isEmpty()) {
-            Map<CortexByteKmer, Map<Integer, Set<CortexByteKmer>>> pkscache = new HashMap<>();
-            Map<CortexByteKmer, Map<Integer, Set<CortexByteKmer>>> nkscache = new HashMap<>();
+        return linkColors.computeIfAbsent(lm, l -> {
+            Set<String> traversalSamples = new HashSet<>();
+            for (int c : ec.getTraversalColors()) {
+                traversalSamples.add(ec.getGraph().getSampleName(c));
+            }
+
+            List<Integer> colors = new ArrayList<>();
+            for (int c = 0; c < l.getHeader().getNumColors(); c++) {
+                if (traversalSamples.contains(l.getHeader().getSampleNameForColor(c))) {
+                    colors.add(c);
+                }
+            }
 
-            for (int c : ec.getSecondaryColors()) {
-                if (!ec.getTraversalColors().contains(c)) {
-                    DirectedWeightedPseudograph<CortexVertex, CortexEdge> g2 = new DirectedWeightedPseudograph<>(CortexEdge.class);
+            return colors.stream().mapToInt(Integer::intValue).toArray();
+        });
+    }
 
-                    for (CortexVertex v : g.vertexSet()) {
-                        Map<Integer, Set<CortexByteKmer>> pks = pkscache.containsKey(v.getKmerAsByteKmer()) ? pkscache.get(v.getKmerAsByteKmer()) : getAllPrevKmers(v.getKmerAsByteKmer());
-                        Map<Integer, Set<CortexByteKmer>> nks = nkscache.containsKey(v.getKmerAsByteKmer()) ? nkscache.get(v.getKmerAsByteKmer()) : getAllNextKmers(v.getKmerAsByteKmer());
+    /**
+     * Annotate a traversal with the edges of its vertices in the secondary colors.  Each vertex's edges are decoded
+     * once for all colors, and each neighboring kmer's record is loaded once, however many colors it appears in.
+     * Edges are added color by color, in the order a per-color pass would have added them.
+     *
+     * This is where a traversal's subgraph is copied out, once, into the graph handed back to the caller.  Vertices
+     * keep the records they were traversed with, so none are looked up again.
+     */
+    private DirectedWeightedPseudograph<CortexVertex, CortexEdge> addSecondaryColors(CortexSubgraph g) {
+        metrics.enter(MERGE);
+
+        DirectedWeightedPseudograph<CortexVertex, CortexEdge> m = g.toGraph();
+
+        List<Integer> colors = new ArrayList<>();
+        for (int c : ec.getSecondaryColors()) {
+            if (!ec.getTraversalColors().contains(c)) {
+                colors.add(c);
+            }
+        }
 
-                        pkscache.put(v.getKmerAsByteKmer(), pks);
-                        nkscache.put(v.getKmerAsByteKmer(), nks);
+        if (!colors.isEmpty()) {
+            KmerNeighbors kn = new KmerNeighbors(ec.getGraph().getKmerSize(), ec.getGraph().getNumColors());
+            long[] colorMask = kn.makeColorMask(colors);
 
-                        g2.addVertex(v);
+            Map<CortexByteKmer, CortexVertex> adjVertices = new HashMap<>();
+            List<List<CortexVertex[]>> edges = new ArrayList<>();
+            for (int i = 0; i < colors.size(); i++) {
+                edges.add(new ArrayList<>());
+            }
 
-                        for (CortexByteKmer pk : pks.get(c)) {
-                            CortexVertex pv = new CortexVertexFactory().bases(pk).record(ec.getGraph().findRecord(pk)).make();
+            for (CortexVertex v : m.vertexSet()) {
+                byte[] sk = v.getKmerAsByteKmer().getKmer();
+                CortexRecord cr = v.getCortexRecord() != null ? v.getCortexRecord() : findRecord(sk);
 
-                            g2.addVertex(pv);
-                            if (!g2.containsEdge(pv, v)) {
-                                g2.addEdge(pv, v, new CortexEdge(pv, v, c, 1.0));
-                            }
-                        }
+                for (boolean goForward : Arrays.asList(false, true)) {
+                    int numNeighbors = goForward ? kn.next(sk, cr) : kn.prev(sk, cr);
 
-                        for (CortexByteKmer nk : nks.get(c)) {
-                            CortexVertex nv = new CortexVertexFactory().bases(nk).record(ec.getGraph().findRecord(nk)).make();
+                    for (int i = 0; i < numNeighbors; i++) {
+                        if (kn.hasAnyColor(i, colorMask)) {
+                            CortexVertex av = adjVertices.computeIfAbsent(kn.getKmer(i), ak -> new CortexVertexFactory().bases(ak).record(findRecord(ak)).make());
 
-                            g2.addVertex(nv);
-                            if (!g2.containsEdge(v, nv)) {
-                                g2.addEdge(v, nv, new CortexEdge(v, nv, c, 1.0));
+                            for (int j = 0; j < colors.size(); j++) {
+                                if (kn.hasColor(i, colors.get(j))) {
+                                    edges.get(j).add(goForward ? new CortexVertex[] { v, av } : new CortexVertex[] { av, v });
+                                }
                             }
                         }
                     }
+                }
+            }
 
-                    Graphs.addGraph(m, g2);
+            for (int j = 0; j < colors.size(); j++) {
+                for (CortexVertex[] e : edges.get(j)) {
+                    m.addVertex(e[0]);
+                    m.addVertex(e[1]);
+                    m.addEdge(e[0], e[1], new CortexEdge(e[0], e[1], colors.get(j), 1.0));
                 }
             }
         }
 
+        metrics.exit();
+
         return m;
     }
+
+    private CortexRecord findRecord(String sk) { return findRecord(sk.getBytes()); }
+
+    private CortexRecord findRecord(CortexByteKmer sk) { return findRecord(sk.getKmer()); }
+
+    private CortexRecord findRecord(byte[] sk) {
+        metrics.enter(LOOKUP);
+
+        long cacheHits = getCacheHits();
+        CortexRecord cr = ec.getGraph().findRecord(sk);
+        metrics.findRecord(getCacheHits() > cacheHits);
+
+        metrics.exit();
+
+        return cr;
+    }
+
+    private long getCacheHits() {
+        return ec.getGraph() instanceof CortexGraph ? ((CortexGraph) ec.getGraph()).getCacheHitsByKmer() : 0;
+    }
 }
@@ -26,6 +26,7 @@ public class TraversalEngineConfiguration {
     private boolean connectAllNeighbors = false;
 
     private int maxLength = 75000;
+    private TraversalBudget budget = TraversalBudget.UNLIMITED;
 
     private Class<? extends TraversalStoppingRule<CortexVertex, CortexEdge>> stoppingRule = ContigStopper.class;
 
@@ -33,9 +34,31 @@ public class TraversalEngineConfiguration {
     private DeBruijnGraph rois;
     private Set<ConnectivityAnnotations> links = new HashSet<>();
     private Set<IndexedReference> kls = new HashSet<>();
+    private UnitigIndex unitigs;
 
     private boolean debug = false;
 
+    public TraversalEngineConfiguration() {}
+
+    public TraversalEngineConfiguration(TraversalEngineConfiguration ec) {
+        this.traversalColors = new LinkedHashSet<>(ec.traversalColors);
+        this.joiningColors = new TreeSet<>(ec.joiningColors);
+        this.recruitmentColors = new TreeSet<>(ec.recruitmentColors);
+        this.secondaryColors = new TreeSet<>(ec.secondaryColors);
+        this.gco = ec.gco;
+        this.td = ec.td;
+        this.connectAllNeighbors = ec.connectAllNeighbors;
+        this.maxLength = ec.maxLength;
+        this.budget = ec.budget;
+        this.stoppingRule = ec.stoppingRule;
+        this.graph = ec.graph;
+        this.rois = ec.rois;
+        this.links = new HashSet<>(ec.links);
+        this.kls = new HashSet<>(ec.kls);
+        this.unitigs = ec.unitigs;
+        this.debug = ec.debug;
+    }
+
     public GraphCombinationOperator getGraphCombinationOperator() { return gco; }
     public void setGraphCombinationOperator(GraphCombinationOperator gco) { this.gco = gco; }
 
@@ -76,9 +99,15 @@ public class TraversalEngineConfiguration {
     public Set<IndexedReference> getReferences() { return kls; }
     public void setReferences(Set<IndexedReference> kls) { this.kls = kls; }
 
+    public UnitigIndex getUnitigs() { return unitigs; }
+    public void setUnitigs(UnitigIndex unitigs) { this.unitigs = unitigs; }
+
     public void setMaxWalkLength(int maxLength) { this.maxLength = maxLength; }
     public int getMaxBranchLength() { return maxLength; }
 
+    public TraversalBudget getBudget() { return budget; }
+    public void setBudget(TraversalBudget budget) { this.budget = budget == null ? TraversalBudget.UNLIMITED : budget; }
+
     public void setDebugFlag() { this.debug = true; }
     public boolean getDebugFlag() { return this.debug; }
 }
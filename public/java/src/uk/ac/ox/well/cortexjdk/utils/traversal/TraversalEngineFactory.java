@@ -19,6 +19,7 @@ public class TraversalEngineFactory {
 
     public TraversalEngineFactory connectAllNeighbors(boolean connectAllNeighbors) { configuration.setConnectAllNeighbors(connectAllNeighbors); return this; }
     public TraversalEngineFactory maxBranchLength(int maxLength) { configuration.setMaxWalkLength(maxLength); return this; }
+    public TraversalEngineFactory budget(TraversalBudget budget) { configuration.setBudget(budget); return this; }
 
     public TraversalEngineFactory traversalColors() { configuration.getTraversalColors().clear(); return this; }
     public TraversalEngineFactory traversalColors(int... colors) { Arrays.stream(colors).forEach(c -> configuration.getTraversalColors().add(c)); return this; }
@@ -49,6 +50,8 @@ public class TraversalEngineFactory {
     public TraversalEngineFactory references(IndexedReference... lookups) { if (lookups != null) { Arrays.stream(lookups).forEach(r -> configuration.getReferences().add(r)); } return this; }
     public TraversalEngineFactory references(Collection<IndexedReference> lookups) { if (lookups != null) { configuration.getReferences().addAll(lookups); } return this; }
 
+    public TraversalEngineFactory unitigs(UnitigIndex unitigs) { configuration.setUnitigs(unitigs); return this; }
+
     public TraversalEngineFactory debug() { configuration.setDebugFlag(); return this; }
 
     public TraversalEngine make() {
@@ -0,0 +1,216 @@
+package uk.ac.ox.well.cortexjdk.utils.traversal;
+
+import org.apache.commons.math3.util.Pair;
+import uk.ac.ox.well.cortexjdk.utils.exceptions.CortexJDKException;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.ConnectivityAnnotations;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.DeBruijnGraph;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexCollection;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexGraph;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.links.CortexLinks;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs traversals from many independent seeds on a bounded worker pool.  Each worker thread gets its own
+ * TraversalEngine, configured like the one supplied but with its own handles on any file-backed graphs and indexed
+ * links (which keep a file position and a cache, and so cannot be shared between threads).  In-memory graphs and
+ * links are shared.
+ *
+ * Seeds are consumed lazily, with at most a few jobs per thread in flight at once, and results are returned either
+ * in seed order or as they complete.  With a single thread, jobs run on the calling thread against the original
+ * graph and links.
+ */
+public class TraversalExecutor {
+    private static final int JOBS_IN_FLIGHT_PER_THREAD = 4;
+
+    public interface TraversalJob<S, R> {
+        R apply(TraversalEngine e, S seed);
+    }
+
+    private final TraversalEngineConfiguration ec;
+    private final int numThreads;
+    private final ExecutorService exec;
+    private final ThreadLocal<TraversalEngine> engines;
+    private final List<DeBruijnGraph> openedGraphs = Collections.synchronizedList(new ArrayList<>());
+
+    public TraversalExecutor(TraversalEngineConfiguration ec, int numThreads) {
+        this.ec = ec;
+        this.numThreads = Math.max(1, numThreads);
+        this.exec = this.numThreads > 1 ? Executors.newFixedThreadPool(this.numThreads) : null;
+        this.engines = ThreadLocal.withInitial(() -> new TraversalEngine(this.numThreads > 1 ? localConfiguration() : ec));
+    }
+
+    public int getNumThreads() { return numThreads; }
+
+    /**
+     * Run a job for each seed, returning results in seed order.
+     */
+    public <S, R> Iterator<R> ordered(Iterator<S> seeds, TraversalJob<S, R> job) {
+        if (exec == null) {
+            return inline(seeds, job);
+        }
+
+        return new Iterator<R>() {
+            private final Deque<Future<R>> pending = new ArrayDeque<>();
+
+            @Override
+            public boolean hasNext() {
+                fill();
+                return !pending.isEmpty();
+            }
+
+            @Override
+            public R next() {
+                if (!hasNext()) { throw new NoSuchElementException(); }
+
+                R result = get(pending.removeFirst());
+                fill();
+
+                return result;
+            }
+
+            private void fill() {
+                while (pending.size() < JOBS_IN_FLIGHT_PER_THREAD * numThreads && seeds.hasNext()) {
+                    S seed = seeds.next();
+                    pending.addLast(exec.submit(() -> job.apply(engines.get(), seed)));
+                }
+            }
+        };
+    }
+
+    /**
+     * Run a job for each seed, returning (seed, result) pairs as the jobs complete.
+     */
+    public <S, R> Iterator<Pair<S, R>> unordered(Iterator<S> seeds, TraversalJob<S, R> job) {
+        TraversalJob<S, Pair<S, R>> pairedJob = (e, seed) -> new Pair<>(seed, job.apply(e, seed));
+
+        if (exec == null) {
+            return inline(seeds, pairedJob);
+        }
+
+        return new Iterator<Pair<S, R>>() {
+            private final CompletionService<Pair<S, R>> cs = new ExecutorCompletionService<>(exec);
+            private int inFlight = 0;
+
+            @Override
+            public boolean hasNext() {
+                fill();
+                return inFlight > 0;
+            }
+
+            @Override
+            public Pair<S, R> next() {
+                if (!hasNext()) { throw new NoSuchElementException(); }
+
+                try {
+                    Future<Pair<S, R>> f = cs.take();
+                    inFlight--;
+
+                    return get(f);
+                } catch (InterruptedException e) {
+                    throw new CortexJDKException("Interrupted while waiting for traversal", e);
+                }
+            }
+
+            private void fill() {
+                while (inFlight < JOBS_IN_FLIGHT_PER_THREAD * numThreads && seeds.hasNext()) {
+                    S seed = seeds.next();
+                    cs.submit(() -> pairedJob.apply(engines.get(), seed));
+                    inFlight++;
+                }
+            }
+        };
+    }
+
+    /**
+     * Run a job for each seed and collect the results in seed order.
+     */
+    public <S, R> List<R> map(Collection<S> seeds, TraversalJob<S, R> job) {
+        List<R> results = new ArrayList<>(seeds.size());
+        ordered(seeds.iterator(), job).forEachRemaining(results::add);
+
+        return results;
+    }
+
+    public void close() {
+        if (exec != null) {
+            exec.shutdownNow();
+        }
+
+        synchronized (openedGraphs) {
+            for (DeBruijnGraph g : openedGraphs) {
+                if (g instanceof CortexGraph) {
+                    ((CortexGraph) g).close();
+                }
+            }
+
+            openedGraphs.clear();
+        }
+    }
+
+    private <S, R> Iterator<R> inline(Iterator<S> seeds, TraversalJob<S, R> job) {
+        return new Iterator<R>() {
+            @Override
+            public boolean hasNext() { return seeds.hasNext(); }
+
+            @Override
+            public R next() { return job.apply(engines.get(), seeds.next()); }
+        };
+    }
+
+    private <R> R get(Future<R> f) {
+        try {
+            return f.get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new CortexJDKException("Error during traversal", e.getCause() != null ? e.getCause() : e);
+        }
+    }
+
+    private TraversalEngineConfiguration localConfiguration() {
+        TraversalEngineConfiguration lc = new TraversalEngineConfiguration(ec);
+
+        lc.setGraph(reopen(ec.getGraph()));
+        lc.setRois(reopen(ec.getRois()));
+
+        Set<ConnectivityAnnotations> links = new HashSet<>();
+        for (ConnectivityAnnotations lm : ec.getLinks()) {
+            links.add(reopen(lm));
+        }
+        lc.setLinks(links);
+
+        return lc;
+    }
+
+    private DeBruijnGraph reopen(DeBruijnGraph g) {
+        if (g instanceof CortexGraph) {
+            CortexGraph cg = new CortexGraph(g.getFile());
+            openedGraphs.add(cg);
+
+            return cg;
+        } else if (g instanceof CortexCollection) {
+            // Every entry in the list has its own block of colors, even if two are the same file, so the list is
+            // rebuilt entry for entry (reopening each graph instance once)
+            Map<CortexGraph, CortexGraph> reopened = new IdentityHashMap<>();
+            List<CortexGraph> graphs = new ArrayList<>();
+
+            for (CortexGraph cg : ((CortexCollection) g).getGraphs()) {
+                graphs.add(reopened.computeIfAbsent(cg, og -> (CortexGraph) reopen(og)));
+            }
+
+            return new CortexCollection(graphs);
+        }
+
+        return g;
+    }
+
+    private ConnectivityAnnotations reopen(ConnectivityAnnotations lm) {
+        // Indexed links are read from disk on demand; unindexed links are held in memory and can be shared
+        if (lm instanceof CortexLinks && new File(lm.getFile().getAbsolutePath() + ".idx").exists()) {
+            return new CortexLinks(lm.getFile());
+        }
+
+        return lm;
+    }
+}
@@ -0,0 +1,230 @@
+package uk.ac.ox.well.cortexjdk.utils.traversal;
+
+import com.google.common.base.Joiner;
+
+import java.util.*;
+
+/**
+ * Counters and stage timings for the traversals run by one TraversalEngine.  Counters are always kept (they are
+ * cheap); stage timings are only taken once timing is enabled, as they cost two clock reads per stage change.
+ *
+ * Time is charged to the innermost stage running, so a record lookup made while merging subgraphs counts as a
+ * lookup rather than a merge, and the stage times add up to the total.
+ */
+public class TraversalMetrics {
+    public enum Stage { LOOKUP, LINKS, STOPPING, MERGE, OTHER }
+
+    private boolean timed = false;
+    private final long[] stageNanos = new long[Stage.values().length];
+    private final Deque<Stage> stages = new ArrayDeque<>();
+    private Stage stage = Stage.OTHER;
+    private long stageStart;
+
+    private long seeds;
+    private long findRecordCalls;
+    private long cacheHits;
+    private long linkLookups;
+    private long linkRecords;
+    private long linksAdded;
+    private long junctionChoices;
+    private long unresolvedJunctions;
+    private long branches;
+    private long kmersWalked;
+    private long unitigJumps;
+    private int maxJunctionDepth;
+    private int maxVisited;
+    private long budgetLimited;
+    private final Map<String, Long> stopReasons = new TreeMap<>();
+
+    public TraversalMetrics() {}
+
+    public TraversalMetrics(TraversalMetrics m) {
+        add(m);
+        this.timed = m.timed;
+    }
+
+    public void setTimed(boolean timed) {
+        this.timed = timed;
+        this.stageStart = System.nanoTime();
+    }
+
+    public boolean isTimed() { return timed; }
+
+    /**
+     * Clear all counters and timings (e.g. before each seed).
+     */
+    public void reset() {
+        Arrays.fill(stageNanos, 0);
+        stages.clear();
+        stage = Stage.OTHER;
+        stageStart = System.nanoTime();
+
+        seeds = findRecordCalls = cacheHits = linkLookups = linkRecords = linksAdded = 0;
+        junctionChoices = unresolvedJunctions = branches = kmersWalked = unitigJumps = 0;
+        maxJunctionDepth = maxVisited = 0;
+        budgetLimited = 0;
+        stopReasons.clear();
+    }
+
+    public void enter(Stage s) {
+        if (timed) {
+            long now = System.nanoTime();
+            stageNanos[stage.ordinal()] += now - stageStart;
+            stageStart = now;
+
+            stages.push(stage);
+            stage = s;
+        }
+    }
+
+    public void exit() {
+        if (timed && !stages.isEmpty()) {
+            long now = System.nanoTime();
+            stageNanos[stage.ordinal()] += now - stageStart;
+            stageStart = now;
+
+            stage = stages.pop();
+        }
+    }
+
+    /**
+     * Charge the time since the last stage change to the running stage, so that the timings are up to date.
+     */
+    public void flush() {
+        if (timed) {
+            long now = System.nanoTime();
+            stageNanos[stage.ordinal()] += now - stageStart;
+            stageStart = now;
+        }
+    }
+
+    void seed() { seeds++; }
+
+    void findRecord(boolean cacheHit) {
+        findRecordCalls++;
+        if (cacheHit) { cacheHits++; }
+    }
+
+    void linkLookup(boolean found) {
+        linkLookups++;
+        if (found) { linkRecords++; }
+    }
+
+    void linkAdded() { linksAdded++; }
+
+    void junctionChoice(boolean resolved) {
+        junctionChoices++;
+        if (!resolved) { unresolvedJunctions++; }
+    }
+
+    void branch(int junctionDepth) {
+        branches++;
+        maxJunctionDepth = Math.max(maxJunctionDepth, junctionDepth);
+    }
+
+    void kmerWalked(int visitedSize) {
+        kmersWalked++;
+        maxVisited = Math.max(maxVisited, visitedSize);
+    }
+
+    void unitigJump(int numKmers, int visitedSize) {
+        unitigJumps++;
+        kmersWalked += numKmers;
+        maxVisited = Math.max(maxVisited, visitedSize);
+    }
+
+    void stopped(String reason) { stopReasons.merge(reason, 1L, Long::sum); }
+
+    void budgetLimited() { budgetLimited++; }
+
+    /**
+     * Accumulate another set of metrics into this one (maxima are combined as maxima).
+     */
+    public void add(TraversalMetrics m) {
+        for (int i = 0; i < stageNanos.length; i++) {
+            stageNanos[i] += m.stageNanos[i];
+        }
+
+        seeds += m.seeds;
+        findRecordCalls += m.findRecordCalls;
+        cacheHits += m.cacheHits;
+        linkLookups += m.linkLookups;
+        linkRecords += m.linkRecords;
+        linksAdded += m.linksAdded;
+        junctionChoices += m.junctionChoices;
+        unresolvedJunctions += m.unresolvedJunctions;
+        branches += m.branches;
+        kmersWalked += m.kmersWalked;
+        unitigJumps += m.unitigJumps;
+        maxJunctionDepth = Math.max(maxJunctionDepth, m.maxJunctionDepth);
+        maxVisited = Math.max(maxVisited, m.maxVisited);
+        budgetLimited += m.budgetLimited;
+
+        m.stopReasons.forEach((k, v) -> stopReasons.merge(k, v, Long::sum));
+    }
+
+    public long getStageNanos(Stage s) { return stageNanos[s.ordinal()]; }
+
+    public long getTotalNanos() {
+        long total = 0;
+        for (long n : stageNanos) {
+            total += n;
+        }
+
+        return total;
+    }
+
+    public long getNumSeeds() { return seeds; }
+    public long getNumFindRecordCalls() { return findRecordCalls; }
+    public long getNumCacheHits() { return cacheHits; }
+    public long getNumLinkLookups() { return linkLookups; }
+    public long getNumLinkRecords() { return linkRecords; }
+    public long getNumLinksAdded() { return linksAdded; }
+    public long getNumJunctionChoices() { return junctionChoices; }
+    public long getNumUnresolvedJunctions() { return unresolvedJunctions; }
+    public long getNumBranches() { return branches; }
+    public long getNumKmersWalked() { return kmersWalked; }
+    public long getNumUnitigJumps() { return unitigJumps; }
+    public int getMaxJunctionDepth() { return maxJunctionDepth; }
+    public int getMaxVisited() { return maxVisited; }
+    public long getNumBudgetLimited() { return budgetLimited; }
+
+    /**
+     * @return  the number of branches that ended for each reason (see TraversalEngine)
+     */
+    public Map<String, Long> getStopReasons() { return Collections.unmodifiableMap(stopReasons); }
+
+    /**
+     * @return  the metrics as named columns, in a fixed order, for tabular output
+     */
+    public Map<String, String> toMap() {
+        Map<String, String> te = new LinkedHashMap<>();
+
+        te.put("seeds", String.valueOf(seeds));
+        te.put("totalMs", String.format("%.3f", getTotalNanos() / 1e6));
+        for (Stage s : Stage.values()) {
+            te.put(s.name().toLowerCase() + "Ms", String.format("%.3f", getStageNanos(s) / 1e6));
+        }
+        te.put("findRecordCalls", String.valueOf(findRecordCalls));
+        te.put("cacheHits", String.valueOf(cacheHits));
+        te.put("linkLookups", String.valueOf(linkLookups));
+        te.put("linkRecords", String.valueOf(linkRecords));
+        te.put("linksAdded", String.valueOf(linksAdded));
+        te.put("junctionChoices", String.valueOf(junctionChoices));
+        te.put("unresolvedJunctions", String.valueOf(unresolvedJunctions));
+        te.put("branches", String.valueOf(branches));
+        te.put("kmersWalked", String.valueOf(kmersWalked));
+        te.put("unitigJumps", String.valueOf(unitigJumps));
+        te.put("maxJunctionDepth", String.valueOf(maxJunctionDepth));
+        te.put("maxVisited", String.valueOf(maxVisited));
+        te.put("budgetLimited", String.valueOf(budgetLimited));
+        te.put("stopReasons", stopReasons.isEmpty() ? "none" : Joiner.on(",").withKeyValueSeparator("=").join(stopReasons));
+
+        return te;
+    }
+
+    @Override
+    public String toString() {
+        return "TraversalMetrics" + toMap();
+    }
+}
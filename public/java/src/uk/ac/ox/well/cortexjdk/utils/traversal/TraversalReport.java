@@ -0,0 +1,117 @@
+package uk.ac.ox.well.cortexjdk.utils.traversal;
+
+import uk.ac.ox.well.cortexjdk.Main;
+import uk.ac.ox.well.cortexjdk.utils.io.table.TableWriter;
+
+import java.io.File;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Collects TraversalMetrics per seed and per partition, and writes them as a tab-delimited table: one "seed" row
+ * for every traversal recorded, and one "partition" row summing the seeds of each partition once it is finished.
+ * Seeds taking longer than a threshold are also logged, with the reasons their branches stopped, as are seeds whose
+ * traversals were truncated by the engine's budget.
+ */
+public class TraversalReport {
+    private final TableWriter tw;
+    private final long slowSeedNanos;
+    private final Map<String, TraversalMetrics> partitions = new HashMap<>();
+
+    /**
+     * @param out             the table to write
+     * @param slowSeedMillis  log seeds whose traversal takes longer than this (a negative value disables the log)
+     */
+    public TraversalReport(File out, long slowSeedMillis) {
+        this.tw = new TableWriter(out);
+        this.slowSeedNanos = slowSeedMillis < 0 ? Long.MAX_VALUE : slowSeedMillis * 1000000L;
+    }
+
+    /**
+     * The context that traversals are recorded in.
+     */
+    public class Scope {
+        private final String partition;
+        private final int section;
+        private final String background;
+
+        private Scope(String partition, int section, String background) {
+            this.partition = partition;
+            this.section = section;
+            this.background = background;
+        }
+
+        /**
+         * Run a traversal on an engine, with timing enabled and the engine's metrics reset beforehand, and record
+         * its metrics.
+         *
+         * @param purpose  what the traversal is for (e.g. "contig" or "gap")
+         * @param seed     the kmer (or kmers) the traversal starts from
+         * @return         the traversal's result
+         */
+        public <T> T record(TraversalEngine e, String purpose, String seed, Supplier<T> traversal) {
+            TraversalMetrics m = e.getMetrics();
+            m.setTimed(true);
+            m.reset();
+
+            T result = traversal.get();
+
+            m.flush();
+            add(this, purpose, seed, new TraversalMetrics(m), e.getBudgetLimit());
+
+            return result;
+        }
+    }
+
+    public Scope scope(String partition, int section, String background) {
+        return new Scope(partition, section, background);
+    }
+
+    /**
+     * Write the summary row for a partition.
+     *
+     * @return  the partition's total metrics
+     */
+    public synchronized TraversalMetrics finishPartition(String partition) {
+        TraversalMetrics pm = partitions.remove(partition);
+        if (pm == null) {
+            pm = new TraversalMetrics();
+        }
+
+        tw.addEntry(toEntry("partition", partition, "NA", "NA", "NA", "NA", "NA", pm));
+
+        return pm;
+    }
+
+    private synchronized void add(Scope scope, String purpose, String seed, TraversalMetrics m, TraversalBudget.Limit limit) {
+        partitions.computeIfAbsent(scope.partition, p -> new TraversalMetrics()).add(m);
+
+        tw.addEntry(toEntry("seed", scope.partition, String.valueOf(scope.section), scope.background, purpose, seed, limit == null ? "none" : limit.name(), m));
+
+        if (limit != null) {
+            Main.getLogger().warn("Budget-limited seed: {} traversal from {} truncated by its {} budget after {} ms (partition={}, section={}, background={}, kmers={}, branches={})",
+                    purpose, seed, limit.name().toLowerCase(), String.format("%.1f", m.getTotalNanos() / 1e6), scope.partition, scope.section, scope.background,
+                    m.getNumKmersWalked(), m.getNumBranches());
+        }
+
+        if (m.getTotalNanos() > slowSeedNanos) {
+            Main.getLogger().warn("Slow seed: {} ms for {} traversal from {} (partition={}, section={}, background={}, kmers={}, branches={}, stopped by {})",
+                    String.format("%.1f", m.getTotalNanos() / 1e6), purpose, seed, scope.partition, scope.section, scope.background,
+                    m.getNumKmersWalked(), m.getNumBranches(), m.getStopReasons().isEmpty() ? "none" : m.getStopReasons());
+        }
+    }
+
+    private static Map<String, String> toEntry(String level, String partition, String section, String background, String purpose, String seed, String budgetLimit, TraversalMetrics m) {
+        Map<String, String> te = new LinkedHashMap<>();
+        te.put("level", level);
+        te.put("partition", partition);
+        te.put("section", section);
+        te.put("background", background);
+        te.put("purpose", purpose);
+        te.put("seed", seed);
+        te.put("budgetLimit", budgetLimit);
+        te.putAll(m.toMap());
+
+        return te;
+    }
+}
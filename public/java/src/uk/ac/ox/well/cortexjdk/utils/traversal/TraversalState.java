@@ -2,24 +2,29 @@ package uk.ac.ox.well.cortexjdk.utils.traversal;
 
 import uk.ac.ox.well.cortexjdk.utils.io.graph.DeBruijnGraph;
 
-import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.*;
 
+/**
+ * The state of a traversal at one step, as shown to a stopping rule.  TraversalEngine keeps a single instance per
+ * engine and updates it in place at each step (so stopping rules must not hold on to it between calls); the sink set
+ * is an immutable snapshot shared by every step of a traversal.
+ */
 final public class TraversalState<V> {
-    final private V currentVertex;
-    final private boolean goForward;
-    final private Set<Integer> traversalColors;
-    final private Set<Integer> joiningColors;
-    final private int currentJunctionDepth;
-    final private int currentGraphSize;
-    final private int currentBranchSize;
-    final private int numAdjacentEdges;
-    final private int numAdjacentReverseEdges;
-    final private boolean childrenAlreadyTraversed;
-    final private DeBruijnGraph rois;
-    final private boolean reachedMaxBranchLength;
-    final private Set<String> sinks;
+    private V currentVertex;
+    private boolean goForward;
+    private Set<Integer> traversalColors;
+    private Set<Integer> joiningColors;
+    private int currentJunctionDepth;
+    private int currentGraphSize;
+    private int currentBranchSize;
+    private int numAdjacentEdges;
+    private int numAdjacentReverseEdges;
+    private boolean childrenAlreadyTraversed;
+    private DeBruijnGraph rois;
+    private boolean reachedMaxBranchLength;
+    private Set<String> sinks = Collections.emptySet();
+
+    TraversalState() {}
 
     public TraversalState(V currentVertex,
                           boolean goForward,
@@ -35,22 +40,56 @@ final public class TraversalState<V> {
                           DeBruijnGraph rois,
                           String... sinks
     ) {
-        this.currentVertex = currentVertex;
-        this.goForward = goForward;
+        begin(traversalColors, joiningColors, rois, toSinkSet(sinks));
+        update(currentVertex, goForward, currentGraphSize, currentJunctionDepth, currentBranchSize, numAdjacentEdges, numAdjacentReverseEdges, childrenAlreadyTraversed, reachedMaxBranchLength);
+    }
+
+    /**
+     * Set the parts of the state that are fixed for a whole traversal.
+     */
+    TraversalState<V> begin(Set<Integer> traversalColors, Set<Integer> joiningColors, DeBruijnGraph rois, Set<String> sinks) {
         this.traversalColors = traversalColors;
         this.joiningColors = joiningColors;
+        this.rois = rois;
+        this.sinks = sinks;
+
+        return this;
+    }
+
+    /**
+     * Move the state to the next step.
+     */
+    TraversalState<V> update(V currentVertex,
+                             boolean goForward,
+                             int currentGraphSize,
+                             int currentJunctionDepth,
+                             int currentBranchSize,
+                             int numAdjacentEdges,
+                             int numAdjacentReverseEdges,
+                             boolean childrenAlreadyTraversed,
+                             boolean reachedMaxBranchLength) {
+        this.currentVertex = currentVertex;
+        this.goForward = goForward;
         this.currentGraphSize = currentGraphSize;
         this.currentJunctionDepth = currentJunctionDepth;
         this.currentBranchSize = currentBranchSize;
         this.numAdjacentEdges = numAdjacentEdges;
         this.numAdjacentReverseEdges = numAdjacentReverseEdges;
         this.childrenAlreadyTraversed = childrenAlreadyTraversed;
-        this.rois = rois;
         this.reachedMaxBranchLength = reachedMaxBranchLength;
 
-        Set<String> s = new HashSet<>();
-        s.addAll(Arrays.asList(sinks));
-        this.sinks = s;
+        return this;
+    }
+
+    /**
+     * @return  an immutable set of the given sinks, to be shared by every step of a traversal
+     */
+    static Set<String> toSinkSet(String... sinks) {
+        if (sinks == null || sinks.length == 0) {
+            return Collections.emptySet();
+        }
+
+        return Collections.unmodifiableSet(new HashSet<>(Arrays.asList(sinks)));
     }
 
     public V getCurrentVertex() { return currentVertex; }
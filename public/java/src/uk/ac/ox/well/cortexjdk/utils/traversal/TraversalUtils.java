@@ -119,10 +119,10 @@ public class TraversalUtils {
     */
 
     public static DirectedWeightedPseudograph<CortexVertex, CortexEdge> fillGaps(List<CortexVertex> w, CortexGraph graph, List<CortexLinks> links, Set<Integer> colors) {
-        DirectedWeightedPseudograph<CortexVertex, CortexEdge> gAll = new DirectedWeightedPseudograph<>(CortexEdge.class);
+        DirectedWeightedPseudograph<CortexVertex, CortexEdge> gAll = new KmerIndexedGraph();
 
         for (int c : colors) {
-            DirectedWeightedPseudograph<CortexVertex, CortexEdge> g = new DirectedWeightedPseudograph<>(CortexEdge.class);
+            DirectedWeightedPseudograph<CortexVertex, CortexEdge> g = new KmerIndexedGraph();
             for (int i = 0; i < w.size(); i++) {
                 CortexVertex v1 = w.get(i);
 
@@ -205,7 +205,7 @@ public class TraversalUtils {
     }
 
     public static DirectedWeightedPseudograph<CortexVertex, CortexEdge> fillGaps(DirectedWeightedPseudograph<CortexVertex, CortexEdge> g, CortexGraph graph, List<CortexLinks> links, Set<Integer> colors) {
-        DirectedWeightedPseudograph<CortexVertex, CortexEdge> gFilled = new DirectedWeightedPseudograph<>(CortexEdge.class);
+        DirectedWeightedPseudograph<CortexVertex, CortexEdge> gFilled = new KmerIndexedGraph();
         Graphs.addGraph(gFilled, g);
 
         Set<String> availableVertices = new HashSet<>();
@@ -325,7 +325,7 @@ public class TraversalUtils {
     }
 
     public static DirectedWeightedPseudograph<CortexVertex, CortexEdge> toGraph(List<CortexVertex> walk, Set<Integer> colors) {
-        DirectedWeightedPseudograph<CortexVertex, CortexEdge> g = new DirectedWeightedPseudograph<>(CortexEdge.class);
+        DirectedWeightedPseudograph<CortexVertex, CortexEdge> g = new KmerIndexedGraph();
 
         CortexVertex pv = walk.get(0);
         g.addVertex(pv);
@@ -348,7 +348,7 @@ public class TraversalUtils {
     }
 
     public static DirectedWeightedPseudograph<CortexVertex, CortexEdge> subsetGraph(DirectedWeightedPseudograph<CortexVertex, CortexEdge> g, int color) {
-        DirectedWeightedPseudograph<CortexVertex, CortexEdge> gs = new DirectedWeightedPseudograph<>(CortexEdge.class);
+        DirectedWeightedPseudograph<CortexVertex, CortexEdge> gs = new KmerIndexedGraph();
 
         for (CortexEdge e : g.edgeSet()) {
             if (e.getColor() == color) {
@@ -390,7 +390,7 @@ public class TraversalUtils {
         if (g == null) { return w; }
 
         CortexVertex seed = null;
-        for (CortexVertex v : g.vertexSet()) {
+        for (CortexVertex v : candidates(g, sk)) {
             if (v.getKmerAsString().equals(sk) && v.getCortexRecord() != null && v.getCortexRecord().getCoverage(color) > 0 && (seed == null || v.getCopyIndex() < seed.getCopyIndex())) {
                 seed = v;
             }
@@ -488,7 +488,9 @@ public class TraversalUtils {
     }
 
     public static CortexVertex findVertex(DirectedWeightedPseudograph<CortexVertex, CortexEdge> g, CanonicalKmer ck) {
-        for (CortexVertex v : g.vertexSet()) {
+        Collection<CortexVertex> vs = g instanceof KmerIndexedGraph ? ((KmerIndexedGraph) g).getVertices(ck) : g.vertexSet();
+
+        for (CortexVertex v : vs) {
             if (v.getCanonicalKmer().equals(ck)) {
                 return v;
             }
@@ -498,7 +500,7 @@ public class TraversalUtils {
     }
 
     public static CortexVertex findVertex(DirectedWeightedPseudograph<CortexVertex, CortexEdge> g, String sk) {
-        for (CortexVertex v : g.vertexSet()) {
+        for (CortexVertex v : candidates(g, sk)) {
             if (v.getKmerAsString().equals(sk)) {
                 return v;
             }
@@ -507,6 +509,14 @@ public class TraversalUtils {
         return null;
     }
 
+    /**
+     * @return  the vertices that may have kmer sk: those indexed under it if the graph is a KmerIndexedGraph, or
+     *          otherwise every vertex
+     */
+    private static Collection<CortexVertex> candidates(DirectedWeightedPseudograph<CortexVertex, CortexEdge> g, String sk) {
+        return g instanceof KmerIndexedGraph ? ((KmerIndexedGraph) g).getVertices(sk) : g.vertexSet();
+    }
+
     public static Map<Integer, Set<CortexByteKmer>> getAllPrevKmers(CortexRecord cr, boolean isFlipped) {
         Map<Integer, Set<CortexByteKmer>> prevKmers = new HashMap<>();
 
@@ -0,0 +1,270 @@
+package uk.ac.ox.well.cortexjdk.utils.traversal;
+
+import com.google.common.base.Joiner;
+import uk.ac.ox.well.cortexjdk.utils.exceptions.CortexJDKException;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.DeBruijnGraph;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexRecord;
+import uk.ac.ox.well.cortexjdk.utils.kmer.CanonicalKmer;
+import uk.ac.ox.well.cortexjdk.utils.kmer.CortexByteKmer;
+import uk.ac.ox.well.cortexjdk.utils.sequence.SequenceUtils;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A table of the unitigs (maximal non-branching paths) of a graph, restricted to a set of colors.  Within a unitig,
+ * every kmer but the last has exactly one successor and every kmer but the first exactly one predecessor, so a
+ * traversal entering a unitig at one end can only walk through to the other.  Each unitig is stored with its
+ * sequence, its end kmers, its length in kmers and its mean coverage in every color of the graph.
+ *
+ * The table is a tab-delimited text file, preceded by "##kmerSize=" and "##colors=" lines.
+ */
+public class UnitigIndex {
+    private final int kmerSize;
+    private final Set<Integer> colors;
+
+    private final List<String> sequences = new ArrayList<>();
+    private final List<float[]> coverages = new ArrayList<>();
+    private final Map<String, Integer> byFirstKmer = new HashMap<>();
+    private final Map<String, Integer> byLastKmer = new HashMap<>();
+
+    private final Map<DeBruijnGraph, BitSet> roiUnitigs = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private UnitigIndex(int kmerSize, Collection<Integer> colors) {
+        this.kmerSize = kmerSize;
+        this.colors = Collections.unmodifiableSet(new TreeSet<>(colors));
+    }
+
+    public UnitigIndex(File unitigsFile) {
+        try (BufferedReader br = new BufferedReader(new FileReader(unitigsFile))) {
+            String kmerSizeLine = br.readLine();
+            String colorsLine = br.readLine();
+            String header = br.readLine();
+
+            if (kmerSizeLine == null || !kmerSizeLine.startsWith("##kmerSize=") || colorsLine == null || !colorsLine.startsWith("##colors=") || header == null) {
+                throw new CortexJDKException("File '" + unitigsFile.getAbsolutePath() + "' is not a unitig index");
+            }
+
+            this.kmerSize = Integer.valueOf(kmerSizeLine.substring("##kmerSize=".length()));
+
+            Set<Integer> cs = new TreeSet<>();
+            for (String c : colorsLine.substring("##colors=".length()).split(",")) {
+                cs.add(Integer.valueOf(c));
+            }
+            this.colors = Collections.unmodifiableSet(cs);
+
+            String line;
+            while ((line = br.readLine()) != null) {
+                String[] fields = line.split("\t");
+
+                String[] covs = fields[4].split(",");
+                float[] coverage = new float[covs.length];
+                for (int c = 0; c < covs.length; c++) {
+                    coverage[c] = Float.valueOf(covs[c]);
+                }
+
+                add(fields[5], coverage);
+            }
+        } catch (IOException e) {
+            throw new CortexJDKException("Unable to read unitig index '" + unitigsFile.getAbsolutePath() + "'", e);
+        }
+    }
+
+    /**
+     * Compact the graph's unitigs in the given colors (an edge is present if it is present in any of them).
+     */
+    public static UnitigIndex build(DeBruijnGraph graph, Collection<Integer> colors) {
+        UnitigIndex ui = new UnitigIndex(graph.getKmerSize(), colors);
+
+        KmerNeighbors kn = new KmerNeighbors(graph.getKmerSize(), graph.getNumColors());
+        long[] colorMask = kn.makeColorMask(colors);
+
+        Set<CortexByteKmer> seen = new HashSet<>();
+
+        for (CortexRecord cr : graph) {
+            if (!hasAnyCoverage(cr, colors) || seen.contains(cr.getKmerAsByteKmer())) {
+                continue;
+            }
+
+            seen.add(cr.getKmerAsByteKmer());
+
+            List<CortexRecord> records = new ArrayList<>();
+            records.add(cr);
+
+            StringBuilder sb = new StringBuilder(cr.getKmerAsString());
+
+            // Extend to the right, then (on the reverse strand) to the left
+            for (boolean right : Arrays.asList(true, false)) {
+                byte[] cur = right ? cr.getKmerAsBytes() : SequenceUtils.reverseComplement(cr.getKmerAsBytes());
+                StringBuilder ext = new StringBuilder();
+
+                while (true) {
+                    CortexByteKmer next = uniqueNeighbor(graph, kn, colorMask, cur, true);
+                    if (next == null) { break; }
+
+                    CortexByteKmer back = uniqueNeighbor(graph, kn, colorMask, next.getKmer(), false);
+                    if (back == null || !Arrays.equals(back.getKmer(), cur)) { break; }
+
+                    CortexByteKmer ck = new CortexByteKmer(SequenceUtils.alphanumericallyLowestOrientation(next.getKmer()));
+                    if (seen.contains(ck)) { break; }
+
+                    seen.add(ck);
+                    records.add(graph.findRecord(ck));
+                    ext.append((char) next.getKmer()[next.length() - 1]);
+
+                    cur = next.getKmer();
+                }
+
+                if (right) {
+                    sb.append(ext);
+                } else {
+                    sb.insert(0, SequenceUtils.reverseComplement(ext.toString()));
+                }
+            }
+
+            float[] coverage = new float[graph.getNumColors()];
+            for (CortexRecord r : records) {
+                for (int c = 0; c < coverage.length; c++) {
+                    coverage[c] += r.getCoverage(c);
+                }
+            }
+            for (int c = 0; c < coverage.length; c++) {
+                coverage[c] /= records.size();
+            }
+
+            ui.add(sb.toString(), coverage);
+        }
+
+        return ui;
+    }
+
+    public void write(File out) {
+        try (PrintStream ps = new PrintStream(new BufferedOutputStream(new FileOutputStream(out)))) {
+            ps.println("##kmerSize=" + kmerSize);
+            ps.println("##colors=" + Joiner.on(",").join(colors));
+            ps.println(Joiner.on("\t").join("id", "numKmers", "firstKmer", "lastKmer", "meanCoverage", "sequence"));
+
+            for (int id = 0; id < size(); id++) {
+                List<String> covs = new ArrayList<>();
+                for (float cov : coverages.get(id)) {
+                    covs.add(String.format("%.2f", cov));
+                }
+
+                ps.println(Joiner.on("\t").join(id, getNumKmers(id), getFirstKmer(id), getLastKmer(id), Joiner.on(",").join(covs), getSequence(id)));
+            }
+        } catch (FileNotFoundException e) {
+            throw new CortexJDKException("Unable to write unitig index '" + out.getAbsolutePath() + "'", e);
+        }
+    }
+
+    public int getKmerSize() { return kmerSize; }
+
+    public Set<Integer> getColors() { return colors; }
+
+    public int size() { return sequences.size(); }
+
+    public String getSequence(int id) { return sequences.get(id); }
+
+    public int getNumKmers(int id) { return sequences.get(id).length() - kmerSize + 1; }
+
+    public String getFirstKmer(int id) { return sequences.get(id).substring(0, kmerSize); }
+
+    public String getLastKmer(int id) { return sequences.get(id).substring(sequences.get(id).length() - kmerSize); }
+
+    public float getMeanCoverage(int id, int color) { return coverages.get(id)[color]; }
+
+    /**
+     * Find the unitig a traversal can jump across from a kmer at one of its ends.
+     *
+     * @param sk         the kmer, in the orientation being traversed
+     * @param goForward  the direction of traversal
+     * @return           the unitig's sequence, oriented so that sk is its first kmer (going forward) or its last
+     *                   (going backward), or null if sk is not at the start of a unitig in that direction
+     */
+    public String getJump(String sk, boolean goForward) {
+        Integer id = (goForward ? byFirstKmer : byLastKmer).get(sk);
+        if (id != null) {
+            return sequences.get(id);
+        }
+
+        id = (goForward ? byLastKmer : byFirstKmer).get(SequenceUtils.reverseComplement(sk));
+        if (id != null) {
+            return SequenceUtils.reverseComplement(sequences.get(id));
+        }
+
+        return null;
+    }
+
+    public int getId(String sk, boolean goForward) {
+        Integer id = (goForward ? byFirstKmer : byLastKmer).get(sk);
+        if (id == null) {
+            id = (goForward ? byLastKmer : byFirstKmer).get(SequenceUtils.reverseComplement(sk));
+        }
+
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @return  the ids of the unitigs containing at least one kmer of the given graph (computed once per graph)
+     */
+    public BitSet getUnitigsOverlapping(DeBruijnGraph rois) {
+        return roiUnitigs.computeIfAbsent(rois, r -> {
+            Set<CanonicalKmer> roiKmers = new HashSet<>();
+            for (CortexRecord rr : r) {
+                roiKmers.add(rr.getCanonicalKmer());
+            }
+
+            BitSet overlapping = new BitSet(size());
+            for (int id = 0; id < size(); id++) {
+                String seq = sequences.get(id);
+
+                for (int i = 0; i <= seq.length() - kmerSize; i++) {
+                    if (roiKmers.contains(new CanonicalKmer(seq.substring(i, i + kmerSize)))) {
+                        overlapping.set(id);
+                        break;
+                    }
+                }
+            }
+
+            return overlapping;
+        });
+    }
+
+    private void add(String sequence, float[] coverage) {
+        int id = sequences.size();
+
+        sequences.add(sequence);
+        coverages.add(coverage);
+
+        byFirstKmer.put(sequence.substring(0, kmerSize), id);
+        byLastKmer.put(sequence.substring(sequence.length() - kmerSize), id);
+    }
+
+    private static boolean hasAnyCoverage(CortexRecord cr, Collection<Integer> colors) {
+        for (int c : colors) {
+            if (cr.getCoverage(c) > 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static CortexByteKmer uniqueNeighbor(DeBruijnGraph graph, KmerNeighbors kn, long[] colorMask, byte[] sk, boolean goForward) {
+        CortexRecord cr = graph.findRecord(sk);
+        int n = goForward ? kn.next(sk, cr) : kn.prev(sk, cr);
+
+        int found = -1;
+        for (int i = 0; i < n; i++) {
+            if (kn.hasAnyColor(i, colorMask)) {
+                if (found >= 0) {
+                    return null;
+                }
+
+                found = i;
+            }
+        }
+
+        return found < 0 ? null : kn.getKmer(found);
+    }
+}
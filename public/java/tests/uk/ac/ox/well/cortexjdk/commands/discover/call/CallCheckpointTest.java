@@ -0,0 +1,149 @@
+package uk.ac.ox.well.cortexjdk.commands.discover.call;
+
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.variant.variantcontext.Allele;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.variantcontext.VariantContextBuilder;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import uk.ac.ox.well.cortexjdk.utils.assembler.TempGraphAssembler;
+import uk.ac.ox.well.cortexjdk.utils.exceptions.CortexJDKException;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexGraph;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+
+public class CallCheckpointTest {
+    private final SAMSequenceDictionary ssd = new SAMSequenceDictionary(Arrays.asList(new SAMSequenceRecord("1", 1000), new SAMSequenceRecord("2", 1000)));
+
+    private CortexGraph buildGraph(int kmerSize) {
+        Map<String, Collection<String>> haplotypes = new LinkedHashMap<>();
+        haplotypes.put("kid", Collections.singletonList("AGTTCTGATCTGGGCTATATGCT"));
+        haplotypes.put("mom", Collections.singletonList("AGTTCTGATCTGGGCTATGGCTA"));
+
+        return TempGraphAssembler.buildGraph(haplotypes, kmerSize);
+    }
+
+    private File tempDir() throws IOException {
+        File dir = Files.createTempDirectory("checkpoint").toFile();
+        dir.deleteOnExit();
+
+        return dir;
+    }
+
+    private VariantContext snv(String contig, int pos, String ref, String alt, String background) {
+        return new VariantContextBuilder()
+                .chr(contig)
+                .start(pos)
+                .stop(pos)
+                .alleles(Arrays.asList(Allele.create(ref, true), Allele.create(alt)))
+                .attribute("BACKGROUND", background)
+                .attribute("flankMappingQuality", 60)
+                .attribute("pctIdentity", 0.95)
+                .attribute("flipped", true)
+                .attribute("alt_loci", Arrays.asList("1:10", "2:20"))
+                .attribute("novels", "ACGTA,TTGCA")
+                .make();
+    }
+
+    private void assertSameCall(VariantContext actual, VariantContext expected) {
+        Assert.assertEquals(actual.getContig(), expected.getContig());
+        Assert.assertEquals(actual.getStart(), expected.getStart());
+        Assert.assertEquals(actual.getEnd(), expected.getEnd());
+        Assert.assertEquals(actual.getID(), expected.getID());
+        Assert.assertEquals(actual.getAlleles(), expected.getAlleles());
+        Assert.assertEquals(actual.filtersWereApplied(), expected.filtersWereApplied());
+        Assert.assertEquals(actual.getFilters(), expected.getFilters());
+        Assert.assertEquals(actual.getAttributes(), expected.getAttributes());
+    }
+
+    private void assertRejected(File dir, CortexGraph g, String shard, Collection<String> partitionNames) {
+        try {
+            new CallCheckpoint(dir, g, ssd, shard, partitionNames);
+            Assert.fail("Checkpoint opened for shard " + shard + " and partitions " + partitionNames);
+        } catch (CortexJDKException e) {
+            Assert.assertTrue(e.getMessage().contains("selection of partitions"), e.getMessage());
+        }
+    }
+
+    @Test
+    public void testResume() throws IOException {
+        CortexGraph g = buildGraph(5);
+        File dir = tempDir();
+
+        VariantContext a = snv("2", 10, "A", "G", "mom");
+        VariantContext b = new VariantContextBuilder()
+                .chr("1")
+                .start(50)
+                .stop(80)
+                .id("bnd0")
+                .alleles(Arrays.asList(Allele.create("C", true), Allele.create("<INV>")))
+                .attribute("END", 80)
+                .filter("OVERLAPPING_BREAKPOINT")
+                .make();
+        VariantContext c = snv("2", 10, "A", "T", "dad");
+        VariantContext d = snv("1", 5, "C", "CA", "dad");
+
+        CallCheckpoint cp = new CallCheckpoint(dir, g, ssd);
+        Assert.assertTrue(cp.getCompleted().isEmpty());
+        cp.commit("partition0", Arrays.asList(a, b));
+        cp.close();
+
+        // An interrupted write of the next partition leaves a partial frame and manifest line behind
+        try (FileOutputStream fos = new FileOutputStream(new File(dir, "calls.wal"), true)) {
+            fos.write(new byte[] { 0, 0, 1, 0, 42, 42 });
+        }
+        try (FileOutputStream fos = new FileOutputStream(new File(dir, "manifest.txt"), true)) {
+            fos.write("partition1\t9".getBytes());
+        }
+
+        CallCheckpoint rp = new CallCheckpoint(dir, g, ssd);
+        Assert.assertEquals(rp.getCompleted(), Collections.singleton("partition0"));
+        Assert.assertFalse(new File(dir, "manifest.txt.tmp").exists());
+        Assert.assertTrue(new String(Files.readAllBytes(new File(dir, "manifest.txt").toPath())).endsWith("\t2\n"));
+        Assert.assertTrue(rp.isComplete("partition0"));
+        Assert.assertFalse(rp.isComplete("partition1"));
+        Assert.assertEquals(rp.size(), 2);
+
+        rp.commit("partition1", Arrays.asList(c, d));
+
+        // Sorted by contig and position, keeping the first call at a position
+        List<VariantContext> expected = Arrays.asList(d, b, a);
+        List<VariantContext> actual = new ArrayList<>();
+        rp.forEach(actual::add);
+        rp.close();
+
+        Assert.assertEquals(actual.size(), expected.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSameCall(actual.get(i), expected.get(i));
+        }
+
+        CallCheckpoint fp = new CallCheckpoint(dir, g, ssd);
+        Assert.assertEquals(fp.getCompleted(), new LinkedHashSet<>(Arrays.asList("partition0", "partition1")));
+        Assert.assertEquals(fp.size(), 3);
+        fp.close();
+    }
+
+    @Test(expectedExceptions = CortexJDKException.class)
+    public void testRejectsOtherGraph() throws IOException {
+        File dir = tempDir();
+
+        new CallCheckpoint(dir, buildGraph(5), ssd).close();
+        new CallCheckpoint(dir, buildGraph(7), ssd);
+    }
+
+    @Test
+    public void testRejectsOtherSelection() throws IOException {
+        CortexGraph g = buildGraph(5);
+        File dir = tempDir();
+
+        new CallCheckpoint(dir, g, ssd, "0/2", Arrays.asList("partition1", "partition0")).close();
+        new CallCheckpoint(dir, g, ssd, "0/2", Arrays.asList("partition0", "partition1")).close();
+
+        assertRejected(dir, g, null, null);
+        assertRejected(dir, g, "1/2", Arrays.asList("partition0", "partition1"));
+        assertRejected(dir, g, "0/2", Collections.singletonList("partition0"));
+    }
+}
@@ -0,0 +1,60 @@
+package uk.ac.ox.well.cortexjdk.commands.discover.call;
+
+import org.jgrapht.graph.DirectedWeightedPseudograph;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import uk.ac.ox.well.cortexjdk.utils.assembler.TempGraphAssembler;
+import uk.ac.ox.well.cortexjdk.utils.assembler.TempLinksAssembler;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexGraph;
+import uk.ac.ox.well.cortexjdk.utils.traversal.*;
+
+import java.io.File;
+import java.util.*;
+
+public class CallGapClosingTest {
+    private static final int KMER_SIZE = 11;
+
+    private static final String REF = "GCTAAAGACAATTACATAACATACACGTCAGCACGAAACTTGTTGGCCCAGTGTGAATCGCTTAAGGGTTAAGTAAGTGTGATGCATACGCCTTTACTTGCTGTGTCCACCCCATCGGAC";
+    private static final String INS = "TGGCATTTTTATTACACTCAGAAACAGAAC";
+
+    private DirectedWeightedPseudograph<CortexVertex, CortexEdge> closeGap(boolean withLinks) {
+        // The background is heterozygous for an insertion much more than a kmer long
+        Map<String, Collection<String>> haplotypes = new LinkedHashMap<>();
+        haplotypes.put("mom", Arrays.asList(REF, REF.substring(0, 60) + INS + REF.substring(60)));
+        CortexGraph graph = TempGraphAssembler.buildGraph(haplotypes, KMER_SIZE);
+
+        List<Integer> colors = Collections.singletonList(graph.getColorForSampleName("mom"));
+
+        TraversalEngineFactory tef = new TraversalEngineFactory().traversalColors(colors).graph(graph);
+        if (withLinks) {
+            tef.links(Collections.singletonList(TempLinksAssembler.buildLinks(graph, haplotypes, "mom")));
+        }
+        TraversalEngineConfiguration wc = tef.make().getConfiguration();
+
+        String source = REF.substring(1, 1 + KMER_SIZE);
+        String sink = REF.substring(REF.length() - KMER_SIZE - 1, REF.length() - 1);
+
+        Set<CortexVertex> inEnds = Collections.singleton(new CortexVertexFactory().bases(source).record(graph.findRecord(source)).make());
+        Set<CortexVertex> outEnds = Collections.singleton(new CortexVertexFactory().bases(sink).record(graph.findRecord(sink)).make());
+
+        TraversalReport.Scope scope = new TraversalReport(new File("/dev/null"), -1).scope("partition0", 0, "mom");
+
+        DirectedWeightedPseudograph<CortexVertex, CortexEdge> g = new KmerIndexedGraph();
+        new Call().closeGaps(wc, colors, g, inEnds, outEnds, scope);
+
+        return g;
+    }
+
+    @Test
+    public void testLongerAlleleIsAssembled() {
+        String refKmer = REF.substring(55, 55 + KMER_SIZE);
+        String insKmer = INS.substring(10, 10 + KMER_SIZE);
+
+        for (boolean withLinks : Arrays.asList(false, true)) {
+            DirectedWeightedPseudograph<CortexVertex, CortexEdge> g = closeGap(withLinks);
+
+            Assert.assertNotNull(TraversalUtils.findVertex(g, refKmer), "links=" + withLinks);
+            Assert.assertNotNull(TraversalUtils.findVertex(g, insKmer), "links=" + withLinks);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package uk.ac.ox.well.cortexjdk.commands.discover.call;
+
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+public class CallSortAlignmentsTest {
+    private SAMRecord alignment(SAMFileHeader header, String contig, int start, boolean negative, String cigar, int nm, int mq) {
+        SAMRecord sr = new SAMRecord(header);
+        sr.setReadName("unknown");
+        sr.setReferenceName(contig);
+        sr.setAlignmentStart(start);
+        sr.setReadNegativeStrandFlag(negative);
+        sr.setCigarString(cigar);
+        sr.setMappingQuality(mq);
+        sr.setAttribute("NM", nm);
+
+        return sr;
+    }
+
+    private List<String> names(List<SAMRecord> a) {
+        List<String> names = new ArrayList<>();
+        for (SAMRecord sr : a) {
+            names.add(sr.getReferenceName() + ":" + sr.getAlignmentStart() + (sr.getReadNegativeStrandFlag() ? "-" : "+") + sr.getCigarString() + ":" + sr.getIntegerAttribute("NM") + ":" + sr.getMappingQuality());
+        }
+
+        return names;
+    }
+
+    @Test
+    public void testOrderDoesNotDependOnAlignerOrder() {
+        SAMFileHeader header = new SAMFileHeader();
+        header.setSequenceDictionary(new SAMSequenceDictionary(Arrays.asList(new SAMSequenceRecord("chr1", 1000), new SAMSequenceRecord("chr2", 1000))));
+
+        List<SAMRecord> a = Arrays.asList(
+                alignment(header, "chr1", 100, false, "50M", 0, 60),
+                alignment(header, "chr2", 10, false, "60M", 2, 60),
+                alignment(header, "chr1", 100, false, "50M", 0, 20),
+                alignment(header, "chr2", 10, false, "50M", 0, 60),
+                alignment(header, "chr1", 300, true, "50M", 0, 60),
+                alignment(header, "chr1", 300, false, "50M", 0, 60),
+                alignment(header, "chr1", 200, false, "10S50M", 1, 60)
+        );
+
+        List<String> expected = Arrays.asList(
+                "chr2:10+60M:2:60",
+                "chr1:100+50M:0:60",
+                "chr1:300+50M:0:60",
+                "chr1:300-50M:0:60",
+                "chr2:10+50M:0:60",
+                "chr1:100+50M:0:20",
+                "chr1:200+10S50M:1:60"
+        );
+
+        Random r = new Random(0);
+        for (int i = 0; i < 20; i++) {
+            List<SAMRecord> shuffled = new ArrayList<>(a);
+            Collections.shuffle(shuffled, r);
+
+            Assert.assertEquals(names(Call.sortAlignments(shuffled)), expected);
+        }
+    }
+}
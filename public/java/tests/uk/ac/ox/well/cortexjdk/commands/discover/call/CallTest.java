@@ -0,0 +1,182 @@
+package uk.ac.ox.well.cortexjdk.commands.discover.call;
+
+import htsjdk.samtools.reference.FastaSequenceFile;
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import uk.ac.ox.well.cortexjdk.utils.alignment.reference.IndexedReference;
+import uk.ac.ox.well.cortexjdk.utils.assembler.TempGraphAssembler;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexGraph;
+import uk.ac.ox.well.cortexjdk.utils.kmer.CanonicalKmer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+public class CallTest {
+    private static final int KMER_SIZE = 11;
+
+    private static final String[] REF_CONTIGS = {
+            "TTCTGTATCGTATGCTCTGAATAAAAATCGTGGCCCTATTTCGTATAGT",
+            "GGGCCGCGCCTATTATGGGCTTCTCTCTGAGTACTGGTCATGTAGTTGCTGTAGTCGTAGTGTCGTGGCCCCCCAGT"
+    };
+
+    private CortexGraph graph;
+    private CortexGraph rois;
+    private File partitions;
+    private HashMap<String, IndexedReference> references;
+
+    @BeforeClass
+    public void setup() throws IOException {
+        // The child carries a novel SNV on each of the parents' contigs
+        List<String> kid = Arrays.asList(
+                REF_CONTIGS[0].substring(0, 24) + "G" + REF_CONTIGS[0].substring(25),
+                REF_CONTIGS[1].substring(0, 38) + "T" + REF_CONTIGS[1].substring(39)
+        );
+
+        Map<String, Collection<String>> haplotypes = new LinkedHashMap<>();
+        haplotypes.put("kid", kid);
+        haplotypes.put("mom", Arrays.asList(REF_CONTIGS));
+        haplotypes.put("dad", Arrays.asList(REF_CONTIGS));
+        graph = TempGraphAssembler.buildGraph(haplotypes, KMER_SIZE);
+
+        Set<CanonicalKmer> parental = new HashSet<>();
+        for (String contig : REF_CONTIGS) {
+            for (int i = 0; i <= contig.length() - KMER_SIZE; i++) {
+                parental.add(new CanonicalKmer(contig.substring(i, i + KMER_SIZE)));
+            }
+        }
+
+        Set<String> novels = new LinkedHashSet<>();
+        for (String contig : kid) {
+            for (int i = 0; i <= contig.length() - KMER_SIZE; i++) {
+                if (!parental.contains(new CanonicalKmer(contig.substring(i, i + KMER_SIZE)))) {
+                    novels.add(contig.substring(i, i + KMER_SIZE));
+                }
+            }
+        }
+
+        Map<String, Collection<String>> roiHaplotypes = new LinkedHashMap<>();
+        roiHaplotypes.put("kid", novels);
+        rois = TempGraphAssembler.buildGraph(roiHaplotypes, KMER_SIZE);
+
+        partitions = File.createTempFile("partitions", ".fa");
+        partitions.deleteOnExit();
+        try (PrintStream ps = new PrintStream(partitions)) {
+            for (int i = 0; i < kid.size(); i++) {
+                ps.println(">partition" + i);
+                ps.println(kid.get(i));
+            }
+        }
+
+        File testFa = new File("testdata/two_short_contigs.fa");
+        File tempFa = File.createTempFile("CallTest", ".fa");
+        for (String ext : Arrays.asList("", ".fai", ".dict", ".amb", ".ann", ".bwt", ".pac", ".sa")) {
+            File tempFile = new File(tempFa.getAbsolutePath() + ext);
+            FileUtils.copyFile(new File(testFa.getAbsolutePath() + ext), tempFile);
+            tempFile.deleteOnExit();
+        }
+        IndexedReference.createIndex(tempFa, "mom", "dad").deleteOnExit();
+
+        references = new HashMap<>();
+        references.put("mom", new IndexedReference(tempFa));
+        references.put("dad", new IndexedReference(tempFa));
+    }
+
+    private File out;
+    private File metrics;
+
+    private String call(int numThreads) throws IOException {
+        return call(numThreads, null, null);
+    }
+
+    private String call(int numThreads, File checkpoint, String shard, String... partitionNames) throws IOException {
+        out = File.createTempFile("calls", ".vcf");
+        File accounting = File.createTempFile("calls", ".acct");
+        metrics = File.createTempFile("calls", ".metrics");
+        out.deleteOnExit();
+        accounting.deleteOnExit();
+        metrics.deleteOnExit();
+
+        Call c = new Call();
+        c.GRAPH = graph;
+        c.ROIS = rois;
+        c.PARTITIONS = new FastaSequenceFile(partitions, true);
+        c.BACKGROUNDS = new LinkedHashSet<>(Arrays.asList("mom", "dad"));
+        c.REFERENCES = references;
+        c.NUM_THREADS = numThreads;
+        c.CHECKPOINT = checkpoint;
+        c.SHARD = shard;
+        c.PARTITION_NAMES = partitionNames.length == 0 ? null : new HashSet<>(Arrays.asList(partitionNames));
+        c.out = out;
+        c.metricsOut = metrics;
+
+        try (PrintStream aout = new PrintStream(accounting)) {
+            c.aout = aout;
+            c.execute();
+        }
+
+        return FileUtils.readFileToString(out, StandardCharsets.UTF_8) + FileUtils.readFileToString(accounting, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testParallelCallsMatchSequential() throws IOException {
+        String expected = call(1);
+
+        Assert.assertEquals(call(2), expected);
+        Assert.assertEquals(call(4), expected);
+    }
+
+    @Test
+    public void testResumeFromCheckpoint() throws IOException {
+        String expected = call(1);
+
+        File checkpoint = Files.createTempDirectory("checkpoint").toFile();
+        checkpoint.deleteOnExit();
+
+        // A run that was stopped after logging the first partition...
+        call(1, checkpoint, null);
+        File manifest = new File(checkpoint, "manifest.txt");
+        List<String> lines = Files.readAllLines(manifest.toPath());
+        Files.write(manifest.toPath(), lines.subList(0, 2));
+
+        // ...is resumed without calling it again
+        Assert.assertEquals(call(2, checkpoint, null), expected);
+
+        String report = FileUtils.readFileToString(metrics, StandardCharsets.UTF_8);
+        Assert.assertFalse(report.contains("\tpartition0\t"));
+        Assert.assertTrue(report.contains("\tpartition1\t"));
+    }
+
+    @Test
+    public void testMergedShardsMatchUnsharded() throws IOException {
+        String expected = call(1);
+
+        ArrayList<File> shards = new ArrayList<>();
+        for (String shard : Arrays.asList("1/2", "0/2")) {
+            call(1, null, shard);
+            shards.add(out);
+        }
+
+        File merged = File.createTempFile("merged", ".vcf");
+        File accounting = File.createTempFile("merged", ".acct");
+        merged.deleteOnExit();
+        accounting.deleteOnExit();
+
+        MergeCalls mc = new MergeCalls();
+        mc.CALLS = shards;
+        mc.ROIS = rois;
+
+        try (PrintStream mout = new PrintStream(merged); PrintStream aout = new PrintStream(accounting)) {
+            mc.out = mout;
+            mc.aout = aout;
+            mc.execute();
+        }
+
+        Assert.assertEquals(FileUtils.readFileToString(merged, StandardCharsets.UTF_8) + FileUtils.readFileToString(accounting, StandardCharsets.UTF_8), expected);
+    }
+}
@@ -0,0 +1,122 @@
+package uk.ac.ox.well.cortexjdk.commands.discover.call;
+
+import org.jgrapht.graph.DirectedWeightedPseudograph;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import uk.ac.ox.well.cortexjdk.utils.assembler.TempGraphAssembler;
+import uk.ac.ox.well.cortexjdk.utils.assembler.TempLinksAssembler;
+import uk.ac.ox.well.cortexjdk.utils.exceptions.CortexJDKException;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexGraph;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.links.CortexLinks;
+import uk.ac.ox.well.cortexjdk.utils.stoppingrules.ExplorationStopper;
+import uk.ac.ox.well.cortexjdk.utils.traversal.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+public class PartitionCacheTest {
+    private CortexGraph buildGraph(int kmerSize) {
+        Map<String, Collection<String>> haplotypes = new LinkedHashMap<>();
+        haplotypes.put("kid", Arrays.asList("AGTTCTGATCTGGGCTATATGCT", "AGTTCGAATCTGGGCTATATGCT"));
+        haplotypes.put("mom", Arrays.asList("AGTTCTGATCTGGGCTATGGCTA"));
+
+        return TempGraphAssembler.buildGraph(haplotypes, kmerSize);
+    }
+
+    private List<String> edges(DirectedWeightedPseudograph<CortexVertex, CortexEdge> g) {
+        List<String> es = new ArrayList<>();
+        for (CortexEdge e : g.edgeSet()) {
+            es.add(g.getEdgeSource(e) + " " + g.getEdgeTarget(e) + " " + e.getColor() + " " + e.getWeight());
+        }
+
+        return es;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        CortexGraph cg = buildGraph(5);
+
+        DirectedWeightedPseudograph<CortexVertex, CortexEdge> g = new TraversalEngineFactory()
+                .traversalColors(0)
+                .secondaryColors(1)
+                .stoppingRule(ExplorationStopper.class)
+                .graph(cg)
+                .make()
+                .dfs("CTGGG");
+
+        List<CortexVertex> w = TraversalUtils.toWalk(g, "CTGGG", 0);
+        Map<Integer, List<CortexVertex>> walks = new TreeMap<>();
+        walks.put(0, w);
+
+        List<CortexVertex> single = Collections.singletonList(new CortexVertexFactory().bases("AAAAA").make());
+        walks.put(1, single);
+
+        PartitionCache pc = new PartitionCache(cg);
+        pc.put("partition0", new PartitionCache.Entry(g, walks, Arrays.asList("ACGTACGT", "TTTT")));
+        pc.put("partition1", new PartitionCache.Entry(null, null, null));
+
+        File f = File.createTempFile("partitions", ".cache");
+        f.deleteOnExit();
+        pc.write(f);
+
+        PartitionCache rc = new PartitionCache(f, cg);
+        Assert.assertEquals(rc.keySet(), new LinkedHashSet<>(Arrays.asList("partition0", "partition1")));
+        Assert.assertNull(rc.get("partition2"));
+
+        PartitionCache.Entry e = rc.get("partition0");
+        Assert.assertEquals(new ArrayList<>(e.getGraph().vertexSet()), new ArrayList<>(g.vertexSet()));
+        Assert.assertEquals(edges(e.getGraph()), edges(g));
+        Assert.assertEquals(e.getWalk(0), w);
+        Assert.assertEquals(e.getWalk(1), single);
+        Assert.assertEquals(e.getContigs(), Arrays.asList("ACGTACGT", "TTTT"));
+        Assert.assertNotNull(TraversalUtils.findVertex(e.getGraph(), "CTGGG"));
+
+        PartitionCache.Entry empty = rc.get("partition1");
+        Assert.assertTrue(empty.getGraph().vertexSet().isEmpty());
+        Assert.assertTrue(empty.getWalks().isEmpty());
+        Assert.assertTrue(empty.getContigs().isEmpty());
+    }
+
+    @Test(expectedExceptions = CortexJDKException.class)
+    public void testRejectsOtherGraph() throws IOException {
+        PartitionCache pc = new PartitionCache(buildGraph(5));
+
+        File f = File.createTempFile("partitions", ".cache");
+        f.deleteOnExit();
+        pc.write(f);
+
+        new PartitionCache(f, buildGraph(7));
+    }
+
+    @Test
+    public void testStaleWithOtherLinksOrBudget() throws IOException {
+        CortexGraph cg = buildGraph(5);
+
+        Map<String, Collection<String>> haplotypes = new LinkedHashMap<>();
+        haplotypes.put("kid", Arrays.asList("AGTTCTGATCTGGGCTATATGCT", "AGTTCGAATCTGGGCTATATGCT"));
+        haplotypes.put("mom", Arrays.asList("AGTTCTGATCTGGGCTATGGCTA"));
+        List<CortexLinks> kidLinks = Collections.singletonList(TempLinksAssembler.buildLinks(cg, haplotypes, "kid"));
+        List<CortexLinks> momLinks = Collections.singletonList(TempLinksAssembler.buildLinks(cg, haplotypes, "mom"));
+        TraversalBudget budget = new TraversalBudget(0, 1000, 0, 0);
+
+        PartitionCache pc = new PartitionCache(cg, kidLinks, budget);
+        pc.put("partition0", new PartitionCache.Entry(null, null, Collections.singletonList("ACGT")));
+
+        File f = File.createTempFile("partitions", ".cache");
+        f.deleteOnExit();
+        pc.write(f);
+
+        PartitionCache same = new PartitionCache(f, cg, kidLinks, budget);
+        Assert.assertFalse(same.isStale());
+        Assert.assertEquals(same.get("partition0").getContigs(), Collections.singletonList("ACGT"));
+
+        for (PartitionCache rc : Arrays.asList(
+                new PartitionCache(f, cg),
+                new PartitionCache(f, cg, momLinks, budget),
+                new PartitionCache(f, cg, kidLinks, TraversalBudget.UNLIMITED))) {
+            Assert.assertTrue(rc.isStale());
+            Assert.assertEquals(rc.size(), 0);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package uk.ac.ox.well.cortexjdk.commands.discover.call;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.Assert;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import uk.ac.ox.well.cortexjdk.utils.assembler.TempGraphAssembler;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexGraph;
+import uk.ac.ox.well.cortexjdk.utils.kmer.CanonicalKmer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class PartitionTest {
+    private static final int KMER_SIZE = 11;
+
+    private CortexGraph graph;
+    private CortexGraph rois;
+
+    @BeforeClass
+    public void setup() {
+        Random r = new Random(0);
+        String bases = "ACGT";
+
+        // The child carries novel SNVs at several places on each of the parents' contigs, some close enough to share kmers
+        List<String> parents = new ArrayList<>();
+        List<String> kid = new ArrayList<>();
+        for (int c = 0; c < 3; c++) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 300; i++) {
+                sb.append(bases.charAt(r.nextInt(4)));
+            }
+            parents.add(sb.toString());
+
+            for (int pos : Arrays.asList(40, 46, 120, 200, 260)) {
+                sb.setCharAt(pos, bases.charAt((bases.indexOf(sb.charAt(pos)) + 1 + c) % 4));
+            }
+            kid.add(sb.toString());
+        }
+
+        Map<String, Collection<String>> haplotypes = new LinkedHashMap<>();
+        haplotypes.put("kid", kid);
+        haplotypes.put("mom", parents);
+        haplotypes.put("dad", parents);
+        graph = TempGraphAssembler.buildGraph(haplotypes, KMER_SIZE);
+
+        Set<CanonicalKmer> parental = new HashSet<>();
+        for (String contig : parents) {
+            for (int i = 0; i <= contig.length() - KMER_SIZE; i++) {
+                parental.add(new CanonicalKmer(contig.substring(i, i + KMER_SIZE)));
+            }
+        }
+
+        Set<String> novels = new LinkedHashSet<>();
+        for (String contig : kid) {
+            for (int i = 0; i <= contig.length() - KMER_SIZE; i++) {
+                if (!parental.contains(new CanonicalKmer(contig.substring(i, i + KMER_SIZE)))) {
+                    novels.add(contig.substring(i, i + KMER_SIZE));
+                }
+            }
+        }
+
+        Map<String, Collection<String>> roiHaplotypes = new LinkedHashMap<>();
+        roiHaplotypes.put("kid", novels);
+        rois = TempGraphAssembler.buildGraph(roiHaplotypes, KMER_SIZE);
+    }
+
+    private String partition(int numThreads) throws IOException {
+        File out = File.createTempFile("partitions", ".fa");
+        out.deleteOnExit();
+
+        Partition p = new Partition();
+        p.GRAPH = graph;
+        p.ROIS = rois;
+        p.NUM_THREADS = numThreads;
+
+        try (PrintStream ps = new PrintStream(out)) {
+            p.out = ps;
+            p.execute();
+        }
+
+        return FileUtils.readFileToString(out, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testParallelPartitionsMatchSequential() throws IOException {
+        String expected = partition(1);
+        Assert.assertTrue(expected.startsWith(">partition0 "));
+
+        // Workers claim kmers as their walks finish, so repeat the parallel runs to vary which claims land first
+        for (int numThreads : Arrays.asList(2, 4, 8)) {
+            for (int run = 0; run < 5; run++) {
+                Assert.assertEquals(partition(numThreads), expected, "threads=" + numThreads + " run=" + run);
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package uk.ac.ox.well.cortexjdk.commands.index.links;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import uk.ac.ox.well.cortexjdk.utils.assembler.TempGraphAssembler;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexGraph;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.links.CortexLinks;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.links.CortexLinksIterable;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.links.CortexLinksRecord;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.GZIPOutputStream;
+
+public class PruneLinksTest {
+    private static final int KMER_SIZE = 5;
+    private static final String SAMPLE = "test";
+
+    private File writeLinks(String... records) throws IOException {
+        File f = File.createTempFile("prune", ".ctp.gz");
+        f.deleteOnExit();
+
+        long numLinks = 0, linkBytes = 0;
+        for (String record : records) {
+            String[] lines = record.split("\n");
+            for (int i = 1; i < lines.length; i++) {
+                numLinks++;
+                linkBytes += lines[i].split(" ")[3].length();
+            }
+        }
+
+        JSONObject color = new JSONObject();
+        color.put("colour", 0);
+        color.put("sample", SAMPLE);
+        color.put("total_sequence", 0);
+        color.put("cleaned_tips", false);
+        color.put("cleaned_unitigs", false);
+
+        JSONObject graph = new JSONObject();
+        graph.put("num_colours", 1);
+        graph.put("kmer_size", KMER_SIZE);
+        graph.put("num_kmers_in_graph", 100);
+        graph.put("colours", new JSONArray().put(color));
+
+        JSONObject paths = new JSONObject();
+        paths.put("num_kmers_with_paths", records.length);
+        paths.put("num_paths", numLinks);
+        paths.put("path_bytes", linkBytes);
+
+        JSONObject header = new JSONObject();
+        header.put("file_format", "ctp");
+        header.put("format_version", 4);
+        header.put("file_key", 0);
+        header.put("graph", graph);
+        header.put("paths", paths);
+
+        try (Writer w = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(f)))) {
+            w.write(header.toString(4));
+            w.write("\n\n");
+            for (String record : records) {
+                w.write(record);
+                w.write("\n");
+            }
+            w.write("\n");
+        }
+
+        return f;
+    }
+
+    private File prune(File links, CortexGraph graph, int minCoverage) throws IOException {
+        File out = File.createTempFile("pruned", ".ctp.bgz");
+        out.deleteOnExit();
+        new File(out.getAbsolutePath() + ".idx").deleteOnExit();
+
+        PruneLinks pl = new PruneLinks();
+        pl.LINKS = new CortexLinksIterable(links);
+        pl.GRAPH = graph;
+        pl.MIN_COVERAGE = minCoverage;
+        pl.SOURCE = "pruned";
+        pl.NUM_THREADS = 2;
+        pl.BATCH_SIZE = 1;
+        pl.out = out;
+        pl.execute();
+
+        return out;
+    }
+
+    private Map<String, Set<String>> read(File pruned) {
+        Map<String, Set<String>> records = new TreeMap<>();
+        for (CortexLinksRecord clr : new CortexLinksIterable(pruned)) {
+            Set<String> links = new TreeSet<>();
+            clr.getJunctions().forEach(cjr -> links.add(cjr.toString()));
+
+            records.put(clr.getKmerAsString(), links);
+        }
+
+        return records;
+    }
+
+    @Test
+    public void testCoverageAndPrefixPruning() throws IOException {
+        File links = writeLinks(
+                // ACG is kept and absorbs its prefix AC; T is below coverage; R G has its own orientation
+                "AAAAC 4\nF 3 3 ACG\nF 2 2 AC\nF 1 1 T\nR 1 4 G",
+                // the only link is below coverage, so the record is dropped
+                "AAAAG 1\nF 1 1 A",
+                // A extends to both AC and AG, so it is dropped without crediting either
+                "AAACA 3\nF 2 2 AC\nF 2 2 AG\nF 1 2 A"
+        );
+
+        File pruned = prune(links, null, 2);
+
+        Map<String, Set<String>> expected = new TreeMap<>();
+        expected.put("AAAAC", new TreeSet<>(Arrays.asList("F 3 5 ACG", "R 1 4 G")));
+        expected.put("AAACA", new TreeSet<>(Arrays.asList("F 2 2 AC", "F 2 2 AG")));
+
+        Assert.assertEquals(read(pruned), expected);
+
+        CortexLinksIterable cli = new CortexLinksIterable(pruned);
+        Assert.assertEquals(cli.getNumKmersWithLinks(), 2);
+        Assert.assertEquals(cli.getNumLinks(), 4);
+        Assert.assertEquals(cli.getLinkBytes(), 8);
+        Assert.assertEquals(cli.getNumKmersInGraph(), 100);
+
+        CortexLinks cl = new CortexLinks(pruned);
+        Assert.assertEquals(cl.size(), 2);
+        Assert.assertEquals(cl.getHeader().getNumColors(), 1);
+        Assert.assertEquals(cl.getHeader().getColor(0).getSampleName(), SAMPLE);
+    }
+
+    @Test
+    public void testGraphConsistencyPruning() throws IOException {
+        // The two haplotypes share CATGACGG and then diverge, so GACGG branches to T and A
+        Map<String, Collection<String>> haplotypes = new LinkedHashMap<>();
+        haplotypes.put(SAMPLE, Arrays.asList("CATGACGGTTCAA", "CATGACGGAACTT"));
+        CortexGraph graph = TempGraphAssembler.buildGraph(haplotypes, KMER_SIZE);
+
+        File links = writeLinks(
+                "CATGA 3\nF 1 2 T\nF 1 2 A\nF 1 2 C",
+                "GGGGG 1\nF 1 2 A"
+        );
+
+        File pruned = prune(links, graph, 1);
+
+        Map<String, Set<String>> expected = new TreeMap<>();
+        expected.put("CATGA", new TreeSet<>(Arrays.asList("F 1 2 A", "F 1 2 T")));
+
+        Assert.assertEquals(read(pruned), expected);
+
+        CortexLinksIterable cli = new CortexLinksIterable(pruned);
+        Assert.assertEquals(cli.getNumKmersWithLinks(), 1);
+        Assert.assertEquals(cli.getNumLinks(), 2);
+        Assert.assertEquals(cli.getLinkBytes(), 2);
+    }
+}
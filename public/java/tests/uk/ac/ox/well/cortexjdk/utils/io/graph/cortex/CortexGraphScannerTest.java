@@ -0,0 +1,60 @@
+package uk.ac.ox.well.cortexjdk.utils.io.graph.cortex;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import uk.ac.ox.well.cortexjdk.utils.assembler.TempGraphAssembler;
+
+import java.util.*;
+
+public class CortexGraphScannerTest {
+    private CortexGraph buildGraph() {
+        Random r = new Random(0);
+        StringBuilder kid = new StringBuilder(), mom = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            kid.append("ACGT".charAt(r.nextInt(4)));
+            mom.append("ACGT".charAt(r.nextInt(4)));
+        }
+
+        Map<String, Collection<String>> haplotypes = new LinkedHashMap<>();
+        haplotypes.put("kid", Collections.singletonList(kid.toString()));
+        haplotypes.put("mom", Collections.singletonList(mom.toString() + kid.substring(0, 250)));
+
+        return TempGraphAssembler.buildGraph(haplotypes, 11);
+    }
+
+    @Test
+    public void testScanMatchesSequential() {
+        CortexGraph g = buildGraph();
+
+        List<String> expected = new ArrayList<>();
+        for (CortexRecord cr : g) {
+            if (cr.getCoverage(0) > 0 && cr.getCoverage(1) == 0) {
+                expected.add(cr.getKmerAsString());
+            }
+        }
+        Assert.assertFalse(expected.isEmpty());
+
+        for (int numThreads : Arrays.asList(1, 3)) {
+            for (long rangeSize : Arrays.asList(7L, 100L, g.getNumRecords() + 1)) {
+                List<String> actual = new ArrayList<>();
+                List<CortexGraphScanner.RangeStats> reported = new ArrayList<>();
+
+                List<CortexGraphScanner.RangeStats> stats = new CortexGraphScanner(g, numThreads, rangeSize)
+                        .scan(cr -> cr.getCoverage(0) > 0 && cr.getCoverage(1) == 0 ? cr.getKmerAsString() : null, actual::add, reported::add);
+
+                Assert.assertEquals(actual, expected);
+                Assert.assertEquals(reported, stats);
+                Assert.assertEquals(stats.size(), (g.getNumRecords() + rangeSize - 1) / rangeSize);
+
+                long next = 0, numEmitted = 0;
+                for (CortexGraphScanner.RangeStats rs : stats) {
+                    Assert.assertEquals(rs.getFirst(), next);
+                    next = rs.getEnd();
+                    numEmitted += rs.getNumEmitted();
+                }
+                Assert.assertEquals(next, g.getNumRecords());
+                Assert.assertEquals(numEmitted, expected.size());
+            }
+        }
+    }
+}
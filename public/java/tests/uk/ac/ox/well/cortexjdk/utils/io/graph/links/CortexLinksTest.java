@@ -1,17 +1,19 @@
 package uk.ac.ox.well.cortexjdk.utils.io.graph.links;
 
+import org.json.JSONArray;
+import org.json.JSONObject;
 import org.testng.Assert;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 import uk.ac.ox.well.cortexjdk.utils.assembler.TempGraphAssembler;
 import uk.ac.ox.well.cortexjdk.utils.assembler.TempLinksAssembler;
+import uk.ac.ox.well.cortexjdk.utils.exceptions.CortexJDKException;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.ConnectivityAnnotations;
 import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexGraph;
 
-import java.io.File;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.io.*;
+import java.util.*;
+import java.util.zip.GZIPOutputStream;
 
 public class CortexLinksTest {
     @DataProvider(name = "constructLinkData")
@@ -70,4 +72,218 @@ public class CortexLinksTest {
         Assert.assertEquals(cprLast1, cprLast2);
         Assert.assertNotEquals(cprFirst1, cprLast1);
     }
+
+    @Test(dataProvider = "constructLinkData")
+    public void testPipelinedIteration(File linksFile) {
+        List<CortexLinksRecord> expected = new ArrayList<>();
+        for (CortexLinksRecord cpr : new CortexLinksIterable(linksFile)) {
+            expected.add(cpr);
+        }
+
+        CortexLinksIterable ctp = new CortexLinksIterable(linksFile, 4);
+        for (int i = 0; i < 2; i++) {
+            List<CortexLinksRecord> actual = new ArrayList<>();
+            for (CortexLinksRecord cpr : ctp) {
+                actual.add(cpr);
+            }
+
+            Assert.assertEquals(actual, expected);
+        }
+    }
+
+    @Test(dataProvider = "constructLinkData")
+    public void testMapRoundTrip(File linksFile) {
+        CortexLinksMap clm = new CortexLinksMap(linksFile, 1);
+
+        int numRecords = 0;
+        for (CortexLinksRecord cpr : new CortexLinksIterable(linksFile)) {
+            Assert.assertTrue(clm.containsKey(cpr.getKmer()));
+            Assert.assertEquals(clm.get(cpr.getKmerAsString()), cpr);
+            numRecords++;
+        }
+
+        Assert.assertEquals(clm.size(), numRecords);
+        Assert.assertFalse(clm.containsKey("AAAAA"));
+    }
+
+    @Test(dataProvider = "constructLinkData")
+    public void testIndexedWriterDeduplicatesKmers(File linksFile) throws IOException {
+        CortexLinksIterable cli = new CortexLinksIterable(linksFile);
+
+        List<CortexLinksRecord> records = new ArrayList<>();
+        for (CortexLinksRecord clr : cli) {
+            records.add(clr);
+        }
+        Assert.assertTrue(records.size() > 1);
+
+        // The first kmer is written again at the end, with the second record's links
+        CortexLinksRecord repeat = new CortexLinksRecord(records.get(0).getKmerAsString(), records.get(1).getJunctions());
+
+        File bgz = File.createTempFile("dedup", ".ctp.bgz");
+        bgz.deleteOnExit();
+        new File(bgz.getAbsolutePath() + ".idx").deleteOnExit();
+
+        CortexLinksIndexedWriter writer = new CortexLinksIndexedWriter(bgz, cli.getKmerSize(), 2, 2);
+        writer.setJSONHeader(cli.getJSONHeader());
+        writer.setComments(cli.getComments());
+        writer.setSampleNames(Collections.singletonList(cli.getColor(0).getSampleName()));
+        for (CortexLinksRecord clr : records) {
+            writer.addRecords(() -> Collections.singletonList(clr));
+        }
+        writer.addRecords(() -> Collections.singletonList(repeat));
+        writer.close();
+
+        Assert.assertEquals(writer.getNumRecords(), records.size() + 1);
+
+        CortexLinks l = new CortexLinks(bgz);
+        Assert.assertEquals(l.size(), records.size());
+        Assert.assertEquals(lines(l.get(repeat.getKmerAsString())), lines(repeat));
+        for (int i = 1; i < records.size(); i++) {
+            Assert.assertEquals(lines(l.get(records.get(i).getKmerAsString())), lines(records.get(i)));
+        }
+    }
+
+    private Set<String> lines(CortexLinksRecord clr) {
+        return new HashSet<>(Arrays.asList(clr.toString().split("\n")));
+    }
+
+    @Test
+    public void testMapTableCapacity() {
+        Assert.assertEquals(CortexLinksMap.tableCapacity(0, 1), 16);
+        Assert.assertEquals(CortexLinksMap.tableCapacity(1000, 1), 2048);
+        Assert.assertEquals(CortexLinksMap.tableCapacity(700000000L, 1), 1 << 30);
+        Assert.assertEquals(CortexLinksMap.tableCapacity(350000000L, 2), 1 << 29);
+    }
+
+    @Test(expectedExceptions = CortexJDKException.class)
+    public void testMapTableCapacityOverLimit() {
+        CortexLinksMap.tableCapacity(800000000L, 1);
+    }
+
+    @Test
+    public void testMergedLinks() throws IOException {
+        Map<String, Collection<String>> haplotypes = new LinkedHashMap<>();
+        haplotypes.put("mom", Collections.singletonList("ACTGATTTCGATGCGATGCGATGCCACGGTGG"));
+        haplotypes.put("dad", Collections.singletonList("ACTGATTTCGATGCTATGCGATGCAACGGTGG"));
+
+        CortexGraph g = TempGraphAssembler.buildGraph(haplotypes, 5);
+
+        List<String> samples = Arrays.asList("mom", "dad");
+        List<CortexLinksIterable> inputs = new ArrayList<>();
+
+        File merged = File.createTempFile("merged", ".ctp.bgz");
+        merged.deleteOnExit();
+        new File(merged.getAbsolutePath() + ".idx").deleteOnExit();
+
+        CortexLinksMerger clm = new CortexLinksMerger(merged, 2, 3);
+        clm.setRecordsPerPartition(2);
+        for (String sample : samples) {
+            CortexLinksIterable cli = new CortexLinksIterable(TempLinksAssembler.buildLinks(g, haplotypes, sample).getFile());
+            inputs.add(cli);
+            clm.add(cli, sample + "_reads");
+        }
+        clm.merge();
+
+        CortexLinks l = new CortexLinks(merged);
+        Assert.assertEquals(l.getHeader().getNumColors(), 2);
+
+        Set<String> kmers = new HashSet<>();
+        for (int c = 0; c < samples.size(); c++) {
+            Assert.assertEquals(l.getHeader().getSampleNameForColor(c), samples.get(c));
+            Assert.assertEquals(l.getSource(c), samples.get(c) + "_reads");
+
+            for (CortexLinksRecord cpr : inputs.get(c)) {
+                kmers.add(cpr.getKmerAsString());
+
+                Set<String> expected = new HashSet<>();
+                for (CortexJunctionsRecord cjr : cpr.getJunctions()) {
+                    expected.add(cjr.isForward() + " " + cjr.getJunctions());
+                }
+
+                Set<String> actual = new HashSet<>();
+                for (CortexJunctionsRecord cjr : l.get(cpr.getKmerAsString()).getJunctions()) {
+                    if (cjr.getCoverage(c) > 0) {
+                        actual.add(cjr.isForward() + " " + cjr.getJunctions());
+                    }
+                }
+
+                Assert.assertEquals(actual, expected);
+            }
+        }
+
+        Assert.assertEquals(l.size(), kmers.size());
+        Assert.assertEquals(clm.getNumRecords(), kmers.size());
+    }
+
+    private File writeSingleSampleLinks(String sample, String... records) throws IOException {
+        File f = File.createTempFile(sample, ".ctp.gz");
+        f.deleteOnExit();
+
+        JSONObject color = new JSONObject();
+        color.put("colour", 0);
+        color.put("sample", sample);
+        color.put("total_sequence", 0);
+        color.put("cleaned_tips", false);
+        color.put("cleaned_unitigs", false);
+
+        JSONObject graph = new JSONObject();
+        graph.put("num_colours", 1);
+        graph.put("kmer_size", 5);
+        graph.put("num_kmers_in_graph", 10);
+        graph.put("colours", new JSONArray().put(color));
+
+        JSONObject paths = new JSONObject();
+        paths.put("num_kmers_with_paths", records.length);
+        paths.put("num_paths", 0);
+        paths.put("path_bytes", 0);
+
+        JSONObject header = new JSONObject();
+        header.put("file_format", "ctp");
+        header.put("format_version", 4);
+        header.put("file_key", 0);
+        header.put("graph", graph);
+        header.put("paths", paths);
+
+        try (Writer w = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(f)))) {
+            w.write(header.toString(4));
+            w.write("\n\n");
+            for (String record : records) {
+                w.write(record);
+                w.write("\n");
+            }
+            w.write("\n");
+        }
+
+        return f;
+    }
+
+    @Test
+    public void testMergedLinksKeepCoverageAndMembership() throws IOException {
+        File merged = File.createTempFile("merged", ".ctp.bgz");
+        merged.deleteOnExit();
+        new File(merged.getAbsolutePath() + ".idx").deleteOnExit();
+
+        // mom's link A has zero coverage, but she still carries it
+        CortexLinksMerger clm = new CortexLinksMerger(merged, 1, 10);
+        clm.add(new CortexLinksIterable(writeSingleSampleLinks("mom", "AAAAC 2\nF 1 0 A\nF 1 3 C")), "mom_reads");
+        clm.add(new CortexLinksIterable(writeSingleSampleLinks("dad", "AAAAC 1\nF 1 2 A")), "dad_reads");
+        clm.merge();
+
+        for (ConnectivityAnnotations l : Arrays.asList(new CortexLinks(merged), new CortexLinksMap(merged))) {
+            Map<String, CortexJunctionsRecord> links = new HashMap<>();
+            for (CortexJunctionsRecord cjr : l.get("AAAAC").getJunctions()) {
+                links.put(cjr.getJunctions(), cjr);
+            }
+
+            Assert.assertEquals(links.size(), 2);
+
+            Assert.assertEquals(links.get("A").getCoverages(), new int[] { 0, 2 });
+            Assert.assertTrue(links.get("A").isMember(0));
+            Assert.assertTrue(links.get("A").isMember(1));
+
+            Assert.assertEquals(links.get("C").getCoverages(), new int[] { 3, 0 });
+            Assert.assertTrue(links.get("C").isMember(0));
+            Assert.assertFalse(links.get("C").isMember(1));
+        }
+    }
 }
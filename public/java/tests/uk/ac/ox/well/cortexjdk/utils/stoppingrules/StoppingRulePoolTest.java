@@ -0,0 +1,56 @@
+package uk.ac.ox.well.cortexjdk.utils.stoppingrules;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import uk.ac.ox.well.cortexjdk.utils.assembler.TempGraphAssembler;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexGraph;
+import uk.ac.ox.well.cortexjdk.utils.traversal.CortexEdge;
+import uk.ac.ox.well.cortexjdk.utils.traversal.CortexVertex;
+import uk.ac.ox.well.cortexjdk.utils.traversal.CortexVertexFactory;
+import uk.ac.ox.well.cortexjdk.utils.traversal.TraversalState;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class StoppingRulePoolTest {
+    @Test
+    public void testReleasedRulesAreResetAndReused() throws InterruptedException {
+        Map<String, Collection<String>> haplotypes = new LinkedHashMap<>();
+        haplotypes.put("test", Collections.singletonList("ACTGATTTCGATGCGATGCGATGCCACGGTGG"));
+        CortexGraph g = TempGraphAssembler.buildGraph(haplotypes, 5);
+
+        CortexVertex cv = new CortexVertexFactory().bases("ACTGA").record(g.findRecord("ACTGA")).make();
+        TraversalState<CortexVertex> ts = new TraversalState<>(cv, true, Collections.singleton(0), Collections.emptySet(), 0, 0, 0, 1, 0, false, false, null);
+
+        StoppingRulePool pool = StoppingRulePool.get();
+
+        // DustStopper fails after a kmer's length of kmers that aren't low complexity
+        TraversalStoppingRule<CortexVertex, CortexEdge> rule = pool.acquire(DustStopper.class);
+        for (int i = 0; i < 4; i++) {
+            Assert.assertFalse(rule.hasTraversalFailed(ts));
+        }
+        Assert.assertTrue(rule.hasTraversalFailed(ts));
+        Assert.assertFalse(rule.keepGoing(ts));
+        Assert.assertTrue(rule.traversalFailed());
+
+        pool.release(rule);
+
+        TraversalStoppingRule<CortexVertex, CortexEdge> reused = pool.acquire(DustStopper.class);
+        Assert.assertSame(reused, rule);
+        Assert.assertFalse(reused.traversalFailed());
+        Assert.assertFalse(reused.hasTraversalFailed(ts));
+
+        // A rule in use is never handed out twice, and other threads have their own pools
+        Assert.assertNotSame(pool.acquire(DustStopper.class), reused);
+
+        pool.release(reused);
+
+        AtomicReference<TraversalStoppingRule<CortexVertex, CortexEdge>> other = new AtomicReference<>();
+        Thread t = new Thread(() -> other.set(StoppingRulePool.get().acquire(DustStopper.class)));
+        t.start();
+        t.join();
+
+        Assert.assertNotSame(other.get(), reused);
+        Assert.assertSame(pool.acquire(DustStopper.class), reused);
+    }
+}
@@ -0,0 +1,114 @@
+package uk.ac.ox.well.cortexjdk.utils.traversal;
+
+import org.jgrapht.DirectedGraph;
+import org.jgrapht.graph.DirectedWeightedPseudograph;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import uk.ac.ox.well.cortexjdk.utils.assembler.TempGraphAssembler;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexGraph;
+import uk.ac.ox.well.cortexjdk.utils.kmer.CortexByteKmer;
+import uk.ac.ox.well.cortexjdk.utils.stoppingrules.ExplorationStopper;
+
+import java.util.*;
+
+public class CortexSubgraphTest {
+    @Test
+    public void testViewMatchesGraph() {
+        Map<String, Collection<String>> haplotypes = new LinkedHashMap<>();
+        haplotypes.put("all", Arrays.asList("AGTTCTGATCTGGGCTATATGCT", "AGTTCGAATCTGGGCTATATGCT", "AGTTCTGATCTGGGCTATGGCTA"));
+        CortexGraph cg = TempGraphAssembler.buildGraph(haplotypes, 5);
+
+        DirectedWeightedPseudograph<CortexVertex, CortexEdge> g = new TraversalEngineFactory()
+                .traversalColors(0)
+                .stoppingRule(ExplorationStopper.class)
+                .graph(cg)
+                .make()
+                .dfs("CTGGG");
+
+        CortexSubgraph sg = new CortexSubgraph(cg);
+        sg.addGraph(g);
+
+        DirectedGraph<CortexVertex, CortexEdge> view = sg.asDirectedGraph();
+
+        Assert.assertEquals(sg.numVertices(), g.vertexSet().size());
+        Assert.assertEquals(new HashSet<>(view.vertexSet()), g.vertexSet());
+        Assert.assertEquals(view.edgeSet().size(), g.edgeSet().size());
+
+        for (CortexVertex v : g.vertexSet()) {
+            Assert.assertTrue(view.containsVertex(v));
+            Assert.assertEquals(view.inDegreeOf(v), g.inDegreeOf(v));
+            Assert.assertEquals(view.outDegreeOf(v), g.outDegreeOf(v));
+
+            for (CortexEdge e : view.outgoingEdgesOf(v)) {
+                Assert.assertEquals(view.getEdgeSource(e), v);
+                Assert.assertTrue(g.containsEdge(v, view.getEdgeTarget(e)));
+            }
+        }
+
+        Assert.assertEquals(TraversalEngineGoldenTest.render(sg.toGraph()), TraversalEngineGoldenTest.render(g));
+    }
+
+    @Test
+    public void testMergeAndLookup() {
+        CortexSubgraph a = new CortexSubgraph(5, 2);
+        CortexSubgraph b = new CortexSubgraph(5, 2);
+
+        CortexVertex v0 = new CortexVertexFactory().bases("ACGTA").make();
+        CortexVertex v1 = new CortexVertexFactory().bases("CGTAC").make();
+        CortexVertex v1copy = new CortexVertexFactory().bases("CGTAC").copyIndex(1).make();
+        CortexVertex v2 = new CortexVertexFactory().bases("GTACC").make();
+
+        a.addEdge(a.addVertex(v0), a.addVertex(v1), 0, 1.0);
+        b.addEdge(b.addVertex(v0), b.addVertex(v1), 1, 1.0);
+        b.addEdge(b.addVertex(v1), b.addVertex(v2), 1, 1.0);
+        b.addEdge(b.addVertex(v0), b.addVertex(v1copy), 1, 1.0);
+
+        a.addGraph(b);
+
+        Assert.assertEquals(a.numVertices(), 4);
+        Assert.assertEquals(a.numEdges(), 3);
+
+        int e = a.getEdge(a.indexOf(v0), a.indexOf(v1));
+        Assert.assertTrue(a.hasColor(e, 0));
+        Assert.assertTrue(a.hasColor(e, 1));
+        Assert.assertEquals(a.getColors(e), new int[] { 0, 1 });
+        Assert.assertEquals(a.getEdge(a.indexOf(v1), a.indexOf(v0)), -1);
+
+        int first = a.indexOf(new CortexByteKmer("CGTAC"));
+        Assert.assertEquals(a.getCopyIndex(first), 0);
+        Assert.assertEquals(a.getCopyIndex(a.nextWithKmer(first)), 1);
+        Assert.assertEquals(a.nextWithKmer(a.nextWithKmer(first)), -1);
+        Assert.assertEquals(a.indexOf(new CortexByteKmer("TTTTT")), -1);
+
+        Assert.assertEquals(a.outDegree(a.indexOf(v0)), 2);
+        Assert.assertEquals(a.inDegree(a.indexOf(v1)), 1);
+        Assert.assertEquals(a.getVertex(a.indexOf(v2)), v2);
+        Assert.assertEquals(a.asDirectedGraph().edgeSet().size(), 4);
+    }
+
+    @Test
+    public void testReindexedMergeKeepsRecords() {
+        Map<String, Collection<String>> haplotypes = new LinkedHashMap<>();
+        haplotypes.put("all", Collections.singletonList("ACGTACCA"));
+        CortexGraph cg = TempGraphAssembler.buildGraph(haplotypes, 5);
+
+        CortexVertex v0 = new CortexVertexFactory().bases("ACGTA").record(cg.findRecord("ACGTA")).make();
+        CortexVertex v1 = new CortexVertexFactory().bases("CGTAC").record(cg.findRecord("CGTAC")).make();
+        CortexVertex v1indexed = new CortexVertexFactory().bases("CGTAC").record(cg.findRecord("CGTAC")).index(1).make();
+
+        CortexSubgraph o = new CortexSubgraph(5, 1);
+        o.addEdge(o.addVertex(v0), o.addVertex(v1), 0, 1.0);
+        o.addEdge(o.addVertex(v0), o.addVertex(v1indexed), 0, 1.0);
+
+        // No parent graph to look records up in, so they can only come from the vertices themselves
+        CortexSubgraph m = new CortexSubgraph(5, 1);
+        m.addGraph(o, o.indexOf(v0), 1);
+
+        Assert.assertEquals(m.numVertices(), 2);
+        Assert.assertEquals(m.numEdges(), 1);
+        Assert.assertEquals(m.getVertex(m.indexOf(v0)), v0);
+        Assert.assertEquals(m.getVertex(m.indexOf(v1indexed)), v1indexed);
+        Assert.assertEquals(m.indexOf(v1), -1);
+        Assert.assertNotNull(m.getRecord(m.indexOf(v1indexed)));
+    }
+}
@@ -0,0 +1,71 @@
+package uk.ac.ox.well.cortexjdk.utils.traversal;
+
+import org.jgrapht.graph.DirectedWeightedPseudograph;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import uk.ac.ox.well.cortexjdk.utils.assembler.TempGraphAssembler;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexGraph;
+import uk.ac.ox.well.cortexjdk.utils.stoppingrules.ExplorationStopper;
+
+import java.util.*;
+
+public class KmerIndexedGraphTest {
+    @Test
+    public void testLookupsMatchScan() {
+        Map<String, Collection<String>> haplotypes = new LinkedHashMap<>();
+        haplotypes.put("all", Arrays.asList("AGTTCTGATCTGGGCTATATGCT", "AGTTCGAATCTGGGCTATATGCT", "AGTTCTGATCTGGGCTATGGCTA"));
+        CortexGraph cg = TempGraphAssembler.buildGraph(haplotypes, 5);
+
+        DirectedWeightedPseudograph<CortexVertex, CortexEdge> g = new TraversalEngineFactory()
+                .traversalColors(0)
+                .stoppingRule(ExplorationStopper.class)
+                .graph(cg)
+                .make()
+                .dfs("CTGGG");
+
+        Assert.assertTrue(g instanceof KmerIndexedGraph);
+
+        DirectedWeightedPseudograph<CortexVertex, CortexEdge> plain = new DirectedWeightedPseudograph<>(CortexEdge.class);
+        g.vertexSet().forEach(plain::addVertex);
+        g.edgeSet().forEach(e -> plain.addEdge(g.getEdgeSource(e), g.getEdgeTarget(e), e));
+
+        for (CortexVertex v : g.vertexSet()) {
+            String sk = v.getKmerAsString();
+
+            Assert.assertEquals(TraversalUtils.findVertex(g, sk), TraversalUtils.findVertex(plain, sk));
+            Assert.assertEquals(TraversalUtils.findVertex(g, v.getCanonicalKmer()), TraversalUtils.findVertex(plain, v.getCanonicalKmer()));
+            Assert.assertEquals(TraversalUtils.toWalk(g, sk, 0), TraversalUtils.toWalk(plain, sk, 0));
+        }
+
+        Assert.assertNull(TraversalUtils.findVertex(g, "AAAAA"));
+    }
+
+    @Test
+    public void testCopiesAndRemoval() {
+        KmerIndexedGraph g = new KmerIndexedGraph();
+
+        CortexVertex v0 = new CortexVertexFactory().bases("ACGTT").make();
+        CortexVertex v1 = new CortexVertexFactory().bases("ACGTT").copyIndex(1).make();
+        CortexVertex rc = new CortexVertexFactory().bases("AACGT").make();
+
+        g.addVertex(v0);
+        g.addVertex(v1);
+        g.addVertex(rc);
+        g.addVertex(v0);
+
+        Assert.assertEquals(g.getVertices("ACGTT"), Arrays.asList(v0, v1, rc));
+        Assert.assertEquals(TraversalUtils.findVertex(g, "ACGTT"), v0);
+        Assert.assertEquals(TraversalUtils.findVertex(g, "AACGT"), rc);
+
+        KmerIndexedGraph c = (KmerIndexedGraph) g.clone();
+
+        g.removeVertex(v0);
+        Assert.assertEquals(TraversalUtils.findVertex(g, "ACGTT"), v1);
+
+        g.removeAllVertices(new HashSet<>(Arrays.asList(v1, rc)));
+        Assert.assertTrue(g.getVertices("ACGTT").isEmpty());
+        Assert.assertNull(TraversalUtils.findVertex(g, "AACGT"));
+
+        Assert.assertEquals(c.getVertices("AACGT"), Arrays.asList(v0, v1, rc));
+    }
+}
@@ -0,0 +1,59 @@
+package uk.ac.ox.well.cortexjdk.utils.traversal;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import uk.ac.ox.well.cortexjdk.utils.assembler.TempGraphAssembler;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexGraph;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexRecord;
+import uk.ac.ox.well.cortexjdk.utils.kmer.CortexByteKmer;
+import uk.ac.ox.well.cortexjdk.utils.sequence.SequenceUtils;
+
+import java.util.*;
+
+public class KmerNeighborsTest {
+    @Test
+    public void testMatchesPerColorNeighbors() {
+        Map<String, Collection<String>> haplotypes = new LinkedHashMap<>();
+        haplotypes.put("mom", Arrays.asList("ACTGATTTCGATGCGATGCGATGCCACGGTGG", "GTGTGCTAGGTCTATAGTTATAGGCGCG"));
+        haplotypes.put("dad", Arrays.asList("ACTGATTTCGATGCTATGCGATGCAACGGTGG", "GTGTGCTAGGTCTCTAGTTATAGGCGCG"));
+        haplotypes.put("kid", Arrays.asList("ACTGATTTCGATGCGATGCGATGCAACGGTGG", "CGCGCCTATAACTAGAGACCTAGCACAC"));
+
+        CortexGraph g = TempGraphAssembler.buildGraph(haplotypes, 5);
+        KmerNeighbors kn = new KmerNeighbors(g.getKmerSize(), g.getNumColors());
+
+        int numChecked = 0;
+        for (CortexRecord cr : g) {
+            for (boolean isFlipped : Arrays.asList(false, true)) {
+                byte[] sk = isFlipped ? SequenceUtils.reverseComplement(cr.getKmerAsBytes()) : cr.getKmerAsBytes();
+
+                Assert.assertEquals(KmerNeighbors.isFlipped(sk), isFlipped);
+
+                kn.next(sk, cr);
+                Assert.assertEquals(byColor(kn, g.getNumColors()), TraversalUtils.getAllNextKmers(cr, isFlipped));
+
+                kn.prev(sk, cr);
+                Assert.assertEquals(byColor(kn, g.getNumColors()), TraversalUtils.getAllPrevKmers(cr, isFlipped));
+
+                numChecked++;
+            }
+        }
+
+        Assert.assertTrue(numChecked > 0);
+        Assert.assertEquals(kn.next("ACGTA".getBytes(), null), 0);
+    }
+
+    private Map<Integer, Set<CortexByteKmer>> byColor(KmerNeighbors kn, int numColors) {
+        Map<Integer, Set<CortexByteKmer>> kmers = new HashMap<>();
+        for (int c = 0; c < numColors; c++) {
+            kmers.put(c, new HashSet<>());
+
+            for (int i = 0; i < kn.size(); i++) {
+                if (kn.hasColor(i, c)) {
+                    kmers.get(c).add(kn.getKmer(i));
+                }
+            }
+        }
+
+        return kmers;
+    }
+}
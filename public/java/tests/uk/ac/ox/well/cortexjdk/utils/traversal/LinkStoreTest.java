@@ -0,0 +1,329 @@
+package uk.ac.ox.well.cortexjdk.utils.traversal;
+
+import org.apache.commons.math3.util.Pair;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.links.CortexJunctionsRecord;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.links.CortexLinksRecord;
+import uk.ac.ox.well.cortexjdk.utils.kmer.CortexByteKmer;
+import uk.ac.ox.well.cortexjdk.utils.sequence.SequenceUtils;
+
+import java.util.*;
+
+public class LinkStoreTest {
+    private static final String KMER = "ACCGTAGGA";
+    private static final String[] SOURCES = { "s1", "s2", "s3" };
+
+    @Test
+    public void testSingleLinkIsFollowedToTheEnd() {
+        LinkStore ls = new LinkStore();
+
+        CortexLinksRecord clr = new CortexLinksRecord(KMER, Collections.singletonList(junctions(true, "ACG")));
+        ls.add(new CortexByteKmer(KMER.getBytes()), clr, true, "s1");
+
+        Assert.assertEquals(ls.numNewPaths(), 1);
+        ls.incrementAges();
+        Assert.assertEquals(ls.numNewPaths(), 0);
+
+        Assert.assertEquals(ls.getNextJunctionChoice().getFirst(), "A");
+        Assert.assertEquals(ls.getNextJunctionChoice().getFirst(), "C");
+
+        Pair<String, Set<String>> last = ls.getNextJunctionChoice();
+        Assert.assertEquals(last.getFirst(), "G");
+        Assert.assertEquals(last.getSecond(), Collections.singleton("s1"));
+        Assert.assertFalse(ls.isActive());
+    }
+
+    @Test
+    public void testReverseLinksAreComplemented() {
+        LinkStore ls = new LinkStore();
+
+        CortexLinksRecord clr = new CortexLinksRecord(KMER, Collections.singletonList(junctions(true, "AC")));
+        ls.add(new CortexByteKmer(SequenceUtils.reverseComplement(KMER).getBytes()), clr, false, "s1");
+
+        Assert.assertEquals(ls.getNextJunctionChoice().getFirst(), "T");
+        Assert.assertEquals(ls.getNextJunctionChoice().getFirst(), "G");
+    }
+
+    @Test
+    public void testDisagreeingOldestLinksMakeNoChoice() {
+        LinkStore ls = new LinkStore();
+
+        CortexLinksRecord clr = new CortexLinksRecord(KMER, Arrays.asList(junctions(true, "AC"), junctions(true, "GC")));
+        ls.add(new CortexByteKmer(KMER.getBytes()), clr, true, "s1");
+
+        Assert.assertNull(ls.getNextJunctionChoice().getFirst());
+        Assert.assertEquals(ls.size(), 2);
+    }
+
+    @Test
+    public void testRepeatedJunctionListsAcrossCohorts() {
+        // The same junction list picked up again further along a repeat, as in a tandem repeat
+        for (int seed = 0; seed < 200; seed++) {
+            Random r = new Random(seed);
+            String jl = randomJunctions(r, 2 + r.nextInt(6));
+
+            List<List<CortexJunctionsRecord>> cohorts = new ArrayList<>();
+            for (int c = 0; c < 1 + r.nextInt(4); c++) {
+                cohorts.add(Collections.singletonList(junctions(true, jl)));
+            }
+
+            compare(r, cohorts, true);
+        }
+    }
+
+    @Test
+    public void testMatchesLegacyLinkStore() {
+        for (int seed = 0; seed < 2000; seed++) {
+            Random r = new Random(seed);
+
+            List<List<CortexJunctionsRecord>> cohorts = new ArrayList<>();
+            for (int c = 0; c < 1 + r.nextInt(8); c++) {
+                String base = randomJunctions(r, 6 + r.nextInt(10));
+
+                List<CortexJunctionsRecord> cohort = new ArrayList<>();
+                for (int j = 0; j < 1 + r.nextInt(4); j++) {
+                    String jl = r.nextBoolean() ? base : base.substring(0, r.nextInt(base.length())) + randomJunctions(r, 1 + r.nextInt(6));
+                    cohort.add(junctions(r.nextBoolean(), jl));
+                }
+
+                cohorts.add(cohort);
+            }
+
+            compare(r, cohorts, r.nextBoolean());
+        }
+    }
+
+    private void compare(Random r, List<List<CortexJunctionsRecord>> cohorts, boolean goForward) {
+        LinkStore ls = new LinkStore();
+        LegacyLinkStore lls = new LegacyLinkStore();
+
+        Iterator<List<CortexJunctionsRecord>> it = cohorts.iterator();
+        for (int step = 0; step < 60 && (it.hasNext() || lls.isActive()); step++) {
+            if (it.hasNext() && (step == 0 || r.nextInt(3) == 0)) {
+                CortexLinksRecord clr = new CortexLinksRecord(KMER, it.next());
+                CortexByteKmer cur = new CortexByteKmer((r.nextBoolean() ? KMER : SequenceUtils.reverseComplement(KMER)).getBytes());
+
+                for (String source : SOURCES) {
+                    if (source.equals(SOURCES[0]) || r.nextBoolean()) {
+                        ls.add(cur, clr, goForward, source);
+                        lls.add(cur, clr, goForward, source);
+                    }
+                }
+            }
+
+            if (r.nextInt(3) > 0) {
+                Pair<String, Set<String>> expected = lls.getNextJunctionChoice();
+                Pair<String, Set<String>> actual = ls.getNextJunctionChoice();
+
+                Assert.assertEquals(actual.getFirst(), expected.getFirst());
+                Assert.assertEquals(actual.getSecond(), expected.getSecond());
+
+                ls.incrementAges();
+                lls.incrementAges();
+            }
+
+            Assert.assertEquals(ls.numNewPaths(), lls.numNewPaths());
+            if (lls.numNewPaths() > 0) {
+                ls.incrementAges();
+                lls.incrementAges();
+            }
+
+            Assert.assertEquals(ls.size(), lls.size());
+            Assert.assertEquals(ls.isActive(), lls.isActive());
+        }
+    }
+
+    private static CortexJunctionsRecord junctions(boolean isForward, String jl) {
+        return new CortexJunctionsRecord(isForward, -1, jl.length(), new int[] { 1 }, jl);
+    }
+
+    private static String randomJunctions(Random r, int length) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append("ACGT".charAt(r.nextInt(4)));
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * The original map-and-sort LinkStore, kept as the reference for the differential tests.
+     */
+    private static class LegacyLinkStore {
+        private Map<String, List<LegacyLinkStoreElement>> linkElements = new HashMap<>();
+
+        public void add(CortexByteKmer curKmer, CortexLinksRecord clr, boolean goForward, String linkSource) {
+            boolean recordOrientationMatchesKmer = clr.getKmerAsByteKmer().equals(curKmer);
+
+            List<CortexJunctionsRecord> junctions = new ArrayList<>();
+            junctions.addAll(clr.getJunctions());
+
+            for (CortexJunctionsRecord cjr : junctions) {
+                boolean linkGoesForward = recordOrientationMatchesKmer == cjr.isForward();
+                String junctionList = linkGoesForward ? cjr.getJunctions() : SequenceUtils.complement(cjr.getJunctions());
+
+                if (linkGoesForward == goForward) {
+                    if (!linkElements.containsKey(junctionList)) {
+                        linkElements.put(junctionList, new ArrayList<>());
+                    }
+
+                    linkElements.get(junctionList).add(new LegacyLinkStoreElement(junctionList, 0, 0, linkSource));
+                }
+            }
+        }
+
+        public void incrementAges() {
+            for (String junctionList : linkElements.keySet()) {
+                for (LegacyLinkStoreElement lse : linkElements.get(junctionList)) {
+                    lse.incrementAge();
+                }
+            }
+        }
+
+        public int numNewPaths() {
+            int numNewPaths = 0;
+            for (String junctionList : linkElements.keySet()) {
+                for (LegacyLinkStoreElement lse : linkElements.get(junctionList)) {
+                    if (lse.getAge() == 0) {
+                        numNewPaths++;
+                    }
+                }
+            }
+
+            return numNewPaths;
+        }
+
+        private void incrementPositionsAndExpire(String choice) {
+            Set<LegacyLinkStoreElement> toRemove = new HashSet<>();
+
+            List<LegacyLinkStoreElement> lses = new ArrayList<>();
+            for (String junctionList : linkElements.keySet()) {
+                lses.addAll(linkElements.get(junctionList));
+            }
+
+            lses.sort((o1, o2) -> {
+                if (o1.getAge() != o2.getAge()) { return o1.getAge() > o2.getAge() ? -1 : 1; }
+                if (o1.length() == o2.length()) { return o2.getJunctionList().compareTo(o1.getJunctionList()); }
+                return o1.length() < o2.length() ? -1 : 1;
+            });
+
+            for (LegacyLinkStoreElement lse : lses) {
+                int pos = lse.getPos();
+                String junctionList = lse.getJunctionList();
+
+                if (lse.getPos() + 1 >= junctionList.length() || !junctionList.substring(pos, pos + 1).equals(choice)) {
+                    toRemove.add(lse);
+                } else if (junctionList.substring(pos, pos + 1).equals(choice)) {
+                    lse.incrementPos();
+                }
+            }
+
+            for (LegacyLinkStoreElement lse : toRemove) {
+                linkElements.get(lse.getJunctionList()).remove(lse);
+
+                if (linkElements.get(lse.getJunctionList()).size() == 0) {
+                    linkElements.remove(lse.getJunctionList());
+                }
+            }
+        }
+
+        private String getOldestLink() {
+            int age = Integer.MIN_VALUE;
+
+            for (String junctionList : linkElements.keySet()) {
+                for (LegacyLinkStoreElement lse : linkElements.get(junctionList)) {
+                    if (lse.getAge() > age) {
+                        age = lse.getAge();
+                    }
+                }
+            }
+
+            Set<LegacyLinkStoreElement> oldestLinks = new LinkedHashSet<>();
+            for (String junctionList : linkElements.keySet()) {
+                for (LegacyLinkStoreElement lse : linkElements.get(junctionList)) {
+                    if (lse.getAge() == age) {
+                        oldestLinks.add(lse);
+                    }
+                }
+            }
+
+            Set<String> junctionChoices = new LinkedHashSet<>();
+            for (LegacyLinkStoreElement lse : oldestLinks) {
+                if (lse.getPos() + 1 <= lse.length()) {
+                    junctionChoices.add(lse.getJunctionList().substring(lse.getPos(), lse.getPos() + 1));
+                }
+            }
+
+            return junctionChoices.size() == 1 ? oldestLinks.iterator().next().getJunctionList() : null;
+        }
+
+        public Pair<String, Set<String>> getNextJunctionChoice() {
+            String junctionList = getOldestLink();
+            String choice = null;
+            Set<String> junctionSources = new TreeSet<>();
+
+            if (junctionList != null) {
+                for (LegacyLinkStoreElement lse : linkElements.get(junctionList)) {
+                    int pos = lse.getPos();
+
+                    choice = junctionList.substring(pos, pos + 1);
+
+                    for (String jl : linkElements.keySet()) {
+                        if (pos < jl.length() && jl.substring(pos, pos + 1).equals(choice)) {
+                            junctionSources.add(lse.getSource());
+                        }
+                    }
+                }
+
+                incrementPositionsAndExpire(choice);
+            }
+
+            return new Pair<>(choice, junctionSources);
+        }
+
+        public boolean isActive() {
+            return linkElements.size() > 0;
+        }
+
+        public int size() {
+            int numElements = 0;
+
+            for (String junctionList : linkElements.keySet()) {
+                numElements += linkElements.get(junctionList).size();
+            }
+
+            return numElements;
+        }
+    }
+
+    private static class LegacyLinkStoreElement {
+        private String junctionList;
+        private int age;
+        private int pos;
+        private String source;
+
+        public LegacyLinkStoreElement(String junctionList, int age, int pos, String source) {
+            this.junctionList = junctionList;
+            this.age = age;
+            this.pos = pos;
+            this.source = source;
+        }
+
+        public void incrementAge() { age++; }
+
+        public void incrementPos() { pos++; }
+
+        public boolean hasAgedOut() { return age >= junctionList.length(); }
+
+        public String getJunctionList() { return junctionList; }
+
+        public int getAge() { return age; }
+
+        public int getPos() { return pos; }
+
+        public String getSource() { return source; }
+
+        public int length() { return junctionList.length(); }
+    }
+}
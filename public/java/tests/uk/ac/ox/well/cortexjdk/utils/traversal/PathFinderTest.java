@@ -0,0 +1,140 @@
+package uk.ac.ox.well.cortexjdk.utils.traversal;
+
+import org.jgrapht.GraphPath;
+import org.jgrapht.alg.shortestpath.KShortestPaths;
+import org.jgrapht.graph.DefaultDirectedGraph;
+import org.jgrapht.graph.DefaultEdge;
+import org.jgrapht.graph.DirectedWeightedPseudograph;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import uk.ac.ox.well.cortexjdk.utils.kmer.CanonicalKmer;
+
+import java.util.*;
+
+public class PathFinderTest {
+    private DirectedWeightedPseudograph<CortexVertex, CortexEdge> g = new DirectedWeightedPseudograph<>(CortexEdge.class);
+    private Map<String, CortexVertex> vs = new HashMap<>();
+
+    private CortexVertex v(String name) {
+        return vs.computeIfAbsent(name, n -> {
+            CortexVertex cv = new CortexVertexFactory().bases(n).make();
+            g.addVertex(cv);
+            return cv;
+        });
+    }
+
+    private void chain(int color, String... names) {
+        for (int i = 0; i < names.length - 1; i++) {
+            CortexVertex s = v(names[i]);
+            CortexVertex t = v(names[i + 1]);
+
+            g.addEdge(s, t, new CortexEdge(s, t, color, 1.0));
+        }
+    }
+
+    private void buildGraph() {
+        // Three consecutive bubbles with alleles of different lengths, a cycle, a dead end and a second color
+        chain(0, "AAAAA", "AAAAC", "AAACG", "AACGT", "ACGTA");
+        chain(0, "AAAAA", "CCCCA", "ACGTA");
+        chain(0, "ACGTA", "CGTAC", "GTACG");
+        chain(0, "ACGTA", "GGGGA", "GGGGC", "GGGGT", "GTACG");
+        chain(0, "GTACG", "TACGG", "ACGGT", "TTTTT");
+        chain(0, "GTACG", "TTTTA", "TTTTT");
+        chain(0, "TACGG", "CATCA", "ATCAT", "TACGG");
+        chain(0, "CGTAC", "ACACA");
+        chain(1, "AAAAA", "TGTGT", "TTTTT");
+    }
+
+    private List<List<CortexVertex>> oldPaths(CortexVertex start, CortexVertex end, int color) {
+        DefaultDirectedGraph<CortexVertex, DefaultEdge> d = new DefaultDirectedGraph<>(DefaultEdge.class);
+        for (CortexEdge e : g.edgeSet()) {
+            if (e.getColor() == color) {
+                d.addVertex(g.getEdgeSource(e));
+                d.addVertex(g.getEdgeTarget(e));
+                d.addEdge(g.getEdgeSource(e), g.getEdgeTarget(e));
+            }
+        }
+
+        List<List<CortexVertex>> paths = new ArrayList<>();
+        for (GraphPath<CortexVertex, DefaultEdge> gp : new KShortestPaths<>(d, 100).getPaths(start, end)) {
+            paths.add(gp.getVertexList());
+        }
+
+        return paths;
+    }
+
+    private void assertValid(GraphPath<CortexVertex, CortexEdge> gp, CortexVertex start, CortexVertex end, int color) {
+        List<CortexVertex> vl = gp.getVertexList();
+
+        Assert.assertEquals(vl.get(0), start);
+        Assert.assertEquals(vl.get(vl.size() - 1), end);
+        Assert.assertEquals(new HashSet<>(vl).size(), vl.size());
+        Assert.assertEquals(gp.getEdgeList().size(), vl.size() - 1);
+        Assert.assertEquals(gp.getWeight(), (double) gp.getEdgeList().size());
+
+        for (int i = 0; i < gp.getEdgeList().size(); i++) {
+            CortexEdge e = gp.getEdgeList().get(i);
+
+            Assert.assertEquals(e.getColor(), color);
+            Assert.assertEquals(g.getEdgeSource(e), vl.get(i));
+            Assert.assertEquals(g.getEdgeTarget(e), vl.get(i + 1));
+        }
+    }
+
+    @Test
+    public void testPathsMatchKShortestPaths() {
+        buildGraph();
+
+        CortexVertex start = v("AAAAA");
+        CortexVertex end = v("TTTTT");
+
+        List<List<CortexVertex>> expected = oldPaths(start, end, 0);
+        List<GraphPath<CortexVertex, CortexEdge>> actual = new PathFinder(g, 0, 100, Integer.MAX_VALUE).getPaths(start, end);
+
+        Assert.assertEquals(actual.size(), 8);
+        Assert.assertEquals(actual.size(), expected.size());
+
+        Set<List<CortexVertex>> actualPaths = new HashSet<>();
+        for (int i = 0; i < actual.size(); i++) {
+            assertValid(actual.get(i), start, end, 0);
+
+            Assert.assertEquals(actual.get(i).getLength(), expected.get(i).size() - 1);
+            actualPaths.add(actual.get(i).getVertexList());
+        }
+
+        Assert.assertEquals(actualPaths, new HashSet<>(expected));
+
+        List<GraphPath<CortexVertex, CortexEdge>> other = new PathFinder(g, 1).getPaths(start, end);
+        Assert.assertEquals(other.size(), 1);
+        assertValid(other.get(0), start, end, 1);
+    }
+
+    @Test
+    public void testCutoffs() {
+        buildGraph();
+
+        CortexVertex start = v("AAAAA");
+        CortexVertex end = v("TTTTT");
+
+        List<GraphPath<CortexVertex, CortexEdge>> top = new PathFinder(g, 0, 3, Integer.MAX_VALUE).getPaths(start, end);
+        Assert.assertEquals(top.size(), 3);
+        Assert.assertEquals(top.get(0).getLength(), 6);
+
+        List<GraphPath<CortexVertex, CortexEdge>> bounded = new PathFinder(g, 0, 100, 8).getPaths(start, end);
+        for (GraphPath<CortexVertex, CortexEdge> gp : bounded) {
+            Assert.assertTrue(gp.getLength() <= 8);
+        }
+
+        int expected = 0;
+        for (List<CortexVertex> p : oldPaths(start, end, 0)) {
+            if (p.size() - 1 <= 8) {
+                expected++;
+            }
+        }
+        Assert.assertEquals(bounded.size(), expected);
+
+        Assert.assertTrue(new PathFinder(g, 0).getPaths(end, start).isEmpty());
+        Assert.assertTrue(new PathFinder(g, 0).getPaths(start, v("ACACA"), new CanonicalKmer("GGGGA"), true).isEmpty());
+        Assert.assertEquals(new PathFinder(g, 0).getPaths(start, v("ACACA"), new CanonicalKmer("GGGGA"), false).size(), 2);
+    }
+}
@@ -0,0 +1,224 @@
+package uk.ac.ox.well.cortexjdk.utils.traversal;
+
+import org.jgrapht.graph.DirectedWeightedPseudograph;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import uk.ac.ox.well.cortexjdk.utils.assembler.TempGraphAssembler;
+import uk.ac.ox.well.cortexjdk.utils.assembler.TempLinksAssembler;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexGraph;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.links.CortexLinks;
+import uk.ac.ox.well.cortexjdk.utils.stoppingrules.ContigStopper;
+import uk.ac.ox.well.cortexjdk.utils.stoppingrules.DestinationStopper;
+import uk.ac.ox.well.cortexjdk.utils.stoppingrules.ExplorationStopper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.function.Supplier;
+
+import static uk.ac.ox.well.cortexjdk.utils.traversal.TraversalEngineConfiguration.TraversalDirection.*;
+
+/**
+ * Golden outputs for TraversalEngine.dfs() on the traversal test fixtures.  Each scenario's subgraph is rendered
+ * as sorted vertex and edge lists and compared to testdata/traversal/<scenario>.txt, so changes to the traversal
+ * core can be checked for identical output.
+ */
+public class TraversalEngineGoldenTest {
+    static final String GOLDEN_DIR = "testdata/traversal";
+
+    @DataProvider(name = "scenarios")
+    public static Object[][] scenarios() {
+        Map<String, Supplier<String>> s = new LinkedHashMap<>();
+
+        Map<String, Collection<String>> trio = new LinkedHashMap<>();
+        trio.put("mom", Collections.singletonList("AGTTCTGATCTGGGCTATATGCT"));
+        trio.put("dad", Collections.singletonList("AGTTCGAATCTGGGCTATATGCT"));
+        trio.put("kid", Collections.singletonList("AGTTCTGATCTGGGCTATGGCTA"));
+        CortexGraph gt = TempGraphAssembler.buildGraph(trio, 5);
+
+        for (String sample : trio.keySet()) {
+            s.put("contig_" + sample, () -> render(new TraversalEngineFactory()
+                    .traversalColors(gt.getColorForSampleName(sample))
+                    .stoppingRule(ContigStopper.class)
+                    .graph(gt)
+                    .make()
+                    .dfs("CTGGG")));
+        }
+
+        s.put("secondary_colors", () -> render(new TraversalEngineFactory()
+                .traversalColors(gt.getColorForSampleName("mom"))
+                .secondaryColors(gt.getColorsForSampleNames(Arrays.asList("dad", "kid")))
+                .stoppingRule(ContigStopper.class)
+                .graph(gt)
+                .make()
+                .dfs("CTGGG")));
+
+        s.put("secondary_colors_explore", () -> render(new TraversalEngineFactory()
+                .traversalColors(gt.getColorForSampleName("kid"))
+                .secondaryColors(0, 1, 2)
+                .stoppingRule(ExplorationStopper.class)
+                .graph(gt)
+                .make()
+                .dfs("ATCTG")));
+
+        Map<String, Collection<String>> pooled = new LinkedHashMap<>();
+        pooled.put("all", Arrays.asList(trio.get("mom").iterator().next(), trio.get("dad").iterator().next(), trio.get("kid").iterator().next()));
+        CortexGraph gp = TempGraphAssembler.buildGraph(pooled, 5);
+
+        for (TraversalEngineConfiguration.TraversalDirection direction : Arrays.asList(FORWARD, REVERSE, BOTH)) {
+            s.put("explore_" + direction.name().toLowerCase(), () -> render(new TraversalEngineFactory()
+                    .traversalColors(0)
+                    .traversalDirection(direction)
+                    .stoppingRule(ExplorationStopper.class)
+                    .graph(gp)
+                    .make()
+                    .dfs("CTGGG")));
+        }
+
+        s.put("explore_neighbors", () -> render(new TraversalEngineFactory()
+                .traversalColors(0)
+                .connectAllNeighbors(true)
+                .stoppingRule(ExplorationStopper.class)
+                .graph(gp)
+                .make()
+                .dfs("ATCTG")));
+
+        s.put("destination", () -> render(new TraversalEngineFactory()
+                .traversalColors(0)
+                .traversalDirection(FORWARD)
+                .stoppingRule(DestinationStopper.class)
+                .graph(gp)
+                .make()
+                .dfs("AGTTC", "ATGCT", "TGGCT")));
+
+        Map<String, Collection<String>> recruit = new LinkedHashMap<>();
+        recruit.put("mom", Collections.singletonList("AGTTCTGATCTGGGCTATATGCT"));
+        recruit.put("dad", Collections.singletonList("AGTTCTGATCTGGGCTATATGCT"));
+        recruit.put("kid", Arrays.asList("AGTTCTG", "ATGGCTA"));
+        CortexGraph gr = TempGraphAssembler.buildGraph(recruit, 5);
+
+        s.put("recruitment", () -> render(new TraversalEngineFactory()
+                .traversalColors(gr.getColorForSampleName("kid"))
+                .recruitmentColors(gr.getColorsForSampleNames(Arrays.asList("mom", "dad")))
+                .combinationOperator(TraversalEngineConfiguration.GraphCombinationOperator.AND)
+                .stoppingRule(ContigStopper.class)
+                .graph(gr)
+                .make()
+                .dfs("GTTCT")));
+
+        Map<String, Collection<String>> cycle = new LinkedHashMap<>();
+        cycle.put("test", Collections.singletonList("ACTGATTTCGATGCGATGCGATGCCACGGTGG"));
+        Map<String, Collection<String>> cycleReads = new LinkedHashMap<>();
+        cycleReads.put("test", Collections.singletonList("TTTCGATGCGATGCGATGCCACG"));
+        CortexGraph gc = TempGraphAssembler.buildGraph(cycle, 5);
+        CortexLinks lc = TempLinksAssembler.buildLinks(gc, cycleReads, "test");
+
+        s.put("cycle_without_links", () -> render(new TraversalEngineFactory()
+                .traversalColors(0)
+                .stoppingRule(ContigStopper.class)
+                .graph(gc)
+                .make()
+                .dfs("ACTGA")));
+
+        s.put("cycle_with_links", () -> render(new TraversalEngineFactory()
+                .traversalColors(0)
+                .stoppingRule(ContigStopper.class)
+                .graph(gc)
+                .links(lc)
+                .make()
+                .dfs("ACTGA")));
+
+        s.put("cycle_explore", () -> render(new TraversalEngineFactory()
+                .traversalColors(0)
+                .stoppingRule(ExplorationStopper.class)
+                .graph(gc)
+                .make()
+                .dfs("ACTGA")));
+
+        String hap = "GTGTGCTAGGTCTATAGTTATAGGCGCGTCTCCGCAAAAATCGT";
+        Map<String, Collection<String>> single = new LinkedHashMap<>();
+        single.put("mom", Collections.singletonList(hap));
+        CortexGraph gs = TempGraphAssembler.buildGraph(single, 5);
+        CortexLinks ls = TempLinksAssembler.buildLinks(gs, single, "mom");
+
+        s.put("source_to_sink_with_links", () -> render(new TraversalEngineFactory()
+                .traversalColors(0)
+                .graph(gs)
+                .links(ls)
+                .make()
+                .dfs(hap.substring(0, 5), hap.substring(hap.length() - 5))));
+
+        Random r = new Random(0);
+        StringBuilder repeat = new StringBuilder();
+        for (int i = 0; i < 400; i++) {
+            repeat.append("ACGT".charAt(r.nextInt(4)));
+        }
+        Map<String, Collection<String>> repetitive = new LinkedHashMap<>();
+        repetitive.put("rep", Collections.singletonList(repeat.toString()));
+        CortexGraph gx = TempGraphAssembler.buildGraph(repetitive, 5);
+
+        for (int i = 0; i < 3; i++) {
+            String seed = repeat.substring(100*i, 100*i + 5);
+
+            s.put("repetitive_explore_" + i, () -> render(new TraversalEngineFactory()
+                    .traversalColors(0)
+                    .stoppingRule(ExplorationStopper.class)
+                    .graph(gx)
+                    .make()
+                    .dfs(seed)));
+
+            s.put("repetitive_contig_" + i, () -> render(new TraversalEngineFactory()
+                    .traversalColors(0)
+                    .stoppingRule(ContigStopper.class)
+                    .graph(gx)
+                    .make()
+                    .dfs(seed)));
+        }
+
+        Object[][] scenarios = new Object[s.size()][2];
+        int i = 0;
+        for (String name : s.keySet()) {
+            scenarios[i][0] = name;
+            scenarios[i][1] = s.get(name);
+            i++;
+        }
+
+        return scenarios;
+    }
+
+    static String render(DirectedWeightedPseudograph<CortexVertex, CortexEdge> g) {
+        if (g == null) {
+            return "null\n";
+        }
+
+        List<String> vertices = new ArrayList<>();
+        for (CortexVertex v : g.vertexSet()) {
+            vertices.add("V " + v.getKmerAsString() + " " + v.getCopyIndex() + " " + v.getIndex());
+        }
+        Collections.sort(vertices);
+
+        List<String> edges = new ArrayList<>();
+        for (CortexEdge e : g.edgeSet()) {
+            CortexVertex s = g.getEdgeSource(e);
+            CortexVertex t = g.getEdgeTarget(e);
+
+            edges.add("E " + s.getKmerAsString() + "/" + s.getCopyIndex() + " " + t.getKmerAsString() + "/" + t.getCopyIndex() + " " + e.getColor() + " " + e.getWeight());
+        }
+        Collections.sort(edges);
+
+        StringBuilder sb = new StringBuilder();
+        for (String line : vertices) { sb.append(line).append("\n"); }
+        for (String line : edges) { sb.append(line).append("\n"); }
+
+        return sb.toString();
+    }
+
+    @Test(dataProvider = "scenarios")
+    public void testTraversalMatchesGolden(String name, Supplier<String> scenario) throws IOException {
+        String expected = new String(Files.readAllBytes(Paths.get(GOLDEN_DIR, name + ".txt")));
+
+        Assert.assertEquals(scenario.get(), expected, "Traversal output differs from golden file for scenario '" + name + "'");
+    }
+}
@@ -9,13 +9,19 @@ import uk.ac.ox.well.cortexjdk.utils.assembler.TempLinksAssembler;
 import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexGraph;
 import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexRecord;
 import uk.ac.ox.well.cortexjdk.utils.io.graph.links.CortexLinks;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.links.CortexLinksIterable;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.links.CortexLinksMerger;
+import uk.ac.ox.well.cortexjdk.utils.kmer.CortexByteKmer;
 import uk.ac.ox.well.cortexjdk.utils.stoppingrules.ContigStopper;
 import uk.ac.ox.well.cortexjdk.utils.stoppingrules.DestinationStopper;
 import uk.ac.ox.well.cortexjdk.utils.stoppingrules.ExplorationStopper;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
 
 import static uk.ac.ox.well.cortexjdk.utils.traversal.TraversalEngineConfiguration.TraversalDirection.BOTH;
+import static uk.ac.ox.well.cortexjdk.utils.traversal.TraversalEngineConfiguration.TraversalDirection.FORWARD;
 
 /**
  * Created by kiran on 10/05/2017.
@@ -249,6 +255,123 @@ public class TraversalEngineTest {
         Assert.assertEquals(contig, "ACTGATTTCGATGCGATGCGATGCCACGGTGG");
     }
 
+    @Test
+    public void testMetrics() {
+        Map<String, Collection<String>> haplotypes = new LinkedHashMap<>();
+        haplotypes.put("test", Collections.singletonList("ACTGATTTCGATGCGATGCGATGCCACGGTGG"));
+
+        Map<String, Collection<String>> reads = new LinkedHashMap<>();
+        reads.put("test", Collections.singletonList("TTTCGATGCGATGCGATGCCACG"));
+
+        CortexGraph g = TempGraphAssembler.buildGraph(haplotypes, 5);
+        CortexLinks l = TempLinksAssembler.buildLinks(g, reads, "test");
+
+        for (List<CortexLinks> links : Arrays.asList(Collections.<CortexLinks>emptyList(), Collections.singletonList(l))) {
+            TraversalEngine e = new TraversalEngineFactory()
+                    .traversalColors(g.getColorForSampleName("test"))
+                    .stoppingRule(ContigStopper.class)
+                    .graph(g)
+                    .links(links)
+                    .make();
+
+            TraversalMetrics m = e.getMetrics();
+            m.setTimed(true);
+            m.reset();
+
+            int numKmers = e.walk("ACTGA").size();
+            m.flush();
+
+            Assert.assertEquals(m.getNumSeeds(), 1);
+            Assert.assertTrue(m.getNumFindRecordCalls() >= numKmers);
+            Assert.assertTrue(m.getNumKmersWalked() >= numKmers - 1);
+            Assert.assertTrue(m.getTotalNanos() > 0);
+            Assert.assertEquals(m.getStopReasons().get("deadEnd"), Long.valueOf(links.isEmpty() ? 1 : 2));
+
+            if (links.isEmpty()) {
+                Assert.assertEquals(m.getStopReasons().get("stoppingRule"), Long.valueOf(1));
+                Assert.assertEquals(m.getNumLinkLookups(), 0);
+            } else {
+                Assert.assertTrue(m.getNumLinkRecords() > 0);
+                Assert.assertTrue(m.getNumLinksAdded() > 0);
+                Assert.assertTrue(m.getNumJunctionChoices() > 0);
+            }
+
+            m.reset();
+            Assert.assertEquals(m.getNumFindRecordCalls(), 0);
+            Assert.assertTrue(m.getStopReasons().isEmpty());
+        }
+    }
+
+    @Test
+    public void testBudget() {
+        Map<String, Collection<String>> haplotypes = new LinkedHashMap<>();
+        haplotypes.put("all", Arrays.asList("AGTTCTGATCTGGGCTATATGCT", "AGTTCGAATCTGGGCTATATGCT", "AGTTCTGATCTGGGCTATGGCTA"));
+
+        CortexGraph g = TempGraphAssembler.buildGraph(haplotypes, 5);
+
+        TraversalEngine unlimited = new TraversalEngineFactory()
+                .traversalColors(0)
+                .stoppingRule(ExplorationStopper.class)
+                .graph(g)
+                .make();
+
+        DirectedWeightedPseudograph<CortexVertex, CortexEdge> full = unlimited.dfs("CTGGG");
+        Assert.assertNull(unlimited.getBudgetLimit());
+        Assert.assertEquals(unlimited.getMetrics().getNumBudgetLimited(), 0);
+
+        // A budget built with no limits set behaves like UNLIMITED, not just the shared instance
+        TraversalEngine noLimits = new TraversalEngineFactory()
+                .traversalColors(0)
+                .stoppingRule(ExplorationStopper.class)
+                .budget(new TraversalBudget(0, 0, 0, 0))
+                .graph(g)
+                .make();
+
+        Assert.assertEquals(noLimits.dfs("CTGGG").vertexSet(), full.vertexSet());
+        Assert.assertNull(noLimits.getBudgetLimit());
+        Assert.assertEquals(noLimits.getMetrics().getNumBudgetLimited(), 0);
+
+        TraversalEngine byVertices = new TraversalEngineFactory()
+                .traversalColors(0)
+                .stoppingRule(ExplorationStopper.class)
+                .budget(new TraversalBudget(0, 5, 0, 0))
+                .graph(g)
+                .make();
+
+        DirectedWeightedPseudograph<CortexVertex, CortexEdge> partial = byVertices.dfs("CTGGG");
+        Assert.assertEquals(byVertices.getBudgetLimit(), TraversalBudget.Limit.VERTICES);
+        Assert.assertEquals(byVertices.getMetrics().getNumBudgetLimited(), 1);
+        Assert.assertTrue(byVertices.getMetrics().getStopReasons().containsKey("budget"));
+        Assert.assertNotNull(partial);
+        Assert.assertTrue(partial.vertexSet().size() < full.vertexSet().size());
+        Assert.assertTrue(full.vertexSet().containsAll(partial.vertexSet()));
+
+        TraversalEngine byBranches = new TraversalEngineFactory()
+                .traversalColors(0)
+                .stoppingRule(ExplorationStopper.class)
+                .budget(new TraversalBudget(0, 0, 1, 0))
+                .graph(g)
+                .make();
+
+        Assert.assertNotNull(byBranches.dfs("CTGGG"));
+        Assert.assertEquals(byBranches.getBudgetLimit(), TraversalBudget.Limit.BRANCHES);
+
+        // A traversal within budget clears the limit left by the previous one
+        Assert.assertNotNull(byBranches.dfs("AGTTC"));
+        Assert.assertNotNull(byBranches.bridge("AGTTC", "CTGGG"));
+        Assert.assertNull(byBranches.getBudgetLimit());
+
+        TraversalEngine byBytes = new TraversalEngineFactory()
+                .traversalColors(0)
+                .traversalDirection(FORWARD)
+                .budget(new TraversalBudget(0, 0, 0, 1))
+                .graph(g)
+                .make();
+
+        Assert.assertNull(byBytes.bridge("AGTTC", "ATGCT"));
+        Assert.assertEquals(byBytes.getBudgetLimit(), TraversalBudget.Limit.BYTES);
+    }
+
     @Test
     public void iterateFwdWithoutPathInformation() {
         Map<String, Collection<String>> haplotypes = new LinkedHashMap<>();
@@ -408,4 +531,155 @@ public class TraversalEngineTest {
 
         Assert.assertEquals(contig, haplotypes.get("mom").iterator().next());
     }
+
+    @Test
+    public void testWalkBasesMatchesWalk() {
+        Map<String, Collection<String>> haplotypes = new LinkedHashMap<>();
+        haplotypes.put("mom", Arrays.asList("ACTGATTTCGATGCGATGCGATGCCACGGTGG", "AGTTCTGATCTGGGCTATATGCT", "AGTTCGAATCTGGGCTATATGCT"));
+
+        CortexGraph g = TempGraphAssembler.buildGraph(haplotypes, 5);
+        CortexLinks l = TempLinksAssembler.buildLinks(g, haplotypes, "mom");
+
+        for (List<CortexLinks> links : Arrays.asList(Collections.<CortexLinks>emptyList(), Collections.singletonList(l))) {
+            TraversalEngine e = new TraversalEngineFactory()
+                    .traversalColors(0)
+                    .stoppingRule(ContigStopper.class)
+                    .graph(g)
+                    .links(links)
+                    .make();
+
+            for (CortexRecord cr : g) {
+                String seed = cr.getKmerAsString();
+
+                Assert.assertEquals(e.walkBases(seed), TraversalUtils.toContig(e.walk(seed)), seed);
+            }
+        }
+    }
+
+    @Test
+    public void testBridgeMatchesDestinationSearch() {
+        Map<String, Collection<String>> haplotypes = new LinkedHashMap<>();
+        haplotypes.put("all", Arrays.asList("AGTTCTGATCTGGGCTATATGCT", "AGTTCGAATCTGGGCTATATGCT", "AGTTCTGATCTGGGCTATGGCTA", "AGTTCTGATCTGCTATATGCT"));
+
+        CortexGraph g = TempGraphAssembler.buildGraph(haplotypes, 5);
+
+        TraversalEngine e = new TraversalEngineFactory()
+                .traversalColors(0)
+                .traversalDirection(FORWARD)
+                .stoppingRule(DestinationStopper.class)
+                .graph(g)
+                .make();
+
+        DirectedWeightedPseudograph<CortexVertex, CortexEdge> expected = e.dfs("AGTTC", "ATGCT");
+        DirectedWeightedPseudograph<CortexVertex, CortexEdge> actual = e.bridge("AGTTC", "ATGCT");
+
+        Assert.assertNotNull(actual);
+        Assert.assertEquals(TraversalEngineGoldenTest.render(actual), TraversalEngineGoldenTest.render(expected));
+
+        // Without slack, only the shortest paths (through the deletion) are kept
+        Assert.assertNotNull(TraversalUtils.findVertex(actual, "GGGCT"));
+        Assert.assertNull(TraversalUtils.findVertex(e.bridge("AGTTC", "ATGCT", 0), "GGGCT"));
+        Assert.assertNotNull(TraversalUtils.findVertex(e.bridge("AGTTC", "ATGCT", 0), "TCTGC"));
+
+        Assert.assertNull(e.bridge("ATGCT", "AGTTC"));
+    }
+
+    @Test
+    public void testDfsReindexesEveryVertexOnce() {
+        Map<String, Collection<String>> haplotypes = new LinkedHashMap<>();
+        haplotypes.put("all", Arrays.asList("AGTTCTGATCTGGGCTATATGCT", "AGTTCGAATCTGGGCTATATGCT", "AGTTCTGATCTGGGCTATGGCTA"));
+        CortexGraph g = TempGraphAssembler.buildGraph(haplotypes, 5);
+
+        DirectedWeightedPseudograph<CortexVertex, CortexEdge> dfs = new TraversalEngineFactory()
+                .traversalColors(0)
+                .traversalDirection(TraversalEngineConfiguration.TraversalDirection.FORWARD)
+                .stoppingRule(DestinationStopper.class)
+                .graph(g)
+                .make()
+                .dfs("AGTTC", "ATGCT", "TGGCT");
+
+        // Every vertex reached going forward gets index 1, and no un-indexed copy of it is left behind on its edges
+        Set<String> kmers = new HashSet<>();
+        for (CortexVertex v : dfs.vertexSet()) {
+            Assert.assertTrue(kmers.add(v.getKmerAsString()), "Duplicate vertex " + v);
+            Assert.assertEquals(v.getIndex(), v.getKmerAsString().equals("AGTTC") ? 0 : 1);
+        }
+
+        for (CortexEdge e : dfs.edgeSet()) {
+            Assert.assertTrue(dfs.getEdgeSource(e).getIndex() != 0 || dfs.getEdgeSource(e).getKmerAsString().equals("AGTTC"));
+            Assert.assertEquals(dfs.getEdgeTarget(e).getIndex(), 1);
+        }
+    }
+
+    @Test
+    public void testAdjacentKmersSkipRecordLookups() {
+        Map<String, Collection<String>> haplotypes = new LinkedHashMap<>();
+        haplotypes.put("all", Arrays.asList("AGTTCTGATCTGGGCTATATGCT", "AGTTCGAATCTGGGCTATATGCT"));
+        CortexGraph g = TempGraphAssembler.buildGraph(haplotypes, 5);
+
+        TraversalEngine e = new TraversalEngineFactory()
+                .traversalColors(0)
+                .graph(g)
+                .make();
+
+        CortexByteKmer sk = new CortexByteKmer("AGTTC");
+
+        long calls = e.getMetrics().getNumFindRecordCalls();
+        Set<CortexByteKmer> nextKmers = new HashSet<>(e.getNextKmers(sk));
+        Assert.assertEquals(e.getMetrics().getNumFindRecordCalls() - calls, 1);
+
+        Set<CortexByteKmer> expected = new HashSet<>();
+        for (CortexVertex cv : e.getNextVertices(sk)) {
+            expected.add(cv.getKmerAsByteKmer());
+        }
+
+        Assert.assertEquals(nextKmers, expected);
+        Assert.assertEquals(nextKmers, new HashSet<>(Arrays.asList(new CortexByteKmer("GTTCT"), new CortexByteKmer("GTTCG"))));
+        Assert.assertTrue(e.getPrevKmers(sk).isEmpty());
+    }
+
+    @Test
+    public void testMergedLinksMatchPerSampleLinks() throws IOException {
+        Map<String, Collection<String>> haplotypes = new LinkedHashMap<>();
+        haplotypes.put("mom", Collections.singletonList("ACTGATTTCGATGCGATGCGATGCCACGGTGG"));
+        haplotypes.put("dad", Collections.singletonList("ACTGATTTCGATGCTATGCGATGCAACGGTGG"));
+
+        CortexGraph g = TempGraphAssembler.buildGraph(haplotypes, 5);
+
+        File merged = File.createTempFile("merged", ".ctp.bgz");
+        merged.deleteOnExit();
+        new File(merged.getAbsolutePath() + ".idx").deleteOnExit();
+
+        Map<String, CortexLinks> perSample = new LinkedHashMap<>();
+        CortexLinksMerger clm = new CortexLinksMerger(merged, 1, 1000);
+        for (String sample : haplotypes.keySet()) {
+            CortexLinks l = TempLinksAssembler.buildLinks(g, haplotypes, sample);
+            perSample.put(sample, l);
+            clm.add(new CortexLinksIterable(l.getFile()), "unknown");
+        }
+        clm.merge();
+
+        CortexLinks ml = new CortexLinks(merged);
+
+        for (String sample : haplotypes.keySet()) {
+            TraversalEngine es = new TraversalEngineFactory()
+                    .traversalColors(g.getColorForSampleName(sample))
+                    .stoppingRule(ContigStopper.class)
+                    .graph(g)
+                    .links(perSample.values())
+                    .make();
+
+            TraversalEngine em = new TraversalEngineFactory()
+                    .traversalColors(g.getColorForSampleName(sample))
+                    .stoppingRule(ContigStopper.class)
+                    .graph(g)
+                    .links(ml)
+                    .make();
+
+            String contig = TraversalUtils.toContig(em.walk("ACTGA"));
+
+            Assert.assertEquals(contig, TraversalUtils.toContig(es.walk("ACTGA")));
+            Assert.assertEquals(contig, haplotypes.get(sample).iterator().next());
+        }
+    }
 }
@@ -0,0 +1,104 @@
+package uk.ac.ox.well.cortexjdk.utils.traversal;
+
+import org.apache.commons.math3.util.Pair;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import uk.ac.ox.well.cortexjdk.utils.assembler.TempGraphAssembler;
+import uk.ac.ox.well.cortexjdk.utils.assembler.TempLinksAssembler;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.DeBruijnGraph;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexCollection;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexGraph;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexRecord;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.links.CortexLinks;
+import uk.ac.ox.well.cortexjdk.utils.stoppingrules.ExplorationStopper;
+
+import java.util.*;
+
+public class TraversalExecutorTest {
+    @Test
+    public void testParallelTraversalsMatchSequential() {
+        Map<String, Collection<String>> haplotypes = new LinkedHashMap<>();
+        haplotypes.put("mom", Arrays.asList("ACTGATTTCGATGCGATGCGATGCCACGGTGG", "AGTTCTGATCTGGGCTATATGCT", "AGTTCGAATCTGGGCTATATGCT"));
+
+        CortexGraph g = TempGraphAssembler.buildGraph(haplotypes, 5);
+        CortexLinks l = TempLinksAssembler.buildLinks(g, haplotypes, "mom");
+
+        TraversalEngineConfiguration ec = new TraversalEngineFactory()
+                .traversalColors(0)
+                .stoppingRule(ExplorationStopper.class)
+                .graph(g)
+                .links(l)
+                .make()
+                .getConfiguration();
+
+        List<String> seeds = new ArrayList<>();
+        for (CortexRecord cr : g) {
+            seeds.add(cr.getKmerAsString());
+        }
+
+        TraversalExecutor.TraversalJob<String, String> job = (e, seed) -> TraversalEngineGoldenTest.render(e.dfs(seed));
+
+        TraversalExecutor sequential = new TraversalExecutor(ec, 1);
+        List<String> expected = sequential.map(seeds, job);
+        sequential.close();
+
+        TraversalExecutor parallel = new TraversalExecutor(ec, 4);
+        Assert.assertEquals(parallel.map(seeds, job), expected);
+
+        Map<String, String> unordered = new HashMap<>();
+        Iterator<Pair<String, String>> it = parallel.unordered(seeds.iterator(), job);
+        while (it.hasNext()) {
+            Pair<String, String> p = it.next();
+            unordered.put(p.getFirst(), p.getSecond());
+        }
+        parallel.close();
+
+        Assert.assertEquals(unordered.size(), seeds.size());
+        for (int i = 0; i < seeds.size(); i++) {
+            Assert.assertEquals(unordered.get(seeds.get(i)), expected.get(i));
+        }
+    }
+
+    @Test
+    public void testWorkersKeepEveryColorOfACollection() {
+        Map<String, Collection<String>> haplotypes = new LinkedHashMap<>();
+        haplotypes.put("mom", Arrays.asList("AGTTCTGATCTGGGCTATATGCT"));
+        haplotypes.put("dad", Arrays.asList("AGTTCGAATCTGGGCTATATGCT"));
+
+        CortexGraph g = TempGraphAssembler.buildGraph(haplotypes, 5);
+
+        // The same file twice gives two blocks of colors
+        CortexCollection cc = new CortexCollection(g, new CortexGraph(g.getFile()));
+        Assert.assertEquals(cc.getNumColors(), 4);
+
+        TraversalEngineConfiguration ec = new TraversalEngineFactory()
+                .traversalColors(3)
+                .stoppingRule(ExplorationStopper.class)
+                .graph(cc)
+                .make()
+                .getConfiguration();
+
+        TraversalExecutor.TraversalJob<String, String> job = (e, seed) -> {
+            DeBruijnGraph wg = e.getConfiguration().getGraph();
+
+            List<String> colors = new ArrayList<>();
+            for (int c = 0; c < wg.getNumColors(); c++) {
+                colors.add(wg.getSampleName(c));
+            }
+
+            return colors + " " + TraversalEngineGoldenTest.render(e.dfs(seed));
+        };
+
+        List<String> seeds = Arrays.asList("AGTTC", "TCGAA", "CTGAT", "ATGCT");
+
+        TraversalExecutor sequential = new TraversalExecutor(ec, 1);
+        List<String> expected = sequential.map(seeds, job);
+        sequential.close();
+
+        Assert.assertTrue(expected.get(0).startsWith("[mom, dad, mom, dad] "));
+
+        TraversalExecutor parallel = new TraversalExecutor(ec, 4);
+        Assert.assertEquals(parallel.map(seeds, job), expected);
+        parallel.close();
+    }
+}
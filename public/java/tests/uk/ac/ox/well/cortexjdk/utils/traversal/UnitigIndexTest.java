@@ -0,0 +1,117 @@
+package uk.ac.ox.well.cortexjdk.utils.traversal;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import uk.ac.ox.well.cortexjdk.utils.assembler.TempGraphAssembler;
+import uk.ac.ox.well.cortexjdk.utils.exceptions.CortexJDKException;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexGraph;
+import uk.ac.ox.well.cortexjdk.utils.io.graph.cortex.CortexRecord;
+import uk.ac.ox.well.cortexjdk.utils.sequence.SequenceUtils;
+import uk.ac.ox.well.cortexjdk.utils.stoppingrules.ContigStopper;
+import uk.ac.ox.well.cortexjdk.utils.stoppingrules.DestinationStopper;
+import uk.ac.ox.well.cortexjdk.utils.stoppingrules.ExplorationStopper;
+import uk.ac.ox.well.cortexjdk.utils.stoppingrules.NovelKmerLimitedContigStopper;
+import uk.ac.ox.well.cortexjdk.utils.stoppingrules.TraversalStoppingRule;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+public class UnitigIndexTest {
+    private static final String MOM = "ACTGATTTCGATGCGATGCGATGCCACGGTGGATCCGTTAGCAAGTCTGATCTGGGCTATATGCTTGACCAGTA";
+    private static final String DAD = "ACTGATTTCGATGCGATGCGATGCCACGGTGGATCCGTTAGCAAGTCGAATCTGGGCTATATGCTTGACCAGTA";
+    private static final String KID = "ACTGATTTCGATGCGATGCGATGCCACGGTGGATCCGTTAGCAAGTCTGATCTGGGCTATGGCTATTCACGGA";
+
+    @Test
+    public void testUnitigsCoverGraph() throws IOException {
+        CortexGraph g = buildGraph();
+        UnitigIndex ui = UnitigIndex.build(g, Collections.singleton(0));
+
+        Set<String> kmers = new HashSet<>();
+        for (int id = 0; id < ui.size(); id++) {
+            String seq = ui.getSequence(id);
+
+            Assert.assertEquals(ui.getFirstKmer(id), seq.substring(0, g.getKmerSize()));
+            Assert.assertEquals(ui.getLastKmer(id), seq.substring(seq.length() - g.getKmerSize()));
+            Assert.assertEquals(ui.getJump(ui.getFirstKmer(id), true), seq);
+            Assert.assertEquals(ui.getJump(SequenceUtils.reverseComplement(ui.getFirstKmer(id)), false), SequenceUtils.reverseComplement(seq));
+
+            for (int i = 0; i < ui.getNumKmers(id); i++) {
+                Assert.assertTrue(kmers.add(SequenceUtils.alphanumericallyLowestOrientation(seq.substring(i, i + g.getKmerSize()))));
+            }
+        }
+
+        Set<String> graphKmers = new HashSet<>();
+        for (CortexRecord cr : g) {
+            graphKmers.add(cr.getKmerAsString());
+        }
+
+        Assert.assertEquals(kmers, graphKmers);
+
+        File f = File.createTempFile("unitigs", ".txt");
+        f.deleteOnExit();
+        ui.write(f);
+
+        UnitigIndex loaded = new UnitigIndex(f);
+        Assert.assertEquals(loaded.getKmerSize(), ui.getKmerSize());
+        Assert.assertEquals(loaded.getColors(), ui.getColors());
+        Assert.assertEquals(loaded.size(), ui.size());
+        for (int id = 0; id < ui.size(); id++) {
+            Assert.assertEquals(loaded.getSequence(id), ui.getSequence(id));
+            Assert.assertEquals(loaded.getMeanCoverage(id, 0), ui.getMeanCoverage(id, 0), 0.01);
+        }
+    }
+
+    @Test
+    public void testJumpsMatchKmerByKmerTraversal() {
+        CortexGraph g = buildGraph();
+        UnitigIndex ui = UnitigIndex.build(g, Collections.singleton(0));
+
+        List<Class<? extends TraversalStoppingRule<CortexVertex, CortexEdge>>> stoppers = Arrays.asList(ContigStopper.class, ExplorationStopper.class);
+        for (Class<? extends TraversalStoppingRule<CortexVertex, CortexEdge>> stopper : stoppers) {
+            for (int maxBranchLength : Arrays.asList(75000, 20)) {
+                for (CortexRecord cr : g) {
+                    String seed = cr.getKmerAsString();
+
+                    String expected = TraversalEngineGoldenTest.render(engine(g, null, stopper, maxBranchLength).dfs(seed));
+                    String actual = TraversalEngineGoldenTest.render(engine(g, ui, stopper, maxBranchLength).dfs(seed));
+
+                    Assert.assertEquals(actual, expected, stopper.getSimpleName() + " from " + seed);
+                }
+            }
+        }
+
+        String source = MOM.substring(0, g.getKmerSize());
+        String[] sinks = { MOM.substring(MOM.length() - g.getKmerSize()), KID.substring(KID.length() - g.getKmerSize()), MOM.substring(30, 30 + g.getKmerSize()) };
+
+        Assert.assertEquals(
+                TraversalEngineGoldenTest.render(engine(g, ui, DestinationStopper.class, 75000).dfs(source, sinks)),
+                TraversalEngineGoldenTest.render(engine(g, null, DestinationStopper.class, 75000).dfs(source, sinks))
+        );
+    }
+
+    @Test(expectedExceptions = CortexJDKException.class)
+    public void testJumpsAreRefusedForStatefulStoppingRules() {
+        CortexGraph g = buildGraph();
+        UnitigIndex ui = UnitigIndex.build(g, Collections.singleton(0));
+
+        engine(g, ui, NovelKmerLimitedContigStopper.class, 75000).dfs(MOM.substring(0, g.getKmerSize()));
+    }
+
+    private CortexGraph buildGraph() {
+        Map<String, Collection<String>> haplotypes = new LinkedHashMap<>();
+        haplotypes.put("all", Arrays.asList(MOM, DAD, KID));
+
+        return TempGraphAssembler.buildGraph(haplotypes, 7);
+    }
+
+    private TraversalEngine engine(CortexGraph g, UnitigIndex ui, Class<? extends TraversalStoppingRule<CortexVertex, CortexEdge>> stopper, int maxBranchLength) {
+        return new TraversalEngineFactory()
+                .traversalColors(0)
+                .stoppingRule(stopper)
+                .maxBranchLength(maxBranchLength)
+                .graph(g)
+                .unitigs(ui)
+                .make();
+    }
+}